@@ -80,6 +80,24 @@ public class MahalanobisDistance {
     }
 
 
+    /**
+     * Returns a matrix W such that the Mahalanobis distance between two points x and y equals the Euclidean distance
+     * between Wx and Wy, so that points can be indexed for nearest neighbour searches (see DonorTree)
+     **/
+    public double[][] getWhiteningTransform() {
+
+        // covarianceInverse = V D V', so that W = D^(1/2) V' (negative eigenvalues are numerical noise of a singular covariance)
+        EigenDecomposition decomposition = new EigenDecomposition(covarianceInverse);
+        int dimension = covarianceInverse.getColumnDimension();
+        double[][] transform = new double[dimension][];
+        for (int ii = 0; ii < dimension; ii++) {
+            double scale = FastMath.sqrt(FastMath.max(0.0, decomposition.getRealEigenvalue(ii)));
+            transform[ii] = decomposition.getEigenvector(ii).mapMultiply(scale).toArray();
+        }
+        return transform;
+    }
+
+
     // Calculate the mean vector for each column in the RealMatrix
     private RealVector calculateColumnMeans(RealMatrix matrix) {
         int numColumns = matrix.getColumnDimension();
@@ -22,7 +22,9 @@ import org.apache.commons.math3.util.Pair;
 import org.apache.poi.openxml4j.util.ZipSecureFile;
 import simpaths.model.decisions.Grids;
 import simpaths.model.lifetime_incomes.EquivalisedIncomeCDF;
+import simpaths.model.taxes.DonorIndex;
 import simpaths.model.taxes.DonorTaxUnit;
+import simpaths.model.taxes.ImputationCache;
 import simpaths.model.taxes.MatchFeature;
 import simpaths.model.taxes.database.TaxDonorDataParser;
 
@@ -202,6 +204,9 @@ public class Parameters {
     private static Map<MatchFeature, Map<Integer, Integer>> taxdbCounter = new HashMap<MatchFeature, Map<Integer, Integer>>();			// records, for each of the three donor keys (first Integer), the increments (second Integer) associated with one unit change in characteristic (String).  The properties of taxdbCounter are specific to the KeyFunction used (and are populated by the associated function)
     private static List<DonorTaxUnit> donorPool;													// list of donors for tax imputation, in ascending order by private (original) income
     private static Map<Triple<Integer,Integer,Integer>,List<Integer>> taxdbReferences = new HashMap<>();	    // for Triple <system year, matching regime, regime index> returns a list of indices to donorPool that describes members of grouping, in ascending order by private income
+    private static DonorIndex donorIndex;                                                           // donorPool and taxdbReferences compiled for imputation
+    private static ImputationCache imputationCache;                                                 // memoised donor searches (null if not memoised)
+    private static boolean donorTreeSearch = false;                                                 // search nearest neighbours on multiple matching features with DonorTree
     private static MahalanobisDistance mdDualIncome;
     private static MahalanobisDistance mdChildcare;
     private static MahalanobisDistance mdDualIncomeChildcare;
@@ -3064,6 +3069,24 @@ public class Parameters {
     public static void setDonorPool(List<DonorTaxUnit> list) {
         donorPool = list;
     }
+    public static DonorIndex getDonorIndex() {
+        return donorIndex;
+    }
+    public static void setDonorIndex(DonorIndex index) {
+        donorIndex = index;
+    }
+    public static ImputationCache getImputationCache() {
+        return imputationCache;
+    }
+    public static void setImputationCache(ImputationCache cache) {
+        imputationCache = cache;
+    }
+    public static boolean isDonorTreeSearch() {
+        return donorTreeSearch;
+    }
+    public static void setDonorTreeSearch(boolean search) {
+        donorTreeSearch = search;
+    }
     public static double asinh(double xx) {
         return Math.log(xx + Math.sqrt(xx * xx + 1.0));
     }
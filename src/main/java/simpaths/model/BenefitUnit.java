@@ -19,6 +19,7 @@ import org.apache.log4j.Logger;
 
 import simpaths.data.Parameters;
 import simpaths.model.decisions.DecisionParams;
+import simpaths.model.decisions.PolicyLookup;
 import simpaths.model.decisions.States;
 import simpaths.experiment.SimPathsCollector;
 import microsim.agent.Weight;
@@ -60,6 +61,7 @@ public class BenefitUnit implements EventListener, IDoubleSource, Weight, Compar
 
     // unit specific variables
     @Transient private States labStatesContObject;
+    @Transient private PolicyLookup policyLookup;         // look-up of optimised decisions for labStatesContObject
     private Double yInvestYear;
     private Double yPensYear;
     private Double xDiscretionaryYear;
@@ -1528,7 +1530,7 @@ Contemporaneous values of dhhtp_c4 are required for validation. Update and outpu
             labourIncomeWeeklyM = labourIncomeWeeklyF = hoursWorkedPerWeekM = hoursWorkedPerWeekF = 0.0;
             int dlltsdM = -1, dlltsdF = -1;
             if (DecisionParams.FLAG_IO_EMPLOYMENT1 && labStatesContObject.getAgeYears() <= Parameters.MAX_AGE_FLEXIBLE_LABOUR_SUPPLY) {
-                emp1 = Parameters.grids.employment1.interpolateAll(labStatesContObject, false);
+                emp1 = policyLookup.interpolate(Parameters.grids.employment1);
             } else {
                 emp1 = 0.0;
             }
@@ -1536,7 +1538,7 @@ Contemporaneous values of dhhtp_c4 are required for validation. Update and outpu
                 // couples
 
                 if (DecisionParams.FLAG_IO_EMPLOYMENT2 && labStatesContObject.getAgeYears() <= Parameters.MAX_AGE_FLEXIBLE_LABOUR_SUPPLY) {
-                    emp2 = Parameters.grids.employment2.interpolateAll(this.labStatesContObject, false);
+                    emp2 = policyLookup.interpolate(Parameters.grids.employment2);
                 } else {
                     emp2 = 0.0;
                 }
@@ -4378,6 +4380,7 @@ Contemporaneous values of dhhtp_c4 are required for validation. Update and outpu
 
     public void clearStates() {
         if (labStatesContObject !=null) labStatesContObject = null;
+        policyLookup = null;
     }
 
     void setStates() {
@@ -4390,6 +4393,7 @@ Contemporaneous values of dhhtp_c4 are required for validation. Update and outpu
             throw new IllegalStateException("ERROR - attempt to fetch uninitialised grids attribute from Parameters object");
         }
         labStatesContObject = new States(this, Parameters.grids.getScale());
+        policyLookup = new PolicyLookup(labStatesContObject);
     }
 
     public Person getRefPersonForDecisions() {
@@ -4619,7 +4623,7 @@ Contemporaneous values of dhhtp_c4 are required for validation. Update and outpu
                 // allow for simulated debt exceeding assumed limit for behavioural solutions
                 xDiscretionaryYear = DecisionParams.MIN_CONSUMPTION_PER_YEAR;
             } else {
-                xDiscretionaryYear = Parameters.grids.consumption.interpolateAll(labStatesContObject, false);
+                xDiscretionaryYear = policyLookup.interpolate(Parameters.grids.consumption);
                 xDiscretionaryYear *= cashOnHand;
             }
             if ( !Parameters.checkFinite(xDiscretionaryYear) ) {
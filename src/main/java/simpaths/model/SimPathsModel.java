@@ -23,7 +23,6 @@ import org.apache.commons.collections4.MapIterator;
 import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.collections4.map.LinkedMap;
 import org.apache.commons.collections4.map.MultiKeyMap;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.lang3.tuple.Triple;
 import org.apache.commons.math3.util.Pair;
@@ -33,6 +32,7 @@ import simpaths.data.*;
 import simpaths.data.startingpop.Processed;
 import simpaths.experiment.SimPathsCollector;
 import simpaths.model.decisions.DecisionParams;
+import simpaths.model.decisions.GridComparison;
 import simpaths.model.decisions.ManagerPopulateGrids;
 import simpaths.model.enums.*;
 import simpaths.model.lifetime_incomes.BirthCohort;
@@ -286,6 +286,71 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
     //	@GUIparameter(description = "tick to save behavioural solutions assumed for simulation")
     private boolean saveBehaviour = true;
 
+    // store behavioural solutions off-heap, in memory-mapped grid files
+    private boolean memoryMapGrids = false;
+
+    // save behavioural solutions in compressed grid files, optionally storing policy functions at single precision
+    private boolean compressGrids = false;
+    private boolean quantiseGridPolicies = false;
+
+    // hold solved behavioural policy grids (and optionally the value function) in memory at single precision
+    private boolean float32PolicyGrids = false;
+    private boolean float32ValueFunction = false;
+
+    // number of threads used to solve behavioural grids (0 = all available processors)
+    private Integer solverThreads = 0;
+
+    // share solution of behavioural grids between processes on the same host (see DistributedSolve): each process
+    // is started with the same configuration, a distinct solverProcessRank, and a common sharedGridsDirectory
+    private Integer solverProcesses = 1;
+    private Integer solverProcessRank = 0;
+
+    // seconds without a heartbeat after which a process sharing the solution of behavioural grids is presumed failed
+    // (e.g. killed), so that the other processes stop rather than wait indefinitely
+    private Integer solverProcessTimeout = 120;
+    private String sharedGridsDirectory = null;
+
+    // approximate taxes and benefits when solving behavioural grids, by interpolating tabulated donor imputations
+    // (saves time only where each table is queried many times, see DecisionBenchmarks.taxBenefitTable)
+    private boolean tabulateTaxBenefits = false;
+
+    // with useSavedBehaviour, re-solve saved grids from the oldest age for which the period problem has changed; with
+    // saveBehaviour, save signatures of the period problem with the grids, so that they can be re-solved by later runs
+    // (the evaluation of signatures takes about as long as the evaluation of expectations in a solution of the grids)
+    private boolean resolveChangedAges = false;
+
+    // directory to checkpoint solutions of behavioural grids by age; an interrupted solution resumes from the checkpoint
+    private String checkpointDirectory = null;
+
+    // file of liquid wealth nodes adapted to the curvature of the value function; derived from the solved grids if absent
+    private String stateNodesFile = null;
+
+    // time phases of the solution of behavioural grids, and save statistics by age alongside the grids
+    private boolean solverTelemetry = false;
+
+    // start the search for optimal consumption at each liquid wealth grid point from the solution for the preceding
+    // point, searching its neighbourhood before the full domain; solutions agree with the full search to within the
+    // tolerance of the search, so solved grids differ slightly from those solved without warm starts
+    private boolean warmStartConsumption = false;
+
+    // compare solved behavioural grids with those saved for readGrid, failing if any difference exceeds the tolerance
+    // (null = not compared; requires saveBehaviour)
+    private Double compareGridsTolerance = null;
+
+    // memoise donor searches of tax imputations: maximum number of searches stored (0 = not memoised), and width of
+    // buckets of normalised financials (0 = only reuse searches for identical financials, leaving imputations unchanged)
+    private Integer taxImputationCacheSize = 200000;
+    private Double taxImputationCacheQuantum = 0.0;
+
+    // search nearest donors on second income and childcare costs with a KD-tree (false = bracketed search from the
+    // nearest donor by original income, as in earlier versions). The KD-tree returns the exact nearest neighbours, which
+    // can differ from the donors found by the bracketed search, so that imputed incomes change if enabled
+    private boolean taxDonorTreeSearch = false;
+
+    // verify a saved donor pool snapshot against every row of the donor tables, rather than only the generation
+    // recorded when the tables were last populated (detects donor tables edited other than by TaxDonorDataParser)
+    private boolean verifyDonorPoolSnapshot = false;
+
     // save imperfect tax database matches to potentially expand input database
     private boolean saveImperfectTaxDBMatches = false;
 
@@ -390,9 +455,11 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
             alignEmployment = false;
             DecisionParams.loadParameters(employmentOptionsOfPrincipalWorker, employmentOptionsOfSecondaryWorker,
                     responsesToHealth, minAgeForPoorHealth, responsesToDisability, responsesToRegion, responsesToEducation,
-                    responsesToPension, responsesToLowWageOffer, responsesToRetirement, saveBehaviour,
-                    readGrid, getEngine().getCurrentExperiment().getOutputFolder(), startYear, endYear);
-            //DecisionTests.compareGrids();
+                    responsesToPension, responsesToLowWageOffer, responsesToRetirement, saveBehaviour, memoryMapGrids,
+                    compressGrids, quantiseGridPolicies, float32PolicyGrids, float32ValueFunction, solverThreads, solverProcesses, solverProcessRank, sharedGridsDirectory, solverProcessTimeout, tabulateTaxBenefits,
+                    resolveChangedAges, checkpointDirectory, stateNodesFile, solverTelemetry, warmStartConsumption, readGrid, getEngine().getCurrentExperiment().getOutputFolder(), startYear, endYear);
+            if (compareGridsTolerance != null && !saveBehaviour)
+                throw new RuntimeException("compareGridsTolerance requires saveBehaviour, so that solved grids are saved for comparison");
             //DatabaseExtension.extendInputData();
         }
         long elapsedTime1 = System.currentTimeMillis();
@@ -409,7 +476,13 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
             taxDatabaseUpdate();
             TaxDonorDataParser.populateDonorTaxUnitTables(country, false); // Populate tax unit donor tables from person data
         }
-        populateTaxdbReferences();
+        populateTaxdbReferences(verifyDonorPoolSnapshot);
+        if (taxImputationCacheSize > 0) {
+            Parameters.setImputationCache(new ImputationCache(taxImputationCacheSize, taxImputationCacheQuantum));
+        } else {
+            Parameters.setImputationCache(null);
+        }
+        Parameters.setDonorTreeSearch(taxDonorTreeSearch);
 
         // run pre-simulation diagnostic tests
         //TestTaxRoutine.run();
@@ -739,6 +812,14 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
             pw.println(line);
             line = "saveImperfectTaxDBMatches: " + saveImperfectTaxDBMatches;
             pw.println(line);
+            line = "taxImputationCacheSize: " + taxImputationCacheSize;
+            pw.println(line);
+            line = "taxImputationCacheQuantum: " + taxImputationCacheQuantum;
+            pw.println(line);
+            line = "taxDonorTreeSearch: " + taxDonorTreeSearch;
+            pw.println(line);
+            line = "verifyDonorPoolSnapshot: " + verifyDonorPoolSnapshot;
+            pw.println(line);
             line = "enableIntertemporalOptimisations: " + enableIntertemporalOptimisations;
             pw.println(line);
             line = "useSavedBehaviour: " + useSavedBehaviour;
@@ -747,6 +828,40 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
             pw.println(line);
             line = "saveBehaviour: " + saveBehaviour;
             pw.println(line);
+            line = "memoryMapGrids: " + memoryMapGrids;
+            pw.println(line);
+            line = "compressGrids: " + compressGrids;
+            pw.println(line);
+            line = "quantiseGridPolicies: " + quantiseGridPolicies;
+            pw.println(line);
+            line = "float32PolicyGrids: " + float32PolicyGrids;
+            pw.println(line);
+            line = "float32ValueFunction: " + float32ValueFunction;
+            pw.println(line);
+            line = "solverThreads: " + solverThreads;
+            pw.println(line);
+            line = "solverProcesses: " + solverProcesses;
+            pw.println(line);
+            line = "solverProcessRank: " + solverProcessRank;
+            pw.println(line);
+            line = "solverProcessTimeout: " + solverProcessTimeout;
+            pw.println(line);
+            line = "sharedGridsDirectory: " + sharedGridsDirectory;
+            pw.println(line);
+            line = "tabulateTaxBenefits: " + tabulateTaxBenefits;
+            pw.println(line);
+            line = "resolveChangedAges: " + resolveChangedAges;
+            pw.println(line);
+            line = "checkpointDirectory: " + checkpointDirectory;
+            pw.println(line);
+            line = "stateNodesFile: " + stateNodesFile;
+            pw.println(line);
+            line = "solverTelemetry: " + solverTelemetry;
+            pw.println(line);
+            line = "warmStartConsumption: " + warmStartConsumption;
+            pw.println(line);
+            line = "compareGridsTolerance: " + compareGridsTolerance;
+            pw.println(line);
             line = "employmentOptionsOfPrincipalWorker: " + employmentOptionsOfPrincipalWorker;
             pw.println(line);
             line = "employmentOptionsOfSecondaryWorker: " + employmentOptionsOfSecondaryWorker;
@@ -908,6 +1023,10 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
             }
             case RationalOptimisation -> {
                 Parameters.grids = ManagerPopulateGrids.run(this, useSavedBehaviour, saveBehaviour);
+                if (compareGridsTolerance != null && !GridComparison.run(DecisionParams.gridsInputDirectory,
+                        DecisionParams.gridsOutputDirectory, compareGridsTolerance))
+                    throw new RuntimeException("solved grids differ from those saved for " + readGrid + " by more than " +
+                            compareGridsTolerance + " (see grids/" + GridComparison.REPORT_FILE + ")");
             }
             case UpdateParameters -> {
                 updateParameters();
@@ -922,6 +1041,10 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
                     double timerForSim = (System.currentTimeMillis() - timerStartSim)/1000.0/60.0;
                     System.out.println("Finished simulating population in " + timerForSim + " minutes");
                     if (commentsOn) log.info("Finished simulating population in " + timerForSim + " minutes");
+                    if (Parameters.getImputationCache() != null) {
+                        System.out.println(Parameters.getImputationCache());
+                        if (commentsOn) log.info(Parameters.getImputationCache().toString());
+                    }
                 }
                 year++;
             }
@@ -3451,8 +3574,10 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
      *
      * POPULATE PARAMETERS.taxdbReferences FOR EVALUATING TAX AND BENEFIT PAYMENTS
      *
+     * @param verifySnapshot verify any saved snapshot of the donor pool against every row of the donor tables
+     *
      */
-    private static void populateTaxdbReferences() {
+    private static void populateTaxdbReferences(boolean verifySnapshot) {
 
         Map<Triple<Integer,Integer,Integer>,List<Integer>> taxdbReferences = Parameters.getTaxdbReferences();
         if (taxdbReferences.size() == 0) {
@@ -3460,115 +3585,178 @@ public class SimPathsModel extends AbstractSimulationManager implements EventLis
 
             System.out.println("Populating donor database indices");
 
+            //------------------------------------------------------------
+            // reload donor pool from snapshot, if taken from the current donor tables
+            //------------------------------------------------------------
+            String snapshotPath = Parameters.getInputDirectory() + DonorPoolSnapshot.FILE_NAME;
+            String url = "jdbc:h2:file:" + RunDatabasePath + ";TRACE_LEVEL_FILE=0;TRACE_LEVEL_SYSTEM_OUT=0;AUTO_SERVER=TRUE";
+            byte[] generation = null, sourceHash = null;
+            List<DonorTaxUnit> donorPool = null;
+            long snapshotStart = System.currentTimeMillis();
+            try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+
+                generation = DonorPoolSnapshot.hashGeneration(conn);
+                if (generation == null || verifySnapshot) {
+                    // donor tables populated before generations were recorded are identified by their contents
+                    sourceHash = DonorPoolSnapshot.hashSourceTables(conn);
+                    if (generation == null) generation = sourceHash;
+                }
+                DonorPoolSnapshot snapshot = DonorPoolSnapshot.read(snapshotPath, generation, sourceHash);
+                if (snapshot != null) {
+                    donorPool = snapshot.getDonorPool();
+                    taxdbReferences.putAll(snapshot.getReferences());
+                    System.out.println("Completed reading donor data from snapshot " + snapshotPath + " in " +
+                            (System.currentTimeMillis() - snapshotStart) + " ms" + (verifySnapshot ? " (verified)" : ""));
+                }
+            } catch (SQLException | IOException e) {
+                System.out.println("Donor pool snapshot not read: " + e.getMessage());
+            }
+
             //------------------------------------------------------------
             // start work
             //------------------------------------------------------------
-            EntityTransaction txn = null;
-            try {
+            if (donorPool == null) {
+
+                EntityTransaction txn = null;
+                try {
+
+                    // access database and obtain donor pool
+                    Map propertyMap = new HashMap();
+                    propertyMap.put("hibernate.connection.url", url);
+                    EntityManager em = Persistence.createEntityManagerFactory("tax-database", propertyMap).createEntityManager();
+                    txn = em.getTransaction();
+                    txn.begin();
+                    String query = "SELECT DISTINCT tu FROM DonorTaxUnit tu LEFT JOIN FETCH tu.policies tp ORDER BY tp.originalIncomePerMonth";
+                    //String query = "SELECT tu FROM DonorTaxUnit tu";
+                    List<DonorTaxUnit> donors = em.createQuery(query).getResultList();
+//                    donors.sort(Comparator.comparingDouble(tu ->
+//                            tu.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR).getOriginalIncomePerMonth()
+//                    ));
+
+                    System.out.println("Completed accessing donor data from the database");
+
+                    // populate taxdbReferences
+                    populateTaxdbReferences(donors, taxdbReferences);
+                    donorPool = donors;
+
+                    // close database connection
+                    txn.commit();
+                    em.close();
+                } catch (Exception e) {
+                    if (txn != null && txn.isActive()) {
+                        txn.rollback();
+                    }
+                    e.printStackTrace();
+                }
 
-                // access database and obtain donor pool
-                Map propertyMap = new HashMap();
-                propertyMap.put("hibernate.connection.url", "jdbc:h2:file:" + RunDatabasePath + ";TRACE_LEVEL_FILE=0;TRACE_LEVEL_SYSTEM_OUT=0;AUTO_SERVER=TRUE");
-                EntityManager em = Persistence.createEntityManagerFactory("tax-database", propertyMap).createEntityManager();
-                txn = em.getTransaction();
-                txn.begin();
-                String query = "SELECT DISTINCT tu FROM DonorTaxUnit tu LEFT JOIN FETCH tu.policies tp ORDER BY tp.originalIncomePerMonth";
-                //String query = "SELECT tu FROM DonorTaxUnit tu";
-                List<DonorTaxUnit> donorPool = em.createQuery(query).getResultList();
-//                donorPool.sort(Comparator.comparingDouble(tu ->
-//                        tu.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR).getOriginalIncomePerMonth()
-//                ));
+                // save snapshot for later starts
+                if (donorPool != null && generation != null) {
+                    try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+                        if (sourceHash == null) sourceHash = DonorPoolSnapshot.hashSourceTables(conn);
+                        DonorPoolSnapshot.write(snapshotPath, generation, sourceHash, donorPool, taxdbReferences);
+                        System.out.println("Saved donor pool snapshot " + snapshotPath);
+                    } catch (SQLException | IOException e) {
+                        System.out.println("Donor pool snapshot not saved: " + e.getMessage());
+                    }
+                }
+            }
 
-                System.out.println("Completed accessing donor data from the database");
+            if (donorPool != null) {
 
-                double[][] dataDualIncome = {}, dataChildcare = {}, dataDualIncomeChildcare = {};
+                // instantiate Parameters for retrieval
+                Parameters.setTaxdbReferences(taxdbReferences);
+                Parameters.setDonorPool(donorPool);
+                populateMahalanobisDistances(donorPool);
+            }
+        }
 
-                // loop over each donor
-                for (int ii = 0; ii < donorPool.size(); ii++) {
+        // compile donor index (normalised incomes depend on price indices of the current simulation)
+        if (Parameters.getDonorPool() != null)
+            Parameters.setDonorIndex(new DonorIndex(Parameters.getDonorPool(), Parameters.getTaxdbReferences()));
+    }
 
-                    DonorTaxUnit donor = donorPool.get(ii);
-                    for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
+    /**
+     * METHOD TO POPULATE REFERENCES TO DONORS OF EACH COARSE-EXACT MATCH, IN ASCENDING ORDER OF ORIGINAL INCOME
+     */
+    private static void populateTaxdbReferences(List<DonorTaxUnit> donorPool, Map<Triple<Integer,Integer,Integer>,List<Integer>> taxdbReferences) {
 
-                        // populate taxdbReferences
-                        int systemYear = Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
-                        DonorTaxUnitPolicy donorPolicy = donor.getPolicyBySystemYear(systemYear);
-                        for (int jj = 0; jj < Parameters.TAXDB_REGIMES; jj++) {
+        // loop over each donor
+        for (int ii = 0; ii < donorPool.size(); ii++) {
 
-                            int index = donorPolicy.getDonorKey(jj);
+            DonorTaxUnit donor = donorPool.get(ii);
+            for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
 
-                            Triple<Integer, Integer, Integer> key =  Triple.of(systemYear, jj, index);
-                            List<Integer> donors = taxdbReferences.get(key);
-                            if (donors == null) {
-                                // need to instantiate list
+                // populate taxdbReferences
+                int systemYear = Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
+                DonorTaxUnitPolicy donorPolicy = donor.getPolicyBySystemYear(systemYear);
+                for (int jj = 0; jj < Parameters.TAXDB_REGIMES; jj++) {
 
-                                taxdbReferences.put(key, new ArrayList<>());
-                                taxdbReferences.get(key).add(ii);
-                            } else {
-                                // list exists - need to find correct insertion point
+                    int index = donorPolicy.getDonorKey(jj);
 
-                                int kk = donors.size() - 1;
-                                while (kk >= -1) {
-                                    if (kk == -1) {
-                                        // reached bottom of existing list
+                    Triple<Integer, Integer, Integer> key =  Triple.of(systemYear, jj, index);
+                    List<Integer> donors = taxdbReferences.get(key);
+                    if (donors == null) {
+                        // need to instantiate list
 
-                                        taxdbReferences.get(key).add(0, ii);
-                                    } else {
-                                        // internal to list
+                        taxdbReferences.put(key, new ArrayList<>());
+                        taxdbReferences.get(key).add(ii);
+                    } else {
+                        // list exists - need to find correct insertion point
 
-                                        DonorTaxUnit lastDonor = donorPool.get(donors.get(kk));
-                                        if (lastDonor.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth() <=
-                                                donor.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth()) {
-                                            // append donor to end of list
+                        int kk = donors.size() - 1;
+                        while (kk >= -1) {
+                            if (kk == -1) {
+                                // reached bottom of existing list
 
-                                            taxdbReferences.get(key).add(kk + 1, ii);
-                                            kk = -1;
-                                        }
-                                    }
-                                    kk--;
+                                taxdbReferences.get(key).add(0, ii);
+                            } else {
+                                // internal to list
+
+                                DonorTaxUnit lastDonor = donorPool.get(donors.get(kk));
+                                if (lastDonor.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth() <=
+                                        donor.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth()) {
+                                    // append donor to end of list
+
+                                    taxdbReferences.get(key).add(kk + 1, ii);
+                                    kk = -1;
                                 }
                             }
+                            kk--;
                         }
                     }
+                }
+            }
+        }
+    }
 
+    /**
+     * METHOD TO POPULATE MahalanobisDistance OBJECTS USED TO MATCH DONORS ON SECOND INCOME AND CHILDCARE COSTS
+     * Normalised incomes depend on price indices, so distances are evaluated whether donors are read from the
+     * database or from a snapshot
+     */
+    private static void populateMahalanobisDistances(List<DonorTaxUnit> donorPool) {
 
-                    // collect data for populating MahalanobisDistance objects
-                    double originalIncome = donor.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR).getNormalisedOriginalIncomePerMonth();
-                    double secondIncome = donor.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR).getNormalisedSecondIncomePerMonth();
-                    double childcareCost = donor.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR).getNormalisedChildcareCostPerMonth();;
-                    if (secondIncome > 0.01 && childcareCost < 0.01) {
-                        double[] datum = {originalIncome, secondIncome};
-                        dataDualIncome = ArrayUtils.add(dataDualIncome, datum);
-                    }
-                    if (childcareCost > 0.01 && secondIncome < 0.01) {
-                        double[] datum = {originalIncome, childcareCost};
-                        dataChildcare = ArrayUtils.add(dataChildcare, datum);
-                    }
-                    if (secondIncome>0.01 && childcareCost>0.01) {
-                        double[] datum = {originalIncome, secondIncome, childcareCost};
-                        dataDualIncomeChildcare = ArrayUtils.add(dataDualIncomeChildcare, datum);
-                    }
-                }
-                MahalanobisDistance mdDualIncome = new MahalanobisDistance(dataDualIncome);
-                MahalanobisDistance mdChildcare = new MahalanobisDistance(dataChildcare);
-                MahalanobisDistance mdDualIncomeChildcare = new MahalanobisDistance(dataDualIncomeChildcare);
+        List<double[]> dataDualIncome = new ArrayList<>(), dataChildcare = new ArrayList<>(), dataDualIncomeChildcare = new ArrayList<>();
+        for (DonorTaxUnit donor : donorPool) {
 
-                // instantiate Parameters for retrieval
-                Parameters.setTaxdbReferences(taxdbReferences);
-                Parameters.setDonorPool(donorPool);
-                Parameters.setMdDualIncome(mdDualIncome);
-                Parameters.setMdChildcare(mdChildcare);
-                Parameters.setMdDualIncomeChildcare(mdDualIncomeChildcare);
-
-                // close database connection
-                txn.commit();
-                em.close();
-            } catch (Exception e) {
-                if (txn != null && txn.isActive()) {
-                    txn.rollback();
-                }
-                e.printStackTrace();
+            // collect data for populating MahalanobisDistance objects
+            DonorTaxUnitPolicy policy = donor.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR);
+            double originalIncome = policy.getNormalisedOriginalIncomePerMonth();
+            double secondIncome = policy.getNormalisedSecondIncomePerMonth();
+            double childcareCost = policy.getNormalisedChildcareCostPerMonth();
+            if (secondIncome > 0.01 && childcareCost < 0.01) {
+                dataDualIncome.add(new double[] {originalIncome, secondIncome});
+            }
+            if (childcareCost > 0.01 && secondIncome < 0.01) {
+                dataChildcare.add(new double[] {originalIncome, childcareCost});
+            }
+            if (secondIncome>0.01 && childcareCost>0.01) {
+                dataDualIncomeChildcare.add(new double[] {originalIncome, secondIncome, childcareCost});
             }
         }
+        Parameters.setMdDualIncome(new MahalanobisDistance(dataDualIncome.toArray(new double[0][])));
+        Parameters.setMdChildcare(new MahalanobisDistance(dataChildcare.toArray(new double[0][])));
+        Parameters.setMdDualIncomeChildcare(new MahalanobisDistance(dataDualIncomeChildcare.toArray(new double[0][])));
     }
 
     public void clearPersonsToMatch() {
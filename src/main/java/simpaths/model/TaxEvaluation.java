@@ -53,15 +53,8 @@ public class TaxEvaluation {
         this(year, age, numberMembersOver17, numberChildrenUnder5, numberChildren5To9, numberChildren10To17, hoursWorkedPerWeekMan,
                 hoursWorkedPerWeekWoman, disabilityMan, disabilityWoman, careProvision, originalIncomePerMonth, secondIncomePerMonth, childcareCostPerMonth, randomDraw);
 
-        if (Parameters.flagSocialCare) {
-
-            // consider social support for formal care expenditure
-            if (!Parameters.checkFinite(liquidWealth))
-                throw new RuntimeException("problem identifying wealth in evaluation of social care costs after transfer payments");
-            boolean flagCouple = (numberMembersOver17 > 1) ? true : false;
-            boolean flagSPA = (Parameters.getStatePensionAge(year, age) <= age) ? true : false;
-            socialCareSupportPerMonth = new SocialCareExpenditureSupport(year, flagCouple, flagSPA, socialCareCostPerMonth, imputedTransfers.getDisposableIncomePerMonth(), liquidWealth).getSupportPerMonth();
-        }
+        socialCareSupportPerMonth = evaluateSocialCareSupportPerMonth(year, age, numberMembersOver17, socialCareCostPerMonth,
+                imputedTransfers.getDisposableIncomePerMonth(), liquidWealth);
     }
 
 
@@ -89,6 +82,24 @@ public class TaxEvaluation {
             throw new RuntimeException("this is my error");
     }
 
+    /**
+     * METHOD TO EVALUATE SOCIAL SUPPORT FOR FORMAL CARE EXPENDITURE, GIVEN DISPOSABLE INCOME IMPUTED FROM DONORS
+     * (used by the constructor above, and by approximations of imputed disposable income in the IO solution)
+     */
+    public static double evaluateSocialCareSupportPerMonth(int year, int age, int numberMembersOver17, double socialCareCostPerMonth,
+                                                           double imputedDisposableIncomePerMonth, Double liquidWealth) {
+
+        if (!Parameters.flagSocialCare)
+            return 0.0;
+
+        // consider social support for formal care expenditure
+        if (!Parameters.checkFinite(liquidWealth))
+            throw new RuntimeException("problem identifying wealth in evaluation of social care costs after transfer payments");
+        boolean flagCouple = (numberMembersOver17 > 1) ? true : false;
+        boolean flagSPA = (Parameters.getStatePensionAge(year, age) <= age) ? true : false;
+        return new SocialCareExpenditureSupport(year, flagCouple, flagSPA, socialCareCostPerMonth, imputedDisposableIncomePerMonth, liquidWealth).getSupportPerMonth();
+    }
+
     public Match getMatch() {
         return match;
     }
@@ -0,0 +1,171 @@
+package simpaths.model.decisions;
+
+
+import simpaths.data.Parameters;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+
+/**
+ *
+ * CLASS TO STORE THE STATE COMBINATIONS ANTICIPATED FOR THE NEXT PERIOD, WITH THEIR PROBABILITIES
+ *
+ * EXPECTATIONS ARE EXPANDED ONE STATE AT A TIME (SEE ExpectationsFactory), EACH EXPANSION REPLICATING EXISTING STATE
+ * COMBINATIONS FOR EVERY NODE OF THE LOCAL DISTRIBUTION OF THE STATE. THE STATE COMBINATIONS ARE STORED HERE IN A
+ * SINGLE FLAT ARRAY (ONE ROW OF STATE VALUES PER COMBINATION, ORDERED AS States.labStatesContObject), AND THEIR
+ * PROBABILITIES IN A PARALLEL ARRAY, SO THAT AN EXPANSION COPIES PRIMITIVE VALUES RATHER THAN ALLOCATING A States
+ * OBJECT FOR EVERY NODE. STORAGE GROWS GEOMETRICALLY, SO THAT IT IS ONLY REALLOCATED A FEW TIMES PER EXPECTATION.
+ *
+ * States OBJECTS ARE ONLY CREATED WHERE A STATE COMBINATION IS REPORTED, OR WHERE ITS CHARACTERISTICS ARE READ
+ * THROUGH A REUSABLE VIEW (SEE view).
+ *
+ */
+public class AnticipatedStates {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    final GridScale scale;      // scale of the grids for which state combinations are anticipated
+    final int ageYears;         // age of all anticipated state combinations
+    final int ageIndex;         // age index of all anticipated state combinations
+    final int width;            // number of state values in each state combination
+    int size;                   // number of anticipated state combinations
+    double[] values;            // state values, by state combination (row) and state (column)
+    double[] probability;       // probability of each state combination
+
+
+    /**
+     * CONSTRUCTOR FOR A SINGLE STATE COMBINATION WITH ALL STATES SET TO ZERO AND PROBABILITY ONE
+     * @param scale scale of the grids
+     * @param ageYears age of anticipated state combinations
+     */
+    public AnticipatedStates(GridScale scale, int ageYears) {
+
+        this.scale = scale;
+        this.ageYears = ageYears;
+        ageIndex = ageYears - Parameters.AGE_TO_BECOME_RESPONSIBLE;
+        if (ageIndex == scale.simLifeSpan) {
+            width = 1;
+        } else {
+            width = (int)(scale.gridDimensions[ageIndex][4]+scale.gridDimensions[ageIndex][5]);
+        }
+        size = 1;
+        values = new double[width];
+        probability = new double[] {1.0};
+    }
+
+    /**
+     * CONSTRUCTOR TO COPY STATE COMBINATIONS
+     * @param original state combinations to copy
+     */
+    public AnticipatedStates(AnticipatedStates original) {
+
+        scale = original.scale;
+        ageYears = original.ageYears;
+        ageIndex = original.ageIndex;
+        width = original.width;
+        size = original.size;
+        values = Arrays.copyOf(original.values, size * width);
+        probability = Arrays.copyOf(original.probability, size);
+    }
+
+    /**
+     * CONSTRUCTOR TO COLLECT STATE COMBINATIONS OF A COMMON AGE, EACH WITH PROBABILITY ONE
+     * @param supplied state combinations to collect
+     */
+    public AnticipatedStates(States[] supplied) {
+
+        if (supplied.length == 0)
+            throw new InvalidParameterException("no state combinations supplied");
+        scale = supplied[0].scale;
+        ageYears = supplied[0].ageYears;
+        ageIndex = supplied[0].ageIndex;
+        width = supplied[0].labStatesContObject.length;
+        size = supplied.length;
+        values = new double[size * width];
+        probability = new double[size];
+        for (int ii=0; ii<size; ii++) {
+            if (supplied[ii].ageIndex != ageIndex)
+                throw new InvalidParameterException("anticipated state combinations must share a common age");
+            System.arraycopy(supplied[ii].labStatesContObject, 0, values, ii * width, width);
+            probability[ii] = 1.0;
+        }
+    }
+
+
+    /**
+     * GETTERS AND SETTERS
+     */
+    public int size() {
+        return size;
+    }
+    public double get(int ii, int stateIndex) {
+        return values[ii * width + stateIndex];
+    }
+    public void set(int ii, int stateIndex, double value) {
+        values[ii * width + stateIndex] = value;
+    }
+    public double getProbability(int ii) {
+        return probability[ii];
+    }
+    public void setProbability(int ii, double value) {
+        probability[ii] = value;
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO SET A STATE TO THE SAME VALUE FOR ALL STATE COMBINATIONS
+     */
+    public void setAll(int stateIndex, double value) {
+        for (int ii=0; ii<size; ii++) {
+            values[ii * width + stateIndex] = value;
+        }
+    }
+
+    /**
+     * METHOD TO APPEND COPIES OF A STATE COMBINATION (AND ITS PROBABILITY)
+     * @param source index of state combination to copy
+     * @param copies number of copies to append
+     * @return index of the first copy
+     */
+    public int append(int source, int copies) {
+
+        int first = size;
+        if (size + copies > probability.length) {
+            int capacity = Math.max(size + copies, 2 * probability.length);
+            values = Arrays.copyOf(values, capacity * width);
+            probability = Arrays.copyOf(probability, capacity);
+        }
+        for (int ii=0; ii<copies; ii++) {
+            System.arraycopy(values, source * width, values, (size + ii) * width, width);
+            probability[size + ii] = probability[source];
+        }
+        size += copies;
+        return first;
+    }
+
+    /**
+     * METHOD TO COPY A STATE COMBINATION INTO A States OBJECT, TO READ ITS CHARACTERISTICS WITHOUT ALLOCATION
+     * @param ii index of state combination
+     * @param target object of the same age to overwrite (e.g. obtained from a previous call to toStates)
+     * @return target
+     */
+    public States view(int ii, States target) {
+        System.arraycopy(values, ii * width, target.labStatesContObject, 0, width);
+        return target;
+    }
+
+    /**
+     * METHOD TO RETURN A STATE COMBINATION AS A NEW States OBJECT
+     */
+    public States toStates(int ii) {
+        return view(ii, new States(scale, ageYears));
+    }
+}
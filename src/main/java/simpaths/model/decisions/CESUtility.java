@@ -16,6 +16,8 @@ public class CESUtility implements IEvaluation {
      */
     Expectations expectations;      // expectations initialised and updated to account for discrete control variables
     Grid valueFunction;            // storage of preceding solutions for value function
+    Grid.InterpolationBatch batch; // anticipated states prepared for batch interpolation of value function
+    double[] expectedValues;        // working array for interpolated value function, by anticipated state
 
     // CES utility options
     public static final double ANNUAL_CONSUMPTION_NORMALISATION_FACTOR = 15600.0;   // used to improve the curvature of the utility function with respect to consumption
@@ -81,47 +83,55 @@ public class CESUtility implements IEvaluation {
         double periodUtility = Math.pow(consumptionComponent + priceOfLeisure * leisureComponent, (1.0 - GAMMA)/(1.0 - 1.0/EPSILON));
         periodUtility /= (1.0 - GAMMA);
 
-        // adjust expectations array
-        int dim;
-        double numeraire, gridValue;
-        for (States states : expectations.anticipated) {
-            dim = 0;
-            // allow for liquid wealth
-            numeraire = expectations.wealthLiqValue + expectations.disposableIncomeAnnual - consumptionAnnual;
-            gridValue = Math.log( Math.max(1.0, numeraire + DecisionParams.C_LIQUID_WEALTH) );
-            if (expectations.ageIndexNextPeriod < valueFunction.scale.axes.length) {
-                gridValue = Math.max(gridValue, valueFunction.scale.axes[expectations.ageIndexNextPeriod][0][1]);
-                gridValue = Math.min(gridValue, valueFunction.scale.axes[expectations.ageIndexNextPeriod][0][2]);
-            }
-            states.labStatesContObject[dim] = gridValue;
+        // liquid wealth, which is common to all anticipated states
+        double numeraire = expectations.wealthLiqValue + expectations.disposableIncomeAnnual - consumptionAnnual;
+        double gridValue = Math.log( Math.max(1.0, numeraire + DecisionParams.C_LIQUID_WEALTH) );
+        if (expectations.ageIndexNextPeriod < valueFunction.scale.axes.length) {
+            gridValue = Math.max(gridValue, valueFunction.scale.axes[expectations.ageIndexNextPeriod][0][1]);
+            gridValue = Math.min(gridValue, valueFunction.scale.axes[expectations.ageIndexNextPeriod][0][2]);
         }
 
         // evaluate expected utility
         double sumProb = 0.0;
         double probThreshold;
         if (DecisionParams.FILTER_LOCAL_EXPECTATIONS)
-            probThreshold = DecisionParams.MIN_FACTOR_PROBABILITY / (double) expectations.probability.length;
+            probThreshold = DecisionParams.MIN_FACTOR_PROBABILITY / (double) expectations.anticipated.size();
         else
             probThreshold = 1.0E-12;
+        boolean survivalConsidered = 1.0 - expectations.mortalityProbability > probThreshold;
+        if (survivalConsidered && expectations.anticipated.size()>0) {
+            // interpolate value function for all anticipated states in one pass (states share liquid wealth)
+            SolveTelemetry.Phase previousPhase = SolveTelemetry.enter(SolveTelemetry.Phase.Interpolation);
+            if (batch == null) {
+                boolean[] include = new boolean[expectations.anticipated.size()];
+                for (int ii=0; ii<include.length; ii++) {
+                    include[ii] = expectations.anticipated.getProbability(ii) > probThreshold;
+                }
+                batch = valueFunction.prepareBatch(expectations.anticipated, include, true);
+                expectedValues = new double[include.length];
+            }
+            valueFunction.interpolateBatch(batch, gridValue, expectedValues);
+            SolveTelemetry.exit(previousPhase);
+        }
         Double expectedUtility = 0.0;
-        if (expectations.anticipated.length>0) {
-            for (int ii=0; ii<expectations.anticipated.length; ii++) {
-                if (expectations.probability[ii] > probThreshold) {
-                    sumProb += expectations.probability[ii];
+        if (expectations.anticipated.size()>0) {
+            for (int ii=0; ii<expectations.anticipated.size(); ii++) {
+                if (expectations.anticipated.getProbability(ii) > probThreshold) {
+                    sumProb += expectations.anticipated.getProbability(ii);
                     Double expectedV=0.0, utilBequest=0.0;
                     double bequest;
-                    if ( 1.0 - expectations.mortalityProbability > probThreshold ) {
-                        expectedV = valueFunction.interpolateAll(expectations.anticipated[ii], true);
+                    if ( survivalConsidered ) {
+                        expectedV = expectedValues[ii];
                         if (expectedV.isNaN())
                             throw new RuntimeException("expected utility expected utility 1");
                     }
                     if (expectations.mortalityProbability > probThreshold && ZETA0 > 0) {
-                        bequest = Math.max(0, Math.exp(expectations.anticipated[ii].labStatesContObject[0])- DecisionParams.C_LIQUID_WEALTH);
+                        bequest = Math.max(0, Math.exp(gridValue)- DecisionParams.C_LIQUID_WEALTH);
                         utilBequest = ZETA0 * Math.pow(bequest / BEQUEST_NORMALISATION_FACTOR, ZETA1);
                         if (utilBequest.isNaN())
                             throw new RuntimeException("expected utility expected utility 2");
                     }
-                    expectedUtility += expectations.probability[ii] *
+                    expectedUtility += expectations.anticipated.getProbability(ii) *
                             ((1.0-expectations.mortalityProbability) * expectedV + expectations.mortalityProbability * utilBequest);
                 }
             }
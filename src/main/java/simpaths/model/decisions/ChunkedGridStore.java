@@ -0,0 +1,502 @@
+package simpaths.model.decisions;
+
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ *
+ * CLASS TO STORE GRID VALUES READ FROM A COMPRESSED GRID FILE
+ *
+ * COMPRESSED GRID FILES ARE ORGANISED IN CHUNKS, ONE FOR EACH AGE SLICE DESCRIBED BY GridScale.gridDimensions
+ * (SPLIT FURTHER IF A SLICE EXCEEDS MAX_VALUES_PER_CHUNK). EACH CHUNK IS COMPRESSED INDEPENDENTLY, SO THAT THE
+ * STORE ONLY READS AND DECOMPRESSES A CHUNK THE FIRST TIME ONE OF ITS VALUES IS REQUESTED - IN PRACTICE, THE
+ * FIRST TIME Grid.interpolateAll IS CALLED FOR THE ASSOCIATED AGE. STORES ARE READ-ONLY.
+ *
+ * FILE LAYOUT (BIG-ENDIAN):
+ *      GridFileHeader (FLAG_COMPRESSED set; FLAG_FLOAT32 set if values are stored at single precision;
+ *                      checksum evaluated over the chunk table)
+ *      int  number of chunks
+ *      per chunk: long first grid index, int number of values, long file offset, int compressed bytes,
+ *                 int CRC32C checksum of compressed bytes
+ *      compressed chunks
+ *
+ * VALUES OF EACH CHUNK ARE BYTE-SHUFFLED (ALL FIRST BYTES, THEN ALL SECOND BYTES, ETC.), WHICH GROUPS THE SIGN,
+ * EXPONENT AND LEADING MANTISSA BYTES OF NEIGHBOURING GRID VALUES, AND EACH RESULTING BYTE PLANE IS DEFLATED
+ * UNLESS IT PROVES INCOMPRESSIBLE (SEE encodePlanes)
+ *
+ */
+public class ChunkedGridStore implements GridStore {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final int MAX_VALUES_PER_CHUNK = 1 << 24;
+    static final int CHUNK_TABLE_ENTRY_BYTES = 28;
+    static final int PLANE_SAMPLE_BYTES = 1 << 16;      // bytes of each plane deflated to test compressibility
+    static final double MIN_PLANE_COMPRESSION = 0.9;    // planes are stored if deflated sample exceeds this share of sample
+    static final byte PLANE_STORED = 0;
+    static final byte PLANE_DEFLATED = 1;
+
+    long size;                      // number of values stored
+    boolean float32;                // true if values stored at single precision
+    Path path;                      // path of backing file
+    FileChannel channel;            // channel to backing file (null once closed)
+    long[] chunkStart;              // first grid index of each chunk
+    int[] chunkLength;              // number of values in each chunk
+    long[] chunkOffset;             // file offset of each compressed chunk
+    int[] chunkBytes;               // compressed bytes of each chunk
+    int[] chunkChecksum;            // CRC32C checksum of each compressed chunk
+    AtomicReferenceArray<double[]> doubleChunks;    // decompressed chunks (null until first accessed) if !float32
+    AtomicReferenceArray<float[]> floatChunks;      // decompressed chunks (null until first accessed) if float32
+    int chunksDecompressed;         // number of chunks decompressed to date
+
+
+    /**
+     * CONSTRUCTOR TO OPEN A COMPRESSED GRID FILE
+     *
+     * Reads the file header and chunk table only - chunks are decompressed on demand
+     *
+     * @param filePath full path of compressed grid file
+     * @param size number of values in grid
+     * @param fingerprint fingerprint of the GridScale that organises the grid (see GridScale.fingerprint)
+     * @throws IOException if the file cannot be read, or does not match the size and organisation of the grid
+     */
+    public ChunkedGridStore(String filePath, long size, long fingerprint) throws IOException {
+
+        this.size = size;
+        path = Paths.get(filePath);
+        if (!Files.exists(path)) throw new IOException("file not found: " + filePath);
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            GridFileHeader header = GridFileHeader.read(channel);
+            if (header == null || !header.isCompressed())
+                throw new IOException("file " + filePath + " is not a compressed grid file");
+            header.validate(size, fingerprint, filePath);
+            float32 = header.isFloat32();
+
+            // chunk table
+            ByteBuffer count = readFully(GridFileHeader.HEADER_BYTES, 4);
+            int numberOfChunks = count.getInt(0);
+            ByteBuffer table = readFully(GridFileHeader.HEADER_BYTES + 4, (long)numberOfChunks * CHUNK_TABLE_ENTRY_BYTES);
+            if (header.hasChecksum() && DecisionParams.verifyGridChecksums) {
+                CRC32C crc = new CRC32C();
+                GridFileHeader.updateChecksum(crc, count);
+                GridFileHeader.updateChecksum(crc, table);
+                if (crc.getValue() != header.getChecksum())
+                    throw new IOException("checksum of grid file " + filePath + " does not match data - file may be corrupted");
+            }
+            chunkStart = new long[numberOfChunks];
+            chunkLength = new int[numberOfChunks];
+            chunkOffset = new long[numberOfChunks];
+            chunkBytes = new int[numberOfChunks];
+            chunkChecksum = new int[numberOfChunks];
+            long expectedStart = 0;
+            for (int ii=0; ii<numberOfChunks; ii++) {
+                chunkStart[ii] = table.getLong();
+                chunkLength[ii] = table.getInt();
+                chunkOffset[ii] = table.getLong();
+                chunkBytes[ii] = table.getInt();
+                chunkChecksum[ii] = table.getInt();
+                if (chunkStart[ii] != expectedStart || chunkOffset[ii] + chunkBytes[ii] > channel.size())
+                    throw new IOException("chunk table of grid file " + filePath + " is inconsistent");
+                expectedStart += chunkLength[ii];
+            }
+            if (expectedStart != size)
+                throw new IOException("chunks of grid file " + filePath + " hold " + expectedStart + " values, but grid requires " + size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (float32) {
+            floatChunks = new AtomicReferenceArray<>(chunkStart.length);
+        } else {
+            doubleChunks = new AtomicReferenceArray<>(chunkStart.length);
+        }
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public double get(long index) {
+
+        int chunk = getChunk(index);
+        int position = (int)(index - chunkStart[chunk]);
+        if (float32) {
+            float[] values = floatChunks.get(chunk);
+            if (values == null) values = (float[]) decompress(chunk);
+            return values[position];
+        } else {
+            double[] values = doubleChunks.get(chunk);
+            if (values == null) values = (double[]) decompress(chunk);
+            return values[position];
+        }
+    }
+
+    @Override
+    public void put(long index, double value) {
+        throw new UnsupportedOperationException("attempt to write to grid read from compressed file " + path);
+    }
+
+    @Override
+    public void getBulk(long offset, DoubleBuffer target) {
+
+        long index = offset;
+        while (target.hasRemaining()) {
+            int chunk = getChunk(index);
+            int start = (int)(index - chunkStart[chunk]);
+            int length = Math.min(target.remaining(), chunkLength[chunk] - start);
+            if (float32) {
+                float[] values = floatChunks.get(chunk);
+                if (values == null) values = (float[]) decompress(chunk);
+                for (int ii=start; ii<start+length; ii++) target.put(values[ii]);
+            } else {
+                double[] values = doubleChunks.get(chunk);
+                if (values == null) values = (double[]) decompress(chunk);
+                target.put(values, start, length);
+            }
+            index += length;
+        }
+    }
+
+    @Override
+    public void putBulk(long offset, DoubleBuffer source) {
+        throw new UnsupportedOperationException("attempt to write to grid read from compressed file " + path);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null) channel.close();
+            channel = null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * METHOD TO COPY ALL VALUES TO ANOTHER STORE, RELEASING EACH CHUNK ONCE COPIED
+     * @param target store to copy to
+     */
+    public void copyTo(GridStore target) {
+
+        for (int chunk=0; chunk<chunkStart.length; chunk++) {
+            DoubleBuffer values = DoubleBuffer.allocate(chunkLength[chunk]);
+            getBulk(chunkStart[chunk], values);
+            values.flip();
+            target.putBulk(chunkStart[chunk], values);
+            release(chunk);
+        }
+    }
+
+    /**
+     * METHOD TO RELEASE DECOMPRESSED CHUNKS THAT ONLY HOLD VALUES BEFORE A GRID INDEX
+     * Released chunks are decompressed again if subsequently accessed
+     * @param index first grid index that is retained
+     */
+    public void releaseBefore(long index) {
+        for (int chunk=0; chunk<chunkStart.length && chunkStart[chunk] + chunkLength[chunk] <= index; chunk++) {
+            release(chunk);
+        }
+    }
+
+    private void release(int chunk) {
+        if (float32) {
+            floatChunks.set(chunk, null);
+        } else {
+            doubleChunks.set(chunk, null);
+        }
+    }
+
+    public Path getPath() { return path; }
+    public boolean isFloat32() { return float32; }
+    public int getNumberOfChunks() { return chunkStart.length; }
+    public synchronized int getChunksDecompressed() { return chunksDecompressed; }
+
+    /**
+     * METHOD TO IDENTIFY THE CHUNK THAT HOLDS A GRID INDEX
+     */
+    private int getChunk(long index) {
+
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("grid index " + index + " outside of grid of size " + size);
+        int lo = 0, hi = chunkStart.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (chunkStart[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * METHOD TO READ AND DECOMPRESS A CHUNK, IF NOT ALREADY DONE BY ANOTHER THREAD
+     * @return float[] or double[] of chunk values, depending on float32
+     */
+    private synchronized Object decompress(int chunk) {
+
+        if (float32 && floatChunks.get(chunk) != null) return floatChunks.get(chunk);
+        if (!float32 && doubleChunks.get(chunk) != null) return doubleChunks.get(chunk);
+        if (channel == null) throw new IllegalStateException("attempt to read from closed grid file " + path);
+
+        try {
+            ByteBuffer compressed = readFully(chunkOffset[chunk], chunkBytes[chunk]);
+            if (DecisionParams.verifyGridChecksums) {
+                CRC32C crc = new CRC32C();
+                GridFileHeader.updateChecksum(crc, compressed);
+                if ((int)crc.getValue() != chunkChecksum[chunk])
+                    throw new IOException("checksum of chunk " + chunk + " of grid file " + path + " does not match data - file may be corrupted");
+            }
+            int valueBytes = (float32) ? 4 : 8;
+            byte[] shuffled = decodePlanes(compressed, chunkLength[chunk], valueBytes);
+            ByteBuffer values = ByteBuffer.wrap(unshuffle(shuffled, valueBytes));
+            chunksDecompressed++;
+            if (float32) {
+                float[] result = new float[chunkLength[chunk]];
+                values.asFloatBuffer().get(result);
+                floatChunks.set(chunk, result);
+                return result;
+            } else {
+                double[] result = new double[chunkLength[chunk]];
+                values.asDoubleBuffer().get(result);
+                doubleChunks.set(chunk, result);
+                return result;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to read grid from " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private ByteBuffer readFully(long position, long bytes) throws IOException {
+
+        if (bytes > Integer.MAX_VALUE) throw new IOException("block of grid file " + path + " too large to read");
+        ByteBuffer buffer = ByteBuffer.allocate((int)bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("unexpected end of grid file " + path);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+
+    /**
+     * METHOD TO WRITE A GRID TO A COMPRESSED GRID FILE
+     *
+     * Chunks are compressed in parallel, and written sequentially to filePath
+     *
+     * @param grid grid to save
+     * @param filePath full path of file to write
+     * @param float32 true to store values at single precision
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Grid grid, String filePath, boolean float32) throws IOException {
+
+        // identify chunks
+        List<long[]> chunks = new ArrayList<>();
+        GridScale scale = grid.scale;
+        for (int aa=0; aa<scale.simLifeSpan; aa++) {
+            long start = scale.gridDimensions[aa][3];
+            long end = Math.min(start + scale.gridDimensions[aa][2], grid.size);
+            while (start < end) {
+                long length = Math.min(end - start, MAX_VALUES_PER_CHUNK);
+                chunks.add(new long[]{start, length});
+                start += length;
+            }
+        }
+
+        // compress chunks
+        int valueBytes = (float32) ? 4 : 8;
+        byte[][] compressed = new byte[chunks.size()][];
+        IntStream.range(0, chunks.size()).parallel().forEach(ii -> {
+            long start = chunks.get(ii)[0];
+            int length = (int)chunks.get(ii)[1];
+            ByteBuffer values = ByteBuffer.allocate(length * valueBytes);
+            if (float32) {
+                for (int jj=0; jj<length; jj++) values.putFloat((float)grid.get(start + jj));
+            } else {
+                grid.store.getBulk(start, values.asDoubleBuffer());
+            }
+            compressed[ii] = encodePlanes(shuffle(values.array(), valueBytes), valueBytes);
+        });
+
+        // write file
+        Path path = Paths.get(filePath);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+
+            ByteBuffer count = ByteBuffer.allocate(4).putInt(0, chunks.size());
+            ByteBuffer table = ByteBuffer.allocate(chunks.size() * CHUNK_TABLE_ENTRY_BYTES);
+            long offset = GridFileHeader.HEADER_BYTES + 4 + (long)chunks.size() * CHUNK_TABLE_ENTRY_BYTES;
+            for (int ii=0; ii<chunks.size(); ii++) {
+                CRC32C crc = new CRC32C();
+                crc.update(compressed[ii]);
+                table.putLong(chunks.get(ii)[0]);
+                table.putInt((int)chunks.get(ii)[1]);
+                table.putLong(offset);
+                table.putInt(compressed[ii].length);
+                table.putInt((int)crc.getValue());
+                writeFully(channel, ByteBuffer.wrap(compressed[ii]), offset);
+                offset += compressed[ii].length;
+            }
+            table.flip();
+            CRC32C crc = new CRC32C();
+            GridFileHeader.updateChecksum(crc, count);
+            GridFileHeader.updateChecksum(crc, table);
+            writeFully(channel, count, GridFileHeader.HEADER_BYTES);
+            writeFully(channel, table, GridFileHeader.HEADER_BYTES + 4);
+
+            GridFileHeader header = new GridFileHeader(grid.size, scale.fingerprint());
+            header.setCompressed(float32);
+            header.setChecksum(crc.getValue());
+            header.write(channel);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    /**
+     * METHOD TO COMPRESS SHUFFLED VALUES, ONE BYTE PLANE AT A TIME
+     *
+     * Planes that do not compress on a sample (typically the trailing mantissa bytes, which are dominated by
+     * numerical noise) are stored without compression, which saves most of the time otherwise spent deflating
+     *
+     * Encoding per plane: byte PLANE_STORED or PLANE_DEFLATED, int encoded bytes, encoded bytes
+     */
+    static byte[] encodePlanes(byte[] shuffled, int valueBytes) {
+
+        int number = shuffled.length / valueBytes;
+        ByteBuffer result = ByteBuffer.allocate(shuffled.length + valueBytes * 5);
+        byte[] buffer = new byte[Math.max(number, 64)];
+        for (int bb=0; bb<valueBytes; bb++) {
+            int sample = Math.min(number, PLANE_SAMPLE_BYTES);
+            int sampleLength = deflate(shuffled, bb * number, sample, buffer);
+            int length = -1;
+            if (sampleLength >= 0 && sampleLength < sample * MIN_PLANE_COMPRESSION)
+                length = (sample == number) ? sampleLength : deflate(shuffled, bb * number, number, buffer);
+            if (length >= 0) {
+                result.put(PLANE_DEFLATED).putInt(length).put(buffer, 0, length);
+            } else {
+                result.put(PLANE_STORED).putInt(number).put(shuffled, bb * number, number);
+            }
+        }
+        return Arrays.copyOf(result.array(), result.position());
+    }
+
+    static byte[] decodePlanes(ByteBuffer encoded, int number, int valueBytes) throws IOException {
+
+        byte[] shuffled = new byte[number * valueBytes];
+        try {
+            for (int bb=0; bb<valueBytes; bb++) {
+                byte mode = encoded.get();
+                int length = encoded.getInt();
+                if (mode == PLANE_STORED) {
+                    if (length != number) throw new IOException("stored byte plane of unexpected length");
+                    encoded.get(shuffled, bb * number, number);
+                } else if (mode == PLANE_DEFLATED) {
+                    Inflater inflater = new Inflater();
+                    try {
+                        inflater.setInput(encoded.slice(encoded.position(), length));
+                        int read = 0;
+                        while (read < number && !inflater.finished()) {
+                            int nn = inflater.inflate(shuffled, bb * number + read, number - read);
+                            if (nn == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                            read += nn;
+                        }
+                        if (read != number) throw new IOException("deflated byte plane is truncated");
+                    } catch (DataFormatException e) {
+                        throw new IOException("deflated byte plane is corrupted", e);
+                    } finally {
+                        inflater.end();
+                    }
+                    encoded.position(encoded.position() + length);
+                } else {
+                    throw new IOException("byte plane encoding " + mode + " not recognised");
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("compressed chunk is truncated", e);
+        }
+        return shuffled;
+    }
+
+    /**
+     * @return number of bytes written to buffer, or -1 if the deflated data would not fit in the buffer
+     */
+    private static int deflate(byte[] data, int offset, int length, byte[] buffer) {
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished()) {
+                if (written == buffer.length) return -1;
+                written += deflater.deflate(buffer, written, buffer.length - written);
+            }
+            return written;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] shuffle(byte[] data, int valueBytes) {
+
+        int number = data.length / valueBytes;
+        byte[] result = new byte[data.length];
+        for (int ii=0; ii<number; ii++) {
+            for (int bb=0; bb<valueBytes; bb++) {
+                result[bb * number + ii] = data[ii * valueBytes + bb];
+            }
+        }
+        return result;
+    }
+
+    static byte[] unshuffle(byte[] data, int valueBytes) {
+
+        int number = data.length / valueBytes;
+        byte[] result = new byte[data.length];
+        for (int ii=0; ii<number; ii++) {
+            for (int bb=0; bb<valueBytes; bb++) {
+                result[ii * valueBytes + bb] = data[bb * number + ii];
+            }
+        }
+        return result;
+    }
+}
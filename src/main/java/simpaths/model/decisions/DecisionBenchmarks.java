@@ -0,0 +1,643 @@
+package simpaths.model.decisions;
+
+import simpaths.data.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+
+/**
+ *
+ * CLASS TO BENCHMARK ALTERNATIVE IMPLEMENTATIONS OF ROUTINES USED FOR INTERTEMPORAL OPTIMISATION DECISIONS
+ *
+ * METHODS ARE CALLED IN PLACE OF A SIMULATION (SEE DecisionTests FOR SIMILAR DIAGNOSTICS) AND REPORT TO THE CONSOLE
+ *
+ */
+public class DecisionBenchmarks {
+
+
+    /**
+     * METHOD TO SET DecisionParams TO DESCRIBE THE DEFAULT STATE SPACE OF A UK SIMULATION, WITHOUT LOADING MODEL
+     * PARAMETERS FROM DISK
+     *
+     * Values mirror the SimPathsModel defaults (health, disability, education and low wage offers included in
+     * the state space), for simulations from 2019 to 2070.
+     */
+    public static void setDefaultScaleParameters() {
+
+        Parameters.flagSocialCare = false;
+        DecisionParams.maxAge = 100;
+        DecisionParams.maxAgeFlexibleLabourSupply = Parameters.MAX_AGE_FLEXIBLE_LABOUR_SUPPLY;
+        DecisionParams.optionsEmployment1 = 3;
+        DecisionParams.optionsEmployment2 = 3;
+        DecisionParams.flagHealth = true;
+        DecisionParams.minAgeForPoorHealth = 45;
+        DecisionParams.flagDisability = true;
+        DecisionParams.flagRegion = false;
+        DecisionParams.flagEducation = true;
+        DecisionParams.flagPrivatePension = false;
+        DecisionParams.flagRetirement = false;
+        DecisionParams.flagLowWageOffer1 = true;
+        DecisionParams.minAgeToRetire = Parameters.MIN_AGE_TO_RETIRE;
+        DecisionParams.minAgeReceiveSocialCare = Parameters.MIN_AGE_SOCIAL_CARE;
+        DecisionParams.startYear = 2019;
+        DecisionParams.minBirthYear = DecisionParams.startYear - 80;
+        DecisionParams.ptsBirthYear = 1 + (int)((2070 - 20 - DecisionParams.minBirthYear) / 20 + 0.5);
+        DecisionParams.maxBirthYear = DecisionParams.minBirthYear + (DecisionParams.ptsBirthYear - 1) *
+                (int)((2070 - 20 - DecisionParams.minBirthYear) / (DecisionParams.ptsBirthYear - 1) + 0.5);
+    }
+
+
+    /**
+     * METHOD TO COMPARE ON-HEAP AND MEMORY-MAPPED STORAGE OF GRIDS
+     *
+     * Populates a full set of grids for the default state space, saves them to a temporary directory, and then
+     * reports the time taken to load the grids onto the heap versus mapping them, and the time for sequential
+     * and random access to values of the value function from each store
+     */
+    public static void gridStorage() {
+
+        setDefaultScaleParameters();
+        Grids heap = new Grids();
+        long size = heap.valueFunction.size;
+        System.out.println("Grid storage benchmark: value function holds " + size + " values (" +
+                String.format("%.1f", 8.0 * size / 1.0E6) + " MB)");
+
+        // populate grids and write to disk
+        Random random = new Random(505);
+        for (Grid grid : heap.getGridList()) {
+            for (long ii=0; ii<grid.size; ii++) {
+                grid.put(ii, random.nextDouble());
+            }
+        }
+        String directory;
+        try {
+            directory = Files.createTempDirectory("grids").toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String outputDirectory = DecisionParams.gridsOutputDirectory;
+        String inputDirectory = DecisionParams.gridsInputDirectory;
+        DecisionParams.gridsOutputDirectory = directory;
+        DecisionParams.gridsInputDirectory = directory;
+        ManagerFileGrids.unformattedWrite(heap);
+
+        // load grids
+        long start = System.nanoTime();
+        Grids loaded = new Grids();
+        ManagerFileGrids.read(loaded);
+        double timeHeap = (System.nanoTime() - start) / 1.0E9;
+        start = System.nanoTime();
+        Grids mapped;
+        try {
+            mapped = new Grids(directory, true, false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        double timeMapped = (System.nanoTime() - start) / 1.0E9;
+        System.out.println("Time to load grids: heap " + String.format("%.3f", timeHeap) + " seconds; mapped " +
+                String.format("%.3f", timeMapped) + " seconds");
+
+        // access times
+        long[] indices = new long[5000000];
+        for (int ii=0; ii<indices.length; ii++) {
+            indices[ii] = (long)(random.nextDouble() * size);
+        }
+        for (int rep=0; rep<3; rep++) {
+            reportAccessTime("heap", loaded.valueFunction, indices);
+            reportAccessTime("mapped", mapped.valueFunction, indices);
+        }
+
+        // tidy up
+        mapped.close();
+        deleteDirectory(directory);
+        DecisionParams.gridsOutputDirectory = outputDirectory;
+        DecisionParams.gridsInputDirectory = inputDirectory;
+    }
+
+    /**
+     * METHOD TO REPORT STORAGE REQUIREMENTS AND LOAD TIMES OF UNFORMATTED AND COMPRESSED GRID FILES
+     *
+     * Grids for the default state space are populated with values that vary smoothly over the continuous (inner)
+     * states, as optimised solutions do, subject to noise of order 1.0E-6. Reports file sizes, time to save and
+     * load the grids, and the time to access the first age slice of lazily decompressed grids
+     */
+    public static void gridCompression() {
+
+        setDefaultScaleParameters();
+        Grids heap = new Grids();
+        GridScale scale = heap.scale;
+        Random random = new Random(505);
+        for (Grid grid : heap.getGridList()) {
+            for (int aa=0; aa<scale.simLifeSpan; aa++) {
+                long start = scale.gridDimensions[aa][3];
+                long inner = scale.gridDimensions[aa][0];
+                long end = Math.min(start + scale.gridDimensions[aa][2], grid.size);
+                for (long ii=start; ii<end; ii++) {
+                    double xx = (double)((ii - start) % inner) / inner;
+                    double level = 1.0 + 0.1 * (((ii - start) / inner) % 11);
+                    double value = (grid == heap.valueFunction) ? level * Math.log(0.1 + xx) : Math.min(1.0, level * xx);
+                    grid.put(ii, value + 1.0E-6 * random.nextDouble());
+                }
+            }
+        }
+        String directory;
+        try {
+            directory = Files.createTempDirectory("grids").toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String outputDirectory = DecisionParams.gridsOutputDirectory;
+        String inputDirectory = DecisionParams.gridsInputDirectory;
+        boolean compress = DecisionParams.compressGrids;
+        boolean quantise = DecisionParams.quantiseGridPolicies;
+        DecisionParams.gridsOutputDirectory = directory;
+        DecisionParams.gridsInputDirectory = directory;
+
+        for (int format=0; format<3; format++) {
+
+            DecisionParams.compressGrids = (format > 0);
+            DecisionParams.quantiseGridPolicies = (format == 2);
+            String label = (format == 0) ? "unformatted" : ((format == 1) ? "compressed" : "compressed with float32 policies");
+            long start = System.nanoTime();
+            ManagerFileGrids.unformattedWrite(heap);
+            double timeWrite = (System.nanoTime() - start) / 1.0E9;
+            long bytes = 0;
+            File[] files = new File(directory).listFiles();
+            if (files != null) {
+                for (File file : files) bytes += file.length();
+            }
+
+            start = System.nanoTime();
+            Grids loaded;
+            double timeFirstAge = 0.0;
+            if (format == 0) {
+                loaded = new Grids();
+                ManagerFileGrids.read(loaded);
+            } else {
+                try {
+                    loaded = Grids.readCompressed(directory);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                long startAge = System.nanoTime();
+                loaded.valueFunction.get(scale.gridDimensions[0][3]);
+                loaded.consumption.get(scale.gridDimensions[0][3]);
+                timeFirstAge = (System.nanoTime() - startAge) / 1.0E9;
+            }
+            double timeRead = (System.nanoTime() - start) / 1.0E9;
+            double maxError = 0.0;
+            for (long ii=0; ii<heap.consumption.size; ii+=97) {
+                maxError = Math.max(maxError, Math.abs(loaded.consumption.get(ii) - heap.consumption.get(ii)));
+            }
+            loaded.close();
+            System.out.println(label + ": " + String.format("%.1f", bytes / 1.0E6) + " MB; save " +
+                    String.format("%.3f", timeWrite) + " seconds; load " + String.format("%.3f", timeRead) +
+                    " seconds (of which first age " + String.format("%.3f", timeFirstAge) + "); max consumption error " + maxError);
+        }
+
+        // tidy up
+        deleteDirectory(directory);
+        DecisionParams.gridsOutputDirectory = outputDirectory;
+        DecisionParams.gridsInputDirectory = inputDirectory;
+        DecisionParams.compressGrids = compress;
+        DecisionParams.quantiseGridPolicies = quantise;
+    }
+
+    /**
+     * METHOD TO REPORT TIME AND HEAP ALLOCATION PER CALL TO Grid.interpolateAll
+     *
+     * Compares the current implementation against the implementation that copied the supplied States and
+     * allocated working arrays on each call (retained below as legacyInterpolateAll), for random state
+     * combinations of the default state space, and confirms that both return identical values
+     */
+    public static void interpolation() {
+
+        setDefaultScaleParameters();
+        GridScale scale = new GridScale();
+        Grid grid = new Grid(scale, Grids.getValueFunctionSize(scale));
+        for (long ii=0; ii<grid.size; ii++) {
+            grid.put(ii, Math.sin(ii * 1.0E-3));
+        }
+
+        // random state combinations
+        Random random = new Random(505);
+        States[] states = new States[100000];
+        for (int nn=0; nn<states.length; nn++) {
+            int aa = random.nextInt(scale.simLifeSpan);
+            states[nn] = new States(scale, aa + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+            for (int ii=0; ii<states[nn].labStatesContObject.length; ii++) {
+                double[] axis = scale.axes[aa][ii];
+                if (axis[3] > 0.3) {
+                    states[nn].labStatesContObject[ii] = axis[1] + random.nextDouble() * (axis[2] - axis[1]);
+                } else {
+                    int points = (int)Math.round(axis[0]);
+                    states[nn].labStatesContObject[ii] = axis[1] + ((points > 1) ? random.nextInt(points) * (axis[2] - axis[1]) / (points - 1) : 0.0);
+                }
+            }
+        }
+        for (States state : states) {
+            if (grid.interpolateAll(state, false) != legacyInterpolateAll(grid, state, false))
+                throw new RuntimeException("interpolation does not match legacy implementation");
+        }
+
+        // timing
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int rep=0; rep<5; rep++) {
+            for (int version=0; version<2; version++) {
+                double sum = 0.0;
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                for (int pass=0; pass<10; pass++) {
+                    for (States state : states) {
+                        sum += (version == 0) ? legacyInterpolateAll(grid, state, false) : grid.interpolateAll(state, false);
+                    }
+                }
+                double time = (System.nanoTime() - start) / (10.0 * states.length);
+                double allocated = (threads.getThreadAllocatedBytes(thread) - bytes) / (10.0 * states.length);
+                System.out.println(((version == 0) ? "legacy" : "current") + " interpolation: " + String.format("%.1f", time) +
+                        " ns/call; " + String.format("%.1f", allocated) + " bytes/call (checksum " + String.format("%.3f", sum) + ")");
+            }
+        }
+    }
+
+    /**
+     * METHOD TO COMPARE LOOK-UPS OF OPTIMISED DECISIONS BY THE SIMULATED POPULATION WITH AND WITHOUT PolicyLookup
+     *
+     * Mimics the decisions projected for each benefit unit in each simulated year (see BenefitUnit): employment of
+     * the principal earner, and of the secondary earner of couples, for ages with flexible labour supply, and
+     * discretionary consumption for all ages. Look-ups are made for 500,000 random state combinations, which bounds
+     * the number of benefit units in a population of 500,000 persons, and are confirmed to be identical
+     */
+    public static void policyLookup() {
+
+        setDefaultScaleParameters();
+        Grids grids = new Grids();
+        for (Grid grid : grids.getGridList()) {
+            for (long ii=0; ii<grid.size; ii++) {
+                grid.put(ii, 0.5 + 0.4 * Math.sin(ii * 1.0E-3));
+            }
+        }
+        GridScale scale = grids.scale;
+
+        // random state combinations
+        Random random = new Random(606);
+        int population = 500000;
+        States[] states = new States[population];
+        boolean[] couple = new boolean[population];
+        for (int nn=0; nn<population; nn++) {
+            int aa = random.nextInt(scale.simLifeSpan);
+            states[nn] = new States(scale, aa + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+            for (int ii=0; ii<states[nn].labStatesContObject.length; ii++) {
+                double[] axis = scale.axes[aa][ii];
+                if (axis[3] > 0.3) {
+                    states[nn].labStatesContObject[ii] = axis[1] + random.nextDouble() * (axis[2] - axis[1]);
+                } else {
+                    int points = (int)Math.round(axis[0]);
+                    states[nn].labStatesContObject[ii] = axis[1] + ((points > 1) ? random.nextInt(points) * (axis[2] - axis[1]) / (points - 1) : 0.0);
+                }
+            }
+            couple[nn] = random.nextBoolean();
+        }
+        for (int nn=0; nn<population; nn++) {
+            PolicyLookup lookup = new PolicyLookup(states[nn]);
+            if (lookup.interpolate(grids.consumption) != grids.consumption.interpolateAll(states[nn], false))
+                throw new RuntimeException("policy look-up does not match interpolation of grids");
+            if (states[nn].ageYears <= DecisionParams.maxAgeFlexibleLabourSupply &&
+                    lookup.interpolate(grids.employment1) != grids.employment1.interpolateAll(states[nn], false))
+                throw new RuntimeException("policy look-up does not match interpolation of grids");
+        }
+
+        // timing
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int rep=0; rep<5; rep++) {
+            for (int version=0; version<2; version++) {
+                double sum = 0.0;
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                for (int nn=0; nn<population; nn++) {
+                    boolean flexible = states[nn].ageYears <= DecisionParams.maxAgeFlexibleLabourSupply;
+                    if (version == 0) {
+                        if (flexible) sum += grids.employment1.interpolateAll(states[nn], false);
+                        if (flexible && couple[nn]) sum += grids.employment2.interpolateAll(states[nn], false);
+                        sum += grids.consumption.interpolateAll(states[nn], false);
+                    } else {
+                        PolicyLookup lookup = new PolicyLookup(states[nn]);
+                        if (flexible) sum += lookup.interpolate(grids.employment1);
+                        if (flexible && couple[nn]) sum += lookup.interpolate(grids.employment2);
+                        sum += lookup.interpolate(grids.consumption);
+                    }
+                }
+                double time = (System.nanoTime() - start) / 1.0E6;
+                double allocated = (threads.getThreadAllocatedBytes(thread) - bytes) / (double)population;
+                System.out.println(((version == 0) ? "grid interpolation" : "policy look-up") + ": " + String.format("%.1f", time) +
+                        " ms/year; " + String.format("%.1f", allocated) + " bytes/benefit unit (checksum " + String.format("%.3f", sum) + ")");
+            }
+        }
+    }
+
+    /**
+     * METHOD TO COMPARE INTERPOLATION OF ANTICIPATED STATES ONE AT A TIME AGAINST BATCH INTERPOLATION
+     *
+     * Mimics CESUtility.evaluate: each batch describes the anticipated states of a single expectations vector, which
+     * are interpolated for a sequence of liquid wealth values as considered by the minimisation routine
+     */
+    public static void batchInterpolation() {
+
+        setDefaultScaleParameters();
+        GridScale scale = new GridScale();
+        Grid grid = new Grid(scale, Grids.getValueFunctionSize(scale));
+        for (long ii=0; ii<grid.size; ii++) {
+            grid.put(ii, Math.sin(ii * 1.0E-3));
+        }
+
+        // random expectations vectors
+        Random random = new Random(707);
+        int numberBatches = 1000, numberAnticipated = 48, numberWealth = 40;
+        States[][] anticipated = new States[numberBatches][numberAnticipated];
+        Grid.InterpolationBatch[] batches = new Grid.InterpolationBatch[numberBatches];
+        double[][] wealth = new double[numberBatches][numberWealth];
+        for (int bb=0; bb<numberBatches; bb++) {
+            int aa = random.nextInt(scale.simLifeSpan);
+            for (int nn=0; nn<numberAnticipated; nn++) {
+                States states = new States(scale, aa + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+                for (int ii=0; ii<states.labStatesContObject.length; ii++) {
+                    double[] axis = scale.axes[aa][ii];
+                    if (axis[3] > 0.6) {
+                        states.labStatesContObject[ii] = axis[1] + random.nextDouble() * (axis[2] - axis[1]);
+                    } else {
+                        int points = (int)Math.round(axis[0]);
+                        states.labStatesContObject[ii] = axis[1] + ((points > 1) ? random.nextInt(points) * (axis[2] - axis[1]) / (points - 1) : 0.0);
+                    }
+                }
+                anticipated[bb][nn] = states;
+            }
+            batches[bb] = grid.prepareBatch(anticipated[bb], null, true);
+            double[] axis = scale.axes[aa][0];
+            for (int ww=0; ww<numberWealth; ww++) {
+                wealth[bb][ww] = axis[1] + random.nextDouble() * (axis[2] - axis[1]);
+            }
+        }
+        double[] result = new double[numberAnticipated];
+        for (int bb=0; bb<numberBatches; bb++) {
+            for (int ww=0; ww<numberWealth; ww++) {
+                grid.interpolateBatch(batches[bb], wealth[bb][ww], result);
+                for (int nn=0; nn<numberAnticipated; nn++) {
+                    anticipated[bb][nn].labStatesContObject[0] = wealth[bb][ww];
+                    if (grid.interpolateAll(anticipated[bb][nn], true) != result[nn])
+                        throw new RuntimeException("batch interpolation does not match interpolation of individual states");
+                }
+            }
+        }
+
+        // timing
+        long calls = (long)numberBatches * numberWealth * numberAnticipated;
+        for (int rep=0; rep<5; rep++) {
+            for (int version=0; version<2; version++) {
+                double sum = 0.0;
+                long start = System.nanoTime();
+                for (int bb=0; bb<numberBatches; bb++) {
+                    for (int ww=0; ww<numberWealth; ww++) {
+                        if (version == 0) {
+                            for (States states : anticipated[bb]) {
+                                states.labStatesContObject[0] = wealth[bb][ww];
+                                sum += grid.interpolateAll(states, true);
+                            }
+                        } else {
+                            grid.interpolateBatch(batches[bb], wealth[bb][ww], result);
+                            for (double value : result) sum += value;
+                        }
+                    }
+                }
+                double time = (System.nanoTime() - start) / (double)calls;
+                System.out.println(((version == 0) ? "individual" : "batch") + " interpolation: " + String.format("%.1f", time) +
+                        " ns/state (checksum " + String.format("%.3f", sum) + ")");
+            }
+        }
+    }
+
+    /**
+     * METHOD TO COMPARE SEARCHES FOR OPTIMAL CONSUMPTION WITH AND WITHOUT WARM STARTS
+     *
+     * Mimics the consumption problem solved by UtilityMaximisation for a row of liquid wealth grid points, using
+     * CES utility of consumption and a concave continuation value in place of CESUtility. Reports utility function
+     * evaluations and time per state for searches started from the default guess, and from the solution for the
+     * preceding wealth point (see SolveScheduler)
+     */
+    public static void consumptionSearch() {
+
+        int numberRows = 2000, numberWealth = 26;
+        double[][] cashOnHand = new double[numberRows][numberWealth];
+        double[] discount = new double[numberRows];
+        Random random = new Random(808);
+        for (int rr=0; rr<numberRows; rr++) {
+            double income = 5000.0 + random.nextDouble() * 60000.0;
+            discount[rr] = 0.9 + random.nextDouble() * 0.1;
+            for (int ww=0; ww<numberWealth; ww++) {
+                double wealth = Math.exp(Math.log(1000.0) + ww * (Math.log(1.0E6) - Math.log(1000.0)) / (numberWealth - 1)) - 1000.0;
+                cashOnHand[rr][ww] = income + wealth;
+            }
+        }
+
+        for (int rep=0; rep<5; rep++) {
+            for (int version=0; version<2; version++) {
+                long evaluations = 0;
+                double sum = 0.0;
+                long start = System.nanoTime();
+                for (int rr=0; rr<numberRows; rr++) {
+                    double share = Double.NaN;
+                    for (int ww=0; ww<numberWealth; ww++) {
+                        final double coh = cashOnHand[rr][ww], delta = discount[rr];
+                        double[] lower = {DecisionParams.MIN_CONSUMPTION_PER_YEAR};
+                        double[] upper = {coh};
+                        double[] target = {(version == 1 && !Double.isNaN(share)) ?
+                                Math.max(lower[0], Math.min(upper[0], share * coh)) : lower[0] * 0.8 + upper[0] * 0.2};
+                        Minimiser problem = new Minimiser(lower, upper, target, args -> {
+                            double consumption = args[0] / CESUtility.ANNUAL_CONSUMPTION_NORMALISATION_FACTOR;
+                            double saving = (coh - args[0] + 2000.0) / CESUtility.ANNUAL_CONSUMPTION_NORMALISATION_FACTOR;
+                            return 1.0 / consumption + delta * 12.0 / saving;
+                        });
+                        problem.warmStart = (version == 1 && !Double.isNaN(share));
+                        problem.minimise();
+                        evaluations += problem.getEvaluations();
+                        share = problem.target[0] / coh;
+                        sum += share;
+                    }
+                }
+                long states = (long)numberRows * numberWealth;
+                double time = (System.nanoTime() - start) / (double)states;
+                System.out.println(((version == 0) ? "default start" : "warm start") + ": " +
+                        String.format("%.1f", (double)evaluations / states) + " evaluations/state, " +
+                        String.format("%.0f", time) + " ns/state (mean consumption share " + String.format("%.6f", sum / states) + ")");
+            }
+        }
+    }
+
+    /**
+     * METHOD TO COMPARE EXACT TAX DONOR IMPUTATIONS AGAINST INTERPOLATION OF TABULATED IMPUTATIONS (TaxBenefitTable)
+     *
+     * The exact imputation is mimicked by a nearest neighbour search over a synthetic pool of 5,000 donors, with
+     * disposable income that is a piecewise linear function of original income. Queries mimic Expectations for one
+     * age of couples, with original incomes drawn at random for combinations of household characteristics other than
+     * income (tables). Reports time per query, nodes evaluated per query, and validation statistics, as the number of
+     * queries per table increases: the table only saves time where tables receive many more queries than nodes
+     */
+    public static void taxBenefitTable() {
+
+        int numberDonors = 5000;
+        double[] donorIncome = new double[numberDonors];
+        double[] donorDisposable = new double[numberDonors];
+        Random random = new Random(2468);
+        for (int ii=0; ii<numberDonors; ii++) {
+            donorIncome[ii] = -5000.0 + 60000.0 * Math.pow(random.nextDouble(), 3.0);
+            double taxable = Math.max(0.0, donorIncome[ii] - 1000.0);
+            donorDisposable[ii] = donorIncome[ii] - 0.2 * taxable - 0.2 * Math.max(0.0, taxable - 4000.0) +
+                    Math.max(0.0, 800.0 - 0.6 * Math.max(0.0, donorIncome[ii]));
+        }
+        TaxBenefitTable.Imputation imputation = (year, age, numberAdults, nU5, n5To9, n10To17, hours1, hours2,
+                                                  disability1, disability2, careProvision, originalIncome, secondIncome,
+                                                  childcareCost) -> {
+            int best = 0;
+            double bestDistance = Double.MAX_VALUE;
+            for (int ii=0; ii<numberDonors; ii++) {
+                double distance = Math.abs(donorIncome[ii] - originalIncome) + 0.1 * Math.abs(ii % 7 - nU5 - n5To9);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = ii;
+                }
+            }
+            double adjust = (originalIncome - donorIncome[best]) * 0.6;
+            return donorDisposable[best] + adjust - 0.1 * secondIncome + 50.0 * (nU5 + n5To9 + n10To17) - childcareCost * 0.3;
+        };
+
+        int numberTables = 24;
+        for (int queriesPerTable : new int[]{100, 1000, 10000}) {
+            int numberQueries = numberTables * queriesPerTable;
+            double[] income = new double[numberQueries];
+            double[] share = new double[numberQueries];
+            for (int qq=0; qq<numberQueries; qq++) {
+                income[qq] = Math.exp(Math.log(100.0) + random.nextDouble() * (Math.log(20000.0) - Math.log(100.0)));
+                share[qq] = 0.5 * random.nextDouble();
+            }
+            for (int version=0; version<2; version++) {
+                TaxBenefitTable table = new TaxBenefitTable(imputation);
+                double sum = 0.0;
+                long start = System.nanoTime();
+                for (int qq=0; qq<numberQueries; qq++) {
+                    int tt = qq % numberTables;
+                    int nU5 = tt % 3, n5To9 = (tt / 3) % 2;
+                    double hours1 = 40.0, hours2 = 10.0 * ((tt / 6) % 4), childcare = 100.0 * nU5;
+                    if (version == 0) {
+                        sum += imputation.evaluate(2030, 35, 2, nU5, n5To9, 0, hours1, hours2, 0, 0, 0,
+                                income[qq], income[qq] * share[qq], childcare);
+                    } else {
+                        sum += table.getImputedDisposableIncomePerMonth(2030, 35, 2, nU5, n5To9, 0, hours1, hours2, 0, 0, 0,
+                                income[qq], income[qq] * share[qq], childcare);
+                    }
+                }
+                double time = (System.nanoTime() - start) / (double)numberQueries;
+                System.out.println(queriesPerTable + " queries/table, " + ((version == 0) ? "exact: " : "tabulated: ") +
+                        String.format("%.0f", time) + " ns/query (mean " + String.format("%.2f", sum / numberQueries) + ")" +
+                        ((version == 0) ? "" : ", " + String.format("%.3f", table.getNodesPerQuery()) + " nodes/query, " +
+                                table.getValidation()));
+            }
+        }
+    }
+
+    /**
+     * IMPLEMENTATION OF Grid.interpolateAll PRIOR TO PRECOMPUTATION OF STRIDES, RETAINED FOR COMPARISON
+     */
+    private static double legacyInterpolateAll(Grid grid, States supplied, boolean solutionCall) {
+
+        GridScale scale = grid.scale;
+        States copy = new States(supplied);
+        int noStates = (int)scale.gridDimensions[supplied.ageIndex][4] + (int)scale.gridDimensions[supplied.ageIndex][5];
+        double continuousCutoff = 0.3;
+        if (solutionCall) continuousCutoff += 0.3;
+        int dimensions = 0;
+        for (int ii=0; ii<noStates; ii++) {
+            if (scale.axes[supplied.ageIndex][ii][3] > continuousCutoff) {
+                dimensions++;
+                copy.labStatesContObject[ii] = scale.axes[supplied.ageIndex][ii][1];
+            }
+        }
+        long startingIndex = copy.returnGridIndex();
+
+        final double TOL = Math.ulp(1.0);
+        int[] dims = new int[dimensions];
+        int[] offset = new int[dimensions];
+        int[] mm = new int[dimensions];
+        int[] nn = new int[dimensions];
+        int[] dd = new int[dimensions];
+        double[] ss = new double[dimensions];
+        double[] weight = new double[(int)Math.pow(2,dimensions)];
+        dims[0] = (int)(scale.axes[supplied.ageIndex][0][0]+TOL);
+        offset[0] = 1;
+        for (int ii=1; ii<dimensions; ii++) {
+            dims[ii] = (int)(scale.axes[supplied.ageIndex][ii][0]+TOL);
+            offset[ii] = offset[ii-1] * dims[ii-1];
+        }
+        for (int ii = 0; ii<dimensions; ii++) {
+            ss[ii] = (supplied.labStatesContObject[ii] - scale.axes[supplied.ageIndex][ii][1]) *
+                    (scale.axes[supplied.ageIndex][ii][0]-1) /
+                    (scale.axes[supplied.ageIndex][ii][2] - scale.axes[supplied.ageIndex][ii][1]);
+            mm[ii] = (int)(ss[ii] + TOL);
+            if ( mm[ii] == (dims[ii]-1) ) mm[ii] -= 1;
+            ss[ii] -= mm[ii];
+        }
+        dd[0] = -1;
+        double result = 0, weightTotal = 0;
+        for (int ii=0; ii<Math.pow(2, dimensions); ii++) {
+            dd[0] += 1;
+            int jj = 0;
+            while (dd[jj] > 1) {
+                dd[jj] = 0;
+                jj++;
+                dd[jj] += 1;
+            }
+            weight[ii] = 1.0;
+            for (jj=0; jj<dimensions; jj++) {
+                nn[jj] = mm[jj] + dd[jj];
+                weight[ii] *= (1 - Math.abs(dd[jj]-ss[jj]));
+            }
+            if ( weight[ii] > (1.0/Math.pow(2,dimensions)*1.0E-3)) {
+                long indexHere = startingIndex;
+                for (jj = 0; jj<dimensions; jj++) {
+                    indexHere += (long)nn[jj] * offset[jj];
+                }
+                result += grid.getChecked(supplied, indexHere) * weight[ii];
+                weightTotal += weight[ii];
+            }
+        }
+        return result / weightTotal;
+    }
+
+    private static void deleteDirectory(String directory) {
+        File[] files = new File(directory).listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        new File(directory).delete();
+    }
+
+    private static void reportAccessTime(String label, Grid grid, long[] indices) {
+
+        double sum = 0.0;
+        long start = System.nanoTime();
+        for (long ii=0; ii<grid.size; ii++) {
+            sum += grid.get(ii);
+        }
+        double timeSequential = (System.nanoTime() - start) / (double)grid.size;
+        start = System.nanoTime();
+        for (long index : indices) {
+            sum += grid.get(index);
+        }
+        double timeRandom = (System.nanoTime() - start) / (double)indices.length;
+        System.out.println("Access to " + label + " store: sequential " + String.format("%.2f", timeSequential) +
+                " ns/value; random " + String.format("%.2f", timeRandom) + " ns/value (checksum " + String.format("%.3f", sum) + ")");
+    }
+}
@@ -13,16 +13,32 @@ public class DecisionParams {
 
     // RUNNING OPTIONS
     public static final boolean PARALLELISE_SOLUTIONS = true;
+    public static int solverThreads = 0;                             // threads used to solve grids (0 = all available processors)
+    public static int solverProcesses = 1;                           // processes sharing solution of grids (see DistributedSolve)
+    public static int solverProcessRank = 0;                         // index of this process among those sharing solution (0 = coordinator)
+    public static String sharedGridsDirectory;                       // directory of grid files shared between processes
+    public static int solverProcessTimeout = 120;                    // seconds without a heartbeat after which a process sharing the solution is presumed failed (see DistributedSolve)
     public static boolean saveGridSlicesToCSV = true;
-    public static boolean saveIntermediateSolutions = false;
     public static boolean saveImperfectTaxDbMatches = false;
+    public static boolean mapGridsToFile = false;                    // store grids off-heap, in memory-mapped files (see MappedGridStore)
+    public static boolean compressGrids = false;                     // save grids in compressed files (see ChunkedGridStore)
+    public static boolean quantiseGridPolicies = false;              // if compressGrids, save policy grids at single precision (as float32PolicyGrids - see checkGridPrecision)
+    public static boolean float32PolicyGrids = false;                // hold solved policy grids in memory at single precision (see GridQuantisation)
+    public static boolean float32ValueFunction = false;              // hold solved value function in memory at single precision (see GridQuantisation)
+    public static boolean verifyGridChecksums = true;               // confirm checksums of grid files when loaded from disk (see GridFileHeader)
+    public static boolean tabulateTaxBenefits = false;               // approximate tax donor imputations in IO solution by interpolating tabulated imputations (see TaxBenefitTable)
+    public static boolean resolveChangedAges = false;                // re-solve saved grids from the oldest age for which the period problem has changed (see PeriodSignatures)
+    public static String checkpointDirectory;                        // directory to checkpoint solutions by age, and to resume interrupted solutions (see SolveCheckpoint)
+    public static boolean solverTelemetry = false;                   // time phases of grid solutions, and save statistics by age with grids (see SolveTelemetry)
+    public static String stateNodesFile;                             // file of nodes describing continuous states that are adapted to curvature of value function (see StateNodes)
+    public static boolean warmStartConsumption = false;              // starts search for optimal consumption from solution for preceding liquid wealth grid point (see SolveScheduler)
 
     public static final boolean FILTER_LOCAL_EXPECTATIONS = true;    // screens expectations to omit low probability events
     public static final double MIN_STATE_PROBABILITY = 0.01;          // if FILTER_LOCAL_EXPECTATIONS, omits state-specific events with probability under this threshold
     public static final double MIN_FACTOR_PROBABILITY = 0.05;         // if FILTER_LOCAL_EXPECTATIONS, omits events with probability less than mean probability multiplied by this threshold
-
-    public static final boolean SOLVE_FROM_INTERMEDIATE = false;
-    public static final int SOLVE_FROM_AGE = 36;                     // if SOLVE_FROM_INTERMEDIATE
+    public static final boolean MEMOISE_EXPECTATIONS = true;          // memoises regression based expectations shared by state combinations of the same age (see ExpectationsCache)
+    public static final boolean PARALLELISE_DISCRETE_CONTROLS = true; // evaluates discrete control combinations of a state combination concurrently, when solutions are parallelised (see ManagerSolveState)
+    public static final int MIN_PARALLEL_CONTROLS = 4;                // if PARALLELISE_DISCRETE_CONTROLS, minimum number of feasible discrete control combinations to evaluate concurrently
 
     // MODEL SETTINGS
     public static final double GRID_DEFAULT_VALUE = 999.0;
@@ -68,6 +84,8 @@ public class DecisionParams {
     //public static final int PTS_LIQUID_WEALTH = 21;                   // number of discrete points used to approximate liquid wealth
     public static final int PTS_LIQUID_WEALTH_WKG = 21;
     public static final int PTS_LIQUID_WEALTH_RTD = 21;
+    public static final int PTS_ADAPTIVE_LIQUID_WEALTH_WKG = 15;       // number of nodes used to approximate liquid wealth where adapted to curvature of value function (see StateNodes)
+    public static final int PTS_ADAPTIVE_LIQUID_WEALTH_RTD = 15;
     public static final double C_LIQUID_WEALTH = 50260.0;               // state-space summarised by logarithmic scale: w = exp(x) - c; larger c is closer to arithmetic scale
     public static double rSafeAssets;                                 // return to liquid wealth
     public static double rDebtLow;                                    // interest charge on net debt
@@ -143,13 +161,34 @@ public class DecisionParams {
                                       boolean respondToHealth, int minAgeForPoorHealth1, boolean respondToDisability,
                                       boolean responsesToRegion, boolean responsesToEducation, boolean responsesToPension,
                                       boolean responsesToLowWageOffer, boolean respondToRetirement,
-                                      boolean saveBehaviour, String readGrid, String outputDir, Integer startYearInit, Integer endYear) {
+                                      boolean saveBehaviour, boolean memoryMapGrids, boolean compressGrids1,
+                                      boolean quantiseGridPolicies1, boolean float32PolicyGrids1,
+                                      boolean float32ValueFunction1, Integer solverThreads1,
+                                      Integer solverProcesses1, Integer solverProcessRank1, String sharedGridsDirectory1, Integer solverProcessTimeout1,
+                                      boolean tabulateTaxBenefits1, boolean resolveChangedAges1, String checkpointDirectory1,
+                                      String stateNodesFile1, boolean solverTelemetry1, boolean warmStartConsumption1, String readGrid, String outputDir, Integer startYearInit, Integer endYear) {
 
         // read/write flags
         if (!saveBehaviour) {
             saveGridSlicesToCSV = false;
-            saveIntermediateSolutions = false;
         }
+        mapGridsToFile = memoryMapGrids;
+        compressGrids = compressGrids1;
+        checkGridPrecision(memoryMapGrids, compressGrids1, quantiseGridPolicies1, float32PolicyGrids1, float32ValueFunction1);
+        quantiseGridPolicies = quantiseGridPolicies1;
+        float32PolicyGrids = float32PolicyGrids1;
+        float32ValueFunction = float32ValueFunction1;
+        if (solverThreads1 != null) solverThreads = solverThreads1;
+        if (solverProcesses1 != null) solverProcesses = solverProcesses1;
+        if (solverProcessRank1 != null) solverProcessRank = solverProcessRank1;
+        sharedGridsDirectory = sharedGridsDirectory1;
+        if (solverProcessTimeout1 != null) solverProcessTimeout = solverProcessTimeout1;
+        tabulateTaxBenefits = tabulateTaxBenefits1;
+        resolveChangedAges = resolveChangedAges1;
+        checkpointDirectory = checkpointDirectory1;
+        stateNodesFile = stateNodesFile1;
+        solverTelemetry = solverTelemetry1;
+        warmStartConsumption = warmStartConsumption1;
 
         // asset returns
         rSafeAssets = Parameters.getSampleAverageRate(TimeVaryingRate.RealSavingReturns) + Parameters.realInterestRateInnov;
@@ -199,6 +238,24 @@ public class DecisionParams {
             saveImperfectTaxDbMatches = true;
     }
 
+    /**
+     * METHOD TO REJECT CONTRADICTORY PRECISIONS OF GRIDS
+     * Policy grids saved to compressed files at single precision (quantiseGridPolicies) are read back at single
+     * precision, and grids read from compressed or mapped files are not quantised in memory (see GridQuantisation), so
+     * the precision of saved policy grids must match the precision at which they are held in memory
+     */
+    static void checkGridPrecision(boolean memoryMapGrids, boolean compressGrids, boolean quantiseGridPolicies,
+                                   boolean float32PolicyGrids, boolean float32ValueFunction) {
+
+        if (quantiseGridPolicies && !compressGrids)
+            throw new RuntimeException("quantiseGridPolicies applies to compressed grid files only: set compressGrids, or unset quantiseGridPolicies");
+        if (memoryMapGrids && (float32PolicyGrids || float32ValueFunction))
+            throw new RuntimeException("grids mapped to file (memoryMapGrids) are held at double precision: unset float32PolicyGrids and float32ValueFunction");
+        if (compressGrids && quantiseGridPolicies != float32PolicyGrids)
+            throw new RuntimeException("with compressGrids, policy grids must be saved at the precision at which they are held in memory: " +
+                    "set quantiseGridPolicies and float32PolicyGrids to the same value");
+    }
+
     static void setGridsInputDirectory(String simName) {
         gridsInputDirectory = Parameters.WORKING_DIRECTORY + File.separator + "output" + File.separator + simName + File.separator + "grids";
     }
@@ -152,80 +152,4 @@ public class DecisionTests {
             e.printStackTrace();
         }
     }
-
-    public static void compareGrids() {
-
-        double TOL = Math.ulp(1.0) * 2.0;
-
-        // load in grids for comparison
-        String name1 = "test0";
-        DecisionParams.setGridsInputDirectory(name1);
-        Grids grids1 = new Grids();
-        ManagerFileGrids.read(grids1);
-
-        String name2 = "test1";
-        DecisionParams.setGridsInputDirectory(name2);
-        Grids grids2 = new Grids();
-        ManagerFileGrids.read(grids2);
-
-        System.out.println("Testing grid solution from run " + name1 + " against solution from run " + name2);
-        double maxDiff = -9.0;
-        long counter1=0, counter2=0, counter3=0;
-
-        // loop through grids to find differences
-        for (int aa=grids1.scale.simLifeSpan - 1; aa>=0; aa--) {
-
-            // set age specific working variables
-            int innerDimension = (int)grids1.scale.gridDimensions[aa][0];
-            int outerDimension = (int)grids1.scale.gridDimensions[aa][1];
-            long ii0=-9;
-            for (int iiOuter=0; iiOuter<outerDimension; iiOuter++) {
-
-                // identify current state combination for outer states
-                int ageYears = aa + Parameters.AGE_TO_BECOME_RESPONSIBLE;
-                States outerStates = new States(grids1.scale, ageYears);
-                outerStates.populateOuterGridStates(iiOuter);
-                boolean loopConsider = outerStates.checkOuterStateCombination();
-                if (loopConsider) {
-                    for (int iiInner = 0; iiInner < innerDimension; iiInner++) {
-                        // identify current state combination and copy expectations
-                        States currentStates = new States(outerStates);
-                        currentStates.populateInnerGridStates(iiInner);
-                        boolean stateConsider = currentStates.checkStateCombination();
-                        if (stateConsider) {
-
-                            long indexHere = currentStates.returnGridIndex();
-                            if (ii0>=0) {
-                                if (indexHere!=ii0+1) {
-                                    indexHere = currentStates.returnGridIndex();
-                                }
-                            }
-                            double val1 = grids1.valueFunction.get(indexHere);
-                            double val2 = grids2.valueFunction.get(indexHere);
-                            double diff = Math.abs(val1 - val2);
-                            if (diff > maxDiff)
-                                maxDiff = diff;
-                            if (diff > 0.0) {
-                                counter1++;
-                            }
-                            if (diff > TOL) {
-                                counter2++;
-                            }
-                            if (diff > 1.0E-7 * Math.abs(val1) ) {
-                                counter3++;
-                            }
-                            ii0 = indexHere;
-                        } else {
-                            ii0 = -9;
-                        }
-                    }
-                } else {
-                    ii0 = -9;
-                }
-            }
-        }
-        System.out.println("Number of grid points with different value function estimates: " + counter1);
-        System.out.println("Number of grid points with significantly different value function estimates: " + counter2);
-        System.out.println("Number of grid points with substantially different value function estimates: " + counter3);
-    }
 }
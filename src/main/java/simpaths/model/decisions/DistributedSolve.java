@@ -0,0 +1,345 @@
+package simpaths.model.decisions;
+
+
+import simpaths.data.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ *
+ * CLASS TO SHARE THE SOLUTION OF INTERTEMPORAL OPTIMISATION DECISIONS BETWEEN PROCESSES
+ *
+ * THE PROCESSES (SIMPATHS RUNS ON THE SAME HOST, STARTED WITH THE SAME CONFIGURATION AND solverProcesses > 1, AND
+ * DISTINGUISHED BY solverProcessRank) MAP THE SAME GRID FILES IN A SHARED DIRECTORY (SEE MappedGridStore). FOR
+ * EACH AGE, EVERY PROCESS SOLVES ITS SHARE OF THE WORK UNITS DEFINED BY SolveScheduler, WRITING SOLUTIONS
+ * DIRECTLY TO THE SHARED GRIDS, AND THEN WAITS UNTIL ALL PROCESSES HAVE COMPLETED THE AGE. THE COMPLETED AGE
+ * IS THEREBY AVAILABLE TO ALL PROCESSES BEFORE THE NEXT (YOUNGER) AGE IS SOLVED.
+ *
+ * THE PROCESS WITH RANK 0 COORDINATES THE SOLUTION: IT CREATES THE GRID FILES, MAINTAINS THEIR HEADERS, AND
+ * IS RESPONSIBLE FOR ALL OUTPUTS DESCRIBING THE SOLUTION, OTHER THAN LOGS OF IMPERFECT TAX DATABASE MATCHES, WHICH EACH
+ * PROCESS WRITES FOR ITS OWN SHARE OF STATES TO poor_taxmatch_age_<age>_rank<rank>.csv. PROCESSES COMMUNICATE VIA MARKER FILES IN THE SHARED
+ * DIRECTORY, NAMED WITH A TOKEN THAT IS UNIQUE TO EACH SOLUTION:
+ *      ready               created by the coordinator once the grid files are initialised (contains the token, and
+ *                          the process ID and start time of the coordinator)
+ *      <token>.<rank>.alive         heartbeat of each process, refreshed every HEARTBEAT_MILLIS
+ *      <token>.<aa>.<rank>.done     created by each process on completing age index aa
+ *      <token>.<rank>.failed        created by a process that is unable to complete its share of the solution
+ *
+ * THE COORDINATOR CLEARS MARKER FILES BEFORE INITIALISING THE GRIDS, AND ONCE THE SOLUTION IS COMPLETE. WORKERS
+ * CAN THEREFORE BE STARTED BEFORE OR AFTER THE COORDINATOR. A ready FILE LEFT BY AN INTERRUPTED SOLUTION IS IGNORED
+ * BY WORKERS, AS ITS COORDINATOR PROCESS IS NO LONGER RUNNING.
+ *
+ * A PROCESS THAT IS KILLED CANNOT REPORT ITS FAILURE. WHILE WAITING FOR OTHER PROCESSES, EACH PROCESS THEREFORE
+ * PRESUMES THAT A PROCESS HAS FAILED IF ITS HEARTBEAT HAS NOT BEEN REFRESHED FOR DecisionParams.solverProcessTimeout
+ * SECONDS, OR IF IT HAS NOT STARTED WITHIN THIS TIME OF THE START OF THE WAIT.
+ *
+ */
+public class DistributedSolve {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final String READY_FILE = "ready";
+    static final long POLL_MILLIS = 200;
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    final Path directory;       // shared directory
+    final int rank;             // index of this process (0 = coordinator)
+    final int ranks;            // number of processes sharing the solution
+    final long timeoutMillis;   // time without a heartbeat after which another process is presumed failed
+    String token;               // unique reference for solution
+    private ScheduledExecutorService heartbeat;     // refreshes heartbeat of this process (null if not started)
+
+
+    /**
+     * CONSTRUCTOR
+     * @param directory shared directory for grid and marker files
+     * @param rank index of this process (0 = coordinator)
+     * @param ranks number of processes sharing the solution
+     */
+    public DistributedSolve(String directory, int rank, int ranks) {
+        this(directory, rank, ranks, DecisionParams.solverProcessTimeout * 1000L);
+    }
+
+    /**
+     * @param timeoutMillis time without a heartbeat after which another process is presumed failed
+     */
+    DistributedSolve(String directory, int rank, int ranks, long timeoutMillis) {
+
+        if (directory == null || directory.isEmpty())
+            throw new RuntimeException("a shared grids directory must be specified to share solutions between processes");
+        if (rank < 0 || rank >= ranks)
+            throw new RuntimeException("process rank " + rank + " not consistent with " + ranks + " processes");
+        if (SolveCheckpoint.fromParameters() != null)
+            throw new RuntimeException("checkpointed solutions cannot be shared between processes");
+        if (timeoutMillis < 2 * HEARTBEAT_MILLIS)
+            throw new RuntimeException("timeout of processes sharing the solution must be at least " + (2 * HEARTBEAT_MILLIS) + " milliseconds");
+        this.directory = Paths.get(directory);
+        this.rank = rank;
+        this.ranks = ranks;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * METHOD TO IDENTIFY WHETHER THE SOLUTION IS SHARED BETWEEN PROCESSES
+     * @return object to manage shared solution, or null if the solution is not shared
+     */
+    public static DistributedSolve fromParameters() {
+        if (DecisionParams.solverProcesses <= 1) return null;
+        return new DistributedSolve(DecisionParams.sharedGridsDirectory, DecisionParams.solverProcessRank, DecisionParams.solverProcesses);
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO MAP THE SHARED GRIDS
+     *
+     * The coordinator initialises the grid files, and workers wait until the grid files are ready
+     */
+    public Grids openGrids() {
+
+        try {
+            Grids grids;
+            if (isCoordinator()) {
+                Files.createDirectories(directory);
+                clearMarkers();
+                grids = new Grids(directory.toString(), false, true);
+                grids.flush();
+                token = UUID.randomUUID().toString();
+                startHeartbeat();
+                ProcessHandle process = ProcessHandle.current();
+                writeMarker(READY_FILE, token + "\n" + process.pid() + "\n" +
+                        process.info().startInstant().map(instant -> instant.toEpochMilli()).orElse(-1L));
+                System.out.println("Coordinating solution of optimised decisions between " + ranks + " processes in " + directory);
+            } else {
+                System.out.println("Waiting for coordinator to initialise shared grids in " + directory);
+                long start = System.currentTimeMillis();
+                boolean reported = false;
+                while ((token = readReady()) == null) {
+                    if (!reported && Files.exists(directory.resolve(READY_FILE))) {
+                        System.out.println("Ignoring " + READY_FILE + " file of a coordinator that is no longer running");
+                        reported = true;
+                    }
+                    if (System.currentTimeMillis() - start > timeoutMillis)
+                        throw new RuntimeException("coordinator did not initialise shared grids in " + directory +
+                                " within " + timeoutMillis / 1000.0 + " seconds");
+                    sleep();
+                }
+                startHeartbeat();
+                grids = new Grids(directory.toString(), false, false);
+                for (Grid grid : grids.getGridList()) {
+                    ((MappedGridStore) grid.store).setHeaderOwner(false);
+                }
+                System.out.println("Solving optimised decisions as process " + rank + " of " + ranks);
+            }
+            return grids;
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open shared grids: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * METHOD TO PUBLISH THE SOLUTIONS OF THIS PROCESS FOR AGE INDEX aa, AND WAIT FOR ALL OTHER PROCESSES
+     * @param grids shared grids
+     * @param aa age index of solutions
+     */
+    public void completeAge(Grids grids, int aa) {
+
+        for (Grid grid : grids.getGridList()) {
+            ((MappedGridStore) grid.store).force();
+        }
+        try {
+            writeMarker(token + "." + aa + "." + rank + ".done", "");
+            long start = System.currentTimeMillis();
+            for (int rr=0; rr<ranks; rr++) {
+                Path done = directory.resolve(token + "." + aa + "." + rr + ".done");
+                while (!Files.exists(done)) {
+                    checkFailures(start);
+                    sleep();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to synchronise age " + (aa + Parameters.AGE_TO_BECOME_RESPONSIBLE) +
+                    " with other processes: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * METHOD TO REPORT FAILURE OF THIS PROCESS TO ALL OTHER PROCESSES
+     */
+    public void fail(Throwable cause) {
+        stopHeartbeat();
+        try {
+            if (token != null) writeMarker(token + "." + rank + ".failed", String.valueOf(cause));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * METHOD TO CONCLUDE THE SHARED SOLUTION
+     */
+    public void finish(Grids grids) {
+
+        grids.flush();
+        if (isCoordinator()) {
+            // wait for all workers to acknowledge the final age before clearing markers
+            try {
+                long start = System.currentTimeMillis();
+                for (int rr=1; rr<ranks; rr++) {
+                    Path done = directory.resolve(token + ".finished." + rr + ".done");
+                    while (!Files.exists(done)) {
+                        checkFailures(start);
+                        sleep();
+                    }
+                }
+                stopHeartbeat();
+                clearMarkers();
+            } catch (IOException e) {
+                throw new RuntimeException("failed to conclude shared solution: " + e.getMessage(), e);
+            }
+        } else {
+            // heartbeat is stopped first, so that the coordinator can clear it once all workers are finished
+            stopHeartbeat();
+            try {
+                writeMarker(token + ".finished." + rank + ".done", "");
+            } catch (IOException e) {
+                throw new RuntimeException("failed to conclude shared solution: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public boolean isCoordinator() { return rank == 0; }
+    public int getRank() { return rank; }
+    public int getRanks() { return ranks; }
+
+    /**
+     * METHOD TO CHECK FOR FAILURE OF OTHER PROCESSES, REPORTED OR PRESUMED FROM THEIR HEARTBEATS
+     * @param waitStart time at which the current wait started (processes without a heartbeat are presumed failed
+     *                  once the wait has lasted longer than the timeout)
+     */
+    private void checkFailures(long waitStart) throws IOException {
+        long now = System.currentTimeMillis();
+        for (int rr=0; rr<ranks; rr++) {
+            Path failed = directory.resolve(token + "." + rr + ".failed");
+            if (Files.exists(failed))
+                throw new RuntimeException("process " + rr + " failed to solve its share of optimised decisions: " +
+                        Files.readString(failed, StandardCharsets.UTF_8));
+            if (rr == rank || Files.exists(directory.resolve(token + ".finished." + rr + ".done"))) continue;
+            Path alive = directory.resolve(token + "." + rr + ".alive");
+            if (Files.exists(alive)) {
+                long silence = now - Files.getLastModifiedTime(alive).toMillis();
+                if (silence > timeoutMillis)
+                    throw new RuntimeException("process " + rr + " has not reported for " + silence / 1000 +
+                            " seconds, and is presumed to have failed");
+            } else if (now - waitStart > timeoutMillis) {
+                throw new RuntimeException("process " + rr + " has not started within " + timeoutMillis / 1000.0 + " seconds");
+            }
+        }
+    }
+
+    /**
+     * METHOD TO READ THE TOKEN OF THE SOLUTION FROM THE ready FILE
+     * @return token, or null if there is no ready file of a running coordinator
+     */
+    private String readReady() throws IOException {
+        Path ready = directory.resolve(READY_FILE);
+        if (!Files.exists(ready)) return null;
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(ready, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;        // replaced while being read
+        }
+        if (lines.size() != 3) return null;
+        try {
+            long pid = Long.parseLong(lines.get(1).trim());
+            long startMillis = Long.parseLong(lines.get(2).trim());
+            Optional<ProcessHandle> process = ProcessHandle.of(pid);
+            if (process.isEmpty() || !process.get().isAlive()) return null;
+            if (startMillis >= 0 && process.get().info().startInstant()
+                    .map(instant -> instant.toEpochMilli() != startMillis).orElse(false))
+                return null;    // process ID reused by another process
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return lines.get(0).trim();
+    }
+
+    private void startHeartbeat() throws IOException {
+        Path alive = directory.resolve(token + "." + rank + ".alive");
+        Files.writeString(alive, String.valueOf(rank), StandardCharsets.UTF_8);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "simpaths-heartbeat-" + rank);
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                Files.setLastModifiedTime(alive, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            try {
+                heartbeat.awaitTermination(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            heartbeat = null;
+        }
+    }
+
+    private void clearMarkers() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(READY_FILE) || name.endsWith(".done") || name.endsWith(".failed") || name.endsWith(".alive"))
+                    Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * METHOD TO WRITE A MARKER FILE ATOMICALLY, SO THAT OTHER PROCESSES NEVER OBSERVE A PARTIAL FILE
+     */
+    private void writeMarker(String name, String content) throws IOException {
+        Path temporary = directory.resolve(name + "." + rank + ".tmp");
+        Files.writeString(temporary, content, StandardCharsets.UTF_8);
+        Files.move(temporary, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(POLL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for other processes", e);
+        }
+    }
+}
@@ -43,14 +43,15 @@ public class Expectations {
     int ageIndexNextPeriod;         // age index for state expectations
     int ageYearsNextPeriod;         // age in years for next period expectations
     int numberExpected;             // number of state combinations comprising expectations, conditional on survival
-    double[] probability;           // vector recording probability associated with each anticipated state combination, conditional on survival
-    States[] anticipated;           // vector to store anticipated state combinations
+    AnticipatedStates anticipated;  // anticipated state combinations, with probabilities conditional on survival
 
     // responses to controls
     double leisureTime;             // proportion of time spent in leisure
     double disposableIncomeAnnual;  // disposable income
     double cashOnHand;              // total value of pot that can be used to finance consumption within period
     Matches imperfectMatches = new Matches();
+    ExpectationsCache cache;        // memoised regression evaluations shared by state combinations of the same age (may be null)
+    TaxBenefitTable taxBenefitTable;    // tabulated tax donor imputations (null to evaluate imputations exactly)
 
      // OBJECTS FOR EVALUATING MODEL TAX AND BENEFIT AND REGRESSION FUNCTIONS
     BenefitUnit benefitUnitProxyThisPeriod;
@@ -75,25 +76,18 @@ public class Expectations {
         ageIndexNextPeriod = currentStates.ageIndex + 1;
         ageYearsNextPeriod = ageYearsThisPeriod + 1;
         numberExpected = 1;
-        probability = new double[numberExpected];
-        anticipated = new States[numberExpected];
-        probability[0] = 1.0;
-        anticipated[0] = new States(scale, ageYearsNextPeriod);
+        anticipated = new AnticipatedStates(scale, ageYearsNextPeriod);
         if (ageYearsNextPeriod <= DecisionParams.maxAge) {
 
             // birth year
             int stateIndexCurrPeriod = scale.getIndex(Axis.BirthYear, ageYearsThisPeriod);
             int stateIndexNextPeriod = scale.getIndex(Axis.BirthYear, ageYearsNextPeriod);
-            for (int ii = 0; ii < numberExpected; ii++) {
-                anticipated[ii].labStatesContObject[stateIndexNextPeriod] = currentStates.labStatesContObject[stateIndexCurrPeriod];
-            }
+            anticipated.setAll(stateIndexNextPeriod, currentStates.labStatesContObject[stateIndexCurrPeriod]);
 
             //gender (1 = female)
             stateIndexCurrPeriod = scale.getIndex(Axis.Gender, ageYearsThisPeriod);
             stateIndexNextPeriod = scale.getIndex(Axis.Gender, ageYearsNextPeriod);
-            for (int ii = 0; ii < numberExpected; ii++) {
-                anticipated[ii].labStatesContObject[stateIndexNextPeriod] = currentStates.labStatesContObject[stateIndexCurrPeriod];
-            }
+            anticipated.setAll(stateIndexNextPeriod, currentStates.labStatesContObject[stateIndexCurrPeriod]);
         }
 
         // proxy to evaluate regression projections for current period
@@ -120,8 +114,9 @@ public class Expectations {
         ageIndexNextPeriod = outerExpectations.ageIndexNextPeriod;
         ageYearsNextPeriod = outerExpectations.ageYearsNextPeriod;
         numberExpected = outerExpectations.numberExpected;
-        probability = outerExpectations.probability;
         anticipated = outerExpectations.anticipated;
+        cache = outerExpectations.cache;
+        taxBenefitTable = outerExpectations.taxBenefitTable;
         benefitUnitProxyThisPeriod = new BenefitUnit(outerExpectations.benefitUnitProxyThisPeriod, true);
 
         // prevailing characteristics - based on currentStates
@@ -153,12 +148,7 @@ public class Expectations {
         ageIndexNextPeriod = invariantExpectations.ageIndexNextPeriod;
         ageYearsNextPeriod = invariantExpectations.ageYearsNextPeriod;
         numberExpected = invariantExpectations.numberExpected;
-        probability = new double[numberExpected];
-        anticipated = new States[numberExpected];
-        for (int ii = 0; ii< numberExpected; ii++) {
-            probability[ii] = invariantExpectations.probability[ii];
-            anticipated[ii] = new States(invariantExpectations.anticipated[ii]);
-        }
+        anticipated = new AnticipatedStates(invariantExpectations.anticipated);
         benefitUnitProxyThisPeriod = new BenefitUnit(invariantExpectations.benefitUnitProxyThisPeriod, true);
         currentStates = invariantExpectations.currentStates;
         labWageFullTimeHrly = invariantExpectations.labWageFullTimeHrly;
@@ -166,6 +156,8 @@ public class Expectations {
         wealthLiqValue = invariantExpectations.wealthLiqValue;
         availableCredit = invariantExpectations.availableCredit;
         mortalityProbability = invariantExpectations.mortalityProbability;
+        cache = invariantExpectations.cache;
+        taxBenefitTable = invariantExpectations.taxBenefitTable;
 
         // add new data for within period regression specifications
         personProxyThisPeriod = new Person(true);
@@ -351,9 +343,11 @@ public class Expectations {
         }
 
         // call to tax and benefit function
+        SolveTelemetry.Phase previousPhase = SolveTelemetry.enter(SolveTelemetry.Phase.TaxImputation);
         disposableIncomeAnnual = taxBenefitFunction(labourHours1Weekly, disability1, labourIncome1Weekly, investmentIncome1Annual, pensionIncome1Annual,
                 labourHours2Weekly, disability2, careProvision, labourIncome2Weekly, investmentIncome2Annual, pensionIncome2Annual, childcareCostAnnual,
                 socialCareCostAnnual, wealthLiqValue);
+        SolveTelemetry.exit(previousPhase);
 
         // cash on hand
         cashOnHand = wealthLiqValue + availableCredit + disposableIncomeAnnual - childcareCostAnnual - socialCareCostAnnual;
@@ -378,7 +372,8 @@ public class Expectations {
             }
 
             // instantiate expectations factory
-            ExpectationsFactory futures = new ExpectationsFactory(anticipated, probability, personProxyNextPeriod, scale, ageYearsThisPeriod, currentStates, pensionIncomePerYear);
+            previousPhase = SolveTelemetry.enter(SolveTelemetry.Phase.Regressions);
+            ExpectationsFactory futures = new ExpectationsFactory(anticipated, personProxyNextPeriod, scale, ageYearsThisPeriod, currentStates, pensionIncomePerYear, cache);
 
             // region
             if (DecisionParams.flagRegion) {
@@ -446,14 +441,14 @@ public class Expectations {
             }
 
             // retrieve results
-            probability = futures.getProbability();
             anticipated = futures.getAnticipated();
             numberExpected = futures.getNumberExpected();
+            SolveTelemetry.exit(previousPhase);
 
             // check evaluated probabilities
             double probabilityCheck = 0;
             for (int ii = 0; ii< numberExpected; ii++) {
-                probabilityCheck += probability[ii];
+                probabilityCheck += anticipated.getProbability(ii);
             }
             if (Math.abs(probabilityCheck-1) > 1.0E-5) {
                 throw new InvalidParameterException("problem with probabilities supplied to outer expectations 1");
@@ -563,6 +558,16 @@ public class Expectations {
 
         // evaluate disposable income
         double originalIncomePerMonth = originalIncomePerWeek * Parameters.WEEKS_PER_MONTH;
+        if (taxBenefitTable != null) {
+            // approximate donor imputation by interpolating tabulated imputations (imperfect matches are not tracked)
+            double imputedPerMonth = taxBenefitTable.getImputedDisposableIncomePerMonth(year, ageYearsNextPeriod, numberAdults,
+                    numberChildrenUnder5, numberChildrenAged5To9, numberChildrenAged10To17, hoursWorkPerWeek1, hoursWorkPerWeek2,
+                    disability1, disability2, careProvision, originalIncomePerMonth, secondIncomePerMonth, childcareCostPerMonth);
+            double supportPerMonth = TaxEvaluation.evaluateSocialCareSupportPerMonth(year, ageYearsNextPeriod, numberAdults,
+                    socialCareCostPerMonth, imputedPerMonth, wealthLiqValue);
+            disposableIncomeAnnual = (imputedPerMonth + supportPerMonth) * 12.0;
+            return disposableIncomeAnnual;
+        }
         TaxEvaluation evaluatedTransfers = new TaxEvaluation(year, ageYearsNextPeriod, numberAdults, numberChildrenUnder5, numberChildrenAged5To9,
                 numberChildrenAged10To17, hoursWorkPerWeek1, hoursWorkPerWeek2, disability1, disability2, careProvision, originalIncomePerMonth, secondIncomePerMonth,
                 childcareCostPerMonth, socialCareCostPerMonth, wealthLiqValue, -1.0);
@@ -570,6 +575,7 @@ public class Expectations {
         Match match = evaluatedTransfers.getMatch();
         if (match.getMatchCriterion()>Parameters.IMPERFECT_THRESHOLD) {
             imperfectMatches.addMatch(match);
+            SolveTelemetry.count(SolveTelemetry.Counter.ImperfectTaxMatches);
         }
 
         // finalise outputs
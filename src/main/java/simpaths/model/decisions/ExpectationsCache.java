@@ -0,0 +1,163 @@
+package simpaths.model.decisions;
+
+
+import microsim.statistics.IDoubleSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+
+/**
+ *
+ * CLASS TO MEMOISE EVALUATIONS OF REGRESSION BASED EXPECTATIONS FOR AN AGE SLICE OF THE GRIDS
+ *
+ * EACH STEP OF ExpectationsFactory (E.G. HEALTH, COHABITATION, OR CHILDREN TRANSITIONS) EVALUATES REGRESSION
+ * EQUATIONS AGAINST A PROXY Person. THE REGRESSIONS DEPEND ON A SUBSET OF THE CHARACTERISTICS DESCRIBED BY THE PROXY,
+ * WHICH ARE FREQUENTLY COMMON TO MANY STATE COMBINATIONS AND DISCRETE CONTROLS.
+ *
+ * THE SUBSET OF CHARACTERISTICS THAT EACH STEP DEPENDS ON IS IDENTIFIED ON ITS FIRST EVALUATION, BY RECORDING THE
+ * VARIABLES REQUESTED FROM THE PROXY (VIA IDoubleSource). SUBSEQUENT EVALUATIONS ARE KEYED BY THE VALUES OF THESE
+ * VARIABLES, SO THAT EACH DISTINCT KEY IS EVALUATED ONCE. EVALUATIONS THAT ARE NOT FOUND IN THE CACHE ARE ALSO
+ * RECORDED, AND A STEP THAT REQUESTS A DIFFERENT SET OF VARIABLES IS EXCLUDED FROM THE CACHE THEREAFTER.
+ *
+ * STEPS MUST RESOLVE ANY CHARACTERISTICS NOT OBTAINED FROM THE PROXY VIA IDoubleSource (E.G. THE CHOICE OF
+ * REGRESSION EQUATION) IN THE OBJECT IDENTIFYING THE STEP. CACHED VALUES ARE SHARED BETWEEN THREADS, AND SO MUST NOT
+ * BE MODIFIED BY CALLERS.
+ *
+ */
+public class ExpectationsCache {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    private final Map<Object, Enum<?>[]> dependencies = new ConcurrentHashMap<>();   // variables requested by each step (empty if step is excluded)
+    private final Map<Key, Object> values = new ConcurrentHashMap<>();               // memoised evaluations
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private static final Enum<?>[] EXCLUDED = new Enum<?>[0];
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO RETRIEVE A MEMOISED EVALUATION, OR TO EVALUATE AND MEMOISE IT
+     * @param step object identifying the evaluation step (must implement equals and hashCode)
+     * @param source proxy from which regression variables are obtained
+     * @param evaluator function to evaluate the step for a supplied proxy
+     * @return evaluation of step
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object step, IDoubleSource source, Function<IDoubleSource, T> evaluator) {
+
+        Enum<?>[] variables = dependencies.get(step);
+        if (variables == EXCLUDED)
+            return evaluator.apply(source);
+
+        Key key = null;
+        if (variables != null) {
+            key = new Key(step, variables, source);
+            Object value = values.get(key);
+            if (value != null) {
+                hits.increment();
+                return (T) value;
+            }
+        }
+
+        // evaluate, recording variables requested
+        misses.increment();
+        RecordingSource recorder = new RecordingSource(source);
+        T value = evaluator.apply(recorder);
+        Enum<?>[] recorded = recorder.getVariables();
+        if (variables == null) {
+            variables = dependencies.putIfAbsent(step, recorded);
+            if (variables == null) variables = recorded;
+        }
+        if (!Arrays.equals(variables, recorded)) {
+            dependencies.put(step, EXCLUDED);
+            return value;
+        }
+        if (key == null)
+            key = new Key(step, variables, source);
+        values.putIfAbsent(key, value);
+        return value;
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public int getKeys() { return values.size(); }
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return (total > 0) ? (double)getHits() / total : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f", 100.0 * getHitRate()) + "% expectations cache hits (" + getHits() + " of " +
+                (getHits() + getMisses()) + ", " + getKeys() + " keys)";
+    }
+
+
+    /**
+     * CLASS TO RECORD THE VARIABLES REQUESTED FROM A PROXY
+     */
+    private static class RecordingSource implements IDoubleSource {
+
+        final IDoubleSource source;
+        final List<Enum<?>> variables = new ArrayList<>();
+
+        RecordingSource(IDoubleSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public double getDoubleValue(Enum<?> variableID) {
+            if (!variables.contains(variableID)) variables.add(variableID);
+            return source.getDoubleValue(variableID);
+        }
+
+        Enum<?>[] getVariables() {
+            return variables.toArray(new Enum<?>[0]);
+        }
+    }
+
+    /**
+     * CLASS TO IDENTIFY AN EVALUATION BY STEP AND THE VALUES OF THE VARIABLES THAT THE STEP DEPENDS ON
+     */
+    private static class Key {
+
+        final Object step;
+        final double[] values;
+        final int hash;
+
+        Key(Object step, Enum<?>[] variables, IDoubleSource source) {
+            this.step = step;
+            values = new double[variables.length];
+            for (int ii=0; ii<variables.length; ii++) {
+                values[ii] = source.getDoubleValue(variables[ii]);
+            }
+            hash = 31 * step.hashCode() + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hash == other.hash && step.equals(other.step) && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
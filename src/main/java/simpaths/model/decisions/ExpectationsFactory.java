@@ -1,5 +1,6 @@
 package simpaths.model.decisions;
 
+import microsim.statistics.IDoubleSource;
 import simpaths.data.ManagerRegressions;
 import simpaths.data.Parameters;
 import simpaths.data.RegressionName;
@@ -10,8 +11,9 @@ import simpaths.model.enums.SocialCareReceiptS2c;
 import simpaths.model.enums.SocialCareReceiptState;
 
 import java.security.InvalidParameterException;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * class to manage expansion of expectations to account for each successive state variable
@@ -19,8 +21,8 @@ import java.util.Map;
 public class ExpectationsFactory {
 
 
-    double[] probability;           // array to store probability associated with each anticipated state combination, conditional on survival
-    States[] anticipated;           // array to store anticipated state combinations
+    AnticipatedStates anticipated;  // anticipated state combinations, with probabilities conditional on survival
+    States view;                    // working object to read characteristics of anticipated state combinations
     Person personProxyNextPeriod;
     GridScale scale;
     int ageYearsThisPeriod;
@@ -28,6 +30,7 @@ public class ExpectationsFactory {
     int numberExpected;
     States currentStates;
     double pensionIncomePerYear;
+    ExpectationsCache cache;        // memoised regression evaluations for age (null if evaluations are not memoised)
 
     boolean flagRegionVaries;
     boolean flagEducationVaries;
@@ -42,28 +45,30 @@ public class ExpectationsFactory {
     /**
      * CONSTRUCTOR
      */
-    public ExpectationsFactory(States[] anticipated, double[] probability, Person personProxyNextPeriod, GridScale scale,
+    public ExpectationsFactory(AnticipatedStates anticipated, Person personProxyNextPeriod, GridScale scale,
                                int ageYearsThisPeriod, States currentStates, double pensionIncomePerYear) {
+        this(anticipated, personProxyNextPeriod, scale, ageYearsThisPeriod, currentStates, pensionIncomePerYear, null);
+    }
+    public ExpectationsFactory(AnticipatedStates anticipated, Person personProxyNextPeriod, GridScale scale,
+                               int ageYearsThisPeriod, States currentStates, double pensionIncomePerYear, ExpectationsCache cache) {
 
-        this.probability = probability;
         this.anticipated = anticipated;
-        numberExpected = anticipated.length;
+        view = anticipated.toStates(0);
+        numberExpected = anticipated.size();
         this.personProxyNextPeriod = personProxyNextPeriod;
         this.scale = scale;
         this.ageYearsThisPeriod = ageYearsThisPeriod;
         ageYearsNextPeriod = ageYearsThisPeriod + 1;
         this.currentStates = currentStates;
         this.pensionIncomePerYear = pensionIncomePerYear;
+        this.cache = cache;
     }
 
 
     /**
      * GETTERS AND SETTERS
      */
-    public double[] getProbability() {
-        return probability;
-    }
-    public States[] getAnticipated() {
+    public AnticipatedStates getAnticipated() {
         return anticipated;
     }
     public int getNumberExpected() {
@@ -79,7 +84,7 @@ public class ExpectationsFactory {
         int stateIndexCurrPeriod = scale.getIndex(Axis.Region, ageYearsThisPeriod);
         int stateIndexNextPeriod = scale.getIndex(Axis.Region, ageYearsNextPeriod);
         for (int ii = 0; ii < numberExpected; ii++) {
-            anticipated[ii].labStatesContObject[stateIndexNextPeriod] = currentStates.labStatesContObject[stateIndexCurrPeriod];
+            anticipated.set(ii, stateIndexNextPeriod, currentStates.labStatesContObject[stateIndexCurrPeriod]);
         }
         personProxyNextPeriod.setRegionLocal(currentStates.getRegionCode());
     }
@@ -90,12 +95,12 @@ public class ExpectationsFactory {
         if (retiring) {
             // retire this period
             for (int ii = 0; ii < numberExpected; ii++) {
-                anticipated[ii].labStatesContObject[stateIndexNextPeriod] = 1.0;
+                anticipated.set(ii, stateIndexNextPeriod, 1.0);
             }
         } else {
             // no change to retirement state
             for (int ii = 0; ii < numberExpected; ii++) {
-                anticipated[ii].labStatesContObject[stateIndexNextPeriod] = currentStates.getRetirement();
+                anticipated.set(ii, stateIndexNextPeriod, currentStates.getRetirement());
             }
         }
     }
@@ -107,23 +112,22 @@ public class ExpectationsFactory {
         if (anyVaries() && currentStates.getStudent()==1) {
             int numberExpectedInitial = numberExpected;
             boolean flagEval;
-            LocalExpectations lexpect = new LocalExpectations();
-            lexpect.evaluateDiscrete(personProxyNextPeriod, RegressionName.EducationE1a);
+            LocalExpectations lexpect = lexpectEvalDiscrete(Axis.Student, RegressionName.EducationE1a);
             for (int ii=0; ii<numberExpectedInitial; ii++) {
 
                 flagEval = updatePersonNextPeriod(ii);
                 if (flagEval) {
-                    lexpect = new LocalExpectations();
-                    lexpect.evaluateDiscrete(personProxyNextPeriod, RegressionName.EducationE1a);
+                    lexpect = lexpectEvalDiscrete(Axis.Student, RegressionName.EducationE1a);
                 }
                 expandExpectationsSingleIndex(ii, stateIndexNextPeriod, lexpect);
             }
         } else {
-            LocalExpectations lexpect = new LocalExpectations();
+            LocalExpectations lexpect;
             if (currentStates.getStudent() == 0) {
+                lexpect = new LocalExpectations();
                 lexpect.assignValue(currentStates.labStatesContObject[stateIndexCurrPeriod]);
             } else {
-                lexpect.evaluateDiscrete(personProxyNextPeriod, RegressionName.EducationE1a);
+                lexpect = lexpectEvalDiscrete(Axis.Student, RegressionName.EducationE1a);
             }
             expandExpectationsAllIndices(stateIndexNextPeriod, lexpect);
         }
@@ -146,21 +150,19 @@ public class ExpectationsFactory {
 
             int numberExpectedInitial = numberExpected;
             boolean flagEval = false;
-            LocalExpectations lexpect = new LocalExpectations();
-            lexpect.evaluateDiscrete(personProxyNextPeriod, RegressionName.EducationE2);
+            LocalExpectations lexpect = lexpectEvalDiscrete(Axis.Education, RegressionName.EducationE2);
             for (int ii = 0; ii < numberExpectedInitial; ii++) {
 
                 if (anyVaries()) {
                     flagEval = updatePersonNextPeriod(ii);
                 }
                 if (flagEval) {
-                    lexpect = new LocalExpectations();
-                    lexpect.evaluateDiscrete(personProxyNextPeriod, RegressionName.EducationE2);
+                    lexpect = lexpectEvalDiscrete(Axis.Education, RegressionName.EducationE2);
                 }
 
-                if (anticipated[ii].getStudent() == 1) {
+                if (anticipated.view(ii, view).getStudent() == 1) {
                     // continuing student
-                    anticipated[ii].labStatesContObject[stateIndexNextPeriod] = currentStates.labStatesContObject[stateIndexCurrPeriod];
+                    anticipated.set(ii, stateIndexNextPeriod, currentStates.labStatesContObject[stateIndexCurrPeriod]);
                 } else {
                     // allow for exit from education
                     expandExpectationsSingleIndex(ii, stateIndexNextPeriod, lexpect);
@@ -193,10 +195,11 @@ public class ExpectationsFactory {
                         }
 
                         // expand expectations
-                        if (Gender.Female == currentStates.getGenderCode() || anticipated[ii].getCohabitation()) {
+                        States states = anticipated.view(ii, view);
+                        if (Gender.Female == currentStates.getGenderCode() || states.getCohabitation()) {
                             // birth possible
 
-                            if (anticipated[ii].getStudent()==1) {
+                            if (states.getStudent()==1) {
                                 expandExpectationsFertility(ii, stateIndexNextPeriod, jj, options, RegressionName.FertilityF1);
                             }
                             // else {
@@ -207,7 +210,7 @@ public class ExpectationsFactory {
 
                             stateIndexNextPeriod = scale.getIndex(Axis.Child, ageYearsNextPeriod, jj);
                             for (int kk = 0; kk< numberExpected; kk++) {
-                                anticipated[kk].labStatesContObject[stateIndexNextPeriod] = 0.0;
+                                anticipated.set(kk, stateIndexNextPeriod, 0.0);
                             }
                         }
                     }
@@ -232,14 +235,15 @@ public class ExpectationsFactory {
         double val;
         for (int ii=0; ii<numberExpectedInitial; ii++) {
             val = pensionIncomePerYear;
-            if (currentStates.getCohabitation() && !anticipated[ii].getCohabitation()) {
+            boolean cohabitationNextPeriod = anticipated.view(ii, view).getCohabitation();
+            if (currentStates.getCohabitation() && !cohabitationNextPeriod) {
                 val /= 2.0;
-            } else if (!currentStates.getCohabitation() && anticipated[ii].getCohabitation()) {
+            } else if (!currentStates.getCohabitation() && cohabitationNextPeriod) {
                 val *= 2.0;
             }
             val = Math.min( Math.max( val, 0.0 ), DecisionParams.maxPensionPYear );
             val = Math.log(val + DecisionParams.C_PENSION);
-            anticipated[ii].labStatesContObject[stateIndexNextPeriod] = val;
+            anticipated.set(ii, stateIndexNextPeriod, val);
         }
     }
 
@@ -302,33 +306,60 @@ public class ExpectationsFactory {
 
     private LocalExpectations lexpectEval(Axis axis) {
 
-        LocalExpectations lexpectations = new LocalExpectations();
+        // characteristics of personProxyNextPeriod that are not regression variables are resolved before evaluation
         if (Axis.SocialCareReceipt.equals(axis)) {
 
-            lexpectations = compileSocialCareReceiptProbs();
-        } else if (Axis.SocialCareProvision.equals(axis)) {
-
-            if (Dcpst.Partnered.equals(personProxyNextPeriod.getDcpst()))
-                lexpectations.evaluateDiscrete(personProxyNextPeriod, personProxyNextPeriod.getRegressionName(axis));
-            else
-                lexpectations.evaluateLabelledIndicator(personProxyNextPeriod, personProxyNextPeriod.getRegressionName(axis), 3.0);
+            return memoise(axis, this::compileSocialCareReceiptProbs);
+        }
+        RegressionName regression = personProxyNextPeriod.getRegressionName(axis);
+        if (Axis.SocialCareProvision.equals(axis) && !Dcpst.Partnered.equals(personProxyNextPeriod.getDcpst())) {
+
+            return memoise(List.of(axis, regression, "indicator"), source -> {
+                LocalExpectations lexpectations = new LocalExpectations();
+                lexpectations.evaluateLabelledIndicator(source, regression, 3.0);
+                return lexpectations;
+            });
         } else if (Axis.WagePotential.equals(axis)) {
 
-            lexpectations.evaluateGaussian(personProxyNextPeriod, personProxyNextPeriod.getRegressionName(axis),
-                    Math.log(DecisionParams.MIN_WAGE_PHOUR), Math.log(DecisionParams.MAX_WAGE_PHOUR), DecisionParams.C_WAGE_POTENTIAL);
+            return memoise(List.of(axis, regression), source -> {
+                LocalExpectations lexpectations = new LocalExpectations();
+                lexpectations.evaluateGaussian(source, regression,
+                        Math.log(DecisionParams.MIN_WAGE_PHOUR), Math.log(DecisionParams.MAX_WAGE_PHOUR), DecisionParams.C_WAGE_POTENTIAL);
+                return lexpectations;
+            });
         } else {
 
-            lexpectations.evaluateDiscrete(personProxyNextPeriod, personProxyNextPeriod.getRegressionName(axis));
+            return lexpectEvalDiscrete(axis, regression);
         }
-        return lexpectations;
     }
 
-    private LocalExpectations compileSocialCareReceiptProbs() {
+    private LocalExpectations lexpectEvalDiscrete(Axis axis, RegressionName regression) {
+
+        return memoise(List.of(axis, regression), source -> {
+            LocalExpectations lexpectations = new LocalExpectations();
+            lexpectations.evaluateDiscrete(source, regression);
+            return lexpectations;
+        });
+    }
+
+    /**
+     * METHOD TO EVALUATE A STEP AGAINST personProxyNextPeriod, MEMOISING THE RESULT IF A CACHE IS AVAILABLE
+     * @param step object identifying the step (see ExpectationsCache)
+     * @param evaluator function to evaluate the step against a supplied proxy
+     */
+    private <T> T memoise(Object step, Function<IDoubleSource, T> evaluator) {
+
+        if (cache == null)
+            return evaluator.apply(personProxyNextPeriod);
+        return cache.get(step, personProxyNextPeriod, evaluator);
+    }
+
+    private LocalExpectations compileSocialCareReceiptProbs(IDoubleSource source) {
 
         // raw inputs
-        double probNeedCare = Parameters.getRegNeedCareS2a().getProbability(personProxyNextPeriod, Person.DoublesVariables.class);
-        double probRecCare = Parameters.getRegReceiveCareS2b().getProbability(personProxyNextPeriod, Person.DoublesVariables.class);
-        Map<SocialCareReceiptS2c,Double> probsCareFrom = Parameters.getRegSocialCareMarketS2c().getProbabilities(personProxyNextPeriod, Person.DoublesVariables.class);
+        double probNeedCare = Parameters.getRegNeedCareS2a().getProbability(source, Person.DoublesVariables.class);
+        double probRecCare = Parameters.getRegReceiveCareS2b().getProbability(source, Person.DoublesVariables.class);
+        Map<SocialCareReceiptS2c,Double> probsCareFrom = Parameters.getRegSocialCareMarketS2c().getProbabilities(source, Person.DoublesVariables.class);
 
         // compile and package outputs
         int ii = 0;
@@ -386,36 +417,37 @@ public class ExpectationsFactory {
 
         boolean flagEval, flagChange;
         flagEval = false;
+        States states = anticipated.view(ii, view);
         if (flagRegionVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.Region);
+            flagChange = updatePersonNextPeriod(states, Axis.Region);
             if (flagChange) flagEval = true;
         }
         if (flagEducationVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.Education);
+            flagChange = updatePersonNextPeriod(states, Axis.Education);
             if (flagChange) flagEval = true;
         }
         if (flagHealthVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.Health);
+            flagChange = updatePersonNextPeriod(states, Axis.Health);
             if (flagChange) flagEval = true;
         }
         if (flagDisabilityVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.Disability);
+            flagChange = updatePersonNextPeriod(states, Axis.Disability);
             if (flagChange) flagEval = true;
         }
         if (flagSocialCareReceiptVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.SocialCareReceipt);
+            flagChange = updatePersonNextPeriod(states, Axis.SocialCareReceipt);
             if (flagChange) flagEval = true;
         }
         if (flagSocialCareProvisionVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.SocialCareProvision);
+            flagChange = updatePersonNextPeriod(states, Axis.SocialCareProvision);
             if (flagChange) flagEval = true;
         }
         if (flagCohabitationVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.Cohabitation);
+            flagChange = updatePersonNextPeriod(states, Axis.Cohabitation);
             if (flagChange) flagEval = true;
         }
         if (flagChildrenVaries) {
-            flagChange = updatePersonNextPeriod(anticipated[ii], Axis.Child);
+            flagChange = updatePersonNextPeriod(states, Axis.Child);
             if (flagChange) flagEval = true;
         }
         return flagEval;
@@ -497,26 +529,18 @@ public class ExpectationsFactory {
     private void expandExpectationsSingleIndex(int expandIndex, int stateIndex, double[] probabilities, double[] values) {
 
         // expand expectations array
+        int first = expandIndex;
         if (probabilities.length > 1) {
-            probability = Arrays.copyOf(probability, numberExpected + probabilities.length - 1);
-            anticipated = Arrays.copyOf(anticipated, numberExpected + probabilities.length - 1);
-            for (int ii=0; ii<probabilities.length-1; ii++) {
-                probability[numberExpected +ii] = probability[expandIndex];
-                anticipated[numberExpected +ii] = new States(anticipated[expandIndex]);
-            }
+            first = anticipated.append(expandIndex, probabilities.length - 1) - 1;
         }
 
         // update expectations arrays
         double probabilityCheck = 0.0;
         for (int ii=probabilities.length-1; ii>=0; ii--) {
             probabilityCheck += probabilities[ii];
-            if (ii>0) {
-                probability[numberExpected - 1 + ii] = probability[numberExpected - 1 + ii] * probabilities[ii];
-                anticipated[numberExpected - 1 + ii].labStatesContObject[stateIndex] = values[ii];
-            } else {
-                probability[expandIndex] = probability[expandIndex] * probabilities[ii];
-                anticipated[expandIndex].labStatesContObject[stateIndex] = values[ii];
-            }
+            int index = (ii>0) ? first + ii : expandIndex;
+            anticipated.setProbability(index, anticipated.getProbability(index) * probabilities[ii]);
+            anticipated.set(index, stateIndex, values[ii]);
         }
 
         // check supplied probabilities
@@ -572,7 +596,7 @@ public class ExpectationsFactory {
                 int birthsHere02 = Math.min(ii + children02, 2);  // assume at most 2 children under 3
                 personProxyNextPeriod.setNumberChildrenAllLocal_lag1(childrenAll + ii);
                 personProxyNextPeriod.setNumberChildren02Local_lag1(birthsHere02);
-                double proportionBirths = ManagerRegressions.getProbability(personProxyNextPeriod, regression);
+                double proportionBirths = memoise(List.of(Axis.Child, regression), source -> ManagerRegressions.getProbability(source, regression));
                 probabilities[ii+1] += probabilities[ii] * proportionBirths;
                 probabilities[ii] *= (1 - proportionBirths);
             }
@@ -0,0 +1,115 @@
+package simpaths.model.decisions;
+
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+
+/**
+ *
+ * CLASS TO STORE GRID VALUES IN ON-HEAP ARRAYS AT SINGLE PRECISION
+ *
+ * HALVES THE MEMORY OCCUPIED BY A GRID RELATIVE TO HeapGridStore, AT THE COST OF ROUNDING VALUES TO FLOAT32 (A RELATIVE
+ * ERROR OF UP TO 6.0E-8). INTENDED FOR GRIDS THAT HAVE BEEN SOLVED AT DOUBLE PRECISION AND ARE ONLY READ THEREAFTER
+ * (SEE GridQuantisation)
+ *
+ */
+public class FloatGridStore implements GridStore {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final int MAX_LEN = HeapGridStore.MAX_LEN;
+    static final int COPY_BUFFER_VALUES = 1 << 16;
+
+    long size;              // number of values stored
+    float[] grid;           // array to store variable values at grid ordinates
+    float[][] gridLong;     // array to store variable values at grid ordinates, if grid dimensions extend beyond int(4)
+
+
+    /**
+     * CONSTRUCTORS
+     */
+    public FloatGridStore(long size) {
+
+        this.size = size;
+        if (size <= MAX_LEN) {
+            grid = new float[(int)size];
+            Arrays.fill(grid, (float)DecisionParams.GRID_DEFAULT_VALUE);
+        } else {
+            int slices = 1 + (int)(size / MAX_LEN);
+            gridLong = new float[slices][];
+            for (int ii=0; ii<slices; ii++) {
+                if (ii==slices-1) {
+                    gridLong[ii] = new float[(int)(size%MAX_LEN)];
+                } else {
+                    gridLong[ii] = new float[MAX_LEN];
+                }
+                Arrays.fill(gridLong[ii], (float)DecisionParams.GRID_DEFAULT_VALUE);
+            }
+        }
+    }
+
+    /**
+     * CONSTRUCTOR TO COPY (AND ROUND) ALL VALUES OF ANOTHER STORE
+     */
+    public FloatGridStore(GridStore source) {
+
+        this(source.size());
+        DoubleBuffer buffer = DoubleBuffer.allocate(COPY_BUFFER_VALUES);
+        for (long offset=0; offset<size; offset+=COPY_BUFFER_VALUES) {
+            buffer.clear();
+            buffer.limit((int)Math.min(COPY_BUFFER_VALUES, size - offset));
+            source.getBulk(offset, buffer);
+            buffer.flip();
+            putBulk(offset, buffer);
+        }
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void put(long index, double value) {
+
+        if (grid!=null) {
+            grid[(int)index] = (float)value;
+        } else {
+            gridLong[(int)(index / MAX_LEN)][(int)(index % MAX_LEN)] = (float)value;
+        }
+    }
+
+    @Override
+    public double get(long index) {
+
+        if (grid!=null) {
+            return grid[(int)index];
+        } else {
+            return gridLong[(int)(index / MAX_LEN)][(int)(index % MAX_LEN)];
+        }
+    }
+
+    @Override
+    public void putBulk(long offset, DoubleBuffer source) {
+
+        long index = offset;
+        while (source.hasRemaining()) {
+            float[] array = (grid!=null) ? grid : gridLong[(int)(index / MAX_LEN)];
+            int start = (grid!=null) ? (int)index : (int)(index % MAX_LEN);
+            int length = Math.min(source.remaining(), array.length - start);
+            for (int ii=0; ii<length; ii++) {
+                array[start + ii] = (float)source.get();
+            }
+            index += length;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpaths.model.decisions;
 
 import java.security.InvalidParameterException;
+import java.util.Arrays;
 
 
 /**
@@ -14,46 +15,24 @@ public class Grid {
     /**
      * ATTRIBUTES
      */
-    private final int MAX_LEN = Integer.MAX_VALUE - 16;
-    // MAX_LEN defines the maximum array length permitted for the grid object.  The limits imposed by Java
-    // vary by JVM, and are currently due to use of int (4 byte) indexing used for arrays.  The "16" buffer
-    // assumed here is arbitrary, accounting for sporadic reports about varying array length constraints.
-
     long size;              // length of grid array stored here
     GridScale scale;        // object describing dimensionality of grid
-    double[] grid;          // array to store variable values at grid ordinates
-    double[][] gridLong;    // array to store variable values at grid ordinates, if grid dimensions extend beyond int(4)
+    GridStore store;        // storage for variable values at grid ordinates (on-heap or memory-mapped)
+
+    private static final ThreadLocal<InterpolationScratch> SCRATCH = ThreadLocal.withInitial(InterpolationScratch::new);
 
 
     /**
-     * CONSTRUCTOR
+     * CONSTRUCTORS
      */
     public Grid(GridScale scale, long size) {
+        this(scale, new HeapGridStore(size));
+    }
+    public Grid(GridScale scale, GridStore store) {
 
         this.scale = scale;
-        this.size = size;
-        if (size <= MAX_LEN) {
-            grid = new double[(int)size];
-            for (int jj=0; jj<(int)size; jj++) {
-                grid[jj] = DecisionParams.GRID_DEFAULT_VALUE;
-            }
-        } else {
-            int slices = 1 + (int)((double)size / (double)MAX_LEN);
-            gridLong = new double[slices][];
-            for (int ii=0; ii<slices; ii++) {
-                if (ii==slices-1) {
-                    gridLong[ii] = new double[(int)(size%MAX_LEN)];
-                    for (int jj=0; jj<(int)(size%MAX_LEN); jj++) {
-                        grid[jj] = DecisionParams.GRID_DEFAULT_VALUE;
-                    }
-                } else {
-                    gridLong[ii] = new double[MAX_LEN];
-                    for (int jj=0; jj<MAX_LEN; jj++) {
-                        grid[jj] = DecisionParams.GRID_DEFAULT_VALUE;
-                    }
-                }
-            }
-        }
+        this.store = store;
+        this.size = store.size();
     }
 
 
@@ -68,14 +47,7 @@ public class Grid {
      * @param value value to add to store
      */
     public void put(long index, double value) {
-
-        if (grid!=null) {
-            grid[(int)index] = value;
-        } else {
-            int slice = (int)((double)index / (double)MAX_LEN);
-            int ii = (int)(index%MAX_LEN);
-            gridLong[slice][ii] = value;
-        }
+        store.put(index, value);
     }
 
     /**
@@ -84,16 +56,9 @@ public class Grid {
      * @return value retrieved from store
      */
     public double get(long index) {
-        double value;
-        if (grid!=null) {
-            value = grid[(int)index];
-        } else {
-            int slice = (int)((double)index / (double)MAX_LEN);
-            int ii = (int)(index%MAX_LEN);
-            value = gridLong[slice][ii];
-        }
-        return value;
+        return store.get(index);
     }
+    public GridStore getStore() { return store; }
     public double getChecked(States supplied, long index) {
 
         double value = get(index);
@@ -103,6 +68,15 @@ public class Grid {
         }
         return value;
     }
+    private double getChecked(AnticipatedStates supplied, int row, long index) {
+
+        double value = get(index);
+        if (Math.abs(value-DecisionParams.GRID_DEFAULT_VALUE) < 1.0E-10) {
+            supplied.toStates(row).systemReportError(index);
+            throw new InvalidParameterException("attempt to retrieve uninitialised grid value");
+        }
+        return value;
+    }
 
     /**
      * METHOD TO RETURN A NUMERICAL APPROXIMATION FOR THE GRID VALUE ASSOCIATED WITH A COMPLETE VECTOR OF STATE
@@ -111,6 +85,9 @@ public class Grid {
      * The method begins by identifying the grid slice associated with the supplied combination of discrete states
      * Linear states are then approximated by a linear interpolation method, interpolateContinuous
      *
+     * The method is called for every anticipated state evaluated by the IO solution routines, and so avoids
+     * allocating objects: age specific strides are precomputed by GridScale, and working arrays are held per thread
+     *
      * @param supplied full state combination (continuous and discrete)
      * @param solutionCall boolean equal to true if call is from the search routine for a maximum to the IO problem
      *                      This flag is used to distinguish treatment of states that are considered discrete for the
@@ -119,38 +96,59 @@ public class Grid {
      */
     public double interpolateAll(States supplied, boolean solutionCall) {
 
-        // find references to control for discrete state variables
-        States copy = new States(supplied);
-        int noStates = (int)scale.gridDimensions[supplied.ageIndex][4] + (int)scale.gridDimensions[supplied.ageIndex][5];
-        double continuousCutoff = 0.3;
-        if (solutionCall) continuousCutoff += 0.3;
-        boolean flagAllContinuous = true;
-        int numberContinuous = 0;
-        for (int ii=0; ii<noStates; ii++) {
-            if (scale.axes[supplied.ageIndex][ii][3] > continuousCutoff) {
-                // treat as continuous
-                numberContinuous++;
-                copy.labStatesContObject[ii] = scale.axes[supplied.ageIndex][ii][1];    // set copy value to lower bound
-                if (!flagAllContinuous) {
-                    throw new InvalidParameterException("continuous states do not appear to have been organised contiguously");
-                }
-            } else {
-                // treat as discrete
-                flagAllContinuous = false;
-            }
-        }
-        long startingIndex = copy.returnGridIndex();
+        // identify states to treat as continuous
+        int numberContinuous = numberContinuous(supplied, solutionCall);
+
+        // find starting index of grid slice for discrete state variables
+        long startingIndex = sliceIndex(supplied, numberContinuous);
 
         // return result
         return interpolateContinuous(supplied, numberContinuous, startingIndex);
     }
 
+    /**
+     * METHOD TO IDENTIFY THE NUMBER OF LEADING STATES TO INTERPOLATE AS CONTINUOUS (SEE interpolateAll)
+     */
+    int numberContinuous(States supplied, boolean solutionCall) {
+
+        int numberContinuous = scale.continuousStates[supplied.ageIndex][(solutionCall) ? 1 : 0];
+        if (numberContinuous < 0)
+            throw new InvalidParameterException("continuous states do not appear to have been organised contiguously");
+        return numberContinuous;
+    }
+
+    /**
+     * METHOD TO IDENTIFY THE STARTING INDEX OF THE GRID SLICE DESCRIBED BY THE DISCRETE STATES OF A STATE COMBINATION
+     * @param supplied full state combination
+     * @param numberContinuous number of leading states interpolated as continuous
+     */
+    long sliceIndex(States supplied, int numberContinuous) {
+
+        double[][] axes = scale.axes[supplied.ageIndex];
+        long[] strides = scale.strides[supplied.ageIndex];
+        long startingIndex = scale.gridDimensions[supplied.ageIndex][3];
+        for (int ii=numberContinuous; ii<strides.length; ii++) {
+            double value = supplied.labStatesContObject[ii];
+            if (value > axes[ii][2] + supplied.eps) {
+                supplied.systemReportError();
+                throw new InvalidParameterException("call to interpolate state above grid maximum");
+            } else if (value < axes[ii][1] - supplied.eps) {
+                supplied.systemReportError();
+                throw new InvalidParameterException("call to interpolate state under grid minimum");
+            }
+            double iiIndex = (value - axes[ii][1]) / (axes[ii][2] - axes[ii][1]) * (axes[ii][0] - 1.0);
+            startingIndex += strides[ii] * (long)(iiIndex + supplied.eps);
+        }
+        return startingIndex;
+    }
+
     /**
      * METHOD TO RETURN A NUMERICAL APPROXIMATION FOR THE GRID VALUE ASSOCIATED WITH THE SUBSET OF CONTINUOUS STATE
      * CHARACTERISTICS
      *
      * Method uses linear interpolation methods to approximate value for grid slice associated with continuous
-     * state variables, as supplied by the interpolateAll() method.
+     * state variables, as supplied by the interpolateAll() method. Grid points of continuous states need not be
+     * evenly spaced (see GridScale.setNodes).
      *
      * @param supplied state combination to interpolate over
      * @param dimensions number of states to conduct the interpolation over
@@ -161,33 +159,19 @@ public class Grid {
 
         //  working variables
         final double TOL = Math.ulp(1.0);
-        long indexHere;
-        double valueHere, weightTotal;
-        int[] dims = new int[dimensions];
-        int[] offset = new int[dimensions];
-        int[] mm = new int[dimensions];
-        int[] nn = new int[dimensions];
-        int[] dd = new int[dimensions];
-        double[] ss = new double[dimensions];
-        double[] weight = new double[(int)Math.pow(2,dimensions)];
-
-        //  evaluate interpolation offsets;
-        dims[0] = (int)(scale.axes[supplied.ageIndex][0][0]+TOL);
-        offset[0] = 1;
-        if (dimensions > 1) {
-            for (int ii=1; ii<dimensions; ii++) {
-                dims[ii] = (int)(scale.axes[supplied.ageIndex][ii][0]+TOL);
-                offset[ii] = offset[ii-1] * dims[ii-1];
-            }
-        }
+        double[][] axes = scale.axes[supplied.ageIndex];
+        long[] strides = scale.strides[supplied.ageIndex];
+        InterpolationScratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(dimensions);
+        int[] mm = scratch.mm;
+        double[] ss = scratch.ss;
 
         // identify reference points
         for (int ii = 0; ii<dimensions; ii++) {
-            ss[ii] = (supplied.labStatesContObject[ii] - scale.axes[supplied.ageIndex][ii][1]) *
-                    (scale.axes[supplied.ageIndex][ii][0]-1) /
-                    (scale.axes[supplied.ageIndex][ii][2] - scale.axes[supplied.ageIndex][ii][1]);
+            int dims = (int)(axes[ii][0]+TOL);
+            ss[ii] = scale.position(supplied.ageIndex, ii, supplied.labStatesContObject[ii]);
             mm[ii] = (int)(ss[ii] + TOL);
-            if ( mm[ii] == (dims[ii]-1) ) {
+            if ( mm[ii] == (dims-1) ) {
                 // at upper bound - step one backward
                 mm[ii] -= 1;
             }
@@ -196,53 +180,257 @@ public class Grid {
 
         // check that point is internal to grid
         for (int ii=0; ii<dimensions; ii++) {
-            double err = Math.ulp(scale.axes[supplied.ageIndex][ii][2]);
-            if (supplied.labStatesContObject[ii] < scale.axes[supplied.ageIndex][ii][1]-err) {
+            double err = Math.ulp(axes[ii][2]);
+            if (supplied.labStatesContObject[ii] < axes[ii][1]-err) {
                 supplied.systemReportError();
                 throw new InvalidParameterException("interpolation point below minimum described by grid");
-            } else if (supplied.labStatesContObject[ii] > scale.axes[supplied.ageIndex][ii][2]+err) {
+            } else if (supplied.labStatesContObject[ii] > axes[ii][2]+err) {
                 supplied.systemReportError();
                 throw new InvalidParameterException("interpolation point above maximum described by grid");
             }
         }
 
         // interpolate states
-        dd[0] = -1;
+        // test point ii is displaced from the reference point by bit jj of ii in dimension jj
+        int points = 1 << dimensions;
+        double minWeight = 1.0/points*1.0E-3;
         double result = 0;
-        weightTotal = 0;
-        for (int ii=0; ii<Math.pow(2, dimensions); ii++) {
-            // loop over each test point
-
-            // update counter
-            dd[0] += 1;
-            int jj = 0;
-            while (dd[jj] > 1) {
-                dd[jj] = 0;
-                jj++;
-                dd[jj] += 1;
-            }
+        double weightTotal = 0;
+        for (int ii=0; ii<points; ii++) {
 
             // calculate weights and indices
-            weight[ii] = 1.0;
-            for (jj=0; jj<dimensions; jj++) {
-                nn[jj] = mm[jj] + dd[jj];
-                weight[ii] *= (1 - Math.abs(dd[jj]-ss[jj]));
+            double weight = 1.0;
+            long indexHere = startingIndex;
+            for (int jj=0; jj<dimensions; jj++) {
+                int dd = (ii >>> jj) & 1;
+                weight *= (1 - Math.abs(dd-ss[jj]));
+                indexHere += (mm[jj] + dd) * strides[jj];
             }
-            if ( weight[ii] > (1.0/Math.pow(2,dimensions)*1.0E-3)) {
+            if ( weight > minWeight) {
                 // take point into consideration
-
-                indexHere = 0;
-                for (jj = 0; jj<dimensions; jj++) {
-                    indexHere += (long)nn[jj] * offset[jj];
-                }
-                indexHere += startingIndex;
-                valueHere = getChecked(supplied, indexHere);
-                result += valueHere * weight[ii];
-                weightTotal += weight[ii];
+                result += getChecked(supplied, indexHere) * weight;
+                weightTotal += weight;
             }
         }
 
         result /= weightTotal;
         return result;
     }
+
+
+    /**
+     * METHOD TO PREPARE A BATCH OF STATE COMBINATIONS FOR REPEATED INTERPOLATION OVER THE FIRST STATE
+     *
+     * The batch describes state combinations that share the same age, and differ from one another only in states
+     * other than the first (liquid wealth). All work that does not depend on the first state is done here, so that
+     * interpolateBatch() only needs to combine the shared weights for the first state with the gathered grid values.
+     *
+     * @param supplied state combinations to interpolate over (values of the first state are ignored)
+     * @param include flags identifying state combinations to prepare (null to prepare all)
+     * @param solutionCall boolean equal to true if call is from the search routine for a maximum to the IO problem
+     * @return batch for passing to interpolateBatch()
+     */
+    public InterpolationBatch prepareBatch(States[] supplied, boolean[] include, boolean solutionCall) {
+        return prepareBatch(new AnticipatedStates(supplied), include, solutionCall);
+    }
+    public InterpolationBatch prepareBatch(AnticipatedStates supplied, boolean[] include, boolean solutionCall) {
+
+        InterpolationBatch batch = new InterpolationBatch(supplied, include);
+        if (batch.included.length == 0)
+            return batch;
+
+        int aa = supplied.ageIndex;
+        int numberContinuous = scale.continuousStates[aa][(solutionCall) ? 1 : 0];
+        if (numberContinuous < 0)
+            throw new InvalidParameterException("continuous states do not appear to have been organised contiguously");
+        batch.ageIndex = aa;
+        batch.dimensions = numberContinuous;
+        batch.solutionCall = solutionCall;
+        if (numberContinuous < 1)
+            return batch;       // first state treated as discrete: interpolate each state combination separately
+
+        // corner offsets shared by all state combinations
+        double[][] axes = scale.axes[aa];
+        long[] strides = scale.strides[aa];
+        int points = 1 << numberContinuous;
+        batch.cornerOffset = new long[points];
+        for (int ii=0; ii<points; ii++) {
+            for (int jj=0; jj<numberContinuous; jj++) {
+                batch.cornerOffset[ii] += ((ii >>> jj) & 1) * strides[jj];
+            }
+        }
+
+        // starting index and weights for remaining states of each state combination
+        final double TOL = Math.ulp(1.0);
+        int nn = batch.included.length;
+        int rest = numberContinuous - 1;
+        batch.baseIndex = new long[nn];
+        batch.restWeights = new double[nn * rest * 2];
+        for (int kk=0; kk<nn; kk++) {
+
+            int row = batch.included[kk];
+
+            // discrete states
+            long index = scale.gridDimensions[aa][3];
+            for (int ii=numberContinuous; ii<strides.length; ii++) {
+                double value = supplied.get(row, ii);
+                if (value > axes[ii][2] + States.eps) {
+                    supplied.toStates(row).systemReportError();
+                    throw new InvalidParameterException("call to interpolate state above grid maximum");
+                } else if (value < axes[ii][1] - States.eps) {
+                    supplied.toStates(row).systemReportError();
+                    throw new InvalidParameterException("call to interpolate state under grid minimum");
+                }
+                double iiIndex = (value - axes[ii][1]) / (axes[ii][2] - axes[ii][1]) * (axes[ii][0] - 1.0);
+                index += strides[ii] * (long)(iiIndex + States.eps);
+            }
+
+            // continuous states other than the first
+            for (int ii=1; ii<numberContinuous; ii++) {
+                double value = supplied.get(row, ii);
+                double err = Math.ulp(axes[ii][2]);
+                if (value < axes[ii][1]-err) {
+                    supplied.toStates(row).systemReportError();
+                    throw new InvalidParameterException("interpolation point below minimum described by grid");
+                } else if (value > axes[ii][2]+err) {
+                    supplied.toStates(row).systemReportError();
+                    throw new InvalidParameterException("interpolation point above maximum described by grid");
+                }
+                int dims = (int)(axes[ii][0]+TOL);
+                double ss = scale.position(aa, ii, value);
+                int mm = (int)(ss + TOL);
+                if ( mm == (dims-1) ) {
+                    mm -= 1;
+                }
+                ss -= mm;
+                index += mm * strides[ii];
+                int pos = (kk * rest + ii - 1) * 2;
+                batch.restWeights[pos] = 1 - Math.abs(0 - ss);
+                batch.restWeights[pos + 1] = 1 - Math.abs(1 - ss);
+            }
+            batch.baseIndex[kk] = index;
+        }
+        return batch;
+    }
+
+    /**
+     * METHOD TO INTERPOLATE ALL STATE COMBINATIONS OF A BATCH FOR A COMMON VALUE OF THE FIRST STATE
+     *
+     * Weights for the first state are evaluated once and shared by all state combinations; grid values are then
+     * gathered from the (precomputed) corners of each state combination. Results are identical to those obtained
+     * by calling interpolateAll() for each state combination separately.
+     *
+     * @param batch batch prepared by prepareBatch()
+     * @param firstState common value of the first state (liquid wealth)
+     * @param result array to populate, indexed as the state combinations supplied to prepareBatch() (entries for
+     *               excluded state combinations are not modified)
+     */
+    public void interpolateBatch(InterpolationBatch batch, double firstState, double[] result) {
+
+        int[] included = batch.included;
+        int nn = included.length;
+        if (nn == 0)
+            return;
+        if (batch.dimensions < 1) {
+            States states = batch.states.toStates(included[0]);
+            for (int kk=0; kk<nn; kk++) {
+                batch.states.view(included[kk], states);
+                states.labStatesContObject[0] = firstState;
+                result[included[kk]] = interpolateAll(states, batch.solutionCall);
+            }
+            return;
+        }
+
+        // shared reference point and weights for first state
+        final double TOL = Math.ulp(1.0);
+        double[] axis = scale.axes[batch.ageIndex][0];
+        double err = Math.ulp(axis[2]);
+        if (firstState < axis[1]-err) {
+            batch.states.toStates(included[0]).systemReportError();
+            throw new InvalidParameterException("interpolation point below minimum described by grid");
+        } else if (firstState > axis[2]+err) {
+            batch.states.toStates(included[0]).systemReportError();
+            throw new InvalidParameterException("interpolation point above maximum described by grid");
+        }
+        int dims = (int)(axis[0]+TOL);
+        double ss = scale.position(batch.ageIndex, 0, firstState);
+        int mm = (int)(ss + TOL);
+        if ( mm == (dims-1) ) {
+            mm -= 1;
+        }
+        ss -= mm;
+        double weight0 = 1 - Math.abs(0 - ss);
+        double weight1 = 1 - Math.abs(1 - ss);
+        long offset = mm * scale.strides[batch.ageIndex][0];
+
+        // gather grid values for each state combination
+        int rest = batch.dimensions - 1;
+        long[] cornerOffset = batch.cornerOffset;
+        double[] restWeights = batch.restWeights;
+        int points = cornerOffset.length;
+        double minWeight = 1.0/points*1.0E-3;
+        for (int kk=0; kk<nn; kk++) {
+            long start = batch.baseIndex[kk] + offset;
+            int pos = kk * rest * 2;
+            double value = 0;
+            double weightTotal = 0;
+            for (int ii=0; ii<points; ii++) {
+                // weights are accumulated in the same order as interpolateContinuous, to obtain identical results
+                double weight = ((ii & 1) == 0) ? weight0 : weight1;
+                for (int jj=1; jj<=rest; jj++) {
+                    weight *= restWeights[pos + (jj - 1) * 2 + ((ii >>> jj) & 1)];
+                }
+                if ( weight > minWeight) {
+                    value += getChecked(batch.states, included[kk], start + cornerOffset[ii]) * weight;
+                    weightTotal += weight;
+                }
+            }
+            result[included[kk]] = value / weightTotal;
+        }
+    }
+
+
+    /**
+     * CLASS TO STORE DATA THAT ARE INVARIANT TO THE FIRST STATE FOR A BATCH OF STATE COMBINATIONS
+     */
+    public static class InterpolationBatch {
+
+        final AnticipatedStates states;     // state combinations supplied to prepareBatch
+        final int[] included;       // indices of state combinations prepared for interpolation
+        int ageIndex;               // common age index of state combinations
+        int dimensions;             // number of states treated as continuous
+        boolean solutionCall;       // flag passed to interpolateAll where the first state is treated as discrete
+        long[] cornerOffset;        // index offset of each interpolation corner, relative to the reference point
+        long[] baseIndex;           // index of reference point, excluding the first state, by state combination
+        double[] restWeights;       // weights of lower and upper reference points, by state combination and continuous state other than the first
+
+        InterpolationBatch(AnticipatedStates states, boolean[] include) {
+            this.states = states;
+            int count = 0;
+            int[] included = new int[states.size()];
+            for (int ii=0; ii<states.size(); ii++) {
+                if (include == null || include[ii]) included[count++] = ii;
+            }
+            this.included = Arrays.copyOf(included, count);
+        }
+
+        public int size() { return included.length; }
+    }
+
+
+    /**
+     * CLASS TO HOLD WORKING ARRAYS FOR INTERPOLATION, TO AVOID ALLOCATION ON EACH CALL
+     */
+    private static class InterpolationScratch {
+
+        int[] mm = new int[8];          // reference point in each dimension
+        double[] ss = new double[8];    // proportional distance from reference point in each dimension
+
+        void ensureCapacity(int dimensions) {
+            if (mm.length < dimensions) {
+                mm = new int[dimensions];
+                ss = new double[dimensions];
+            }
+        }
+    }
 }
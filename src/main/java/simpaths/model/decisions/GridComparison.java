@@ -0,0 +1,321 @@
+package simpaths.model.decisions;
+
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import simpaths.data.Parameters;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *
+ * CLASS TO COMPARE TWO SETS OF SAVED GRIDS (E.G. SOLVED BEFORE AND AFTER A CHANGE TO CODE OR PARAMETERS)
+ *
+ * GRID FILES ARE STREAMED ONE AGE SLICE AT A TIME, IN BLOCKS OF BUFFER_VALUES, SO THAT GRIDS TOO LARGE TO HOLD ON THE
+ * HEAP TWICE CAN BE COMPARED: UNFORMATTED FILES ARE MAPPED READ-ONLY (SEE MappedGridStore), AND CHUNKS OF COMPRESSED
+ * FILES ARE RELEASED ONCE COMPARED (SEE ChunkedGridStore). FILES MUST DESCRIBE THE STATE SPACE OF THE CURRENT
+ * CONFIGURATION (SEE GridScale.fingerprint).
+ *
+ * FOR EACH GRID AND AGE, THE MAXIMUM AND MEAN ABSOLUTE DIFFERENCES ARE REPORTED OVER GRID POINTS SOLVED IN BOTH SETS,
+ * TOGETHER WITH THE NUMBER OF POINTS SOLVED IN ONLY ONE SET. NON-FINITE VALUES (NaN OR INFINITE) ARE TREATED AS SOLVED,
+ * AND ANY POINT WITH A NON-FINITE VALUE IN EITHER SET IS COUNTED AS A DIFFERENCE OVER TOLERANCE. THE STATE COMBINATIONS
+ * WITH THE LARGEST DIFFERENCES ARE DESCRIBED FOR EACH GRID. A GRID PASSES IF NO DIFFERENCE EXCEEDS THE TOLERANCE AND
+ * ALL POINTS SOLVED IN ONE SET ARE SOLVED IN THE OTHER. RESULTS ARE REPORTED TO THE CONSOLE AND TO grid_comparison.csv
+ * IN THE GRIDS OUTPUT DIRECTORY.
+ *
+ * THE COMPARISON IS RUN AFTER BEHAVIOURAL GRIDS ARE SOLVED IF compareGridsTolerance IS SET (SEE SimPathsModel).
+ *
+ */
+public class GridComparison {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final String REPORT_FILE = "grid_comparison.csv";
+    static final int BUFFER_VALUES = 1 << 16;   // values read from each grid per block
+    static final int WORST_STATES = 10;         // state combinations with largest differences described for each grid
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO COMPARE ALL GRIDS SAVED IN TWO DIRECTORIES
+     * @param directory1 directory of reference grids
+     * @param directory2 directory of grids to compare against reference
+     * @param tolerance maximum absolute difference for grids to be considered equivalent
+     * @return true if all grids pass
+     */
+    public static boolean run(String directory1, String directory2, double tolerance) {
+
+        System.out.println("Comparing grids in " + directory2 + " against grids in " + directory1 +
+                " (tolerance " + tolerance + ")");
+        GridScale scale = new GridScale();
+        Map<String, Long> files = new LinkedHashMap<>();
+        files.put(ManagerFileGrids.VALUE_FUNCTION_FILE, Grids.getValueFunctionSize(scale));
+        files.put(ManagerFileGrids.CONSUMPTION_FILE, Grids.getValueFunctionSize(scale));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT1) files.put(ManagerFileGrids.EMPLOYMENT1_FILE, Grids.getEmploymentSize(scale));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT2) files.put(ManagerFileGrids.EMPLOYMENT2_FILE, Grids.getEmploymentSize(scale));
+
+        Map<String, Comparison> comparisons = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            GridStore store1 = null, store2 = null;
+            try {
+                store1 = open(directory1, file.getKey(), file.getValue(), scale.fingerprint());
+                store2 = open(directory2, file.getKey(), file.getValue(), scale.fingerprint());
+                Comparison comparison = compare(store1, store2, scale, tolerance);
+                comparisons.put(file.getKey(), comparison);
+                System.out.println(file.getKey() + ": " + comparison);
+            } catch (IOException e) {
+                throw new RuntimeException("failed to compare grid files " + file.getKey() + ": " + e.getMessage(), e);
+            } finally {
+                if (store1 != null) store1.close();
+                if (store2 != null) store2.close();
+            }
+        }
+        write(comparisons, DecisionParams.gridsOutputDirectory);
+
+        boolean passed = comparisons.values().stream().allMatch(Comparison::isPassed);
+        System.out.println("Grid comparison " + ((passed) ? "passed" : "failed"));
+        return passed;
+    }
+
+    /**
+     * METHOD TO OPEN A SAVED GRID FILE WITHOUT COPYING ITS VALUES ONTO THE HEAP
+     * Unformatted files are preferred to compressed files where both are available
+     */
+    static GridStore open(String directory, String fileName, long size, long fingerprint) throws IOException {
+
+        String filePath = directory + File.separator + fileName;
+        if (new File(filePath).exists()) {
+            MappedGridStore store = new MappedGridStore(filePath, size, fingerprint, true, false);
+            if (DecisionParams.verifyGridChecksums) {
+                try {
+                    store.verifyChecksum();
+                } catch (IOException e) {
+                    store.close();
+                    throw e;
+                }
+            }
+            return store;
+        }
+        String compressedPath = directory + File.separator + ManagerFileGrids.compressedFileName(fileName);
+        if (new File(compressedPath).exists())
+            return new ChunkedGridStore(compressedPath, size, fingerprint);
+        throw new IOException("file not found: " + filePath);
+    }
+
+    /**
+     * METHOD TO COMPARE TWO GRID STORES OF THE SAME SIZE, ORGANISED BY A COMMON GridScale
+     */
+    static Comparison compare(GridStore store1, GridStore store2, GridScale scale, double tolerance) {
+
+        if (store1.size() != store2.size())
+            throw new IllegalArgumentException("grids for comparison differ in size");
+        Comparison comparison = new Comparison(tolerance);
+        DoubleBuffer buffer1 = DoubleBuffer.allocate(BUFFER_VALUES);
+        DoubleBuffer buffer2 = DoubleBuffer.allocate(BUFFER_VALUES);
+        for (int aa=0; aa<scale.simLifeSpan; aa++) {
+
+            long start = scale.gridDimensions[aa][3];
+            long end = Math.min(start + scale.gridDimensions[aa][2], store1.size());
+            if (start >= end) break;
+            AgeDifferences age = new AgeDifferences(aa + Parameters.AGE_TO_BECOME_RESPONSIBLE, tolerance);
+            for (long offset=start; offset<end; offset+=BUFFER_VALUES) {
+                int length = (int)Math.min(BUFFER_VALUES, end - offset);
+                buffer1.clear().limit(length);
+                buffer2.clear().limit(length);
+                store1.getBulk(offset, buffer1);
+                store2.getBulk(offset, buffer2);
+                for (int ii=0; ii<length; ii++) {
+                    double value1 = buffer1.get(ii);
+                    double value2 = buffer2.get(ii);
+                    boolean solved1 = !(Math.abs(value1 - DecisionParams.GRID_DEFAULT_VALUE) < 1.0E-10);     // true for NaN
+                    boolean solved2 = !(Math.abs(value2 - DecisionParams.GRID_DEFAULT_VALUE) < 1.0E-10);
+                    if (solved1 && solved2) {
+                        double difference = Math.abs(value1 - value2);
+                        if (!Double.isFinite(value1) || !Double.isFinite(value2))
+                            difference = Double.POSITIVE_INFINITY;
+                        age.add(difference);
+                        comparison.addCandidate(aa, offset + ii, value1, value2, difference);
+                    } else if (solved1 || solved2) {
+                        age.solvedInOne++;
+                    }
+                }
+            }
+            if (store1 instanceof ChunkedGridStore chunked) chunked.releaseBefore(end);
+            if (store2 instanceof ChunkedGridStore chunked) chunked.releaseBefore(end);
+            comparison.ages.add(age);
+        }
+        comparison.describeWorst(scale);
+        return comparison;
+    }
+
+    /**
+     * METHOD TO DECODE THE STATE COMBINATION ASSOCIATED WITH A GRID INDEX
+     */
+    static States decode(GridScale scale, int aa, long index) {
+
+        long offset = index - scale.gridDimensions[aa][3];
+        States states = new States(scale, aa + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+        states.populateOuterGridStates((int)(offset / scale.gridDimensions[aa][0]));
+        states.populateInnerGridStates((int)(offset % scale.gridDimensions[aa][0]));
+        return states;
+    }
+
+    /**
+     * METHOD TO WRITE DIFFERENCES BY GRID AND AGE TO FILE
+     */
+    private static void write(Map<String, Comparison> comparisons, String directory) {
+
+        File dir = new File(directory);
+        if (!dir.exists()) dir.mkdirs();
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader("grid", "age", "pointsCompared", "solvedInOne",
+                "maxAbsDifference", "meanAbsDifference", "pointsOverTolerance", "pointsNonFinite").build();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(directory, REPORT_FILE));
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat)) {
+            for (Map.Entry<String, Comparison> entry : comparisons.entrySet()) {
+                for (AgeDifferences age : entry.getValue().ages) {
+                    printer.printRecord(entry.getKey(), age.ageYears, age.points, age.solvedInOne,
+                            age.maxDifference, age.getMeanDifference(), age.overTolerance, age.nonFinite);
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to write grid comparison: " + ioe.getMessage(), ioe);
+        }
+    }
+
+
+    /**
+     * CLASS TO ACCUMULATE DIFFERENCES BETWEEN TWO GRIDS
+     */
+    public static class Comparison {
+
+        final double tolerance;
+        final List<AgeDifferences> ages = new ArrayList<>();
+        final int[] worstAge = new int[WORST_STATES];           // largest differences, in descending order
+        final long[] worstIndex = new long[WORST_STATES];
+        final double[][] worstValues = new double[WORST_STATES][];
+        final double[] worstDifference = new double[WORST_STATES];
+        int worstCount;
+        final List<String> worstStates = new ArrayList<>();     // descriptions of state combinations with largest differences
+
+        Comparison(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        void addCandidate(int aa, long index, double value1, double value2, double difference) {
+
+            if (difference <= 0.0 || (worstCount == WORST_STATES && difference <= worstDifference[WORST_STATES-1]))
+                return;
+            int position = Math.min(worstCount, WORST_STATES - 1);
+            while (position > 0 && worstDifference[position-1] < difference) {
+                worstAge[position] = worstAge[position-1];
+                worstIndex[position] = worstIndex[position-1];
+                worstValues[position] = worstValues[position-1];
+                worstDifference[position] = worstDifference[position-1];
+                position--;
+            }
+            worstAge[position] = aa;
+            worstIndex[position] = index;
+            worstValues[position] = new double[]{value1, value2};
+            worstDifference[position] = difference;
+            worstCount = Math.min(worstCount + 1, WORST_STATES);
+        }
+
+        void describeWorst(GridScale scale) {
+            for (int ii=0; ii<worstCount; ii++) {
+                worstStates.add(decode(scale, worstAge[ii], worstIndex[ii]).describe() + " (index " + worstIndex[ii] +
+                        "): " + worstValues[ii][0] + " vs " + worstValues[ii][1]);
+            }
+        }
+
+        public boolean isPassed() {
+            for (AgeDifferences age : ages) {
+                if (age.solvedInOne > 0 || age.overTolerance > 0) return false;
+            }
+            return true;
+        }
+
+        public double getMaxDifference() {
+            double max = 0.0;
+            for (AgeDifferences age : ages) max = Math.max(max, age.maxDifference);
+            return max;
+        }
+
+        public List<AgeDifferences> getAges() { return ages; }
+        public List<String> getWorstStates() { return worstStates; }
+
+        @Override
+        public String toString() {
+
+            StringBuilder report = new StringBuilder((isPassed()) ? "passed" : "failed");
+            report.append(", max difference ").append(String.format("%.3g", getMaxDifference()));
+            for (AgeDifferences age : ages) {
+                if (age.solvedInOne > 0 || age.maxDifference > 0.0) {
+                    report.append("\n    age ").append(age.ageYears).append(": max ").append(String.format("%.3g", age.maxDifference))
+                            .append(", mean ").append(String.format("%.3g", age.getMeanDifference()))
+                            .append(", ").append(age.overTolerance).append(" of ").append(age.points).append(" points over tolerance");
+                    if (age.nonFinite > 0) report.append(", ").append(age.nonFinite).append(" points with non-finite values");
+                    if (age.solvedInOne > 0) report.append(", ").append(age.solvedInOne).append(" points solved in one grid only");
+                }
+            }
+            for (String state : worstStates) report.append("\n    ").append(state);
+            return report.toString();
+        }
+    }
+
+    /**
+     * CLASS TO ACCUMULATE DIFFERENCES FOR AN AGE SLICE
+     */
+    public static class AgeDifferences {
+
+        final int ageYears;
+        long points;                // grid points solved in both grids
+        long solvedInOne;           // grid points solved in one grid only
+        long overTolerance;         // grid points with difference exceeding tolerance (including non-finite values)
+        long nonFinite;             // grid points with a non-finite value in either grid
+        double maxDifference;
+        double sumDifference;
+        final double tolerance;
+
+        AgeDifferences(int ageYears, double tolerance) {
+            this.ageYears = ageYears;
+            this.tolerance = tolerance;
+        }
+
+        void add(double difference) {
+            points++;
+            if (!Double.isFinite(difference)) {
+                // excluded from mean difference
+                nonFinite++;
+                overTolerance++;
+                maxDifference = Double.POSITIVE_INFINITY;
+                return;
+            }
+            if (difference > tolerance) overTolerance++;
+            sumDifference += difference;
+            maxDifference = Math.max(maxDifference, difference);
+        }
+
+        public int getAgeYears() { return ageYears; }
+        public long getSolvedInOne() { return solvedInOne; }
+        public long getOverTolerance() { return overTolerance; }
+        public long getNonFinite() { return nonFinite; }
+        public double getMaxDifference() { return maxDifference; }
+        public double getMeanDifference() { return (points > nonFinite) ? sumDifference / (points - nonFinite) : 0.0; }
+    }
+}
@@ -0,0 +1,162 @@
+package simpaths.model.decisions;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+
+/**
+ *
+ * CLASS TO DESCRIBE THE HEADER OF A GRID FILE
+ *
+ * THE HEADER OCCUPIES THE FIRST HEADER_BYTES OF A GRID FILE, AND IS FOLLOWED BY ONE (BIG-ENDIAN) 8-BYTE DOUBLE
+ * PER GRID INDEX. FILES WRITTEN BEFORE THE HEADER WAS INTRODUCED CONTAIN THE GRID VALUES ONLY, AND ARE
+ * IDENTIFIED BY THE ABSENCE OF THE MAGIC NUMBER.
+ *
+ * FORMAT VERSIONS:
+ *      1    uncompressed grid values with header and checksum
+ *      2    adds compressed grid files (see ChunkedGridStore) and single precision policy grids
+ * FILES WITH A HEADER OF ANOTHER VERSION ARE REJECTED, AND MUST BE RE-SOLVED.
+ *
+ * HEADER LAYOUT (BIG-ENDIAN):
+ *      int  magic number ("SPGR")
+ *      int  format version
+ *      long number of grid values
+ *      long fingerprint of GridScale used to organise values
+ *      int  flags (FLAG_CHECKSUM set if checksum is populated; FLAG_COMPRESSED and FLAG_FLOAT32 describe
+ *           compressed grid files - see ChunkedGridStore)
+ *      long CRC32C checksum of grid values
+ *      padding to HEADER_BYTES
+ *
+ */
+public class GridFileHeader {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final int HEADER_BYTES = 64;
+    public static final int MAGIC = 0x53504752;
+    public static final int FORMAT_VERSION = 2;
+    public static final int FLAG_CHECKSUM = 1;
+    public static final int FLAG_COMPRESSED = 2;
+    public static final int FLAG_FLOAT32 = 4;
+
+    int version;            // format version of file
+    long size;              // number of grid values stored in file
+    long fingerprint;       // fingerprint of GridScale
+    int flags;              // bit flags
+    long checksum;          // CRC32C checksum of grid values
+
+
+    /**
+     * CONSTRUCTOR
+     */
+    public GridFileHeader(long size, long fingerprint) {
+        version = FORMAT_VERSION;
+        this.size = size;
+        this.fingerprint = fingerprint;
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO READ HEADER FROM START OF FILE
+     * @param channel channel to grid file
+     * @return header, or null if the file was written without a header
+     */
+    public static GridFileHeader read(FileChannel channel) throws IOException {
+
+        if (channel.size() < HEADER_BYTES) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) return null;
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION)
+            throw new IOException("grid file saved in format version " + version + ", but this version of SimPaths reads format version " +
+                    FORMAT_VERSION + " only: re-solve the grids to replace the file");
+        GridFileHeader header = new GridFileHeader(buffer.getLong(), buffer.getLong());
+        header.version = version;
+        header.flags = buffer.getInt();
+        header.checksum = buffer.getLong();
+        return header;
+    }
+
+    /**
+     * METHOD TO WRITE HEADER TO START OF FILE
+     * @param channel channel to grid file
+     */
+    public void write(FileChannel channel) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(version);
+        buffer.putLong(size);
+        buffer.putLong(fingerprint);
+        buffer.putInt(flags);
+        buffer.putLong(checksum);
+        buffer.position(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * METHOD TO CONFIRM THAT FILE DESCRIBES A GRID WITH THE EXPECTED SIZE AND ORGANISATION
+     * @param expectedSize number of values expected in grid
+     * @param expectedFingerprint fingerprint of GridScale expected to organise grid
+     * @param fileName name of file for reporting
+     */
+    public void validate(long expectedSize, long expectedFingerprint, String fileName) throws IOException {
+
+        if (size != expectedSize)
+            throw new IOException("grid file " + fileName + " holds " + size + " values, but grid requires " + expectedSize);
+        if (fingerprint != expectedFingerprint)
+            throw new IOException("grid file " + fileName + " was solved for a different state space (GridScale fingerprint " +
+                    Long.toHexString(fingerprint) + " versus " + Long.toHexString(expectedFingerprint) + ")");
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+        flags |= FLAG_CHECKSUM;
+    }
+
+    public boolean hasChecksum() {
+        return (flags & FLAG_CHECKSUM) != 0;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setCompressed(boolean float32) {
+        flags |= FLAG_COMPRESSED;
+        if (float32) flags |= FLAG_FLOAT32;
+    }
+
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    public boolean isFloat32() {
+        return (flags & FLAG_FLOAT32) != 0;
+    }
+
+    /**
+     * METHOD TO UPDATE A CRC32C CHECKSUM WITH THE REMAINING CONTENT OF A BUFFER
+     * @param crc checksum to update
+     * @param buffer buffer holding grid values (position is unaffected)
+     */
+    static void updateChecksum(CRC32C crc, ByteBuffer buffer) {
+        crc.update(buffer.duplicate());
+    }
+}
@@ -0,0 +1,194 @@
+package simpaths.model.decisions;
+
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import simpaths.data.Parameters;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.InvalidParameterException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ *
+ * CLASS TO HOLD SOLVED GRIDS AT SINGLE PRECISION, AND TO REPORT THE ASSOCIATED INTERPOLATION ERRORS
+ *
+ * GRIDS ARE SOLVED (OR READ) AT DOUBLE PRECISION. WHERE DecisionParams.float32PolicyGrids IS SET, THE POLICY GRIDS
+ * (CONSUMPTION AND EMPLOYMENT SHARES) ARE THEN COPIED TO SINGLE PRECISION STORES (SEE FloatGridStore), WHICH HALVES
+ * THE MEMORY THAT THEY OCCUPY FOR THE REMAINDER OF THE SIMULATION; DecisionParams.float32ValueFunction DOES THE SAME
+ * FOR THE VALUE FUNCTION, WHICH IS NOT USED TO PROJECT THE POPULATION. GRIDS ARE QUANTISED AFTER ANY SAVE TO DISK,
+ * SO THAT SAVED GRIDS RETAIN DOUBLE PRECISION, AND AFTER ALL AGES ARE SOLVED, SO THAT SOLUTIONS ARE UNAFFECTED.
+ *
+ * BEFORE THE DOUBLE PRECISION VALUES ARE RELEASED, EACH QUANTISED GRID IS INTERPOLATED AT A RANDOM SAMPLE OF STATE
+ * COMBINATIONS (AS FOR THE POPULATION PROJECTIONS), AND COMPARED AGAINST INTERPOLATIONS OF THE DOUBLE PRECISION
+ * SOLUTION. THE ERRORS ARE REPORTED TO THE CONSOLE AND TO grid_quantisation.csv IN THE GRIDS OUTPUT DIRECTORY.
+ *
+ * GRIDS MAPPED TO FILE OR READ FROM COMPRESSED FILES ARE NOT QUANTISED: MAPPED GRIDS ARE HELD OFF-HEAP, AND
+ * COMPRESSED POLICY GRIDS ARE ALREADY HELD AT SINGLE PRECISION IF SAVED WITH DecisionParams.quantiseGridPolicies.
+ *
+ */
+public class GridQuantisation {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final String REPORT_FILE = "grid_quantisation.csv";
+    static final int SAMPLES = 20000;       // state combinations sampled to evaluate interpolation errors, per grid
+    static final long SEED = 1103;
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO QUANTISE GRIDS AS DIRECTED BY DecisionParams, AND TO REPORT ASSOCIATED ERRORS
+     * @param grids solved grids
+     * @param report true to write errors to the grids output directory
+     */
+    public static void run(Grids grids, boolean report) {
+
+        if (!DecisionParams.float32PolicyGrids && !DecisionParams.float32ValueFunction)
+            return;
+        Map<String, Grid> selected = new LinkedHashMap<>();
+        if (DecisionParams.float32ValueFunction) selected.put("valueFunction", grids.valueFunction);
+        if (DecisionParams.float32PolicyGrids) {
+            selected.put("consumption", grids.consumption);
+            if (grids.employment1 != null) selected.put("employment1", grids.employment1);
+            if (grids.employment2 != null) selected.put("employment2", grids.employment2);
+        }
+
+        Map<String, Errors> errors = new LinkedHashMap<>();
+        for (Map.Entry<String, Grid> entry : selected.entrySet()) {
+            Grid grid = entry.getValue();
+            if (!(grid.store instanceof HeapGridStore)) {
+                System.out.println("Grid " + entry.getKey() + " not held at single precision: only grids held on the heap at double precision are quantised");
+                continue;
+            }
+            Errors error = quantise(grid, SAMPLES, new Random(SEED));
+            errors.put(entry.getKey(), error);
+            System.out.println("Grid " + entry.getKey() + " held at single precision: " + error);
+        }
+        if (report && !errors.isEmpty())
+            write(errors, DecisionParams.gridsOutputDirectory);
+    }
+
+    /**
+     * METHOD TO REPLACE THE STORE OF A GRID BY A SINGLE PRECISION COPY
+     * @param grid grid to quantise
+     * @param samples number of state combinations sampled to evaluate interpolation errors
+     * @param random random number generator used to sample state combinations
+     * @return interpolation errors of single precision grid relative to the double precision grid
+     */
+    static Errors quantise(Grid grid, int samples, Random random) {
+
+        Grid reference = new Grid(grid.scale, grid.store);
+        grid.store = new FloatGridStore(reference.store);
+        return compare(reference, grid, samples, random);
+    }
+
+    /**
+     * METHOD TO COMPARE INTERPOLATIONS OF TWO GRIDS OF COMMON SCALE AND SIZE, AT A RANDOM SAMPLE OF STATE COMBINATIONS
+     *
+     * Continuous states (including birth year) are sampled uniformly over their domain, and discrete states over
+     * their grid points. Samples that involve unsolved grid points (e.g. infeasible state combinations) are skipped.
+     */
+    static Errors compare(Grid reference, Grid approximate, int samples, Random random) {
+
+        GridScale scale = reference.scale;
+        int ages = 0;
+        while (ages < scale.simLifeSpan && scale.gridDimensions[ages][3] + scale.gridDimensions[ages][2] <= reference.size) {
+            ages++;
+        }
+        Errors errors = new Errors();
+        if (ages == 0) return errors;
+        for (int ss = 0; ss < samples; ss++) {
+
+            int aa = random.nextInt(ages);
+            States states = new States(scale, aa + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+            int numberContinuous = scale.continuousStates[aa][0];
+            for (int ii = 0; ii < states.labStatesContObject.length; ii++) {
+                double[] axis = scale.axes[aa][ii];
+                if (ii < numberContinuous) {
+                    states.labStatesContObject[ii] = axis[1] + random.nextDouble() * (axis[2] - axis[1]);
+                } else {
+                    int points = (int)Math.round(axis[0]);
+                    double step = (points > 1) ? (axis[2] - axis[1]) / (points - 1) : 0.0;
+                    states.labStatesContObject[ii] = axis[1] + step * random.nextInt(points);
+                }
+            }
+            double exact;
+            try {
+                exact = reference.interpolateAll(states, false);
+            } catch (InvalidParameterException e) {
+                errors.skipped++;
+                continue;
+            }
+            errors.add(approximate.interpolateAll(states, false), exact);
+        }
+        return errors;
+    }
+
+    /**
+     * METHOD TO WRITE INTERPOLATION ERRORS TO FILE
+     */
+    private static void write(Map<String, Errors> errors, String directory) {
+
+        File dir = new File(directory);
+        if (!dir.exists()) dir.mkdirs();
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader("grid", "samples", "skipped", "maxAbsError",
+                "maxRelError", "meanAbsError").build();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(directory, REPORT_FILE));
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat)) {
+            for (Map.Entry<String, Errors> entry : errors.entrySet()) {
+                Errors error = entry.getValue();
+                printer.printRecord(entry.getKey(), error.samples, error.skipped, error.maxAbsoluteError,
+                        error.maxRelativeError, error.getMeanAbsoluteError());
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to write grid quantisation errors: " + ioe.getMessage(), ioe);
+        }
+    }
+
+
+    /**
+     * CLASS TO ACCUMULATE INTERPOLATION ERRORS
+     */
+    public static class Errors {
+
+        long samples;
+        long skipped;                   // samples involving unsolved grid points
+        double maxAbsoluteError;
+        double maxRelativeError;        // relative to the larger of the exact value and 1.0E-3
+        double sumAbsoluteError;
+
+        void add(double approximate, double exact) {
+            double error = Math.abs(approximate - exact);
+            samples++;
+            sumAbsoluteError += error;
+            maxAbsoluteError = Math.max(maxAbsoluteError, error);
+            maxRelativeError = Math.max(maxRelativeError, error / Math.max(1.0E-3, Math.abs(exact)));
+        }
+
+        public long getSamples() { return samples; }
+        public double getMaxAbsoluteError() { return maxAbsoluteError; }
+        public double getMaxRelativeError() { return maxRelativeError; }
+        public double getMeanAbsoluteError() { return (samples > 0) ? sumAbsoluteError / samples : 0.0; }
+
+        @Override
+        public String toString() {
+            return samples + " interpolation samples (" + skipped + " skipped), max error " +
+                    String.format("%.3g", maxAbsoluteError) + " (" + String.format("%.3g", 100.0 * maxRelativeError) +
+                    "%), mean error " + String.format("%.3g", getMeanAbsoluteError());
+        }
+    }
+}
@@ -3,6 +3,8 @@ package simpaths.model.decisions;
 
 import simpaths.data.Parameters;
 
+import java.security.InvalidParameterException;
+
 /**
  *
  * CLASS TO DEFINE GRID AXES
@@ -18,6 +20,9 @@ public class GridScale {
     int numberOfStates;        // number of state variables
     long[][] gridDimensions;   // vector storing summary references for grid dimensions - see constructor for definition
     double[][][] axes;         // vector storing detailed description of grid axes - see constructor for definition
+    long[][] strides;          // stride in grid index of each state, by age - see setInterpolationReferences
+    int[][] continuousStates;  // number of leading states interpolated as continuous, by age - see setInterpolationReferences
+    double[][][] nodes;        // nodes of continuous inner states that are not evenly spaced, by age and state (null if evenly spaced) - see setNodes
 
 
     /**
@@ -51,6 +56,7 @@ public class GridScale {
         numberOfStates++;                                         // cohabitation (1 = cohabiting)
         numberOfStates++;                                         // gender (1 = female)
         axes = new double[simLifeSpan][numberOfStates][5];
+        nodes = new double[simLifeSpan][numberOfStates][];
         gridDimensions = new long[simLifeSpan][7];
 
         /*
@@ -285,6 +291,24 @@ public class GridScale {
             dimIndex++;
         }
 
+        setGridDimensions();
+
+        // nodes of continuous states that are not evenly spaced (see StateNodes)
+        if (DecisionParams.stateNodesFile != null && StateNodes.exists(DecisionParams.stateNodesFile))
+            StateNodes.apply(this, StateNodes.read(DecisionParams.stateNodesFile));
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO POPULATE SUMMARY REFERENCES FOR GRID DIMENSIONS FROM THE AXES
+     */
+    private void setGridDimensions() {
+
         /*
          * POPULATE gridDimensions
          *
@@ -310,13 +334,47 @@ public class GridScale {
             gridDimensions[aa][5] = outerGridStates(aa);
             startSliceIndex += gridDimensions[aa][2];
         }
+        setInterpolationReferences();
     }
 
-
-    /*
-     * WORKING METHODS
+    /**
+     * METHOD TO PRECOMPUTE AGE SPECIFIC REFERENCES USED TO INTERPOLATE GRIDS (SEE Grid.interpolateAll)
+     *
+     * strides[aa][ii] - change in grid index associated with a unit step in state ii at age aa
+     * continuousStates[aa][0] - number of leading states treated as continuous for population projections at age aa
+     * continuousStates[aa][1] - number of leading states treated as continuous for IO solutions at age aa
+     *      set to -1 if the states treated as continuous are not organised contiguously
      */
+    private void setInterpolationReferences() {
 
+        strides = new long[simLifeSpan][];
+        continuousStates = new int[simLifeSpan][2];
+        for (int aa = 0; aa < simLifeSpan; aa++) {
+
+            int noStates = (int)gridDimensions[aa][4] + (int)gridDimensions[aa][5];
+            strides[aa] = new long[noStates];
+            long stride = 1;
+            for (int ii = 0; ii < noStates; ii++) {
+                strides[aa][ii] = stride;
+                stride *= (int)axes[aa][ii][0];
+            }
+            for (int cc = 0; cc < 2; cc++) {
+                double continuousCutoff = (cc == 0) ? 0.3 : 0.6;
+                boolean flagAllContinuous = true;
+                boolean flagContiguous = true;
+                int numberContinuous = 0;
+                for (int ii = 0; ii < noStates; ii++) {
+                    if (axes[aa][ii][3] > continuousCutoff) {
+                        numberContinuous++;
+                        if (!flagAllContinuous) flagContiguous = false;
+                    } else {
+                        flagAllContinuous = false;
+                    }
+                }
+                continuousStates[aa][cc] = (flagContiguous) ? numberContinuous : -1;
+            }
+        }
+    }
 
     /**
      * METHOD TO EVALUATE THE NUMBER OF STATES CONSIDERED IN THE INNER LOOP FOR GRID SOLUTIONS AT AGE AA
@@ -426,6 +484,126 @@ public class GridScale {
         return size;
     }
 
+    /**
+     * METHOD TO EVALUATE A FINGERPRINT OF THE GRID ORGANISATION
+     * Grids saved with a different fingerprint describe a different state space, and cannot be used with this scale
+     * @return 64-bit FNV-1a hash of the grid dimensions and axes
+     */
+    public long fingerprint() {
+
+        long hash = 0xcbf29ce484222325L;
+        hash = fingerprintUpdate(hash, simLifeSpan);
+        hash = fingerprintUpdate(hash, numberOfStates);
+        for (int aa = 0; aa < simLifeSpan; aa++) {
+            for (long dim : gridDimensions[aa]) {
+                hash = fingerprintUpdate(hash, dim);
+            }
+            for (double[] axis : axes[aa]) {
+                for (double val : axis) {
+                    hash = fingerprintUpdate(hash, Double.doubleToLongBits(val));
+                }
+            }
+            for (int ii = 0; ii < numberOfStates; ii++) {
+                if (nodes[aa][ii] != null) {
+                    hash = fingerprintUpdate(hash, ii);
+                    for (double val : nodes[aa][ii]) {
+                        hash = fingerprintUpdate(hash, Double.doubleToLongBits(val));
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    static long fingerprintUpdate(long hash, long value) {
+        for (int ii = 0; ii < 8; ii++) {
+            hash ^= (value >>> (8 * ii)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * METHOD TO DESCRIBE A CONTINUOUS INNER STATE BY NODES THAT ARE NOT EVENLY SPACED
+     *
+     * The nodes must span the domain of the state at age aa, and replace the evenly spaced grid points otherwise
+     * implied by the axis. The number of nodes may differ from the number of evenly spaced points, in which case
+     * the grid dimensions at all ages are updated. Nodes should therefore be set before grids are instantiated.
+     *
+     * @param aa age index of nodes
+     * @param ii index of state in axes
+     * @param values strictly increasing node values, in the (transformed) units of the axis
+     */
+    public void setNodes(int aa, int ii, double[] values) {
+
+        double[] axis = axes[aa][ii];
+        if (axis[3] < 0.9 || axis[4] < 0.1)
+            throw new InvalidParameterException("nodes can only be set for continuous inner states");
+        if (values.length < 2)
+            throw new InvalidParameterException("at least two nodes required to describe a continuous state");
+        double tolerance = 1.0E-9 * Math.max(1.0, axis[2] - axis[1]);
+        if (Math.abs(values[0] - axis[1]) > tolerance || Math.abs(values[values.length-1] - axis[2]) > tolerance)
+            throw new InvalidParameterException("nodes must span the domain of the state at age index " + aa);
+        for (int kk = 1; kk < values.length; kk++) {
+            if (!(values[kk] > values[kk-1]))
+                throw new InvalidParameterException("nodes must be strictly increasing");
+        }
+        double[] copy = values.clone();
+        copy[0] = axis[1];
+        copy[copy.length-1] = axis[2];
+        nodes[aa][ii] = copy;
+        if ((int)Math.round(axis[0]) != copy.length) {
+            axis[0] = copy.length;
+            setGridDimensions();
+        }
+    }
+
+    /**
+     * METHOD TO EVALUATE THE VALUE OF A CONTINUOUS INNER STATE AT A GRID POINT
+     * @param aa age index
+     * @param ii index of state in axes
+     * @param counter index of grid point along the state
+     * @return state value
+     */
+    public double node(int aa, int ii, int counter) {
+        if (nodes[aa][ii] != null)
+            return nodes[aa][ii][counter];
+        double[] axis = axes[aa][ii];
+        double step = (axis[0] > 1.5) ? (axis[2] - axis[1]) / (axis[0] - 1) : 0;
+        return axis[1] + step * counter;
+    }
+
+    /**
+     * METHOD TO EVALUATE THE (FRACTIONAL) GRID POSITION OF A CONTINUOUS STATE VALUE
+     *
+     * Positions between grid points are linear in the state value, so that interpolation over positions is
+     * equivalent to linear interpolation over state values whether or not the grid points are evenly spaced
+     *
+     * @param aa age index
+     * @param ii index of state in axes
+     * @param value state value
+     * @return grid position, such that integer positions coincide with grid points
+     */
+    public double position(int aa, int ii, double value) {
+
+        double[] axis = axes[aa][ii];
+        double[] nn = nodes[aa][ii];
+        if (nn == null)
+            return (value - axis[1]) * (axis[0]-1) / (axis[2] - axis[1]);
+
+        // binary search for interval containing value (extrapolating from end intervals)
+        int lo = 0, hi = nn.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (nn[mid] <= value) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo + (value - nn[lo]) / (nn[lo+1] - nn[lo]);
+    }
+
     public int getIndex(Enum<?> axisID, int ageYears) {
         return getIndex(axisID, ageYears, 0);
     }
@@ -0,0 +1,47 @@
+package simpaths.model.decisions;
+
+import java.nio.DoubleBuffer;
+
+
+/**
+ * INTERFACE TO FACILITATE SWAPPING OF STORAGE FOR GRID VALUES
+ *
+ * VALUES ARE ADDRESSED BY A LONG INDEX, ORGANISED AS DESCRIBED BY GridScale
+ * IMPLEMENTATIONS MUST PERMIT CONCURRENT get/put CALLS FOR DISTINCT INDICES
+ */
+public interface GridStore {
+
+    long size();
+    double get(long index);
+    void put(long index, double value);
+
+    /**
+     * METHOD TO COPY VALUES FROM THE STORE, STARTING AT offset, TO FILL THE REMAINING CAPACITY OF target
+     */
+    default void getBulk(long offset, DoubleBuffer target) {
+        long index = offset;
+        while (target.hasRemaining()) {
+            target.put(get(index++));
+        }
+    }
+
+    /**
+     * METHOD TO COPY THE REMAINING VALUES OF source INTO THE STORE, STARTING AT offset
+     */
+    default void putBulk(long offset, DoubleBuffer source) {
+        long index = offset;
+        while (source.hasRemaining()) {
+            put(index++, source.get());
+        }
+    }
+
+    /**
+     * METHOD TO PUSH ANY PENDING CHANGES TO THE UNDERLYING STORAGE
+     */
+    default void flush() {}
+
+    /**
+     * METHOD TO RELEASE ANY RESOURCES HELD BY THE STORE
+     */
+    default void close() {}
+}
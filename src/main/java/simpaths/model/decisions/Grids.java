@@ -2,7 +2,11 @@ package simpaths.model.decisions;
 
 import simpaths.data.Parameters;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -31,7 +35,7 @@ public class Grids {
 
 
     /**
-     * CONSTRUCTOR
+     * CONSTRUCTOR FOR GRIDS STORED ON THE JAVA HEAP
      */
     public Grids() {
 
@@ -41,12 +45,72 @@ public class Grids {
         /*
          * INITIALISE GRID VECTORS
          */
-        long gridSize = scale.gridDimensions[scale.simLifeSpan-1][3] + scale.gridDimensions[scale.simLifeSpan-1][2];
-        valueFunction = new Grid(scale, gridSize);
-        consumption = new Grid(scale, gridSize);
-        gridSize = scale.gridDimensions[DecisionParams.maxAgeFlexibleLabourSupply - Parameters.AGE_TO_BECOME_RESPONSIBLE + 1][3];
-        if (DecisionParams.FLAG_IO_EMPLOYMENT1) employment1 = new Grid(scale, gridSize);
-        if (DecisionParams.FLAG_IO_EMPLOYMENT2) employment2 = new Grid(scale, gridSize);
+        valueFunction = new Grid(scale, getValueFunctionSize(scale));
+        consumption = new Grid(scale, getValueFunctionSize(scale));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT1) employment1 = new Grid(scale, getEmploymentSize(scale));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT2) employment2 = new Grid(scale, getEmploymentSize(scale));
+    }
+
+    /**
+     * CONSTRUCTOR FOR GRIDS STORED OFF-HEAP, IN MEMORY-MAPPED FILES
+     * @param directory directory of files backing the grids, organised as written by ManagerFileGrids
+     * @param readOnly true to map existing grid files read-only, false to map files for writing new solutions
+     * @param initialise true to reset all grid values (ignored if readOnly)
+     */
+    public Grids(String directory, boolean readOnly, boolean initialise) throws IOException {
+
+        // constructor variables
+        scale = new GridScale();
+
+        /*
+         * MAP GRID VECTORS
+         */
+        long fingerprint = scale.fingerprint();
+        valueFunction = new Grid(scale, new MappedGridStore(directory + File.separator + ManagerFileGrids.VALUE_FUNCTION_FILE,
+                getValueFunctionSize(scale), fingerprint, readOnly, initialise));
+        consumption = new Grid(scale, new MappedGridStore(directory + File.separator + ManagerFileGrids.CONSUMPTION_FILE,
+                getValueFunctionSize(scale), fingerprint, readOnly, initialise));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT1)
+            employment1 = new Grid(scale, new MappedGridStore(directory + File.separator + ManagerFileGrids.EMPLOYMENT1_FILE,
+                    getEmploymentSize(scale), fingerprint, readOnly, initialise));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT2)
+            employment2 = new Grid(scale, new MappedGridStore(directory + File.separator + ManagerFileGrids.EMPLOYMENT2_FILE,
+                    getEmploymentSize(scale), fingerprint, readOnly, initialise));
+    }
+
+    /**
+     * CONSTRUCTOR FOR GRIDS READ FROM COMPRESSED GRID FILES
+     *
+     * Grid values are decompressed by age, when first accessed (see ChunkedGridStore)
+     * @param directory directory of compressed grid files, as written by ManagerFileGrids
+     */
+    public static Grids readCompressed(String directory) throws IOException {
+
+        Grids grids = new Grids(new GridScale());
+        GridScale scale = grids.scale;
+        long fingerprint = scale.fingerprint();
+        grids.valueFunction = new Grid(scale, new ChunkedGridStore(directory + File.separator +
+                ManagerFileGrids.compressedFileName(ManagerFileGrids.VALUE_FUNCTION_FILE), getValueFunctionSize(scale), fingerprint));
+        grids.consumption = new Grid(scale, new ChunkedGridStore(directory + File.separator +
+                ManagerFileGrids.compressedFileName(ManagerFileGrids.CONSUMPTION_FILE), getValueFunctionSize(scale), fingerprint));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT1)
+            grids.employment1 = new Grid(scale, new ChunkedGridStore(directory + File.separator +
+                    ManagerFileGrids.compressedFileName(ManagerFileGrids.EMPLOYMENT1_FILE), getEmploymentSize(scale), fingerprint));
+        if (DecisionParams.FLAG_IO_EMPLOYMENT2)
+            grids.employment2 = new Grid(scale, new ChunkedGridStore(directory + File.separator +
+                    ManagerFileGrids.compressedFileName(ManagerFileGrids.EMPLOYMENT2_FILE), getEmploymentSize(scale), fingerprint));
+        return grids;
+    }
+    Grids(GridScale scale) {
+        this.scale = scale;
+    }
+
+    static long getValueFunctionSize(GridScale scale) {
+        return scale.gridDimensions[scale.simLifeSpan-1][3] + scale.gridDimensions[scale.simLifeSpan-1][2];
+    }
+
+    static long getEmploymentSize(GridScale scale) {
+        return scale.gridDimensions[DecisionParams.maxAgeFlexibleLabourSupply - Parameters.AGE_TO_BECOME_RESPONSIBLE + 1][3];
     }
 
 
@@ -55,6 +119,29 @@ public class Grids {
      */
     public GridScale getScale() { return scale; }
 
+    /**
+     * METHOD TO PUSH CHANGES TO ANY GRIDS STORED OFF-HEAP TO DISK
+     */
+    public void flush() {
+        for (Grid grid : getGridList()) grid.store.flush();
+    }
+
+    /**
+     * METHOD TO RELEASE RESOURCES HELD BY GRID STORES
+     */
+    public void close() {
+        for (Grid grid : getGridList()) grid.store.close();
+    }
+
+    List<Grid> getGridList() {
+        List<Grid> list = new ArrayList<>();
+        list.add(valueFunction);
+        list.add(consumption);
+        if (employment1 != null) list.add(employment1);
+        if (employment2 != null) list.add(employment2);
+        return list;
+    }
+
 
     /*
      * WORKING METHODS
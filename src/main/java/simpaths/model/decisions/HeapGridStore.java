@@ -0,0 +1,108 @@
+package simpaths.model.decisions;
+
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+
+/**
+ *
+ * CLASS TO STORE GRID VALUES IN ON-HEAP ARRAYS
+ *
+ */
+public class HeapGridStore implements GridStore {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final int MAX_LEN = Integer.MAX_VALUE - 16;
+    // MAX_LEN defines the maximum array length permitted for the grid object.  The limits imposed by Java
+    // vary by JVM, and are currently due to use of int (4 byte) indexing used for arrays.  The "16" buffer
+    // assumed here is arbitrary, accounting for sporadic reports about varying array length constraints.
+
+    long size;              // number of values stored
+    double[] grid;          // array to store variable values at grid ordinates
+    double[][] gridLong;    // array to store variable values at grid ordinates, if grid dimensions extend beyond int(4)
+
+
+    /**
+     * CONSTRUCTOR
+     */
+    public HeapGridStore(long size) {
+
+        this.size = size;
+        if (size <= MAX_LEN) {
+            grid = new double[(int)size];
+            Arrays.fill(grid, DecisionParams.GRID_DEFAULT_VALUE);
+        } else {
+            int slices = 1 + (int)(size / MAX_LEN);
+            gridLong = new double[slices][];
+            for (int ii=0; ii<slices; ii++) {
+                if (ii==slices-1) {
+                    gridLong[ii] = new double[(int)(size%MAX_LEN)];
+                } else {
+                    gridLong[ii] = new double[MAX_LEN];
+                }
+                Arrays.fill(gridLong[ii], DecisionParams.GRID_DEFAULT_VALUE);
+            }
+        }
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void put(long index, double value) {
+
+        if (grid!=null) {
+            grid[(int)index] = value;
+        } else {
+            gridLong[(int)(index / MAX_LEN)][(int)(index % MAX_LEN)] = value;
+        }
+    }
+
+    @Override
+    public double get(long index) {
+
+        if (grid!=null) {
+            return grid[(int)index];
+        } else {
+            return gridLong[(int)(index / MAX_LEN)][(int)(index % MAX_LEN)];
+        }
+    }
+
+    @Override
+    public void getBulk(long offset, DoubleBuffer target) {
+
+        long index = offset;
+        while (target.hasRemaining()) {
+            double[] array = (grid!=null) ? grid : gridLong[(int)(index / MAX_LEN)];
+            int start = (grid!=null) ? (int)index : (int)(index % MAX_LEN);
+            int length = Math.min(target.remaining(), array.length - start);
+            target.put(array, start, length);
+            index += length;
+        }
+    }
+
+    @Override
+    public void putBulk(long offset, DoubleBuffer source) {
+
+        long index = offset;
+        while (source.hasRemaining()) {
+            double[] array = (grid!=null) ? grid : gridLong[(int)(index / MAX_LEN)];
+            int start = (grid!=null) ? (int)index : (int)(index % MAX_LEN);
+            int length = Math.min(source.remaining(), array.length - start);
+            source.get(array, start, length);
+            index += length;
+        }
+    }
+}
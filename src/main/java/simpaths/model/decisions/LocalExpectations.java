@@ -1,10 +1,10 @@
 package simpaths.model.decisions;
 
 
+import microsim.statistics.IDoubleSource;
 import microsim.statistics.regression.RegressionType;
 import simpaths.data.ManagerRegressions;
 import simpaths.data.RegressionName;
-import simpaths.model.Person;
 import microsim.statistics.regression.IntegerValuedEnum;
 import simpaths.model.enums.ReversedIndicator;
 
@@ -64,7 +64,7 @@ public class LocalExpectations {
         values = new double[] {value};
     }
 
-    public void evaluateLabelledIndicator(Person person, RegressionName regression, Double valueTrue) {
+    public void evaluateLabelledIndicator(IDoubleSource person, RegressionName regression, Double valueTrue) {
         double[] probs, vals;
         double prob = ManagerRegressions.getProbability(person, regression);
         probs = new double[] {1.0-prob, prob};
@@ -72,7 +72,7 @@ public class LocalExpectations {
         screenAndAssign(probs, vals);
     }
 
-    public <E extends Enum<E> & IntegerValuedEnum> void evaluateDiscrete(Person person, RegressionName regression) {
+    public <E extends Enum<E> & IntegerValuedEnum> void evaluateDiscrete(IDoubleSource person, RegressionName regression) {
         double[] probs, vals;
         Map<E,Double> probsMap = ManagerRegressions.getProbabilities(person, regression);
         int nn = probsMap.size();
@@ -95,7 +95,7 @@ public class LocalExpectations {
         screenAndAssign(probs, vals);
     }
 
-    public void evaluateGaussian(Person person, RegressionName regression, double minValue, double maxValue, double cTransform) {
+    public void evaluateGaussian(IDoubleSource person, RegressionName regression, double minValue, double maxValue, double cTransform) {
 
         if (!RegressionType.Linear.equals(regression.getType()))
             throw new RuntimeException("unexpected regression specification submitted for evaluation of local expectations");
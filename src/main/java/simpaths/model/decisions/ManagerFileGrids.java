@@ -10,8 +10,10 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32C;
 
 
 /**
@@ -22,6 +24,16 @@ import java.util.List;
 public class ManagerFileGrids {
 
 
+    /**
+     * NAMES OF FILES USED TO STORE GRIDS
+     */
+    public static final String VALUE_FUNCTION_FILE = "value_function.uft";
+    public static final String CONSUMPTION_FILE = "consumption.uft";
+    public static final String EMPLOYMENT1_FILE = "employment1.uft";
+    public static final String EMPLOYMENT2_FILE = "employment2.uft";
+    public static final String COMPRESSED_FILE_EXTENSION = ".ufc";
+
+
     /**
      * METHOD TO READ IN DATA TO GRIDS
      *
@@ -38,9 +50,9 @@ public class ManagerFileGrids {
 
         // read in valueFunction
         try {
-            unformattedReadWrite(grids.valueFunction, "read", DecisionParams.gridsInputDirectory, "value_function.uft");
+            unformattedReadWrite(grids.valueFunction, "read", DecisionParams.gridsInputDirectory, VALUE_FUNCTION_FILE);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException("failed to read grids: " + e.getMessage(), e);
         } catch (Throwable e) {
             e.printStackTrace();
             throw e;
@@ -48,9 +60,9 @@ public class ManagerFileGrids {
 
         // read in consumption
         try {
-            unformattedReadWrite(grids.consumption, "read", DecisionParams.gridsInputDirectory, "consumption.uft");
+            unformattedReadWrite(grids.consumption, "read", DecisionParams.gridsInputDirectory, CONSUMPTION_FILE);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException("failed to read grids: " + e.getMessage(), e);
         } catch (Throwable e) {
             e.printStackTrace();
             throw e;
@@ -59,9 +71,9 @@ public class ManagerFileGrids {
         if (grids.employment1!=null) {
             // read in employment 1
             try {
-                unformattedReadWrite(grids.employment1, "read", DecisionParams.gridsInputDirectory, "employment1.uft");
+                unformattedReadWrite(grids.employment1, "read", DecisionParams.gridsInputDirectory, EMPLOYMENT1_FILE);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new RuntimeException("failed to read grids: " + e.getMessage(), e);
             } catch (Throwable e) {
                 e.printStackTrace();
                 throw e;
@@ -71,9 +83,9 @@ public class ManagerFileGrids {
         if (grids.employment2!=null) {
             // read in employment 2
             try {
-                unformattedReadWrite(grids.employment2, "read", DecisionParams.gridsInputDirectory, "employment2.uft");
+                unformattedReadWrite(grids.employment2, "read", DecisionParams.gridsInputDirectory, EMPLOYMENT2_FILE);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new RuntimeException("failed to read grids: " + e.getMessage(), e);
             } catch (Throwable e) {
                 e.printStackTrace();
                 throw e;
@@ -90,20 +102,18 @@ public class ManagerFileGrids {
      * THE MANAGER IS ACCESSED FROM ManagerPopulateGrids
      */
     public static void unformattedWrite(Grids grids) {
-        unformattedWrite(grids, false);
-    }
-    public static void unformattedWrite(Grids grids, boolean flagIntermediate) {
 
         System.out.println("Saving optimised decisions");
 
         File grFile = new File(DecisionParams.gridsOutputDirectory);
         if (!grFile.exists()) grFile.mkdir();
+        boolean compress = DecisionParams.compressGrids;
 
         // write valueFunction
         try {
-            unformattedReadWrite(grids.valueFunction, "write", DecisionParams.gridsOutputDirectory, "value_function.uft");
+            writeGrid(grids.valueFunction, VALUE_FUNCTION_FILE, false, compress);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException("failed to write grids: " + e.getMessage(), e);
         } catch (Throwable e) {
             e.printStackTrace();
             throw e;
@@ -111,9 +121,9 @@ public class ManagerFileGrids {
 
         // write consumption
         try {
-            unformattedReadWrite(grids.consumption, "write", DecisionParams.gridsOutputDirectory, "consumption.uft");
+            writeGrid(grids.consumption, CONSUMPTION_FILE, true, compress);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException("failed to write grids: " + e.getMessage(), e);
         } catch (Throwable e) {
             e.printStackTrace();
             throw e;
@@ -122,9 +132,9 @@ public class ManagerFileGrids {
         if (grids.employment1!=null) {
             // write employment 1
             try {
-                unformattedReadWrite(grids.employment1, "write", DecisionParams.gridsOutputDirectory, "employment1.uft");
+                writeGrid(grids.employment1, EMPLOYMENT1_FILE, true, compress);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new RuntimeException("failed to write grids: " + e.getMessage(), e);
             } catch (Throwable e) {
                 e.printStackTrace();
                 throw e;
@@ -134,9 +144,9 @@ public class ManagerFileGrids {
         if (grids.employment2!=null) {
             // write employment 2
             try {
-                unformattedReadWrite(grids.employment2, "write", DecisionParams.gridsOutputDirectory, "employment2.uft");
+                writeGrid(grids.employment2, EMPLOYMENT2_FILE, true, compress);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new RuntimeException("failed to write grids: " + e.getMessage(), e);
             } catch (Throwable e) {
                 e.printStackTrace();
                 throw e;
@@ -144,6 +154,39 @@ public class ManagerFileGrids {
         }
     }
 
+    /**
+     * METHOD TO WRITE A GRID TO THE OUTPUT DIRECTORY, IN UNFORMATTED OR COMPRESSED FORMAT
+     *
+     * Any file for the same grid in the alternative format is removed, so that the directory holds a single
+     * version of each grid
+     *
+     * @param grid grid to write
+     * @param fileName name of unformatted file for grid
+     * @param policy true if grid describes a policy function (quantised if DecisionParams.quantiseGridPolicies)
+     * @param compress true to write compressed format (see ChunkedGridStore)
+     */
+    private static void writeGrid(Grid grid, String fileName, boolean policy, boolean compress) throws IOException {
+
+        String directory = DecisionParams.gridsOutputDirectory;
+        String filePath = directory + File.separator + fileName;
+        String compressedPath = directory + File.separator + compressedFileName(fileName);
+        if (compress) {
+            if (grid.store instanceof ChunkedGridStore chunked && Files.exists(Paths.get(compressedPath)) &&
+                    Files.isSameFile(chunked.getPath(), Paths.get(compressedPath)))
+                return;
+            validateDirectory(directory);
+            ChunkedGridStore.write(grid, compressedPath, policy && DecisionParams.quantiseGridPolicies);
+            if (!(grid.store instanceof MappedGridStore)) safeDelete(filePath);
+        } else {
+            unformattedReadWrite(grid, "write", directory, fileName);
+            safeDelete(compressedPath);
+        }
+    }
+
+    public static String compressedFileName(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('.')) + COMPRESSED_FILE_EXTENSION;
+    }
+
     public static void formattedWrite(Grids grids, int aa) {
 
         // set age specific working variables
@@ -247,6 +290,12 @@ public class ManagerFileGrids {
     /**
      * METHOD TO READ/WRITE UNFORMATTED DATA BETWEEN A GRID OBJECT AND A SYSTEM FILE
      *
+     * Files comprise a GridFileHeader followed by the grid values. Values are moved in bulk between the
+     * grid store and memory-mapped partitions of the file. When reading, the header is checked against the
+     * size and GridScale fingerprint of the grid, so that grids solved for a different state space are
+     * rejected, and the checksum is verified if DecisionParams.verifyGridChecksums. Files saved without a
+     * header are read if their length matches the grid size.
+     *
      * @param grid object to write to / read from
      * @param method string = "read" for reading, and write otherwise
      * @param directory directory of file to interact with
@@ -256,53 +305,83 @@ public class ManagerFileGrids {
     public static void unformattedReadWrite(Grid grid, String method, String directory, String fileName) throws IOException {
 
         // initialise file reference
+        boolean read = method.equals("read");
         String filePath = directory + File.separator + fileName;
-        if (method.equals("write")) {
+        if (grid.store instanceof MappedGridStore mapped && Files.exists(Paths.get(filePath)) &&
+                Files.isSameFile(mapped.getPath(), Paths.get(filePath))) {
+            // grid is already backed by the file - nothing to copy
+            if (!read) mapped.flush();
+            return;
+        }
+        long fingerprint = grid.scale.fingerprint();
+        if (!read) {
             validateDirectory(directory);
             safeDelete(filePath);
-        } else {
-            if (!validateFileExists(filePath)) throw new IOException("file not found: " + filePath);
+        } else if (!validateFileExists(filePath)) {
+            String compressedPath = directory + File.separator + compressedFileName(fileName);
+            if (!validateFileExists(compressedPath)) throw new IOException("file not found: " + filePath);
+            if (grid.store instanceof ChunkedGridStore chunked && Files.isSameFile(chunked.getPath(), Paths.get(compressedPath)))
+                return;
+            // copy values from compressed file
+            ChunkedGridStore compressed = new ChunkedGridStore(compressedPath, grid.size, fingerprint);
+            try {
+                compressed.copyTo(grid.store);
+            } finally {
+                compressed.close();
+            }
+            return;
         }
-        RandomAccessFile file;
-
-        // set-up references for MappedByteBuffer
-        final long MAX_BUFFER_BYTES = Integer.MAX_VALUE;
-        long totalValsToRw = grid.size;
-        int maxValsPerPartition = (int)((double)MAX_BUFFER_BYTES / (double)8);
-        int numberOfPartitions = 1 + (int)(totalValsToRw / maxValsPerPartition);
-
-        // loop over buffer partitions
-        long position = 0;
-        long valsThisPartition;
-        for (int ii=0; ii<numberOfPartitions; ii++) {
-            file = new RandomAccessFile(filePath, "rw");
-            if (ii == numberOfPartitions-1) {
-                valsThisPartition = totalValsToRw%maxValsPerPartition;
+
+        try (FileChannel fileChannel = (read) ? FileChannel.open(Paths.get(filePath), StandardOpenOption.READ) :
+                FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+
+            // header
+            GridFileHeader header;
+            long dataOffset;
+            if (read) {
+                header = GridFileHeader.read(fileChannel);
+                if (header == null) {
+                    if (fileChannel.size() != 8 * grid.size)
+                        throw new IOException("grid file " + fileName + " holds " + fileChannel.size()/8 + " values, but grid requires " + grid.size);
+                    System.out.println("Grid file " + fileName + " saved without header: unable to confirm that it matches the current state space");
+                    dataOffset = 0;
+                } else {
+                    if (header.isCompressed()) throw new IOException("grid file " + fileName + " is compressed");
+                    header.validate(grid.size, fingerprint, fileName);
+                    dataOffset = GridFileHeader.HEADER_BYTES;
+                }
             } else {
-                valsThisPartition = maxValsPerPartition;
+                header = new GridFileHeader(grid.size, fingerprint);
+                dataOffset = GridFileHeader.HEADER_BYTES;
             }
-            FileChannel fileChannel = file.getChannel();
-            MappedByteBuffer fileBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, position, 8 * valsThisPartition);
-            for (long jj=(long)maxValsPerPartition*ii; jj<(long)maxValsPerPartition*ii+valsThisPartition; jj++) {
-                if (method.equals("read")) {
-                    grid.put(jj, fileBuffer.getDouble());
+            boolean evalChecksum = !read || (header != null && header.hasChecksum() && DecisionParams.verifyGridChecksums);
+            CRC32C crc = new CRC32C();
+
+            // loop over buffer partitions
+            final long MAX_BUFFER_BYTES = Integer.MAX_VALUE;
+            int maxValsPerPartition = (int)((double)MAX_BUFFER_BYTES / (double)8);
+            FileChannel.MapMode mode = (read) ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+            long position = 0;
+            while (position < grid.size) {
+                int valsThisPartition = (int)Math.min(maxValsPerPartition, grid.size - position);
+                MappedByteBuffer fileBuffer = fileChannel.map(mode, dataOffset + 8 * position, 8L * valsThisPartition);
+                if (read) {
+                    grid.store.putBulk(position, fileBuffer.asDoubleBuffer());
                 } else {
-                    fileBuffer.putDouble(grid.get(jj));
+                    grid.store.getBulk(position, fileBuffer.asDoubleBuffer());
                 }
+                if (evalChecksum) GridFileHeader.updateChecksum(crc, fileBuffer);
+                position += valsThisPartition;
             }
-            position += 8 * valsThisPartition;
-            fileChannel.close();
-            safeClose(file);
-        }
-    }
 
-    /**
-     * METHOD TO CLOSE FILE
-     * @param file File object to close
-     */
-    private static void safeClose(RandomAccessFile file) throws IOException {
-        if (file != null) {
-            file.close();
+            // checksum
+            if (read) {
+                if (evalChecksum && crc.getValue() != header.getChecksum())
+                    throw new IOException("checksum of grid file " + fileName + " does not match data - file may be corrupted");
+            } else {
+                header.setChecksum(crc.getValue());
+                header.write(fileChannel);
+            }
         }
     }
 
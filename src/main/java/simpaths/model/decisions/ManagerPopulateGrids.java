@@ -1,9 +1,12 @@
 package simpaths.model.decisions;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 
+import simpaths.data.Parameters;
 import simpaths.model.SimPathsModel;
 
 
@@ -26,27 +29,68 @@ public class ManagerPopulateGrids {
         System.out.println("Populating optimised decision matrix");
         Instant beforeTotal = Instant.now();
 
+        // identify ages for which saved grids need to be re-solved
+        long[] signatures = null;
+        int resolveFromAgeIndex = -1;
+        if (useSavedGrids && DecisionParams.resolveChangedAges) {
+            signatures = evaluateSignatures(model);
+            long[] savedSignatures = PeriodSignatures.read(DecisionParams.gridsInputDirectory);
+            if (savedSignatures == null)
+                System.out.println("Period signatures not saved with optimised decisions: all ages will be re-solved");
+            resolveFromAgeIndex = PeriodSignatures.oldestChange(savedSignatures, signatures);
+            if (resolveFromAgeIndex < 0) {
+                System.out.println("Period problems unchanged for all ages: using saved optimised decisions as is");
+            } else {
+                System.out.println("Period problems changed for ages up to " + (resolveFromAgeIndex + Parameters.AGE_TO_BECOME_RESPONSIBLE) +
+                        ": re-solving optimised decisions from this age, and using saved optimised decisions for older ages");
+                checkDirectories();
+            }
+        }
+        boolean resolve = (resolveFromAgeIndex >= 0);
+        boolean solve = !useSavedGrids || resolve;
+
         // initiate the decision grids
-        Grids grids = new Grids();
+        DistributedSolve distributed = (useSavedGrids) ? null : DistributedSolve.fromParameters();
+        Grids grids = (distributed != null) ? distributed.openGrids() : initialiseGrids(useSavedGrids && !resolve);
 
         // populate the decision grids
-        if (useSavedGrids) {
+        if (useSavedGrids)
             ManagerFileGrids.read(grids);
-        } else {
-            if (DecisionParams.SOLVE_FROM_INTERMEDIATE)
-                throw new RuntimeException("cannot solve from intermediate solutions without loading intermediate solutions");
-        }
-        if (!useSavedGrids || DecisionParams.SOLVE_FROM_INTERMEDIATE) {
+        if (solve) {
             // need to solve for intertemporal optimisations
 
+            int solveFromAgeIndex = (resolve) ? resolveFromAgeIndex : grids.scale.simLifeSpan - 1;
+            SolveCheckpoint checkpoint = SolveCheckpoint.fromParameters();
+            if (checkpoint != null) {
+                if (signatures == null) signatures = evaluateSignatures(model);
+                solveFromAgeIndex = checkpoint.resume(grids, solveFromAgeIndex, signatures);
+            }
             model.addRegressionStochasticComponent = false;
-            ManagerSolveGrids.run(grids);
+            ManagerSolveGrids.run(grids, distributed, solveFromAgeIndex, checkpoint);
             model.addRegressionStochasticComponent = true;
         }
 
         // save populated grids if necessary
-        if (saveGrids || DecisionParams.saveIntermediateSolutions)
+        // (signatures are only saved where DecisionParams.resolveChangedAges, as their evaluation repeats the
+        // expectations of a solution, and are removed until all grid files are written, so that they never describe
+        // grid files of another solution)
+        if (saveGrids && (distributed == null || distributed.isCoordinator())) {
+            PeriodSignatures.delete(DecisionParams.gridsOutputDirectory);
             ManagerFileGrids.unformattedWrite(grids);
+            if (signatures == null && solve && DecisionParams.resolveChangedAges) signatures = evaluateSignatures(model);
+            if (signatures != null) PeriodSignatures.write(signatures, DecisionParams.gridsOutputDirectory);
+        }
+
+        // derive nodes for liquid wealth adapted to the solved value function, for use by subsequent simulations
+        if (DecisionParams.stateNodesFile != null && !StateNodes.exists(DecisionParams.stateNodesFile) &&
+                (distributed == null || distributed.isCoordinator())) {
+            StateNodes.write(StateNodes.derive(grids), DecisionParams.stateNodesFile);
+            System.out.println("Liquid wealth nodes adapted to the value function saved to " + DecisionParams.stateNodesFile +
+                    " (grids solved with these nodes will not match grids solved for evenly spaced points)");
+        }
+
+        // hold grids at single precision for the remainder of the simulation if requested
+        GridQuantisation.run(grids, distributed == null || distributed.isCoordinator());
 
         // reporting
         Instant afterTotal = Instant.now();
@@ -56,4 +100,60 @@ public class ManagerPopulateGrids {
 
         return grids;
     }
+
+    /**
+     * METHOD TO EVALUATE SIGNATURES OF THE PERIOD PROBLEM FOR ALL AGES (SEE PeriodSignatures)
+     */
+    private static long[] evaluateSignatures(SimPathsModel model) {
+
+        Instant before = Instant.now();
+        model.addRegressionStochasticComponent = false;
+        long[] signatures = PeriodSignatures.evaluate(new GridScale());
+        model.addRegressionStochasticComponent = true;
+        System.out.println("Period signatures evaluated in " + String.format("%.3f",
+                (double)Duration.between(before, Instant.now()).toMillis()/1000.0) + " seconds");
+        return signatures;
+    }
+
+    /**
+     * METHOD TO CONFIRM THAT SAVED GRIDS ARE NOT OVERWRITTEN BY GRIDS MAPPED FOR RE-SOLUTION
+     */
+    private static void checkDirectories() {
+        if (DecisionParams.mapGridsToFile && new File(DecisionParams.gridsInputDirectory).getAbsoluteFile().toPath().normalize()
+                .equals(new File(DecisionParams.gridsOutputDirectory).getAbsoluteFile().toPath().normalize()))
+            throw new RuntimeException("cannot re-solve saved grids mapped to the directory from which they are read: " +
+                    DecisionParams.gridsInputDirectory);
+    }
+
+    /**
+     * METHOD TO INSTANTIATE GRIDS, EITHER ON THE JAVA HEAP, MAPPED TO GRID FILES, OR READ FROM COMPRESSED GRID FILES
+     *
+     * Saved solutions that are used without modification are read from compressed grid files if available (unless
+     * they can be mapped from unformatted files), and are otherwise mapped read-only from the input directory
+     * (shared with other simulations in the JVM, see SharedGrids).
+     * Grids that need to be solved are mapped to new files in the output directory that are populated in place
+     */
+    private static Grids initialiseGrids(boolean useSavedAsIs) {
+
+        boolean compressedAvailable = new File(DecisionParams.gridsInputDirectory + File.separator +
+                ManagerFileGrids.compressedFileName(ManagerFileGrids.VALUE_FUNCTION_FILE)).exists();
+        boolean unformattedAvailable = new File(DecisionParams.gridsInputDirectory + File.separator +
+                ManagerFileGrids.VALUE_FUNCTION_FILE).exists();
+        try {
+            if (useSavedAsIs && compressedAvailable && !(DecisionParams.mapGridsToFile && unformattedAvailable)) {
+                System.out.println("Reading compressed optimised decisions from disk");
+                return Grids.readCompressed(DecisionParams.gridsInputDirectory);
+            }
+            if (!DecisionParams.mapGridsToFile)
+                return new Grids();
+            if (useSavedAsIs) {
+                System.out.println("Mapping optimised decisions from disk");
+                return SharedGrids.open(DecisionParams.gridsInputDirectory);
+            } else {
+                return new Grids(DecisionParams.gridsOutputDirectory, false, true);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open grid files: " + e.getMessage(), e);
+        }
+    }
 }
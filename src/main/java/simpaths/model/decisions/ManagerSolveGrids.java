@@ -3,11 +3,18 @@ package simpaths.model.decisions;
 import simpaths.data.Parameters;
 import simpaths.model.taxes.Matches;
 
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.IntStream;
 
 
 /**
@@ -15,7 +22,7 @@ import java.util.stream.IntStream;
  * CLASS TO MANAGE EVALUATION OF SOLUTIONS TO POPULATE INTERTEMPORAL OPTIMISATION GRIDS
  *
  * THE SOLUTION PROCEDURE RUNS THROUGH ALL STATE COMBINATIONS DESCRIBED BY THE GRIDS
- * VIA FOUR NESTED LOOPS
+ * VIA THREE NESTED LOOPS
  *
  * THE FIRST (OUTER-MOST) LOOP CONSIDERS SLICES OF THE GRIDS DISTINGUISHED BY AGE
  * THIS IS MOTIVATED BY THE USE OF BACKWARD INDUCTION TECHNIQUES BY THE SOLUTION METHOD
@@ -26,10 +33,10 @@ import java.util.stream.IntStream;
  * ALL COMBINATIONS OF STATES CONSIDERED IN THE INNER TWO LOOPS
  *      STATES IN THIS LOOP ARE IDENTIFIED BY AXES[aa][ii][4] = 0 OR 0.5
  *
- * THE THIRD LOOP IS PARALLISED TO TAKE FULL ADVANTAGE OF COMPUTING RESOURCES
+ * THE THIRD (INNER) LOOP CONSIDERS THE REMAINING COMBINATIONS OF CHARACTERISTICS
  *
- * THE FOURTH (INNER-MOST) LOOP IS SEPARATED FROM THE THIRD LOOP ONLY TO ECONOMISE
- * THE OVER-HEAD ASSOCIATED WITH PARALLELISATIONS
+ * THE SECOND AND THIRD LOOPS ARE FLATTENED INTO BALANCED WORK UNITS, WHICH ARE SOLVED IN
+ * PARALLEL BY SolveScheduler TO TAKE FULL ADVANTAGE OF COMPUTING RESOURCES
  *
  */
 public class ManagerSolveGrids {
@@ -42,84 +49,86 @@ public class ManagerSolveGrids {
      * THE MANAGER IS 'run' FROM ManagerPopulateGrids
      */
     public static void run(Grids grids) {
+        run(grids, null);
+    }
+
+    /**
+     * @param distributed object to manage solution shared between processes (null if solution is not shared)
+     */
+    public static void run(Grids grids, DistributedSolve distributed) {
+        run(grids, distributed, grids.scale.simLifeSpan - 1, null);
+    }
 
+    /**
+     * @param solveFromAgeIndex oldest age index to solve (grids must be populated with solutions for all older ages)
+     * @param checkpoint object to checkpoint solutions by age (null if solutions are not checkpointed)
+     */
+    public static void run(Grids grids, DistributedSolve distributed, int solveFromAgeIndex, SolveCheckpoint checkpoint) {
 
         System.out.println("Obtaining numerical solutions for optimised decisions");
 
         // solve grids using backward-induction, working from the last potential period in life
         Instant beforeTotal = null, afterTotal = null;
-        int solveFromAgeIndex;
-        if (DecisionParams.SOLVE_FROM_INTERMEDIATE)
-            solveFromAgeIndex = DecisionParams.SOLVE_FROM_AGE - Parameters.AGE_TO_BECOME_RESPONSIBLE;
-        else
-            solveFromAgeIndex = grids.scale.simLifeSpan - 1;
-        for (int aa=solveFromAgeIndex; aa>=0; aa--) {
-
-            Instant before = Instant.now();
-            if (aa==solveFromAgeIndex) beforeTotal = before;
-
-            // set age specific working variables
-            int innerDimension = (int)grids.scale.gridDimensions[aa][0];
-            int outerDimension = (int)grids.scale.gridDimensions[aa][1];
-            int ageYears = aa + Parameters.AGE_TO_BECOME_RESPONSIBLE;
-            Matches imperfectMatches = new Matches();
-            List<Matches> imperfectMatchStore = newImperfectMatchStore((int)grids.scale.gridDimensions[aa][2]);
-
-            // loop over outer dimensions, for which expectations are independent of IO decisions (controls)
-            for (int iiOuter=0; iiOuter<outerDimension; iiOuter++) {
-
-                // identify current state combination for outer states
-                States outerStates = new States(grids.scale, ageYears);
-                outerStates.populateOuterGridStates(iiOuter);
-                boolean loopConsider = outerStates.checkOuterStateCombination();
-                if (loopConsider) {
-
-                    // define expectations for outer states not affected by agent decisions
-                    Expectations outerExpectations = new Expectations(outerStates);
-
-                    // loop over inner dimensions
-                    if (DecisionParams.PARALLELISE_SOLUTIONS) {
-                        IntStream.range(0, innerDimension).parallel().forEach(iiInner -> {
-                            // identify current state combination and copy expectations
-                            States currentStates = new States(outerStates);
-                            currentStates.populateInnerGridStates(iiInner);
-                            boolean stateConsider = currentStates.checkStateCombination();
-                            if (stateConsider) {
-                                ManagerSolveState.run(grids, currentStates, outerExpectations, imperfectMatchStore);
-                            }
-                        });
-                    } else {
-                        for (int iiInner=0; iiInner<innerDimension; iiInner++) {
-                            // identify current state combination and copy expectations
-                            States currentStates = new States(outerStates);
-                            currentStates.populateInnerGridStates(iiInner);
-                            boolean stateConsider = currentStates.checkStateCombination();
-                            if (stateConsider) {
-                                ManagerSolveState.run(grids, currentStates, outerExpectations, imperfectMatchStore);
-                            }
+        SolveTelemetry.reset();
+        SolveScheduler scheduler = (distributed == null) ? new SolveScheduler(DecisionParams.solverThreads) :
+                new SolveScheduler(DecisionParams.solverThreads, distributed.getRank(), distributed.getRanks());
+        boolean coordinator = (distributed == null || distributed.isCoordinator());
+        System.out.println("Solving with " + scheduler.getThreads() + " threads");
+        List<SolveScheduler.AgeStatistics> taxTableStatistics = new ArrayList<>();
+        List<SolveScheduler.AgeStatistics> ageStatistics = new ArrayList<>();
+        try {
+            for (int aa=solveFromAgeIndex; aa>=0; aa--) {
+
+                Instant before = Instant.now();
+                if (aa==solveFromAgeIndex) beforeTotal = before;
+
+                // set age specific working variables
+                int ageYears = aa + Parameters.AGE_TO_BECOME_RESPONSIBLE;
+                Matches imperfectMatches = new Matches();
+                List<Matches> imperfectMatchStore = newImperfectMatchStore((int)grids.scale.gridDimensions[aa][2]);
+
+                // solve all feasible state combinations for age
+                SolveTelemetry.AgeEvent event = new SolveTelemetry.AgeEvent();
+                event.begin();
+                SolveScheduler.AgeStatistics statistics = scheduler.solveAge(grids, aa, imperfectMatchStore);
+                SolveTelemetry.commit(event, statistics);
+                if (distributed != null) distributed.completeAge(grids, aa);
+                if (DecisionParams.saveImperfectTaxDbMatches) {
+                    for (Matches mm : imperfectMatchStore) {
+                        if (!mm.isEmpty()) {
+                            imperfectMatches.addSet(mm.getSet());
                         }
                     }
-                }
-            }
-            if (DecisionParams.saveImperfectTaxDbMatches) {
-                for (Matches mm : imperfectMatchStore) {
-                    if (!mm.isEmpty()) {
-                        imperfectMatches.addSet(mm.getSet());
+                    if (!imperfectMatches.isEmpty()) {
+                        // each process holds matches for its own share of states only, so writes to a file of its own
+                        String suffix = (distributed == null) ? "" : "_rank" + distributed.getRank();
+                        imperfectMatches.write(DecisionParams.gridsOutputDirectory, "poor_taxmatch_age_" + ageYears + suffix + ".csv");
                     }
                 }
-                if (!imperfectMatches.isEmpty()) {
-                    imperfectMatches.write(DecisionParams.gridsOutputDirectory, "poor_taxmatch_age_" + ageYears + ".csv");
+                if (checkpoint != null)
+                    checkpoint.save(grids, aa);
+                if (coordinator && DecisionParams.saveGridSlicesToCSV)
+                    ManagerFileGrids.formattedWrite(grids, aa);
+                if (coordinator && DecisionParams.solverTelemetry) {
+                    ageStatistics.add(statistics);
+                    SolveTelemetry.write(ageStatistics, DecisionParams.gridsOutputDirectory);
+                }
+                if (coordinator && statistics.getTaxBenefitTable() != null) {
+                    taxTableStatistics.add(statistics);
+                    writeTaxTableValidation(taxTableStatistics);
                 }
+                Instant after = Instant.now();
+                if (aa == 0) afterTotal = after;
+                Duration duration = Duration.between(before, after);
+                System.out.println("Calculations for age " + ageYears + " completed in " + String.format("%.3f", (double)duration.toMillis()/1000.0) + " seconds: " + statistics);
             }
-            if (DecisionParams.saveIntermediateSolutions && (ageYears<80) && ((ageYears % 5)==0))
-                ManagerFileGrids.unformattedWrite(grids, true);
-            if (DecisionParams.saveGridSlicesToCSV)
-                ManagerFileGrids.formattedWrite(grids, aa);
-            Instant after = Instant.now();
-            if (aa == 0) afterTotal = after;
-            Duration duration = Duration.between(before, after);
-            System.out.println("Calculations for age " + ageYears + " completed in " + String.format("%.3f", (double)duration.toMillis()/1000.0) + " seconds");
+        } catch (RuntimeException e) {
+            if (distributed != null) distributed.fail(e);
+            throw e;
+        } finally {
+            scheduler.shutdown();
         }
+        if (distributed != null) distributed.finish(grids);
         if (beforeTotal != null && afterTotal != null) {
 
             Duration durationTotal = Duration.between(beforeTotal, afterTotal);
@@ -127,6 +136,30 @@ public class ManagerSolveGrids {
         }
     }
 
+    /**
+     * METHOD TO REPORT DEVIATIONS OF TABULATED TAX DONOR IMPUTATIONS FROM EXACT IMPUTATIONS, BY AGE
+     */
+    private static void writeTaxTableValidation(List<SolveScheduler.AgeStatistics> statistics) {
+
+        File dir = new File(DecisionParams.gridsOutputDirectory);
+        if (!dir.exists()) dir.mkdirs();
+        String filePath = DecisionParams.gridsOutputDirectory + File.separator + "tax_table_validation.csv";
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader("age", "queries", "tables", "nodes", "nodesPerQuery", "outsideRange",
+                "samples", "maxAbsDeviationPerMonth", "maxRelDeviation", "meanAbsDeviationPerMonth").build();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath));
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat)) {
+            for (SolveScheduler.AgeStatistics ageStatistics : statistics) {
+                TaxBenefitTable table = ageStatistics.getTaxBenefitTable();
+                TaxBenefitTable.Validation validation = table.getValidation();
+                printer.printRecord(ageStatistics.getAgeYears(), table.getQueries(), table.getTables(), table.getNodesEvaluated(),
+                        table.getNodesPerQuery(), table.getExactEvaluations(), validation.getSamples(), validation.getMaxAbsoluteDeviation(),
+                        validation.getMaxRelativeDeviation(), validation.getMeanAbsoluteDeviation());
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
     private static List<Matches> newImperfectMatchStore(int size) {
         List<Matches> list = new ArrayList<>();
         for (int ii=0; ii<size; ii++) {
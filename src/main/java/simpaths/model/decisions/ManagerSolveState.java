@@ -3,7 +3,10 @@ package simpaths.model.decisions;
 
 import simpaths.model.taxes.Matches;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * CLASS TO MANAGE EVALUATION OF NUMERICAL SOLUTIONS FOR SPECIFIC STATE COMBINATION
@@ -12,6 +15,10 @@ import java.util.List;
  * CONTINUOUS CONTROLS FOR EACH FEASIBLE COMBINATION OF DISCRETE CONTROLS. THE SOLUTION
  * FOR THE STATE COMBINATION IS THEN TAKEN AS THE SOLUTION TO THE COMBINATION OF DISCRETE
  * CONTROLS WITH THE HIGHEST VALUE FUNCTION
+ *
+ * SOLUTIONS FOR DISCRETE CONTROL COMBINATIONS ARE INDEPENDENT, AND MAY BE EVALUATED CONCURRENTLY (SEE
+ * DecisionParams.PARALLELISE_DISCRETE_CONTROLS). THEY ARE ALWAYS COMBINED IN THE SAME ORDER, SO THAT THE SOLUTION
+ * FOR THE STATE COMBINATION DOES NOT DEPEND ON WHETHER THEY ARE EVALUATED CONCURRENTLY
  */
 public class ManagerSolveState {
 
@@ -20,114 +27,105 @@ public class ManagerSolveState {
      * ENTRY POINT FOR MANAGER
      * @param grids refers to the look-up table that stores IO solutions (the 'grids')
      * @param states the state combination for consideration
+     * @param consumptionShareGuess starting guess for consumption as a proportion of cash on hand (NaN if none)
+     * @return number of utility function evaluations used to solve the state combination
      *
      * THE MANAGER IS 'run' FROM ManagerSolveGrids
      */
-    public static void run(Grids grids, States states, Expectations outerExpectations, List<Matches> imperfectMatchStore) {
+    public static int run(Grids grids, States states, Expectations outerExpectations, double consumptionShareGuess,
+                          List<Matches> imperfectMatchStore) {
+        return run(grids, states, outerExpectations, consumptionShareGuess, imperfectMatchStore, false);
+    }
+
+    /**
+     * @param parallelControls true to evaluate discrete control combinations concurrently, as nested tasks of the
+     *                         enclosing ForkJoinPool (ignored if not called from a ForkJoinPool, or if fewer than
+     *                         DecisionParams.MIN_PARALLEL_CONTROLS combinations are feasible). Solutions are
+     *                         identical to those obtained by sequential evaluation.
+     */
+    public static int run(Grids grids, States states, Expectations outerExpectations, double consumptionShareGuess,
+                          List<Matches> imperfectMatchStore, boolean parallelControls) {
 
         // instantiate expectations object with data for all states that are invariant to agent expectations
         Expectations invariantExpectations = new Expectations(states, outerExpectations);
 
         // identify discrete control options
-        double emp1Start = 0;
-        double emp1End = 0;
-        double emp1Step = 1;
-        double emp2Start = 0;
-        double emp2End = 0;
-        double emp2Step = 1;
-        if (states.ageYears <= DecisionParams.maxAgeFlexibleLabourSupply) {
-
-            // principal earner
-            if (DecisionParams.FLAG_IO_EMPLOYMENT1) {
-                emp1End = 1;
-                if (DecisionParams.optionsEmployment1 > 1) {
-                    emp1Step = 1 / (double)(DecisionParams.optionsEmployment1 - 1);
-                }
-            } else if (DecisionParams.flagLowWageOffer1) {
-                emp1End = 1;
-            } else {
-                emp1Start = 1;
-                emp1End = 1;
-            }
-            if (states.getCohabitation()) {
-                // secondary earner
-
-                if (DecisionParams.FLAG_IO_EMPLOYMENT2) {
-                    emp2End = 1;
-                    if (DecisionParams.optionsEmployment2 > 1) {
-                        emp2Step = 1 / (double)(DecisionParams.optionsEmployment2 - 1);
-                    }
-                } else if (DecisionParams.FLAG_WAGE_OFFER2) {
-                    emp2End = 1;
-                } else {
-                    emp2Start = 1;
-                    emp2End = 1;
-                }
-            }
-        }
+        DiscreteControls options = new DiscreteControls(states);
+        double emp1Start = options.emp1Start;
+        double emp1End = options.emp1End;
+        double emp2Start = options.emp2Start;
+        double emp2End = options.emp2End;
 
         // instantiate storage for solutions to all discrete control options
         UtilityMaximisation solutionMax = null;
         UtilityMaximisation solutionMaxEmp1 = null;
         UtilityMaximisation solutionMaxEmp2 = null;
         Matches localImperfectMatches = new Matches();
-        for (double emp1Pr=emp1Start; emp1Pr<=(emp1End+1.0E-7); emp1Pr+=emp1Step) {
-            for (double emp2Pr=emp2Start; emp2Pr<=(emp2End+1.0E-7); emp2Pr+=emp2Step) {
-
-                boolean loopConsider = checkDecisionFeasible(states, emp1Pr, emp2Pr);
-                if (loopConsider) {
+        int functionEvaluations = 0;
+        List<double[]> controls = options.feasible(states);
+        Expectations[] expectationsByControl = new Expectations[controls.size()];
+        UtilityMaximisation[] solutions = new UtilityMaximisation[controls.size()];
+        if (parallelControls && controls.size() >= DecisionParams.MIN_PARALLEL_CONTROLS && ForkJoinTask.inForkJoinPool()) {
+            new ControlTask(grids, states, invariantExpectations, consumptionShareGuess, controls, expectationsByControl,
+                    solutions, 0, controls.size()).invoke();
+        } else {
+            for (int cc=0; cc<controls.size(); cc++) {
+                solve(grids, states, invariantExpectations, consumptionShareGuess, controls, expectationsByControl, solutions, cc);
+            }
+        }
 
-                    // instantiate local expectations, populated with expectations for states invariant to agent decisions
-                    Expectations expectations = new Expectations(invariantExpectations);
+        // combine solutions in order of discrete controls
+        for (int cc=0; cc<controls.size(); cc++) {
 
-                    // evaluate solution for current control combination
-                    UtilityMaximisation solutionHere = new UtilityMaximisation(grids.valueFunction, states, expectations, emp1Pr, emp2Pr);
+            double emp1Pr = controls.get(cc)[0];
+            double emp2Pr = controls.get(cc)[1];
+            Expectations expectations = expectationsByControl[cc];
+            UtilityMaximisation solutionHere = solutions[cc];
+            functionEvaluations += solutionHere.functionEvaluations;
 
-                    // check for imperfect matches
-                    if ( DecisionParams.saveImperfectTaxDbMatches && !expectations.imperfectMatches.isEmpty()) {
-                        localImperfectMatches.addSet(expectations.imperfectMatches.getSet());
-                    }
+            // check for imperfect matches
+            if ( DecisionParams.saveImperfectTaxDbMatches && !expectations.imperfectMatches.isEmpty()) {
+                localImperfectMatches.addSet(expectations.imperfectMatches.getSet());
+            }
 
-                    // check for wage offer solutions for both principal and secondary earner
-                    if (emp1End > emp1Start && DecisionParams.flagLowWageOffer1 &&
-                            emp2End > emp2Start && DecisionParams.FLAG_WAGE_OFFER2 &&
-                            emp1Pr < 1.0E-5 && emp2Pr < 1.0E-5) {
-                        States targetStates = new States(states);
-                        targetStates.setWageOffer1(0);
-                        targetStates.setWageOffer2(0);
-                        grids.populate(targetStates, solutionHere);
-                    }
+            // check for wage offer solutions for both principal and secondary earner
+            if (emp1End > emp1Start && DecisionParams.flagLowWageOffer1 &&
+                    emp2End > emp2Start && DecisionParams.FLAG_WAGE_OFFER2 &&
+                    emp1Pr < 1.0E-5 && emp2Pr < 1.0E-5) {
+                States targetStates = new States(states);
+                targetStates.setWageOffer1(0);
+                targetStates.setWageOffer2(0);
+                grids.populate(targetStates, solutionHere);
+            }
 
-                    // check wage offer solutions for principal earner
-                    if (emp1End > emp1Start && DecisionParams.flagLowWageOffer1 && emp1Pr < 1.0E-5) {
-                        if (solutionMaxEmp1==null) {
-                            solutionMaxEmp1 = solutionHere;
-                        } else {
-                            if (solutionMaxEmp1.optimisedUtility < solutionHere.optimisedUtility) {
-                                solutionMaxEmp1 = solutionHere;
-                            }
-                        }
+            // check wage offer solutions for principal earner
+            if (emp1End > emp1Start && DecisionParams.flagLowWageOffer1 && emp1Pr < 1.0E-5) {
+                if (solutionMaxEmp1==null) {
+                    solutionMaxEmp1 = solutionHere;
+                } else {
+                    if (solutionMaxEmp1.optimisedUtility < solutionHere.optimisedUtility) {
+                        solutionMaxEmp1 = solutionHere;
                     }
+                }
+            }
 
-                    // check wage offer solutions for secondary earner
-                    if (emp2End > emp2Start && DecisionParams.FLAG_WAGE_OFFER2 && emp2Pr < 1.0E-5) {
-                        if (solutionMaxEmp2==null) {
-                            solutionMaxEmp2 = solutionHere;
-                        } else {
-                            if (solutionMaxEmp2.optimisedUtility < solutionHere.optimisedUtility) {
-                                solutionMaxEmp2 = solutionHere;
-                            }
-                        }
+            // check wage offer solutions for secondary earner
+            if (emp2End > emp2Start && DecisionParams.FLAG_WAGE_OFFER2 && emp2Pr < 1.0E-5) {
+                if (solutionMaxEmp2==null) {
+                    solutionMaxEmp2 = solutionHere;
+                } else {
+                    if (solutionMaxEmp2.optimisedUtility < solutionHere.optimisedUtility) {
+                        solutionMaxEmp2 = solutionHere;
                     }
+                }
+            }
 
-                    // track state optimum
-                    if (solutionMax==null) {
-                        solutionMax = solutionHere;
-                    } else {
-                        if (solutionMax.optimisedUtility < solutionHere.optimisedUtility) {
-                            solutionMax = solutionHere;
-                        }
-                    }
+            // track state optimum
+            if (solutionMax==null) {
+                solutionMax = solutionHere;
+            } else {
+                if (solutionMax.optimisedUtility < solutionHere.optimisedUtility) {
+                    solutionMax = solutionHere;
                 }
             }
         }
@@ -153,6 +151,69 @@ public class ManagerSolveState {
             int ageSpecificIndex = (int)states.returnAgeSpecificIndex();
             imperfectMatchStore.set(ageSpecificIndex, localImperfectMatches);
         }
+        return functionEvaluations;
+    }
+
+    /**
+     * METHOD TO EVALUATE THE SOLUTION FOR A SINGLE DISCRETE CONTROL COMBINATION
+     * Each combination is evaluated with its own copy of the invariant expectations, so that combinations can be
+     * evaluated concurrently
+     */
+    private static void solve(Grids grids, States states, Expectations invariantExpectations, double consumptionShareGuess,
+                              List<double[]> controls, Expectations[] expectationsByControl, UtilityMaximisation[] solutions,
+                              int index) {
+
+        // instantiate local expectations, populated with expectations for states invariant to agent decisions
+        Expectations expectations = new Expectations(invariantExpectations);
+
+        // evaluate solution for current control combination
+        double[] control = controls.get(index);
+        solutions[index] = new UtilityMaximisation(grids.valueFunction, states, expectations, control[0], control[1], consumptionShareGuess);
+        expectationsByControl[index] = expectations;
+    }
+
+    /**
+     * CLASS TO EVALUATE A RANGE OF DISCRETE CONTROL COMBINATIONS AS NESTED FORK-JOIN TASKS
+     * Ranges are split in half until each task evaluates a single combination; idle threads of the enclosing pool
+     * steal the forked halves
+     */
+    private static class ControlTask extends RecursiveAction {
+
+        final Grids grids;
+        final States states;
+        final Expectations invariantExpectations;
+        final double consumptionShareGuess;
+        final List<double[]> controls;
+        final Expectations[] expectationsByControl;
+        final UtilityMaximisation[] solutions;
+        final int from, to;
+
+        ControlTask(Grids grids, States states, Expectations invariantExpectations, double consumptionShareGuess,
+                    List<double[]> controls, Expectations[] expectationsByControl, UtilityMaximisation[] solutions,
+                    int from, int to) {
+            this.grids = grids;
+            this.states = states;
+            this.invariantExpectations = invariantExpectations;
+            this.consumptionShareGuess = consumptionShareGuess;
+            this.controls = controls;
+            this.expectationsByControl = expectationsByControl;
+            this.solutions = solutions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                solve(grids, states, invariantExpectations, consumptionShareGuess, controls, expectationsByControl, solutions, from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ControlTask(grids, states, invariantExpectations, consumptionShareGuess, controls,
+                                expectationsByControl, solutions, from, mid),
+                        new ControlTask(grids, states, invariantExpectations, consumptionShareGuess, controls,
+                                expectationsByControl, solutions, mid, to));
+            }
+        }
     }
 
     private static boolean checkDecisionFeasible(States states, double emp1Pr, double emp2Pr) {
@@ -161,4 +222,67 @@ public class ManagerSolveState {
             return false;
         return true;
     }
+
+    /**
+     * CLASS TO IDENTIFY THE DISCRETE CONTROL OPTIONS CONSIDERED FOR A STATE COMBINATION
+     */
+    static class DiscreteControls {
+
+        double emp1Start, emp1End, emp1Step;    // employment options of principal earner
+        double emp2Start, emp2End, emp2Step;    // employment options of secondary earner
+
+        DiscreteControls(States states) {
+
+            emp1Start = 0;
+            emp1End = 0;
+            emp1Step = 1;
+            emp2Start = 0;
+            emp2End = 0;
+            emp2Step = 1;
+            if (states.ageYears <= DecisionParams.maxAgeFlexibleLabourSupply) {
+
+                // principal earner
+                if (DecisionParams.FLAG_IO_EMPLOYMENT1) {
+                    emp1End = 1;
+                    if (DecisionParams.optionsEmployment1 > 1) {
+                        emp1Step = 1 / (double)(DecisionParams.optionsEmployment1 - 1);
+                    }
+                } else if (DecisionParams.flagLowWageOffer1) {
+                    emp1End = 1;
+                } else {
+                    emp1Start = 1;
+                    emp1End = 1;
+                }
+                if (states.getCohabitation()) {
+                    // secondary earner
+
+                    if (DecisionParams.FLAG_IO_EMPLOYMENT2) {
+                        emp2End = 1;
+                        if (DecisionParams.optionsEmployment2 > 1) {
+                            emp2Step = 1 / (double)(DecisionParams.optionsEmployment2 - 1);
+                        }
+                    } else if (DecisionParams.FLAG_WAGE_OFFER2) {
+                        emp2End = 1;
+                    } else {
+                        emp2Start = 1;
+                        emp2End = 1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * METHOD TO LIST FEASIBLE COMBINATIONS OF DISCRETE CONTROLS
+         * @return array of {emp1Pr, emp2Pr} combinations
+         */
+        List<double[]> feasible(States states) {
+            List<double[]> list = new ArrayList<>();
+            for (double emp1Pr=emp1Start; emp1Pr<=(emp1End+1.0E-7); emp1Pr+=emp1Step) {
+                for (double emp2Pr=emp2Start; emp2Pr<=(emp2End+1.0E-7); emp2Pr+=emp2Step) {
+                    if (checkDecisionFeasible(states, emp1Pr, emp2Pr)) list.add(new double[]{emp1Pr, emp2Pr});
+                }
+            }
+            return list;
+        }
+    }
 }
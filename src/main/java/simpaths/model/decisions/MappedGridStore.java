@@ -0,0 +1,230 @@
+package simpaths.model.decisions;
+
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+
+/**
+ *
+ * CLASS TO STORE GRID VALUES OFF-HEAP, IN A MEMORY-MAPPED FILE
+ *
+ * THE FILE LAYOUT IS THAT WRITTEN BY ManagerFileGrids: A GridFileHeader FOLLOWED BY ONE (BIG-ENDIAN) 8-BYTE
+ * DOUBLE PER GRID INDEX (FILES SAVED WITHOUT A HEADER ARE ALSO READ). GRIDS MAPPED IN READ-ONLY MODE SHARE
+ * PHYSICAL PAGES WITH ANY OTHER PROCESS THAT MAPS THE SAME FILE, AND ARE AVAILABLE WITHOUT COPYING DATA
+ * ONTO THE JAVA HEAP.
+ *
+ */
+public class MappedGridStore implements GridStore {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final int VALUES_PER_PARTITION = Integer.MAX_VALUE / 8;   // maximum number of values per mapped buffer
+
+    long size;                      // number of values stored
+    boolean readOnly;               // true if file mapped read-only
+    Path path;                      // path of backing file
+    FileChannel channel;            // channel to backing file
+    GridFileHeader header;          // header of backing file (null for files saved without a header)
+    MappedByteBuffer[] buffers;     // mapped partitions of backing file
+    DoubleBuffer[] partitions;      // double views of mapped partitions
+    boolean headerOwner = true;     // false if another process maintains the file header (see DistributedSolve)
+
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param filePath full path of backing file
+     * @param size number of values in grid
+     * @param fingerprint fingerprint of the GridScale that organises the grid (see GridScale.fingerprint)
+     * @param readOnly true to map an existing file read-only; false to map the file for reading and writing
+     * @param initialise true to (re)set all values to DecisionParams.GRID_DEFAULT_VALUE (ignored if readOnly)
+     * @throws IOException if the file cannot be opened, or does not match the size and organisation of the grid
+     */
+    public MappedGridStore(String filePath, long size, long fingerprint, boolean readOnly, boolean initialise) throws IOException {
+
+        this.size = size;
+        this.readOnly = readOnly;
+        path = Paths.get(filePath);
+        long dataOffset;
+        if (readOnly) {
+            if (!Files.exists(path)) throw new IOException("file not found: " + filePath);
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } else {
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        try {
+            header = GridFileHeader.read(channel);
+            if (!readOnly && (initialise || header == null)) {
+                if (!initialise && channel.size() > 0)
+                    throw new IOException("cannot map grid file " + filePath + " for update, as it was saved without a header");
+                header = new GridFileHeader(size, fingerprint);
+                header.write(channel);
+            }
+            if (header == null) {
+                // grids saved before introduction of file header
+                if (channel.size() != 8 * size)
+                    throw new IOException("file " + filePath + " holds " + channel.size()/8 + " values, but grid requires " + size);
+                dataOffset = 0;
+            } else {
+                if (header.isCompressed()) throw new IOException("cannot map compressed grid file " + filePath);
+                header.validate(size, fingerprint, filePath);
+                dataOffset = GridFileHeader.HEADER_BYTES;
+                if (readOnly && channel.size() < dataOffset + 8 * size)
+                    throw new IOException("file " + filePath + " is truncated");
+            }
+            if (!readOnly && channel.size() > dataOffset + 8 * size) channel.truncate(dataOffset + 8 * size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        // map partitions
+        FileChannel.MapMode mode = (readOnly) ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        int numberOfPartitions = 1 + (int)(size / VALUES_PER_PARTITION);
+        buffers = new MappedByteBuffer[numberOfPartitions];
+        partitions = new DoubleBuffer[numberOfPartitions];
+        long position = dataOffset;
+        for (int ii=0; ii<numberOfPartitions; ii++) {
+            long valsThisPartition = (ii == numberOfPartitions-1) ? size % VALUES_PER_PARTITION : VALUES_PER_PARTITION;
+            buffers[ii] = channel.map(mode, position, 8 * valsThisPartition);
+            partitions[ii] = buffers[ii].asDoubleBuffer();
+            position += 8 * valsThisPartition;
+        }
+
+        if (!readOnly && initialise) {
+            for (DoubleBuffer partition : partitions) {
+                for (int jj=0; jj<partition.capacity(); jj++) {
+                    partition.put(jj, DecisionParams.GRID_DEFAULT_VALUE);
+                }
+            }
+        }
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public double get(long index) {
+        return partitions[(int)(index / VALUES_PER_PARTITION)].get((int)(index % VALUES_PER_PARTITION));
+    }
+
+    @Override
+    public void put(long index, double value) {
+        if (readOnly) throw new UnsupportedOperationException("attempt to write to grid mapped read-only from " + path);
+        partitions[(int)(index / VALUES_PER_PARTITION)].put((int)(index % VALUES_PER_PARTITION), value);
+    }
+
+    @Override
+    public void getBulk(long offset, DoubleBuffer target) {
+
+        long index = offset;
+        while (target.hasRemaining()) {
+            DoubleBuffer partition = partitions[(int)(index / VALUES_PER_PARTITION)];
+            int start = (int)(index % VALUES_PER_PARTITION);
+            int length = Math.min(target.remaining(), partition.capacity() - start);
+            target.put(partition.slice(start, length));
+            index += length;
+        }
+    }
+
+    @Override
+    public void putBulk(long offset, DoubleBuffer source) {
+
+        if (readOnly) throw new UnsupportedOperationException("attempt to write to grid mapped read-only from " + path);
+        long index = offset;
+        while (source.hasRemaining()) {
+            DoubleBuffer partition = partitions[(int)(index / VALUES_PER_PARTITION)];
+            int start = (int)(index % VALUES_PER_PARTITION);
+            int length = Math.min(source.remaining(), partition.capacity() - start);
+            partition.put(start, source, source.position(), length);
+            source.position(source.position() + length);
+            index += length;
+        }
+    }
+
+    /**
+     * METHOD TO WRITE GRID VALUES TO DISK, AND UPDATE THE CHECKSUM RECORDED IN THE FILE HEADER
+     */
+    @Override
+    public void flush() {
+
+        if (!readOnly && !headerOwner) {
+            force();
+        } else if (!readOnly) {
+            CRC32C crc = new CRC32C();
+            for (MappedByteBuffer buffer : buffers) {
+                buffer.force();
+                GridFileHeader.updateChecksum(crc, buffer);
+            }
+            header.setChecksum(crc.getValue());
+            try {
+                header.write(channel);
+                channel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * METHOD TO WRITE GRID VALUES TO DISK, WITHOUT UPDATING THE FILE HEADER
+     */
+    public void force() {
+        if (!readOnly) {
+            for (MappedByteBuffer buffer : buffers) buffer.force();
+        }
+    }
+
+    /**
+     * METHOD TO CONFIRM THAT MAPPED VALUES MATCH THE CHECKSUM RECORDED IN THE FILE HEADER
+     * Reading all values also loads the file into the page cache, where it is shared with other processes
+     * @return false if the file was saved without a checksum
+     * @throws IOException if the values do not match the checksum
+     */
+    public boolean verifyChecksum() throws IOException {
+
+        if (header == null || !header.hasChecksum()) return false;
+        CRC32C crc = new CRC32C();
+        for (MappedByteBuffer buffer : buffers) {
+            GridFileHeader.updateChecksum(crc, buffer);
+        }
+        if (crc.getValue() != header.getChecksum())
+            throw new IOException("checksum of grid file " + path + " does not match data - file may be corrupted");
+        return true;
+    }
+
+    public void setHeaderOwner(boolean headerOwner) { this.headerOwner = headerOwner; }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Path getPath() { return path; }
+    public GridFileHeader getHeader() { return header; }
+    public boolean isReadOnly() { return readOnly; }
+}
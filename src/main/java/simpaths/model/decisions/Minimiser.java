@@ -25,6 +25,9 @@ public class Minimiser {
     double[] target;                    // starting co-ordinates at entry and co-ordinates of minimum at exit
     IEvaluation function;               // function to minimise
     double minimisedValue;              // minimised value of function
+    boolean warmStart;                  // true if starting co-ordinates are informed by a related solution
+    int evaluations;                    // number of function evaluations performed to minimise function
+    static final double WARM_START_BRACKET = 0.02;  // neighbourhood of informed starting guess searched for a bracket, as a proportion of the search domain
 
 
     /**
@@ -39,7 +42,10 @@ public class Minimiser {
         this.lowerBounds = lowerBounds;
         this.upperBounds = upperBounds;
         this.target = target;
-        this.function = function;
+        this.function = args -> {
+            evaluations++;
+            return function.evaluate(args);
+        };
         nn = lowerBounds.length;
         freeNn = 0;
         for(int ii=0; ii<nn; ii++) {
@@ -62,7 +68,7 @@ public class Minimiser {
         if (freeNn == 0) {
             result = constrained(target);
         } else if (nn == 1) {
-            result = brent(lowerBounds, upperBounds, target);
+            result = brentScalar(lowerBounds[0], upperBounds[0], target[0], warmStart);
         } else {
             result = powell();
         }
@@ -70,6 +76,10 @@ public class Minimiser {
         target = Arrays.copyOf(result.ordinates, nn);
     }
 
+    public int getEvaluations() {
+        return evaluations;
+    }
+
     private FunctionEvaluation constrained(double[] bx) {
 
         // initialise return object
@@ -444,4 +454,265 @@ public class Minimiser {
         }
         return result;
     }
+
+
+    /**
+     *
+     * Minimisation routine over a single bounded dimension without reference to derivatives
+     *
+     * Specialisation of brent (including the boundary checks of CheckBoundary) for functions of a single argument,
+     * as for the consumption problem solved for most state combinations. Co-ordinates are held as scalars, so
+     * that no arrays are allocated between function evaluations. Where informed, the search is confined to the
+     * neighbourhood of the starting guess if this brackets a minimum, omitting the boundary checks. If the minimum
+     * of the confined search is on the edge of the neighbourhood, the search is repeated over the full domain
+     * (including the boundary checks).
+     *
+     * @param ax lower bound
+     * @param cx upper bound
+     * @param bx starting guess
+     * @param informed true if the starting guess is informed by a related solution (see warmStart)
+     * @return FunctionEvaluation object describing minimised function ordinate and value
+     */
+    private FunctionEvaluation brentScalar(double ax, double cx, double bx, boolean informed) {
+
+        // initialise return object
+        FunctionEvaluation result = new FunctionEvaluation(1);
+        double[] point = new double[1];
+
+        // initialise optimisation parameters
+        final int ITMAX = 100;
+        final double TOL = 2* Math.pow(Math.ulp(1.0), 0.25), EPS = 3* Math.ulp(1.0), ZEPS = 1.0E-10, CGOLD = 0.381966;
+
+        // record initial guess
+        final double bx0 = bx;
+        point[0] = bx0;
+        final double fx0 = function.evaluate(point);
+
+        // if the initial guess is informed, check whether a minimum is bracketed by its immediate neighbourhood
+        double aa = Math.min(ax, cx);
+        double bb = Math.max(ax, cx);
+        double xx = bx, fx = fx0;
+        boolean bracketed = false;
+        if (informed) {
+            double step = WARM_START_BRACKET * (bb - aa);
+            if ( (bx - step > aa) && (bx + step < bb) ) {
+                point[0] = bx - step;
+                if ( (fx0 + EPS) < function.evaluate(point) ) {
+                    point[0] = bx + step;
+                    if ( (fx0 + EPS) < function.evaluate(point) ) {
+                        bracketed = true;
+                        aa = bx - step;
+                        bb = bx + step;
+                    }
+                }
+            }
+        }
+
+        boolean boundarySolution = false;
+        if (!bracketed) {
+
+            // check if initial guess is too close to one of the extremes
+            if ( Math.abs(bx-ax) < ZEPS ) {
+                bx = 0.95 * ax + 0.05 * cx;
+            } else if ( Math.abs(bx-cx) < ZEPS ) {
+                bx = 0.05 * ax + 0.95 * cx;
+            }
+
+            // check for boundary solution
+            point[0] = ax;
+            double fl = function.evaluate(point);
+            double fm = fx0;
+            if (bx != bx0) {
+                point[0] = bx;
+                fm = function.evaluate(point);
+            }
+            point[0] = cx;
+            double fh = function.evaluate(point);
+            xx = bx;
+            fx = fm;
+            if ( (Math.abs(fl-fm) < EPS) && (Math.abs(fm-fh) < EPS) ) {
+                // flat profile - take lower bound
+
+                boundarySolution = true;
+                xx = ax;
+                fx = fl;
+            } else if ( ((fm+EPS) >= fl) || ((fm+EPS) >= fh) ) {
+                // bx greater than or equal to either boundary, need to perform boundary check
+
+                boundarySolution = true;
+                double lo = ax, hi = cx;
+                if ((fl + EPS) > fh) {
+                    // reverse bounds, so that fl is less than fh
+
+                    lo = cx;
+                    hi = ax;
+                    fl = fh;
+                }
+
+                // first run quick check to rule out hi
+                double trial = bx;
+                for (int index=1; index<=2 && boundarySolution; index++) {
+
+                    trial = trial + (hi - bx) / 3.0;
+                    point[0] = trial;
+                    fm = function.evaluate(point);
+                    if ((fm + EPS) < fl) {
+                        // new starting point identified
+
+                        boundarySolution = false;
+                        xx = trial;
+                        fx = fm;
+                    }
+                }
+                if (boundarySolution) {
+                    // hi ruled out - check lo
+
+                    double epsAd = Math.abs(hi - lo);
+                    double epsA = Math.abs(bx - lo) / epsAd;
+                    if (epsA < 0.05) {
+                        // starting bx already very close to lo - check just above lo
+
+                        bx = 0.99 * lo + 0.01 * hi;
+                        point[0] = bx;
+                        fm = function.evaluate(point);
+                        if ((fm + EPS) < fl) {
+                            // new starting point identified
+
+                            boundarySolution = false;
+                            xx = bx;
+                            fx = fm;
+                        }
+                    } else {
+                        // perform grid search between bx and lo
+
+                        while ((epsA > 0.05) && (boundarySolution)) {
+                            bx = 0.5 * (lo + bx);
+                            epsA = Math.abs(bx - lo) / epsAd;
+                            point[0] = bx;
+                            fm = function.evaluate(point);
+                            if ((fm + EPS) < fl) {
+                                // new starting point identified
+
+                                boundarySolution = false;
+                                xx = bx;
+                                fx = fm;
+                            }
+                        }
+                    }
+                    if (boundarySolution) {
+                        // assume lower bound
+
+                        xx = lo;
+                        fx = fl;
+                    }
+                }
+            }
+        }
+
+        // start search routine
+        final double bracketLo = aa, bracketHi = bb;
+        if ( !boundarySolution ) {
+
+            double vv = xx, ww = xx, uu, fv = fx, fw = fx, fu;
+            double ee = 0, dd = 0, etemp, rr, qq, pp;
+            double mm = 0.5 * aa + 0.5 * bb;
+            double tol1 = TOL * Math.abs(xx) + ZEPS;
+            double tol2 = 2.0 * tol1;
+            int iter = 1;
+            while ( Math.abs(xx-mm) > (tol2 - 0.5*(bb-aa)) ) {
+                if ( Math.abs(ee) > tol1 ) {
+                    // construct a parabolic fit
+                    rr = (xx-ww) * (fx-fv);
+                    qq = (xx-vv) * (fx-fw);
+                    pp = (xx-vv)*qq - (xx-ww)*rr;
+                    qq = 2.0 * (qq-rr);
+                    if ( qq > 0.0 ) {
+                        pp = -pp;
+                    }
+                    qq = Math.abs(qq);
+                    etemp = ee;
+                    ee = dd;
+                    if ( (Math.abs(pp) >= Math.abs(0.5*qq*etemp)) || (pp <= qq*(aa-xx)) || (pp >= qq*(bb-xx)) ) {
+
+                        // take golden section step into larger of two dimensions
+                        ee = (xx >= mm) ? aa-xx : bb-xx;
+                        dd = CGOLD * ee;
+                    } else {
+
+                        // take the parabolic step
+                        dd = pp / qq;
+                        uu = xx + dd;
+                        if ( ((uu-aa) < tol2) || ((bb-uu) < tol2) ) {
+                            dd = (mm-xx > 0) ? tol1 : -tol1;
+                        }
+                    }
+                } else {
+                    // take golden section step
+                    ee = (xx >= mm) ? aa-xx : bb-xx;
+                    dd = CGOLD * ee;
+                }
+                // dd is now computed, either from golden section or parabolic fit - compute new function evaluation
+                if ( Math.abs(dd) >= tol1 ) {
+                    uu = xx + dd;
+                } else {
+                    uu = (dd > 0) ? xx + tol1 : xx - tol1;
+                }
+                point[0] = uu;
+                fu = function.evaluate(point);
+                if ( fu <= fx ) {
+
+                    if ( uu >= xx ) {
+                        aa = xx;
+                    } else {
+                        bb = xx;
+                    }
+                    vv = ww;
+                    fv = fw;
+                    ww = xx;
+                    fw = fx;
+                    xx = uu;
+                    fx = fu;
+                } else {
+
+                    if ( uu < xx ) {
+                        aa = uu;
+                    } else {
+                        bb = uu;
+                    }
+                    if ( (fu <= fw) || (ww == xx) ) {
+                        vv = ww;
+                        fv = fw;
+                        ww = uu;
+                        fw = fu;
+                    } else if ( (fu <= fv) || (vv == xx) || (vv == ww) ) {
+                        vv = uu;
+                        fv = fu;
+                    }
+                }
+                iter++;
+                if ( iter > ITMAX ) {
+                    throw new InvalidParameterException("search algorithm failed to converge");
+                }
+                mm = 0.5 * aa + 0.5 * bb;
+                tol1 = TOL * Math.abs(xx) + ZEPS;
+                tol2 = 2.0 * tol1;
+            }
+        }
+        if (bracketed) {
+            // fall back to full search if the minimum is on the edge of the neighbourhood of the starting guess
+
+            double tolEdge = 2.0 * (TOL * Math.abs(xx) + ZEPS);
+            if ( ((xx - bracketLo) < tolEdge) || ((bracketHi - xx) < tolEdge) ) {
+                return brentScalar(ax, cx, bx0, false);
+            }
+        }
+        if ( fx <= fx0 ) {
+            result.ordinates[0] = xx;
+            result.value = fx;
+        } else {
+            result.ordinates[0] = bx0;
+            result.value = fx0;
+        }
+        return result;
+    }
 }
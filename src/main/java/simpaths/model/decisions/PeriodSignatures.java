@@ -0,0 +1,245 @@
+package simpaths.model.decisions;
+
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import simpaths.data.Parameters;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+
+/**
+ *
+ * CLASS TO IDENTIFY THE AGES FOR WHICH THE PERIOD PROBLEM SOLVED BY THE GRIDS HAS CHANGED
+ *
+ * THE SOLUTION FOR ANY AGE DEPENDS ON THE PERIOD PROBLEM AT THAT AGE (THE STATE SPACE, INCOME, TAXES AND BENEFITS,
+ * AND THE PROBABILITIES OF ANTICIPATED STATES), AND ON THE SOLUTIONS FOR ALL OLDER AGES. THE PERIOD PROBLEM AT EACH AGE
+ * IS SUMMARISED BY A SIGNATURE: A HASH OF THE EXPECTATIONS EVALUATED FOR EVERY FEASIBLE STATE COMBINATION AND FOR ALL
+ * FEASIBLE DISCRETE CONTROLS, COMBINED WITH A HASH OF THE INPUTS THAT ENTER THE PERIOD PROBLEM OTHER THAN THROUGH
+ * EXPECTATIONS OR THE GRID SCALE (SEE evaluateInputs). A CHANGE TO ANY OF THESE INPUTS CHANGES THE SIGNATURES OF ALL AGES.
+ *
+ * SIGNATURES ARE SAVED WITH GRIDS WHERE DecisionParams.resolveChangedAges. WHERE SAVED GRIDS ARE REUSED WITH
+ * DecisionParams.resolveChangedAges, THE SIGNATURES ARE RE-EVALUATED FOR THE PREVAILING PARAMETERS, AND THE GRIDS ARE
+ * RE-SOLVED FROM THE OLDEST AGE WHOSE SIGNATURE DIFFERS, REUSING THE SAVED SOLUTIONS FOR ALL OLDER AGES. SIGNATURES ARE
+ * ALSO EVALUATED TO VALIDATE CHECKPOINTS (SEE SolveCheckpoint).
+ *
+ * EXPECTATIONS ARE EVALUATED FOR THE SAME STATE COMBINATIONS AS A SOLUTION OF THE GRIDS (MEMOISED BY AGE AS
+ * SolveScheduler), INCLUDING DONOR TAX IMPUTATIONS FOR ALL FEASIBLE DISCRETE CONTROLS. AN EVALUATION OF SIGNATURES
+ * THEREFORE TAKES ABOUT AS LONG AS THE EVALUATION OF EXPECTATIONS IN A SOLUTION OF THE GRIDS (OMITTING ONLY THE SEARCH
+ * FOR OPTIMAL CONTROLS), AND SIGNATURES ARE ONLY EVALUATED WHERE RE-SOLUTION OR CHECKPOINTS ARE REQUESTED.
+ *
+ */
+public class PeriodSignatures {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final String SIGNATURES_FILE = "period_signatures.csv";
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO EVALUATE SIGNATURES OF THE PERIOD PROBLEM FOR ALL AGES
+     * Regression stochastic components should be suppressed while signatures are evaluated, as for solutions of the grids
+     * @param scale organisation of grids
+     * @return signatures by age index
+     */
+    public static long[] evaluate(GridScale scale) {
+
+        int threads = (DecisionParams.solverThreads > 0) ? DecisionParams.solverThreads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long[] signatures = new long[scale.simLifeSpan];
+            long fingerprint = scale.fingerprint();
+            long inputs = evaluateInputs();
+            for (int aa=0; aa<scale.simLifeSpan; aa++) {
+
+                int innerDimension = (int)scale.gridDimensions[aa][0];
+                int outerDimension = (int)scale.gridDimensions[aa][1];
+                int ageYears = aa + Parameters.AGE_TO_BECOME_RESPONSIBLE;
+                ExpectationsCache cache = (DecisionParams.MEMOISE_EXPECTATIONS) ? new ExpectationsCache() : null;
+                long[] outerSignatures = new long[outerDimension];
+                pool.submit(() -> IntStream.range(0, outerDimension).parallel().forEach(iiOuter ->
+                        outerSignatures[iiOuter] = evaluateOuter(scale, ageYears, iiOuter, innerDimension, cache))).join();
+                long hash = GridScale.fingerprintUpdate(fingerprint, aa);
+                hash = GridScale.fingerprintUpdate(hash, inputs);
+                for (long outerSignature : outerSignatures) {
+                    hash = GridScale.fingerprintUpdate(hash, outerSignature);
+                }
+                signatures[aa] = hash;
+            }
+            return signatures;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * METHOD TO EVALUATE A HASH OF THE INPUTS TO THE PERIOD PROBLEM THAT ARE NOT CAPTURED BY EXPECTATIONS OR THE GRID SCALE
+     *
+     * Includes the parameters of CESUtility and the model settings of DecisionParams, but not options that only affect
+     * how the grids are solved or stored (e.g. solverThreads)
+     */
+    static long evaluateInputs() {
+
+        long hash = 0xcbf29ce484222325L;
+        hash = update(hash, CESUtility.ANNUAL_CONSUMPTION_NORMALISATION_FACTOR, CESUtility.BEQUEST_NORMALISATION_FACTOR,
+                CESUtility.EPSILON, CESUtility.ALPHA_YOUNG, CESUtility.ALPHA_MID, CESUtility.ALPHA_OLD, CESUtility.GAMMA,
+                CESUtility.ZETA0, CESUtility.ZETA1, CESUtility.DELTA_SINGLES, CESUtility.DELTA_COUPLES);
+        hash = update(hash, DecisionParams.MIN_CONSUMPTION_PER_YEAR, DecisionParams.C_LIQUID_WEALTH,
+                DecisionParams.MIN_STATE_PROBABILITY, DecisionParams.MIN_FACTOR_PROBABILITY,
+                DecisionParams.rSafeAssets, DecisionParams.rDebtLow, DecisionParams.rDebtHi, DecisionParams.maxPensionPYear);
+        long[] settings = {DecisionParams.FILTER_LOCAL_EXPECTATIONS ? 1 : 0, DecisionParams.flagRetirement ? 1 : 0,
+                DecisionParams.flagPrivatePension ? 1 : 0, Parameters.flagSocialCare ? 1 : 0,
+                DecisionParams.optionsEmployment1, DecisionParams.optionsEmployment2, DecisionParams.startYear,
+                DecisionParams.minAgeForPoorHealth, DecisionParams.maxAgeFlexibleLabourSupply,
+                DecisionParams.minAgeToRetire, DecisionParams.minAgeReceiveSocialCare};
+        for (long setting : settings) {
+            hash = GridScale.fingerprintUpdate(hash, setting);
+        }
+        return hash;
+    }
+
+    /**
+     * METHOD TO IDENTIFY THE OLDEST AGE FOR WHICH SIGNATURES DIFFER
+     * @param saved signatures saved with grids (null if unavailable)
+     * @param current signatures for prevailing parameters
+     * @return age index from which grids must be re-solved (-1 if saved grids can be used as is)
+     */
+    public static int oldestChange(long[] saved, long[] current) {
+        if (saved == null || saved.length != current.length) return current.length - 1;
+        for (int aa=current.length-1; aa>=0; aa--) {
+            if (saved[aa] != current[aa]) return aa;
+        }
+        return -1;
+    }
+
+    /**
+     * METHOD TO WRITE SIGNATURES TO A DIRECTORY OF GRID FILES
+     */
+    public static void write(long[] signatures, String directory) {
+
+        File dir = new File(directory);
+        if (!dir.exists()) dir.mkdirs();
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader("age", "signature").build();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(directory, SIGNATURES_FILE));
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat)) {
+            for (int aa=0; aa<signatures.length; aa++) {
+                printer.printRecord(aa + Parameters.AGE_TO_BECOME_RESPONSIBLE, Long.toHexString(signatures[aa]));
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to write period signatures: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * METHOD TO REMOVE SIGNATURES FROM A DIRECTORY OF GRID FILES, BEFORE THE GRID FILES ARE REPLACED
+     */
+    public static void delete(String directory) {
+        try {
+            Files.deleteIfExists(Paths.get(directory, SIGNATURES_FILE));
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to remove period signatures: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * METHOD TO READ SIGNATURES FROM A DIRECTORY OF GRID FILES
+     * @return signatures by age index, or null if signatures were not saved with the grids
+     */
+    public static long[] read(String directory) {
+
+        Path path = Paths.get(directory, SIGNATURES_FILE);
+        if (!Files.exists(path)) return null;
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build();
+        try (BufferedReader reader = Files.newBufferedReader(path);
+             CSVParser parser = csvFormat.parse(reader)) {
+            List<Long> signatures = new ArrayList<>();
+            for (CSVRecord record : parser) {
+                int aa = Integer.parseInt(record.get("age")) - Parameters.AGE_TO_BECOME_RESPONSIBLE;
+                if (aa != signatures.size())
+                    throw new RuntimeException("period signatures in " + path + " are not ordered by age");
+                signatures.add(Long.parseUnsignedLong(record.get("signature"), 16));
+            }
+            return signatures.stream().mapToLong(Long::longValue).toArray();
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to read period signatures: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * METHOD TO EVALUATE THE SIGNATURE OF THE PERIOD PROBLEM FOR AN OUTER STATE COMBINATION
+     */
+    private static long evaluateOuter(GridScale scale, int ageYears, int iiOuter, int innerDimension, ExpectationsCache cache) {
+
+        // screen state combinations as SolveScheduler
+        States outerStates = new States(scale, ageYears);
+        outerStates.populateOuterGridStates(iiOuter);
+        if (!outerStates.checkOuterStateCombination()) return 0;
+        int[] inner = new int[innerDimension];
+        int feasible = 0;
+        for (int iiInner=0; iiInner<innerDimension; iiInner++) {
+            States currentStates = new States(outerStates);
+            currentStates.populateInnerGridStates(iiInner);
+            if (currentStates.checkStateCombination()) inner[feasible++] = iiInner;
+        }
+        if (feasible == 0) return 0;
+
+        // evaluate expectations for all feasible inner states
+        Expectations outerExpectations = new Expectations(outerStates);
+        outerExpectations.cache = cache;
+        long hash = GridScale.fingerprintUpdate(0xcbf29ce484222325L, iiOuter);
+        for (int ii=0; ii<feasible; ii++) {
+            States states = new States(outerStates);
+            states.populateInnerGridStates(inner[ii]);
+            Expectations invariantExpectations = new Expectations(states, outerExpectations);
+            for (double[] controls : new ManagerSolveState.DiscreteControls(states).feasible(states)) {
+                Expectations expectations = new Expectations(invariantExpectations);
+                expectations.updateForDiscreteControls(controls[0], controls[1]);
+                hash = update(hash, inner[ii], controls, expectations);
+            }
+        }
+        return hash;
+    }
+
+    private static long update(long hash, int iiInner, double[] controls, Expectations expectations) {
+
+        hash = GridScale.fingerprintUpdate(hash, iiInner);
+        hash = update(hash, controls);
+        hash = update(hash, expectations.equivalenceScale, expectations.labWageFullTimeHrly, expectations.wealthLiqValue,
+                expectations.pensionIncomePerYear, expectations.availableCredit, expectations.mortalityProbability,
+                expectations.leisureTime, expectations.disposableIncomeAnnual, expectations.cashOnHand);
+        hash = GridScale.fingerprintUpdate(hash, expectations.numberExpected);
+        for (int ii=0; ii<expectations.numberExpected; ii++) {
+            hash = update(hash, expectations.anticipated.getProbability(ii));
+            for (int jj=0; jj<expectations.anticipated.width; jj++) {
+                hash = update(hash, expectations.anticipated.get(ii, jj));
+            }
+        }
+        return hash;
+    }
+
+    private static long update(long hash, double... values) {
+        for (double value : values) {
+            hash = GridScale.fingerprintUpdate(hash, Double.doubleToLongBits(value));
+        }
+        return hash;
+    }
+}
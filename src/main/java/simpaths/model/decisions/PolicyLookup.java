@@ -0,0 +1,138 @@
+package simpaths.model.decisions;
+
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+
+/**
+ *
+ * CLASS TO LOOK UP OPTIMISED DECISIONS FOR A SINGLE STATE COMBINATION FROM SEVERAL GRIDS
+ *
+ * THE SIMULATION INTERPOLATES THE CONSUMPTION AND EMPLOYMENT GRIDS FOR THE SAME STATE COMBINATION OF EACH BENEFIT UNIT
+ * IN EACH YEAR. ALL GRIDS SHARE THE SAME GridScale, SO THE GRID SLICE DESCRIBED BY THE DISCRETE STATES, AND THE
+ * INDICES AND WEIGHTS OF THE GRID POINTS THAT SURROUND THE CONTINUOUS STATES, ARE THE SAME FOR EVERY GRID. THIS CLASS
+ * EVALUATES THEM ONCE, AND REUSES THEM FOR EACH GRID, SO THAT EACH LOOK-UP REDUCES TO A WEIGHTED SUM OF GRID VALUES.
+ *
+ * THE STATE COMBINATION IS COMPARED AGAINST THE COMBINATION FOR WHICH INDICES AND WEIGHTS WERE EVALUATED ON EACH
+ * LOOK-UP, AND THEY ARE RE-EVALUATED IF IT HAS CHANGED. RESULTS ARE IDENTICAL TO Grid.interpolateAll(states, false).
+ *
+ */
+public class PolicyLookup {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    final States states;        // state combination to look up (may be updated between look-ups)
+    GridScale scale;            // scale for which indices and weights were evaluated (null if not evaluated)
+    int ageIndex;               // age index for which indices and weights were evaluated
+    double[] located;           // state values for which indices and weights were evaluated
+    int points;                 // number of grid points that contribute to interpolation
+    long[] indices;             // grid indices of contributing points
+    double[] weights;           // interpolation weights of contributing points
+    double weightTotal;         // sum of weights
+
+
+    /**
+     * CONSTRUCTOR
+     * @param states state combination to look up
+     */
+    public PolicyLookup(States states) {
+        this.states = states;
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO RETURN A NUMERICAL APPROXIMATION FOR THE GRID VALUE ASSOCIATED WITH THE STATE COMBINATION
+     * @param grid grid to interpolate
+     * @return numerical approximation of grid value (as returned by Grid.interpolateAll)
+     */
+    public double interpolate(Grid grid) {
+
+        if (grid.scale != scale || states.ageIndex != ageIndex || !Arrays.equals(states.labStatesContObject, located))
+            locate(grid);
+        double result = 0;
+        for (int ii=0; ii<points; ii++) {
+            result += grid.getChecked(states, indices[ii]) * weights[ii];
+        }
+        return result / weightTotal;
+    }
+
+    /**
+     * METHOD TO EVALUATE INDICES AND WEIGHTS OF GRID POINTS THAT CONTRIBUTE TO INTERPOLATION OF THE STATE COMBINATION
+     * Mirrors Grid.interpolateAll and Grid.interpolateContinuous, so that results are identical
+     */
+    private void locate(Grid grid) {
+
+        scale = null;
+        int numberContinuous = grid.numberContinuous(states, false);
+        long startingIndex = grid.sliceIndex(states, numberContinuous);
+
+        //  working variables
+        final double TOL = Math.ulp(1.0);
+        double[][] axes = grid.scale.axes[states.ageIndex];
+        long[] strides = grid.scale.strides[states.ageIndex];
+        int[] mm = new int[numberContinuous];
+        double[] ss = new double[numberContinuous];
+
+        // identify reference points
+        for (int ii = 0; ii<numberContinuous; ii++) {
+            int dims = (int)(axes[ii][0]+TOL);
+            ss[ii] = grid.scale.position(states.ageIndex, ii, states.labStatesContObject[ii]);
+            mm[ii] = (int)(ss[ii] + TOL);
+            if ( mm[ii] == (dims-1) ) {
+                // at upper bound - step one backward
+                mm[ii] -= 1;
+            }
+            ss[ii] -= mm[ii];
+        }
+
+        // check that point is internal to grid
+        for (int ii=0; ii<numberContinuous; ii++) {
+            double err = Math.ulp(axes[ii][2]);
+            if (states.labStatesContObject[ii] < axes[ii][1]-err) {
+                states.systemReportError();
+                throw new InvalidParameterException("interpolation point below minimum described by grid");
+            } else if (states.labStatesContObject[ii] > axes[ii][2]+err) {
+                states.systemReportError();
+                throw new InvalidParameterException("interpolation point above maximum described by grid");
+            }
+        }
+
+        // identify contributing points
+        int candidates = 1 << numberContinuous;
+        double minWeight = 1.0/candidates*1.0E-3;
+        if (indices == null || indices.length < candidates) {
+            indices = new long[candidates];
+            weights = new double[candidates];
+        }
+        points = 0;
+        weightTotal = 0;
+        for (int ii=0; ii<candidates; ii++) {
+            double weight = 1.0;
+            long indexHere = startingIndex;
+            for (int jj=0; jj<numberContinuous; jj++) {
+                int dd = (ii >>> jj) & 1;
+                weight *= (1 - Math.abs(dd-ss[jj]));
+                indexHere += (mm[jj] + dd) * strides[jj];
+            }
+            if ( weight > minWeight) {
+                indices[points] = indexHere;
+                weights[points] = weight;
+                weightTotal += weight;
+                points++;
+            }
+        }
+
+        // record state combination
+        located = Arrays.copyOf(states.labStatesContObject, states.labStatesContObject.length);
+        ageIndex = states.ageIndex;
+        scale = grid.scale;
+    }
+}
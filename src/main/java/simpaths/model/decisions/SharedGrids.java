@@ -0,0 +1,112 @@
+package simpaths.model.decisions;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ *
+ * CLASS TO SHARE GRIDS MAPPED READ-ONLY FROM SAVED GRID FILES BETWEEN SIMULATIONS
+ *
+ * GRIDS MAPPED READ-ONLY (SEE MappedGridStore) ARE READ DIRECTLY FROM THE OPERATING SYSTEM PAGE CACHE, SO THAT
+ * CONCURRENT SIMULATION PROCESSES ON A HOST THAT USE THE SAME SAVED GRIDS SHARE ONE COPY OF THEM IN PHYSICAL MEMORY.
+ * THIS CLASS EXTENDS THE SAME SHARING TO SIMULATIONS WITHIN A JVM (E.G. THE SEQUENTIAL RUNS OF SimPathsMultiRun):
+ * GRIDS ARE MAPPED, AND THEIR CHECKSUMS VERIFIED, ONCE FOR EACH DIRECTORY AND GRID SCALE, AND THE SAME MAPPING IS
+ * RETURNED TO EVERY SUBSEQUENT SIMULATION UNTIL THE GRID FILES CHANGE.
+ *
+ */
+public class SharedGrids {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    private static final Map<String, Entry> MAPPED = new HashMap<>();
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO OBTAIN GRIDS MAPPED READ-ONLY FROM A DIRECTORY OF SAVED GRID FILES
+     * @param directory directory of grid files, organised as written by ManagerFileGrids
+     * @return grids shared with any other simulation in the JVM that uses the same directory and grid scale
+     * @throws IOException if the files cannot be mapped, or do not match the current grid scale or their checksums
+     */
+    public static synchronized Grids open(String directory) throws IOException {
+
+        String key = Paths.get(directory).toAbsolutePath().normalize() + "#" + new GridScale().fingerprint();
+        Entry entry = MAPPED.get(key);
+        if (entry != null) {
+            if (entry.stamp == stamp(entry.grids)) {
+                System.out.println("Using optimised decisions mapped from " + directory + " by a previous simulation");
+                return entry.grids;
+            }
+            // files have been replaced since they were mapped
+            MAPPED.remove(key);
+            entry.grids.close();
+        }
+
+        Grids grids = new Grids(directory, true, false);
+        try {
+            if (DecisionParams.verifyGridChecksums) {
+                for (Grid grid : grids.getGridList()) {
+                    if (!((MappedGridStore)grid.store).verifyChecksum())
+                        System.out.println("Grid file " + ((MappedGridStore)grid.store).getPath().getFileName() +
+                                " saved without checksum: unable to confirm that it is intact");
+                }
+            }
+            MAPPED.put(key, new Entry(grids, stamp(grids)));
+        } catch (IOException e) {
+            grids.close();
+            throw e;
+        }
+        return grids;
+    }
+
+    /**
+     * METHOD TO RELEASE ALL SHARED GRIDS
+     * Must only be called when no simulation is using them
+     */
+    public static synchronized void clear() {
+        for (Entry entry : MAPPED.values()) entry.grids.close();
+        MAPPED.clear();
+    }
+
+    /**
+     * METHOD TO SUMMARISE THE SIZE AND MODIFICATION TIME OF THE FILES BACKING GRIDS
+     */
+    private static long stamp(Grids grids) throws IOException {
+
+        long stamp = 17;
+        for (Grid grid : grids.getGridList()) {
+            Path path = ((MappedGridStore)grid.store).getPath();
+            if (!Files.exists(path)) return 0;
+            stamp = 31 * stamp + Files.size(path);
+            stamp = 31 * stamp + Files.getLastModifiedTime(path).toMillis();
+        }
+        return stamp;
+    }
+
+
+    /**
+     * CLASS TO STORE MAPPED GRIDS WITH A STAMP OF THEIR BACKING FILES
+     */
+    private static class Entry {
+
+        final Grids grids;
+        final long stamp;
+
+        Entry(Grids grids, long stamp) {
+            this.grids = grids;
+            this.stamp = stamp;
+        }
+    }
+}
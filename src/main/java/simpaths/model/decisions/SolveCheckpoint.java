@@ -0,0 +1,304 @@
+package simpaths.model.decisions;
+
+
+import simpaths.data.Parameters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+
+
+/**
+ *
+ * CLASS TO CHECKPOINT THE SOLUTION OF INTERTEMPORAL OPTIMISATION DECISIONS, SO THAT AN INTERRUPTED SOLUTION
+ * CAN BE RESUMED
+ *
+ * WHERE DecisionParams.checkpointDirectory IS SPECIFIED, THE SOLUTIONS FOR EACH AGE ARE WRITTEN TO A SLICE FILE IN
+ * THE DIRECTORY AS SOON AS THE AGE IS COMPLETE, AND A MANIFEST IS UPDATED TO RECORD THE YOUNGEST AGE FOR WHICH
+ * SOLUTIONS HAVE BEEN OBTAINED FOR ALL OLDER AGES, UP TO THE OLDEST AGE SOLVED (SOLUTIONS FOR OLDER AGES ARE TAKEN
+ * FROM SAVED GRIDS WHERE THESE ARE RE-SOLVED - SEE PeriodSignatures). SLICE FILES AND THE MANIFEST ARE WRITTEN TO
+ * TEMPORARY FILES AND MOVED INTO PLACE ATOMICALLY, SO THAT AN INTERRUPTION AT ANY POINT LEAVES A CONSISTENT CHECKPOINT.
+ *
+ * WHEN A SOLUTION IS STARTED, AN EXISTING MANIFEST IN THE DIRECTORY IS CHECKED AGAINST THE STATE SPACE (GridScale
+ * fingerprint) AND THE PERIOD PROBLEM OF EACH COMPLETED AGE (SEE PeriodSignatures). THE SOLUTIONS FOR COMPLETED AGES
+ * ARE RESTORED FROM THEIR SLICE FILES, AND THE SOLUTION RESUMES FROM THE YOUNGER OF THE AGE FOLLOWING THE LAST
+ * COMPLETED AGE AND THE OLDEST COMPLETED AGE WHOSE PERIOD PROBLEM HAS CHANGED. A CHECKPOINT FOR A DIFFERENT STATE
+ * SPACE IS DISCARDED. THE DIRECTORY SHOULD BE CLEARED TO FORCE A FULL SOLUTION.
+ *
+ * FILES IN CHECKPOINT DIRECTORY:
+ *      checkpoint.properties       manifest
+ *      slice_<age>.ckp             solutions for age (years), for all grids
+ *
+ * SLICE FILE LAYOUT (BIG-ENDIAN):
+ *      int  magic number ("SPCK")
+ *      int  format version
+ *      long fingerprint of GridScale
+ *      int  age index
+ *      int  number of grids
+ *      long CRC32C checksum of grid values
+ *      long number of values, for each grid
+ *      8-byte doubles, for each grid
+ *
+ */
+public class SolveCheckpoint {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final String MANIFEST_FILE = "checkpoint.properties";
+    static final int MAGIC = 0x5350434B;
+    static final int FORMAT_VERSION = 1;
+    static final int BUFFER_VALUES = 1 << 16;
+
+    final Path directory;           // directory for checkpoint files
+    long fingerprint;               // fingerprint of GridScale
+    long[] signatures;              // signatures of period problem by age index (see PeriodSignatures)
+    int solvedFromAgeIndex;         // oldest age index solved (older ages are obtained from saved grids)
+    int completedFromAgeIndex;      // youngest age index for which all older ages are solved
+
+
+    /**
+     * CONSTRUCTOR
+     * @param directory directory for checkpoint files
+     */
+    public SolveCheckpoint(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * METHOD TO IDENTIFY WHETHER SOLUTIONS ARE CHECKPOINTED
+     * @return object to manage checkpoints, or null if checkpoints are not required
+     */
+    public static SolveCheckpoint fromParameters() {
+        if (DecisionParams.checkpointDirectory == null || DecisionParams.checkpointDirectory.isEmpty()) return null;
+        return new SolveCheckpoint(DecisionParams.checkpointDirectory);
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO RESTORE SOLUTIONS FROM AN EXISTING CHECKPOINT
+     *
+     * @param grids grids to populate with checkpointed solutions
+     * @param solveFromAgeIndex oldest age index that would otherwise be solved
+     * @param signatures signatures of period problem for prevailing parameters, by age index
+     * @return age index from which to solve grids (-1 if the checkpoint describes a complete solution)
+     */
+    public int resume(Grids grids, int solveFromAgeIndex, long[] signatures) {
+
+        fingerprint = grids.scale.fingerprint();
+        this.signatures = signatures;
+        int resumeFromAgeIndex = solveFromAgeIndex;
+        try {
+            Files.createDirectories(directory);
+            Properties manifest = readManifest();
+            if (manifest != null) {
+
+                long savedFingerprint = Long.parseUnsignedLong(manifest.getProperty("fingerprint"), 16);
+                int savedSolved = Integer.parseInt(manifest.getProperty("solvedFromAgeIndex"));
+                int savedCompleted = Integer.parseInt(manifest.getProperty("completedFromAgeIndex"));
+                long[] savedSignatures = parseSignatures(manifest.getProperty("signatures"));
+                if (savedFingerprint != fingerprint || savedSignatures.length != signatures.length) {
+                    System.out.println("Checkpoint in " + directory + " describes a different state space: discarding checkpoint");
+                } else if (savedSolved < solveFromAgeIndex) {
+                    System.out.println("Checkpoint in " + directory + " does not include age " +
+                            (solveFromAgeIndex + Parameters.AGE_TO_BECOME_RESPONSIBLE) + ": discarding checkpoint");
+                } else {
+
+                    // identify ages to re-solve
+                    resumeFromAgeIndex = Math.min(solveFromAgeIndex, savedCompleted - 1);
+                    for (int aa=solveFromAgeIndex; aa>=savedCompleted; aa--) {
+                        if (savedSignatures[aa] != signatures[aa]) {
+                            resumeFromAgeIndex = aa;
+                            System.out.println("Period problem changed for checkpointed age " + (aa + Parameters.AGE_TO_BECOME_RESPONSIBLE));
+                            break;
+                        }
+                    }
+
+                    // restore solutions for checkpointed ages
+                    for (int aa=solveFromAgeIndex; aa>resumeFromAgeIndex; aa--) {
+                        readSlice(grids, aa);
+                    }
+                    if (resumeFromAgeIndex < 0) {
+                        System.out.println("Restored optimised decisions for all ages from checkpoint in " + directory);
+                    } else {
+                        System.out.println("Restored optimised decisions from checkpoint in " + directory + ": resuming solution from age " +
+                                (resumeFromAgeIndex + Parameters.AGE_TO_BECOME_RESPONSIBLE));
+                    }
+                }
+            }
+            solvedFromAgeIndex = solveFromAgeIndex;
+            completedFromAgeIndex = resumeFromAgeIndex + 1;
+            writeManifest();
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("failed to resume from checkpoint in " + directory + ": " + e.getMessage(), e);
+        }
+        return resumeFromAgeIndex;
+    }
+
+    /**
+     * METHOD TO CHECKPOINT THE SOLUTIONS FOR AGE INDEX aa, ONCE ALL OLDER AGES ARE SOLVED
+     */
+    public void save(Grids grids, int aa) {
+
+        if (aa != completedFromAgeIndex - 1)
+            throw new RuntimeException("age " + (aa + Parameters.AGE_TO_BECOME_RESPONSIBLE) + " checkpointed out of sequence");
+        try {
+            writeSlice(grids, aa);
+            completedFromAgeIndex = aa;
+            writeManifest();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to checkpoint age " + (aa + Parameters.AGE_TO_BECOME_RESPONSIBLE) + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Path getDirectory() { return directory; }
+
+    private Path slicePath(int aa) {
+        return directory.resolve("slice_" + (aa + Parameters.AGE_TO_BECOME_RESPONSIBLE) + ".ckp");
+    }
+
+    /**
+     * METHOD TO IDENTIFY THE RANGE OF GRID INDICES FOR AGE INDEX aa
+     * @return {first index, number of indices}, limited to the size of grid
+     */
+    private static long[] sliceRange(Grid grid, int aa) {
+        long start = grid.scale.gridDimensions[aa][3];
+        long length = Math.max(0, Math.min(grid.size, start + grid.scale.gridDimensions[aa][2]) - start);
+        return new long[]{Math.min(start, grid.size), length};
+    }
+
+    private void writeSlice(Grids grids, int aa) throws IOException {
+
+        List<Grid> gridList = grids.getGridList();
+        int headerBytes = 32 + 8 * gridList.size();
+        Path temporary = directory.resolve(slicePath(aa).getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            // grid values
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocate(8 * BUFFER_VALUES);
+            channel.position(headerBytes);
+            for (Grid grid : gridList) {
+                long[] range = sliceRange(grid, aa);
+                for (long position=0; position<range[1]; position+=BUFFER_VALUES) {
+                    int values = (int)Math.min(BUFFER_VALUES, range[1] - position);
+                    buffer.clear();
+                    buffer.limit(8 * values);
+                    grid.store.getBulk(range[0] + position, buffer.asDoubleBuffer());
+                    crc.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                }
+            }
+
+            // header
+            ByteBuffer header = ByteBuffer.allocate(headerBytes);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(fingerprint).putInt(aa).putInt(gridList.size()).putLong(crc.getValue());
+            for (Grid grid : gridList) header.putLong(sliceRange(grid, aa)[1]);
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) channel.write(header);
+            channel.force(true);
+        }
+        Files.move(temporary, slicePath(aa), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readSlice(Grids grids, int aa) throws IOException {
+
+        Path path = slicePath(aa);
+        List<Grid> gridList = grids.getGridList();
+        int headerBytes = 32 + 8 * gridList.size();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            // header
+            ByteBuffer header = ByteBuffer.allocate(headerBytes);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < headerBytes || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION)
+                throw new IOException("checkpoint file " + path + " is not valid");
+            if (header.getLong() != fingerprint || header.getInt() != aa || header.getInt() != gridList.size())
+                throw new IOException("checkpoint file " + path + " does not match the grids");
+            long checksum = header.getLong();
+            for (Grid grid : gridList) {
+                if (header.getLong() != sliceRange(grid, aa)[1])
+                    throw new IOException("checkpoint file " + path + " does not match the grids");
+            }
+
+            // grid values
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocate(8 * BUFFER_VALUES);
+            for (Grid grid : gridList) {
+                long[] range = sliceRange(grid, aa);
+                for (long position=0; position<range[1]; position+=BUFFER_VALUES) {
+                    int values = (int)Math.min(BUFFER_VALUES, range[1] - position);
+                    buffer.clear();
+                    buffer.limit(8 * values);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer) < 0) throw new IOException("checkpoint file " + path + " is truncated");
+                    }
+                    buffer.flip();
+                    crc.update(buffer.duplicate());
+                    grid.store.putBulk(range[0] + position, buffer.asDoubleBuffer());
+                }
+            }
+            if (crc.getValue() != checksum)
+                throw new IOException("checksum of checkpoint file " + path + " does not match data - file may be corrupted");
+        }
+    }
+
+    private Properties readManifest() throws IOException {
+        Path path = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(path)) return null;
+        Properties manifest = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            manifest.load(reader);
+        }
+        return manifest;
+    }
+
+    private void writeManifest() throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("fingerprint", Long.toHexString(fingerprint));
+        manifest.setProperty("solvedFromAgeIndex", String.valueOf(solvedFromAgeIndex));
+        manifest.setProperty("completedFromAgeIndex", String.valueOf(completedFromAgeIndex));
+        manifest.setProperty("completedFromAge", String.valueOf(completedFromAgeIndex + Parameters.AGE_TO_BECOME_RESPONSIBLE));
+        StringBuilder builder = new StringBuilder();
+        for (int aa=0; aa<signatures.length; aa++) {
+            if (aa > 0) builder.append(',');
+            builder.append(Long.toHexString(signatures[aa]));
+        }
+        manifest.setProperty("signatures", builder.toString());
+        Path temporary = directory.resolve(MANIFEST_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            manifest.store(writer, "SimPaths checkpoint of optimised decisions");
+        }
+        Files.move(temporary, directory.resolve(MANIFEST_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static long[] parseSignatures(String value) {
+        if (value == null || value.isEmpty()) return new long[0];
+        String[] parts = value.split(",");
+        long[] signatures = new long[parts.length];
+        for (int ii=0; ii<parts.length; ii++) {
+            signatures[ii] = Long.parseUnsignedLong(parts[ii], 16);
+        }
+        return signatures;
+    }
+}
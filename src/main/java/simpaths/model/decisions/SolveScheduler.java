@@ -0,0 +1,368 @@
+package simpaths.model.decisions;
+
+
+import simpaths.data.Parameters;
+import simpaths.model.taxes.Matches;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+
+/**
+ *
+ * CLASS TO SCHEDULE EVALUATION OF SOLUTIONS FOR ALL STATE COMBINATIONS OF AN AGE SLICE OF THE GRIDS
+ *
+ * THE OUTER AND INNER LOOPS DESCRIBED IN ManagerSolveGrids ARE FLATTENED INTO A SINGLE LIST OF FEASIBLE STATE
+ * COMBINATIONS, WHICH IS DIVIDED INTO WORK UNITS OF SIMILAR SIZE AND SOLVED ON A DEDICATED ForkJoinPool. IDLE
+ * WORKERS STEAL UNITS FROM BUSY WORKERS, SO THAT ALL THREADS REMAIN OCCUPIED WHEN INNER DIMENSIONS ARE SMALL,
+ * AND NO BARRIER IS IMPOSED BETWEEN OUTER STATE COMBINATIONS.
+ *
+ * INFEASIBLE STATE COMBINATIONS (SEE States.checkOuterStateCombination AND States.checkStateCombination) ARE
+ * SCREENED OUT BEFORE WORK UNITS ARE DEFINED, SO THAT THEY DO NOT DISTORT THE BALANCE OF WORK BETWEEN UNITS
+ *
+ * THE EXPECTATIONS OF AN OUTER STATE COMBINATION ARE EVALUATED WHEN THE FIRST OF ITS WORK UNITS IS STARTED, AND RELEASED
+ * WHEN THE LAST OF ITS WORK UNITS IS COMPLETE (SEE OuterWork). THE EXPECTATIONS HELD IN MEMORY ARE THEREFORE LIMITED TO
+ * OUTER STATE COMBINATIONS WITH A WORK UNIT IN PROGRESS (GENERALLY ONE PER THREAD), AND THOSE WITH BOTH COMPLETED AND
+ * PENDING WORK UNITS. AS THE WORK UNITS OF AN OUTER STATE COMBINATION ARE CONTIGUOUS, AND EACH SolveTask SOLVES A
+ * CONTIGUOUS RANGE OF WORK UNITS, THE LATTER ARE LIMITED TO THE BOUNDARIES OF TASKS IN PROGRESS. PEAK MEMORY THEREFORE
+ * GROWS WITH THE NUMBER OF THREADS, BUT NOT WITH THE NUMBER OF OUTER STATE COMBINATIONS OF AN AGE
+ *
+ * IF DecisionParams.warmStartConsumption, THE SEARCH FOR OPTIMAL CONSUMPTION AT EACH LIQUID WEALTH GRID POINT
+ * STARTS FROM THE SOLUTION FOR THE PRECEDING (LOWER) WEALTH POINT. WORK UNITS ARE ONLY DIVIDED WHERE NO SUCH
+ * SOLUTION IS AVAILABLE, SO THAT SOLUTIONS DO NOT DEPEND ON THE NUMBER OF THREADS OR PROCESSES
+ *
+ * WHERE THE SOLUTION IS SHARED BETWEEN PROCESSES (SEE DistributedSolve), EACH PROCESS DEFINES THE SAME WORK
+ * UNITS AND SOLVES A CONTIGUOUS SHARE OF THEM, BALANCED BY THE NUMBER OF FEASIBLE STATE COMBINATIONS
+ *
+ * IF DecisionParams.PARALLELISE_DISCRETE_CONTROLS, THE DISCRETE CONTROL COMBINATIONS OF EACH STATE COMBINATION ARE
+ * EVALUATED AS NESTED TASKS OF THE SAME POOL (SEE ManagerSolveState), WHICH OCCUPY THREADS THAT WOULD OTHERWISE BE
+ * IDLE WHEN AN AGE HAS FEW WORK UNITS (E.G. FOR OLDER AGES, OR TOWARDS THE END OF EACH AGE)
+ *
+ */
+public class SolveScheduler {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final int UNITS_PER_THREAD = 16;     // target number of work units per thread for each age
+    static final int MIN_UNIT_SIZE = 4;         // minimum number of state combinations per work unit
+
+    final ForkJoinPool pool;                    // pool used to solve grids (null if solutions are not parallelised)
+    final int threads;                          // number of threads used to solve grids
+    final int rank;                             // index of this process among processes sharing the solution
+    final int ranks;                            // number of processes sharing the solution
+
+
+    /**
+     * CONSTRUCTORS
+     * @param threads number of threads to use (0 to use all available processors)
+     * @param rank index of this process among processes sharing the solution (from 0)
+     * @param ranks number of processes sharing the solution
+     */
+    public SolveScheduler(int threads) {
+        this(threads, 0, 1);
+    }
+    public SolveScheduler(int threads, int rank, int ranks) {
+
+        if (rank < 0 || rank >= ranks)
+            throw new IllegalArgumentException("process rank " + rank + " not consistent with " + ranks + " processes");
+        this.rank = rank;
+        this.ranks = ranks;
+
+        if (!DecisionParams.PARALLELISE_SOLUTIONS) {
+            this.threads = 1;
+            pool = null;
+        } else {
+            this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+            pool = new ForkJoinPool(this.threads);
+        }
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO SOLVE ALL FEASIBLE STATE COMBINATIONS FOR AGE INDEX aa
+     * @param grids refers to the look-up table that stores IO solutions (the 'grids')
+     * @param aa age index of slice to solve
+     * @param imperfectMatchStore store for imperfect tax database matches, by index within age slice
+     * @return statistics describing the age slice
+     */
+    public AgeStatistics solveAge(Grids grids, int aa, List<Matches> imperfectMatchStore) {
+
+        // set age specific working variables
+        int innerDimension = (int)grids.scale.gridDimensions[aa][0];
+        int outerDimension = (int)grids.scale.gridDimensions[aa][1];
+        int ageYears = aa + Parameters.AGE_TO_BECOME_RESPONSIBLE;
+        AgeStatistics statistics = new AgeStatistics(ageYears, (long)innerDimension * outerDimension);
+
+        // screen state combinations
+        SolveTelemetry.drain(null);     // discard any records made outside of the solution
+        long start = System.nanoTime();
+        ExpectationsCache cache = (DecisionParams.MEMOISE_EXPECTATIONS) ? new ExpectationsCache() : null;
+        statistics.expectationsCache = cache;
+        TaxBenefitTable taxBenefitTable = (DecisionParams.tabulateTaxBenefits) ? new TaxBenefitTable() : null;
+        statistics.taxBenefitTable = taxBenefitTable;
+        OuterWork[] outerWork = new OuterWork[outerDimension];
+        IntStream outerStream = IntStream.range(0, outerDimension);
+        if (pool != null) {
+            pool.submit(() -> outerStream.parallel().forEach(iiOuter -> outerWork[iiOuter] = screen(grids.scale, ageYears, iiOuter, innerDimension, cache, taxBenefitTable))).join();
+        } else {
+            outerStream.forEach(iiOuter -> outerWork[iiOuter] = screen(grids.scale, ageYears, iiOuter, innerDimension, cache, taxBenefitTable));
+        }
+        statistics.screenSeconds = (System.nanoTime() - start) / 1.0E9;
+
+        // define work units
+        long feasible = 0;
+        for (OuterWork work : outerWork) {
+            if (work != null) feasible += work.inner.length;
+        }
+        int unitSize = (int)Math.max(MIN_UNIT_SIZE, feasible / ((long)threads * ranks * UNITS_PER_THREAD));
+        long shareStart = feasible * rank / ranks;
+        long shareEnd = feasible * (rank + 1) / ranks;
+        long position = 0;
+        List<WorkUnit> units = new ArrayList<>();
+        for (OuterWork work : outerWork) {
+            if (work != null) {
+                int to;
+                for (int from=0; from<work.inner.length; from=to) {
+                    to = Math.min(from + unitSize, work.inner.length);
+                    while (to < work.inner.length && work.isWarmStarted(to)) to++;
+                    // units are allocated to the process whose share includes their first state combination
+                    if (position >= shareStart && position < shareEnd) {
+                        WorkUnit unit = new WorkUnit(work, from, to);
+                        work.unitsPending++;
+                        units.add(unit);
+                        statistics.statesSolved += unit.to - unit.from;
+                    }
+                    position += to - from;
+                }
+            }
+        }
+        statistics.statesShared = feasible - statistics.statesSolved;
+        statistics.workUnits = units.size();
+
+        // solve
+        start = System.nanoTime();
+        if (pool != null) {
+            pool.invoke(new SolveTask(grids, units, 0, units.size(), imperfectMatchStore));
+        } else {
+            for (WorkUnit unit : units) unit.solve(grids, imperfectMatchStore, false);
+        }
+        statistics.solveSeconds = (System.nanoTime() - start) / 1.0E9;
+        for (WorkUnit unit : units) statistics.functionEvaluations += unit.functionEvaluations;
+        SolveTelemetry.drain(statistics);
+        return statistics;
+    }
+
+    /**
+     * METHOD TO RELEASE THREADS HELD BY SCHEDULER
+     */
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    public int getThreads() { return threads; }
+
+    /**
+     * METHOD TO IDENTIFY FEASIBLE INNER STATE COMBINATIONS FOR AN OUTER STATE COMBINATION
+     * @return description of outer state combination, or null if the outer state combination is infeasible
+     */
+    private static OuterWork screen(GridScale scale, int ageYears, int iiOuter, int innerDimension, ExpectationsCache cache,
+                                    TaxBenefitTable taxBenefitTable) {
+
+        // identify current state combination for outer states
+        States outerStates = new States(scale, ageYears);
+        outerStates.populateOuterGridStates(iiOuter);
+        if (!outerStates.checkOuterStateCombination()) return null;
+
+        // identify feasible inner states
+        int[] inner = new int[innerDimension];
+        int feasible = 0;
+        for (int iiInner=0; iiInner<innerDimension; iiInner++) {
+            States currentStates = new States(outerStates);
+            currentStates.populateInnerGridStates(iiInner);
+            if (currentStates.checkStateCombination()) inner[feasible++] = iiInner;
+        }
+        if (feasible == 0) return null;
+
+        int wealthPoints = (DecisionParams.warmStartConsumption) ?
+                (int)Math.round(scale.axes[outerStates.ageIndex][scale.getIndex(Axis.LiquidWealth, ageYears)][0]) : 0;
+        return new OuterWork(outerStates, cache, taxBenefitTable, Arrays.copyOf(inner, feasible), wealthPoints);
+    }
+
+
+    /**
+     * CLASS TO STORE FEASIBLE STATE COMBINATIONS ASSOCIATED WITH AN OUTER STATE COMBINATION
+     */
+    static class OuterWork {
+
+        final States outerStates;               // outer state combination
+        final ExpectationsCache cache;          // memoised expectations for age (may be null)
+        final TaxBenefitTable taxBenefitTable;  // tabulated tax donor imputations for age (may be null)
+        final int[] inner;                      // indices of feasible inner state combinations
+        final int wealthPoints;                 // liquid wealth grid points (0 if consumption is not warm started)
+        int unitsPending;                       // work units of this process not yet complete
+        private Expectations outerExpectations; // expectations for outer states not affected by agent decisions (null if no units in progress)
+
+        OuterWork(States outerStates, ExpectationsCache cache, TaxBenefitTable taxBenefitTable, int[] inner, int wealthPoints) {
+            this.outerStates = outerStates;
+            this.cache = cache;
+            this.taxBenefitTable = taxBenefitTable;
+            this.inner = inner;
+            this.wealthPoints = wealthPoints;
+        }
+
+        /**
+         * METHOD TO RETURN THE EXPECTATIONS FOR OUTER STATES, EVALUATING THEM IF NO WORK UNIT IS IN PROGRESS
+         */
+        synchronized Expectations acquireExpectations() {
+            if (outerExpectations == null) {
+                outerExpectations = new Expectations(outerStates);
+                outerExpectations.cache = cache;
+                outerExpectations.taxBenefitTable = taxBenefitTable;
+            }
+            return outerExpectations;
+        }
+
+        /**
+         * METHOD TO RECORD COMPLETION OF A WORK UNIT, RELEASING THE EXPECTATIONS FOR OUTER STATES AFTER THE LAST UNIT
+         */
+        synchronized void completeUnit() {
+            if (--unitsPending == 0)
+                outerExpectations = null;
+        }
+
+        /**
+         * METHOD TO IDENTIFY WHETHER inner[ii] IS WARM STARTED FROM THE SOLUTION FOR inner[ii-1]
+         * (liquid wealth is the first, and fastest varying, inner state)
+         */
+        boolean isWarmStarted(int ii) {
+            return wealthPoints > 1 && ii > 0 && inner[ii] % wealthPoints != 0 && inner[ii-1] == inner[ii] - 1;
+        }
+    }
+
+    /**
+     * CLASS TO DEFINE A CONTIGUOUS BLOCK OF FEASIBLE INNER STATE COMBINATIONS FOR AN OUTER STATE COMBINATION
+     */
+    static class WorkUnit {
+
+        final OuterWork outer;
+        final int from, to;     // range of outer.inner to solve
+        long functionEvaluations;   // utility function evaluations used to solve unit
+
+        WorkUnit(OuterWork outer, int from, int to) {
+            this.outer = outer;
+            this.from = from;
+            this.to = to;
+        }
+
+        void solve(Grids grids, List<Matches> imperfectMatchStore, boolean parallelControls) {
+            Expectations outerExpectations = outer.acquireExpectations();
+            try {
+                States previousStates = null;
+                for (int ii=from; ii<to; ii++) {
+                    States currentStates = new States(outer.outerStates);
+                    currentStates.populateInnerGridStates(outer.inner[ii]);
+                    double consumptionShareGuess = (ii > from && outer.isWarmStarted(ii)) ?
+                            grids.getConsumptionShare(previousStates) : Double.NaN;
+                    functionEvaluations += ManagerSolveState.run(grids, currentStates, outerExpectations,
+                            consumptionShareGuess, imperfectMatchStore, parallelControls);
+                    previousStates = currentStates;
+                }
+            } finally {
+                outer.completeUnit();
+            }
+        }
+    }
+
+    /**
+     * CLASS TO SOLVE A RANGE OF WORK UNITS, SPLITTING THE RANGE TO FACILITATE WORK STEALING
+     */
+    static class SolveTask extends RecursiveAction {
+
+        final Grids grids;
+        final List<WorkUnit> units;
+        final int from, to;
+        final List<Matches> imperfectMatchStore;
+
+        SolveTask(Grids grids, List<WorkUnit> units, int from, int to, List<Matches> imperfectMatchStore) {
+            this.grids = grids;
+            this.units = units;
+            this.from = from;
+            this.to = to;
+            this.imperfectMatchStore = imperfectMatchStore;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) units.get(from).solve(grids, imperfectMatchStore, DecisionParams.PARALLELISE_DISCRETE_CONTROLS);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SolveTask(grids, units, from, mid, imperfectMatchStore),
+                        new SolveTask(grids, units, mid, to, imperfectMatchStore));
+            }
+        }
+    }
+
+    /**
+     * CLASS TO REPORT WORK DONE TO SOLVE AN AGE SLICE
+     */
+    public static class AgeStatistics {
+
+        final int ageYears;
+        final long statesTotal;         // state combinations described by grids
+        long statesSolved;              // feasible state combinations solved
+        long statesShared;              // feasible state combinations solved by other processes
+        int workUnits;                  // number of work units scheduled
+        double screenSeconds;           // time spent screening state combinations
+        double solveSeconds;            // time spent solving feasible state combinations
+        long functionEvaluations;       // utility function evaluations used to solve feasible state combinations
+        ExpectationsCache expectationsCache;    // memoised expectations for age (null if expectations are not memoised)
+        TaxBenefitTable taxBenefitTable;        // tabulated tax donor imputations for age (null if imputations are exact)
+        long[] counts = new long[SolveTelemetry.Counter.values().length];   // see SolveTelemetry.Counter
+        double[] phaseSeconds;          // thread time spent in each SolveTelemetry.Phase (null if not timed)
+
+        AgeStatistics(int ageYears, long statesTotal) {
+            this.ageYears = ageYears;
+            this.statesTotal = statesTotal;
+        }
+
+        public long getStatesSolved() { return statesSolved; }
+        public long getStatesSkipped() { return statesTotal - statesSolved - statesShared; }
+        public double getStatesPerSecond() { return (solveSeconds > 0.0) ? statesSolved / solveSeconds : 0.0; }
+        public int getAgeYears() { return ageYears; }
+        public long getFunctionEvaluations() { return functionEvaluations; }
+        public double getEvaluationsPerState() { return (statesSolved > 0) ? (double)functionEvaluations / statesSolved : 0.0; }
+        public TaxBenefitTable getTaxBenefitTable() { return taxBenefitTable; }
+        public double getExpectationsCacheHitRate() { return (expectationsCache != null) ? expectationsCache.getHitRate() : 0.0; }
+        public long getCount(SolveTelemetry.Counter counter) { return counts[counter.ordinal()]; }
+        public double getPhaseSeconds(SolveTelemetry.Phase phase) { return (phaseSeconds != null) ? phaseSeconds[phase.ordinal()] : 0.0; }
+
+        @Override
+        public String toString() {
+            return statesSolved + " states solved (" + getStatesSkipped() + " skipped" +
+                    ((statesShared > 0) ? ", " + statesShared + " solved by other processes" : "") + ") in " + workUnits +
+                    " work units; screening " + String.format("%.3f", screenSeconds) + " seconds; solving " +
+                    String.format("%.3f", solveSeconds) + " seconds (" + String.format("%.1f", getStatesPerSecond()) + " states/sec, " +
+                    getCount(SolveTelemetry.Counter.UtilityMaximisations) + " utility maximisations, " +
+                    String.format("%.1f", getEvaluationsPerState()) + " utility evaluations/state)" +
+                    ((getCount(SolveTelemetry.Counter.ImperfectTaxMatches) > 0) ?
+                            "; " + getCount(SolveTelemetry.Counter.ImperfectTaxMatches) + " imperfect tax matches" : "") +
+                    ((phaseSeconds != null) ? "; thread seconds in regressions " + String.format("%.3f", getPhaseSeconds(SolveTelemetry.Phase.Regressions)) +
+                            ", tax imputation " + String.format("%.3f", getPhaseSeconds(SolveTelemetry.Phase.TaxImputation)) +
+                            ", interpolation " + String.format("%.3f", getPhaseSeconds(SolveTelemetry.Phase.Interpolation)) : "") +
+                    ((expectationsCache != null) ? "; " + expectationsCache : "") +
+                    ((taxBenefitTable != null) ? "; " + taxBenefitTable : "");
+        }
+    }
+}
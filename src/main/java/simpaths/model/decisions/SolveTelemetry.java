@@ -0,0 +1,253 @@
+package simpaths.model.decisions;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ *
+ * CLASS TO RECORD WHERE TIME IS SPENT SOLVING THE GRIDS
+ *
+ * EACH SOLVER THREAD RECORDS THE TIME THAT IT SPENDS IN EACH Phase (EXCLUSIVE OF TIME SPENT IN NESTED PHASES), AND
+ * COUNTS OF SELECTED EVENTS (SEE Counter), IN ITS OWN Recorder, SO THAT RECORDING DOES NOT CONTEND BETWEEN THREADS.
+ * THE RECORDERS ARE DRAINED INTO SolveScheduler.AgeStatistics AFTER EACH AGE IS SOLVED, WHEN ALL SOLVER THREADS
+ * ARE IDLE. RECORDERS ARE RELEASED BY reset AT THE START OF EACH SOLUTION (SEE ManagerSolveGrids), SO THAT THE
+ * RECORDERS OF THREADS OF EARLIER SOLUTIONS ARE NEITHER RETAINED NOR AGGREGATED; A THREAD THAT RECORDS AGAIN AFTER
+ * A RESET REGISTERS A NEW RECORDER.
+ *
+ * COUNTS ARE ALWAYS RECORDED. PHASES ARE ONLY TIMED IF DecisionParams.solverTelemetry, AS EACH PHASE TRANSITION
+ * REQUIRES TWO CALLS TO System.nanoTime; THE SAME FLAG DIRECTS STATISTICS FOR ALL AGES TO BE WRITTEN TO CSV AND
+ * JSON FILES IN THE GRIDS OUTPUT DIRECTORY. STATISTICS FOR EACH AGE ARE ALSO EMITTED AS A JAVA FLIGHT RECORDER
+ * EVENT (simpaths.decisions.SolveAge), WHICH IS RECORDED WHEN A FLIGHT RECORDING IS ACTIVE (E.G. WITH
+ * -XX:StartFlightRecording) AND IS OTHERWISE DISCARDED AT NEGLIGIBLE COST.
+ *
+ */
+public class SolveTelemetry {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final String CSV_FILE = "solver_telemetry.csv";
+    public static final String JSON_FILE = "solver_telemetry.json";
+
+    public enum Phase {
+        Regressions,        // evaluation of regression based expectations for anticipated states
+        TaxImputation,      // imputation of taxes and benefits
+        Interpolation,      // interpolation of the value function for anticipated states
+    }
+
+    public enum Counter {
+        UtilityMaximisations,   // solutions evaluated for discrete control combinations
+        ImperfectTaxMatches,    // tax imputations from donors that did not match all characteristics
+    }
+
+    private static final Queue<Recorder> RECORDERS = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Recorder> RECORDER = new ThreadLocal<>();
+    private static volatile int generation;         // incremented by reset, to expire recorders of earlier solutions
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO RELEASE THE RECORDERS OF ALL THREADS, AT THE START OF A SOLUTION
+     * Must only be called while no solver threads are recording
+     */
+    static void reset() {
+        generation++;
+        RECORDERS.clear();
+    }
+
+    /**
+     * METHOD TO RETURN THE RECORDER OF THE CURRENT THREAD, REGISTERING A NEW RECORDER IF NONE SINCE THE LAST RESET
+     */
+    private static Recorder recorder() {
+        Recorder recorder = RECORDER.get();
+        if (recorder == null || recorder.generation != generation) {
+            recorder = new Recorder(generation);
+            RECORDER.set(recorder);
+            RECORDERS.add(recorder);
+        }
+        return recorder;
+    }
+
+    static int getNumberOfRecorders() {
+        return RECORDERS.size();
+    }
+
+    /**
+     * METHOD TO START TIMING A PHASE ON THE CURRENT THREAD
+     * @return phase interrupted (to be passed to exit)
+     */
+    static Phase enter(Phase phase) {
+        if (!DecisionParams.solverTelemetry) return null;
+        return recorder().enter(phase);
+    }
+
+    /**
+     * METHOD TO STOP TIMING THE CURRENT PHASE ON THE CURRENT THREAD, RESUMING THE PHASE THAT IT INTERRUPTED
+     * @param previous phase returned by the matching call to enter
+     */
+    static void exit(Phase previous) {
+        if (!DecisionParams.solverTelemetry) return;
+        recorder().exit(previous);
+    }
+
+    static void count(Counter counter) {
+        recorder().counts[counter.ordinal()]++;
+    }
+
+    /**
+     * METHOD TO COLLECT AND RESET THE RECORDS OF ALL THREADS
+     * Must only be called while no solver threads are recording
+     * @param statistics object to update
+     */
+    static void drain(SolveScheduler.AgeStatistics statistics) {
+
+        double[] phaseSeconds = new double[Phase.values().length];
+        long[] counts = new long[Counter.values().length];
+        for (Recorder recorder : RECORDERS) {
+            for (int ii = 0; ii < phaseSeconds.length; ii++) {
+                phaseSeconds[ii] += recorder.nanos[ii] / 1.0E9;
+                recorder.nanos[ii] = 0;
+            }
+            for (int ii = 0; ii < counts.length; ii++) {
+                counts[ii] += recorder.counts[ii];
+                recorder.counts[ii] = 0;
+            }
+        }
+        if (statistics != null) {
+            statistics.phaseSeconds = (DecisionParams.solverTelemetry) ? phaseSeconds : null;
+            statistics.counts = counts;
+        }
+    }
+
+    /**
+     * METHOD TO EMIT STATISTICS FOR AN AGE AS A FLIGHT RECORDER EVENT
+     * @param event event begun before the age was solved
+     */
+    static void commit(AgeEvent event, SolveScheduler.AgeStatistics statistics) {
+
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.age = statistics.ageYears;
+        event.statesSolved = statistics.statesSolved;
+        event.statesSkipped = statistics.getStatesSkipped();
+        event.utilityMaximisations = statistics.getCount(Counter.UtilityMaximisations);
+        event.functionEvaluations = statistics.functionEvaluations;
+        event.imperfectTaxMatches = statistics.getCount(Counter.ImperfectTaxMatches);
+        event.regressionSeconds = statistics.getPhaseSeconds(Phase.Regressions);
+        event.taxImputationSeconds = statistics.getPhaseSeconds(Phase.TaxImputation);
+        event.interpolationSeconds = statistics.getPhaseSeconds(Phase.Interpolation);
+        event.commit();
+    }
+
+    /**
+     * METHOD TO WRITE STATISTICS FOR ALL AGES SOLVED TO CSV AND JSON FILES
+     * Times by phase are summed over threads
+     */
+    static void write(List<SolveScheduler.AgeStatistics> statistics, String directory) {
+
+        String[] header = {"age", "statesTotal", "statesSolved", "statesSkipped", "statesShared", "workUnits",
+                "utilityMaximisations", "functionEvaluations", "imperfectTaxMatches", "expectationsCacheHitRate",
+                "screenSeconds", "solveSeconds", "regressionThreadSeconds", "taxImputationThreadSeconds",
+                "interpolationThreadSeconds"};
+        File dir = new File(directory);
+        if (!dir.exists()) dir.mkdirs();
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader(header).build();
+        try (BufferedWriter csvWriter = Files.newBufferedWriter(Paths.get(directory, CSV_FILE));
+             CSVPrinter printer = new CSVPrinter(csvWriter, csvFormat);
+             BufferedWriter jsonWriter = Files.newBufferedWriter(Paths.get(directory, JSON_FILE))) {
+            jsonWriter.write("[");
+            for (int aa = 0; aa < statistics.size(); aa++) {
+                SolveScheduler.AgeStatistics ageStatistics = statistics.get(aa);
+                Object[] values = {ageStatistics.ageYears, ageStatistics.statesTotal, ageStatistics.statesSolved,
+                        ageStatistics.getStatesSkipped(), ageStatistics.statesShared, ageStatistics.workUnits,
+                        ageStatistics.getCount(Counter.UtilityMaximisations), ageStatistics.functionEvaluations,
+                        ageStatistics.getCount(Counter.ImperfectTaxMatches), ageStatistics.getExpectationsCacheHitRate(),
+                        ageStatistics.screenSeconds, ageStatistics.solveSeconds,
+                        ageStatistics.getPhaseSeconds(Phase.Regressions), ageStatistics.getPhaseSeconds(Phase.TaxImputation),
+                        ageStatistics.getPhaseSeconds(Phase.Interpolation)};
+                printer.printRecord(values);
+                jsonWriter.write((aa == 0) ? "\n  {" : ",\n  {");
+                for (int ii = 0; ii < header.length; ii++) {
+                    if (ii > 0) jsonWriter.write(", ");
+                    jsonWriter.write("\"" + header[ii] + "\": " + values[ii]);
+                }
+                jsonWriter.write("}");
+            }
+            jsonWriter.write("\n]\n");
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to write solver telemetry: " + ioe.getMessage(), ioe);
+        }
+    }
+
+
+    /**
+     * CLASS TO RECORD TIMES AND COUNTS FOR A SINGLE THREAD
+     */
+    private static class Recorder {
+
+        final int generation;   // generation of telemetry in which recorder was registered
+        final long[] nanos = new long[Phase.values().length];
+        final long[] counts = new long[Counter.values().length];
+        Phase current;      // phase currently timed (null if none)
+        long start;         // time at which current phase was entered or resumed
+
+        Recorder(int generation) {
+            this.generation = generation;
+        }
+
+        Phase enter(Phase phase) {
+            long now = System.nanoTime();
+            if (current != null) nanos[current.ordinal()] += now - start;
+            Phase previous = current;
+            current = phase;
+            start = now;
+            return previous;
+        }
+
+        void exit(Phase previous) {
+            long now = System.nanoTime();
+            if (current != null) nanos[current.ordinal()] += now - start;
+            current = previous;
+            start = now;
+        }
+    }
+
+    /**
+     * FLIGHT RECORDER EVENT DESCRIBING THE SOLUTION OF AN AGE SLICE OF THE GRIDS
+     */
+    @Name("simpaths.decisions.SolveAge")
+    @Label("Solve Age")
+    @Category({"SimPaths", "Decisions"})
+    static class AgeEvent extends Event {
+
+        @Label("Age") int age;
+        @Label("States Solved") long statesSolved;
+        @Label("States Skipped") long statesSkipped;
+        @Label("Utility Maximisations") long utilityMaximisations;
+        @Label("Function Evaluations") long functionEvaluations;
+        @Label("Imperfect Tax Matches") long imperfectTaxMatches;
+        @Label("Regression Thread Seconds") double regressionSeconds;
+        @Label("Tax Imputation Thread Seconds") double taxImputationSeconds;
+        @Label("Interpolation Thread Seconds") double interpolationSeconds;
+    }
+}
@@ -0,0 +1,248 @@
+package simpaths.model.decisions;
+
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import simpaths.data.Parameters;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *
+ * CLASS TO ADAPT THE GRID POINTS OF CONTINUOUS STATES TO THE CURVATURE OF THE VALUE FUNCTION
+ *
+ * BY DEFAULT, THE GRID POINTS OF EACH CONTINUOUS STATE ARE EVENLY SPACED BETWEEN THE AXIS MINIMUM AND MAXIMUM. THE
+ * ERROR OF LINEAR INTERPOLATION BETWEEN GRID POINTS IS PROPORTIONAL TO THE CURVATURE OF THE INTERPOLATED FUNCTION
+ * TIMES THE SQUARE OF THE SPACING OF THE POINTS, SO THAT EVENLY SPACED POINTS ARE WASTED WHERE THE VALUE FUNCTION IS
+ * CLOSE TO LINEAR (E.G. AT HIGH WEALTH) AND ARE SPARSE WHERE IT IS STRONGLY CURVED (E.G. NEAR THE CREDIT CONSTRAINT).
+ *
+ * NODES ARE DERIVED HERE FROM A SOLVED VALUE FUNCTION BY EQUIDISTRIBUTING THE SQUARE ROOT OF ITS MEAN ABSOLUTE
+ * CURVATURE ALONG A STATE (AVERAGED OVER ALL OTHER STATE COMBINATIONS AT EACH AGE), WHICH EQUALISES THE INTERPOLATION
+ * ERROR BETWEEN ADJACENT NODES. A FLOOR ON THE NODE DENSITY (DENSITY_FLOOR) RETAINS COVERAGE OF THE FULL DOMAIN. THE
+ * NUMBER OF NODES NEED NOT MATCH THE NUMBER OF EVENLY SPACED POINTS, SO THAT A COMPARABLE APPROXIMATION CAN BE
+ * OBTAINED WITH FEWER POINTS (AND HENCE SMALLER GRIDS) THAN THE EVENLY SPACED DEFAULT.
+ *
+ * WHERE DecisionParams.stateNodesFile IS SET, GridScale DESCRIBES THE STATES BY THE NODES SAVED TO THE FILE IF IT
+ * EXISTS. OTHERWISE THE GRIDS ARE SOLVED FOR EVENLY SPACED POINTS, AND NODES FOR LIQUID WEALTH ARE DERIVED FROM THE
+ * SOLUTION AND SAVED TO THE FILE FOR USE BY SUBSEQUENT SIMULATIONS. GRIDS SOLVED FOR DIFFERENT NODES DESCRIBE
+ * DIFFERENT STATE SPACES, AND ARE DISTINGUISHED BY GridScale.fingerprint.
+ *
+ */
+public class StateNodes {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final double DENSITY_FLOOR = 0.1;       // minimum node density, relative to the mean density implied by curvature
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO DERIVE NODES FOR LIQUID WEALTH AT ALL AGES FROM A SOLVED VALUE FUNCTION
+     * The number of nodes at each age is set by DecisionParams.PTS_ADAPTIVE_LIQUID_WEALTH_WKG and
+     * DecisionParams.PTS_ADAPTIVE_LIQUID_WEALTH_RTD
+     * @param grids solved grids
+     * @return nodes by age (years) and state
+     */
+    public static Map<Integer, Map<Axis, double[]>> derive(Grids grids) {
+
+        GridScale scale = grids.scale;
+        Map<Integer, Map<Axis, double[]>> nodes = new LinkedHashMap<>();
+        for (int aa = 0; aa < scale.simLifeSpan; aa++) {
+            int ageYears = aa + Parameters.AGE_TO_BECOME_RESPONSIBLE;
+            int points = (ageYears <= DecisionParams.maxAgeFlexibleLabourSupply) ?
+                    DecisionParams.PTS_ADAPTIVE_LIQUID_WEALTH_WKG : DecisionParams.PTS_ADAPTIVE_LIQUID_WEALTH_RTD;
+            int ii = scale.getIndex(Axis.LiquidWealth, ageYears);
+            Map<Axis, double[]> ageNodes = new LinkedHashMap<>();
+            ageNodes.put(Axis.LiquidWealth, derive(grids.valueFunction, aa, ii, points));
+            nodes.put(ageYears, ageNodes);
+        }
+        return nodes;
+    }
+
+    /**
+     * METHOD TO DERIVE NODES FOR A CONTINUOUS INNER STATE AT A GIVEN AGE FROM THE CURVATURE OF A SOLVED GRID
+     * @param grid solved grid (e.g. value function)
+     * @param aa age index
+     * @param ii index of state in axes
+     * @param points number of nodes to derive
+     * @return strictly increasing nodes spanning the domain of the state
+     */
+    public static double[] derive(Grid grid, int aa, int ii, int points) {
+
+        GridScale scale = grid.scale;
+        int nn = (int)Math.round(scale.axes[aa][ii][0]);
+        double[] xx = new double[nn];
+        for (int kk = 0; kk < nn; kk++) {
+            xx[kk] = scale.node(aa, ii, kk);
+        }
+
+        // mean absolute curvature at each grid point, over all other state combinations
+        double[] curvature = new double[nn];
+        long[] count = new long[nn];
+        long stride = scale.strides[aa][ii];
+        long start = scale.gridDimensions[aa][3];
+        long sliceSize = scale.gridDimensions[aa][2];
+        for (long ll = 0; ll < sliceSize; ll++) {
+            int kk = (int)((ll / stride) % nn);
+            if (kk == 0 || kk == nn - 1) continue;
+            double v0 = grid.get(start + ll - stride);
+            double v1 = grid.get(start + ll);
+            double v2 = grid.get(start + ll + stride);
+            if (!isSolved(v0) || !isSolved(v1) || !isSolved(v2)) continue;
+            double slopeLow = (v1 - v0) / (xx[kk] - xx[kk-1]);
+            double slopeHigh = (v2 - v1) / (xx[kk+1] - xx[kk]);
+            curvature[kk] += Math.abs(2.0 * (slopeHigh - slopeLow) / (xx[kk+1] - xx[kk-1]));
+            count[kk]++;
+        }
+
+        // node density proportional to square root of curvature
+        double[] density = new double[nn];
+        for (int kk = 1; kk < nn - 1; kk++) {
+            density[kk] = (count[kk] > 0) ? Math.sqrt(curvature[kk] / count[kk]) : 0.0;
+        }
+        if (nn > 2) {
+            density[0] = density[1];
+            density[nn-1] = density[nn-2];
+        }
+        double[] cumulative = cumulate(xx, density);
+        double mean = cumulative[nn-1] / (xx[nn-1] - xx[0]);
+        if (!(mean > 0.0) || !Double.isFinite(mean)) {
+            // no curvature identified - evenly spaced nodes
+            mean = 1.0;
+            Arrays.fill(density, 0.0);
+        }
+        for (int kk = 0; kk < nn; kk++) {
+            density[kk] += DENSITY_FLOOR * mean;
+        }
+        cumulative = cumulate(xx, density);
+
+        // equidistribute cumulative density between nodes
+        double[] nodes = new double[points];
+        nodes[0] = xx[0];
+        nodes[points-1] = xx[nn-1];
+        int kk = 0;
+        for (int jj = 1; jj < points - 1; jj++) {
+            double target = cumulative[nn-1] * jj / (points - 1);
+            while (cumulative[kk+1] < target) kk++;
+            nodes[jj] = xx[kk] + (target - cumulative[kk]) / (cumulative[kk+1] - cumulative[kk]) * (xx[kk+1] - xx[kk]);
+        }
+        return nodes;
+    }
+
+    private static double[] cumulate(double[] xx, double[] density) {
+        double[] cumulative = new double[xx.length];
+        for (int kk = 1; kk < xx.length; kk++) {
+            cumulative[kk] = cumulative[kk-1] + 0.5 * (density[kk-1] + density[kk]) * (xx[kk] - xx[kk-1]);
+        }
+        return cumulative;
+    }
+
+    private static boolean isSolved(double value) {
+        return Double.isFinite(value) && Math.abs(value - DecisionParams.GRID_DEFAULT_VALUE) > 1.0E-10;
+    }
+
+    /**
+     * METHOD TO DESCRIBE THE STATES OF A GRID SCALE BY NODES
+     * @param scale grid scale to update
+     * @param nodes nodes by age (years) and state
+     */
+    public static void apply(GridScale scale, Map<Integer, Map<Axis, double[]>> nodes) {
+
+        for (Map.Entry<Integer, Map<Axis, double[]>> age : nodes.entrySet()) {
+            int ageYears = age.getKey();
+            int aa = ageYears - Parameters.AGE_TO_BECOME_RESPONSIBLE;
+            if (aa < 0 || aa >= scale.simLifeSpan)
+                throw new RuntimeException("state nodes supplied for age " + ageYears + " outside of the ages described by grids");
+            for (Map.Entry<Axis, double[]> state : age.getValue().entrySet()) {
+                int ii = scale.getIndex(state.getKey(), ageYears);
+                if (ii < 0)
+                    throw new RuntimeException("state nodes supplied for " + state.getKey() + " at age " + ageYears +
+                            ", which is not a state at this age");
+                scale.setNodes(aa, ii, state.getValue());
+            }
+        }
+    }
+
+    public static boolean exists(String file) {
+        return new File(file).exists();
+    }
+
+    /**
+     * METHOD TO WRITE NODES TO FILE
+     * Values are written at full precision, so that nodes read from file describe the same state space
+     * @param nodes nodes by age (years) and state
+     * @param file path of file to write
+     */
+    public static void write(Map<Integer, Map<Axis, double[]>> nodes, String file) {
+
+        File parent = new File(file).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader("age", "state", "node", "value").build();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file));
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat)) {
+            for (Map.Entry<Integer, Map<Axis, double[]>> age : nodes.entrySet()) {
+                for (Map.Entry<Axis, double[]> state : age.getValue().entrySet()) {
+                    double[] values = state.getValue();
+                    for (int kk = 0; kk < values.length; kk++) {
+                        printer.printRecord(age.getKey(), state.getKey(), kk, Double.toString(values[kk]));
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to write state nodes: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * METHOD TO READ NODES FROM FILE
+     * @param file path of file to read
+     * @return nodes by age (years) and state
+     */
+    public static Map<Integer, Map<Axis, double[]>> read(String file) {
+
+        Path path = Paths.get(file);
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build();
+        Map<Integer, Map<Axis, List<Double>>> values = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path);
+             CSVParser parser = csvFormat.parse(reader)) {
+            for (CSVRecord record : parser) {
+                List<Double> list = values.computeIfAbsent(Integer.parseInt(record.get("age")), k -> new LinkedHashMap<>())
+                        .computeIfAbsent(Axis.valueOf(record.get("state")), k -> new ArrayList<>());
+                if (Integer.parseInt(record.get("node")) != list.size())
+                    throw new RuntimeException("state nodes in " + path + " are not ordered by node");
+                list.add(Double.parseDouble(record.get("value")));
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to read state nodes: " + ioe.getMessage(), ioe);
+        }
+        Map<Integer, Map<Axis, double[]>> nodes = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Map<Axis, List<Double>>> age : values.entrySet()) {
+            Map<Axis, double[]> ageNodes = new LinkedHashMap<>();
+            for (Map.Entry<Axis, List<Double>> state : age.getValue().entrySet()) {
+                ageNodes.put(state.getKey(), state.getValue().stream().mapToDouble(Double::doubleValue).toArray());
+            }
+            nodes.put(age.getKey(), ageNodes);
+        }
+        return nodes;
+    }
+}
@@ -16,7 +16,7 @@ import simpaths.model.BenefitUnit;
 public class States {
 
 
-    final double eps = 1.0E-10;
+    static final double eps = 1.0E-10;
     int ageIndex;           // age index for state
     int ageYears;           // age in years for state
     double[] labStatesContObject;        // vector to store combination of state variables (except age), in order as defined for axes in Grids
@@ -199,9 +199,13 @@ public class States {
                 systemReportError();
                 throw new InvalidParameterException("call to interpolate state under grid minimum");
             } else {
-                iiIndex = (labStatesContObject[ii] - scale.axes[ageIndex][ii][1]) /
-                        (scale.axes[ageIndex][ii][2] - scale.axes[ageIndex][ii][1]) *
-                        (scale.axes[ageIndex][ii][0] - 1.0);
+                if (scale.nodes[ageIndex][ii] != null) {
+                    iiIndex = scale.position(ageIndex, ii, labStatesContObject[ii]);
+                } else {
+                    iiIndex = (labStatesContObject[ii] - scale.axes[ageIndex][ii][1]) /
+                            (scale.axes[ageIndex][ii][2] - scale.axes[ageIndex][ii][1]) *
+                            (scale.axes[ageIndex][ii][0] - 1.0);
+                }
                 index += iiCounter * (long)(iiIndex+eps);
             }
             iiCounter *= (int)scale.axes[ageIndex][ii][0];
@@ -272,7 +276,11 @@ public class States {
             } else {
                 xxStep = 0;
             }
-            labStatesContObject[ii] = xxxMin + xxStep * counters[ii];
+            if (scale.nodes[ageIndex][ii] != null) {
+                labStatesContObject[ii] = scale.nodes[ageIndex][ii][counters[ii]];
+            } else {
+                labStatesContObject[ii] = xxxMin + xxStep * counters[ii];
+            }
         }
     }
 
@@ -951,6 +959,25 @@ public class States {
         }
     }
 
+    /**
+     * METHOD TO DESCRIBE THE STATE COMBINATION, AS GRID VALUES LABELLED BY AXIS
+     */
+    public String describe() {
+
+        int numberStates = (int)(scale.gridDimensions[ageIndex][4] + scale.gridDimensions[ageIndex][5]);
+        String[] labels = new String[numberStates];
+        for (Axis axis : Axis.values()) {
+            int ii = scale.getIndex(axis, ageYears);
+            if (axis != Axis.Child && ii >= 0 && ii < numberStates) labels[ii] = axis.name();
+        }
+        StringBuilder description = new StringBuilder("age " + ageYears + ":");
+        for (int ii = 0; ii < numberStates; ii++) {
+            description.append(" ").append((labels[ii] != null) ? labels[ii] : Axis.Child.name()).append("=")
+                    .append(String.format("%.4g", labStatesContObject[ii]));
+        }
+        return description.toString();
+    }
+
     public void systemReportError() {
         systemReportError(-1);
     }
@@ -0,0 +1,310 @@
+package simpaths.model.decisions;
+
+
+import simpaths.model.TaxEvaluation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *
+ * CLASS TO APPROXIMATE DISPOSABLE INCOME IMPUTED FROM TAX DONORS BY INTERPOLATING OVER TABULATED IMPUTATIONS
+ *
+ * THE IO SOLUTION EVALUATES TAXES AND BENEFITS (Expectations.taxBenefitFunction) FOR EVERY STATE COMBINATION AND
+ * DISCRETE CONTROL. MANY OF THESE EVALUATIONS DIFFER ONLY IN ORIGINAL INCOME (E.G. ALONG THE WEALTH, PENSION, AND WAGE
+ * DIMENSIONS OF THE GRIDS), WHILE ALL OTHER CHARACTERISTICS CONSIDERED BY THE DONOR IMPUTATION ARE COMMON.
+ *
+ * A TABLE IS THEREFORE DEFINED FOR EACH COMBINATION OF THE CHARACTERISTICS OTHER THAN INCOME (YEAR, AGE, HOUSEHOLD
+ * COMPOSITION, HOURS OF WORK, DISABILITY, CARE PROVISION, AND CHILDCARE COSTS ROUNDED TO CHILDCARE_STEP, WHICH ARE
+ * OTHERWISE CONTINUOUS AND WOULD DEFINE A TABLE FOR ALMOST EVERY QUERY), OVER A DENSE GRID OF ORIGINAL INCOME
+ * (UNIFORM ON AN ASINH SCALE) AND, FOR COUPLES, THE SHARE OF ORIGINAL INCOME ATTRIBUTED TO THE SECOND EARNER. TABLE
+ * NODES ARE EVALUATED BY THE FULL DONOR IMPUTATION WHEN FIRST REQUIRED, AND QUERIES ARE ANSWERED BY LINEAR
+ * INTERPOLATION BETWEEN NODES. INCOMES OUTSIDE THE TABULATED RANGE ARE EVALUATED EXACTLY.
+ *
+ * ONE IN EVERY VALIDATION_INTERVAL QUERIES IS ALSO EVALUATED EXACTLY, TO REPORT THE DEVIATIONS INTRODUCED BY THE
+ * APPROXIMATION (SEE Validation)
+ *
+ * EACH QUERY INTERPOLATES BETWEEN 2 NODES FOR SINGLE ADULTS, AND 4 FOR COUPLES, SO THAT THE TABLE ONLY SAVES TIME
+ * WHERE A TABLE IS QUERIED MORE OFTEN THAN IT HAS NODES EVALUATED (SEE DecisionBenchmarks.taxBenefitTable, AND THE
+ * NODES PER QUERY REPORTED IN tax_table_validation.csv)
+ *
+ */
+public class TaxBenefitTable {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final double INCOME_SCALE = 100.0;                   // scale of asinh transformation (per month)
+    static final double MIN_INCOME_PER_MONTH = -5000.0;         // lower bound of tabulated original income
+    static final double MAX_INCOME_PER_MONTH = 50000.0;         // upper bound of tabulated original income
+    static final int INCOME_POINTS = 512;                       // number of tabulated original incomes
+    static final int SHARE_POINTS = 6;                          // number of tabulated second earner shares (between 0 and 0.5)
+    static final double MAX_SHARE = 0.5;
+    static final double CHILDCARE_STEP = 10.0;                  // childcare costs per month are rounded to multiples of this step
+    static final int VALIDATION_INTERVAL = 1000;                // one in VALIDATION_INTERVAL queries is evaluated exactly
+    private static final long UNSET = Double.doubleToRawLongBits(Double.NaN);
+    private static final double X_MIN = asinhScaled(MIN_INCOME_PER_MONTH);
+    private static final double X_MAX = asinhScaled(MAX_INCOME_PER_MONTH);
+    private static final double X_STEP = (X_MAX - X_MIN) / (INCOME_POINTS - 1);
+
+    private final Imputation exact;                             // exact imputation, evaluated at nodes and for validation
+    private final Map<Key, Table> tables = new ConcurrentHashMap<>();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder nodesEvaluated = new LongAdder();
+    private final LongAdder exactEvaluations = new LongAdder();
+    private final AtomicLong validationCounter = new AtomicLong();
+    private final Validation validation = new Validation();
+
+
+    /**
+     * INTERFACE FOR EXACT EVALUATION OF DISPOSABLE INCOME PER MONTH (EXCLUDING SOCIAL CARE SUPPORT)
+     * arguments are as supplied to the TaxEvaluation constructor used for expectations
+     */
+    @FunctionalInterface
+    public interface Imputation {
+        double evaluate(int year, int age, int numberAdults, int numberChildrenUnder5, int numberChildren5To9,
+                        int numberChildren10To17, double hoursWorkPerWeek1, double hoursWorkPerWeek2, int disability1,
+                        int disability2, int careProvision, double originalIncomePerMonth, double secondIncomePerMonth,
+                        double childcareCostPerMonth);
+    }
+
+
+    /**
+     * CONSTRUCTORS
+     */
+    public TaxBenefitTable() {
+        this(TaxBenefitTable::evaluateDonorImputation);
+    }
+
+    /**
+     * @param exact exact imputation to tabulate
+     */
+    public TaxBenefitTable(Imputation exact) {
+        this.exact = exact;
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO APPROXIMATE DISPOSABLE INCOME IMPUTED FROM TAX DONORS (EXCLUDING SOCIAL CARE SUPPORT)
+     *
+     * arguments are as supplied to the TaxEvaluation constructor used for expectations
+     * @return imputed disposable income per month
+     */
+    public double getImputedDisposableIncomePerMonth(int year, int age, int numberAdults, int numberChildrenUnder5,
+                                                     int numberChildren5To9, int numberChildren10To17, double hoursWorkPerWeek1,
+                                                     double hoursWorkPerWeek2, int disability1, int disability2, int careProvision,
+                                                     double originalIncomePerMonth, double secondIncomePerMonth,
+                                                     double childcareCostPerMonth) {
+
+        queries.increment();
+        Key key = new Key(year, age, numberAdults, numberChildrenUnder5, numberChildren5To9, numberChildren10To17,
+                hoursWorkPerWeek1, hoursWorkPerWeek2, disability1, disability2, careProvision,
+                CHILDCARE_STEP * Math.round(childcareCostPerMonth / CHILDCARE_STEP));
+        double result;
+        if (originalIncomePerMonth < MIN_INCOME_PER_MONTH || originalIncomePerMonth > MAX_INCOME_PER_MONTH) {
+            exactEvaluations.increment();
+            return evaluateExact(key, originalIncomePerMonth, secondIncomePerMonth, childcareCostPerMonth);
+        }
+        Table table = tables.computeIfAbsent(key, Table::new);
+
+        // original income reference point
+        double xx = (asinhScaled(originalIncomePerMonth) - X_MIN) / X_STEP;
+        int ix = Math.min((int)xx, INCOME_POINTS - 2);
+        double sx = xx - ix;
+
+        if (table.shares == 1) {
+            result = (1.0 - sx) * table.get(ix, 0) + sx * table.get(ix + 1, 0);
+        } else {
+
+            // second earner share reference point
+            double share = (originalIncomePerMonth > 0.01) ? secondIncomePerMonth / originalIncomePerMonth : 0.0;
+            double yy = Math.max(0.0, Math.min(share, MAX_SHARE)) / MAX_SHARE * (SHARE_POINTS - 1);
+            int iy = Math.min((int)yy, SHARE_POINTS - 2);
+            double sy = yy - iy;
+            result = (1.0 - sy) * ((1.0 - sx) * table.get(ix, iy) + sx * table.get(ix + 1, iy)) +
+                    sy * ((1.0 - sx) * table.get(ix, iy + 1) + sx * table.get(ix + 1, iy + 1));
+        }
+
+        // validate sample of queries
+        if (validationCounter.incrementAndGet() % VALIDATION_INTERVAL == 0) {
+            validation.add(result, evaluateExact(key, originalIncomePerMonth, secondIncomePerMonth, childcareCostPerMonth));
+        }
+        return result;
+    }
+
+    public Validation getValidation() { return validation; }
+    public long getQueries() { return queries.sum(); }
+    public long getNodesEvaluated() { return nodesEvaluated.sum(); }
+    public long getExactEvaluations() { return exactEvaluations.sum(); }
+    public int getTables() { return tables.size(); }
+    public double getNodesPerQuery() { return (getQueries() > 0) ? (double)getNodesEvaluated() / getQueries() : 0.0; }
+
+    @Override
+    public String toString() {
+        return "tax-benefit table: " + getQueries() + " queries, " + getNodesEvaluated() + " nodes in " + getTables() +
+                " tables, " + getExactEvaluations() + " outside range; " + validation;
+    }
+
+    private double evaluateExact(Key key, double originalIncomePerMonth, double secondIncomePerMonth, double childcareCostPerMonth) {
+        return exact.evaluate(key.year, key.age, key.numberAdults, key.numberChildrenUnder5, key.numberChildren5To9,
+                key.numberChildren10To17, key.hoursWorkPerWeek1, key.hoursWorkPerWeek2, key.disability1, key.disability2,
+                key.careProvision, originalIncomePerMonth, secondIncomePerMonth, childcareCostPerMonth);
+    }
+
+    private static double evaluateDonorImputation(int year, int age, int numberAdults, int numberChildrenUnder5,
+                                                  int numberChildren5To9, int numberChildren10To17, double hoursWorkPerWeek1,
+                                                  double hoursWorkPerWeek2, int disability1, int disability2, int careProvision,
+                                                  double originalIncomePerMonth, double secondIncomePerMonth,
+                                                  double childcareCostPerMonth) {
+        TaxEvaluation evaluation = new TaxEvaluation(year, age, numberAdults, numberChildrenUnder5, numberChildren5To9,
+                numberChildren10To17, hoursWorkPerWeek1, hoursWorkPerWeek2, disability1, disability2, careProvision,
+                originalIncomePerMonth, secondIncomePerMonth, childcareCostPerMonth, -1.0);
+        return evaluation.getImputedTransfers().getDisposableIncomePerMonth();
+    }
+
+    private static double asinhScaled(double incomePerMonth) {
+        double xx = incomePerMonth / INCOME_SCALE;
+        return Math.log(xx + Math.sqrt(xx * xx + 1.0));
+    }
+
+    static double incomeAtNode(int ix) {
+        return INCOME_SCALE * Math.sinh(X_MIN + ix * X_STEP);
+    }
+
+
+    /**
+     * CLASS TO STORE TABULATED IMPUTATIONS FOR A COMBINATION OF CHARACTERISTICS OTHER THAN INCOME
+     */
+    private class Table {
+
+        final Key key;
+        final int shares;               // number of second earner shares tabulated (1 for single adults)
+        final AtomicLongArray values;   // imputed disposable income per month by node (UNSET until evaluated)
+
+        Table(Key key) {
+            this.key = key;
+            shares = (key.numberAdults > 1) ? SHARE_POINTS : 1;
+            values = new AtomicLongArray(INCOME_POINTS * shares);
+            for (int ii=0; ii<values.length(); ii++) {
+                values.set(ii, UNSET);
+            }
+        }
+
+        double get(int ix, int iy) {
+            int index = iy * INCOME_POINTS + ix;
+            long bits = values.get(index);
+            if (bits == UNSET) {
+                // evaluation is deterministic, so concurrent evaluation of the same node is benign
+                double income = incomeAtNode(ix);
+                double share = (shares > 1) ? MAX_SHARE * iy / (SHARE_POINTS - 1) : 0.0;
+                double value = evaluateExact(key, income, Math.max(0.0, income) * share, key.childcareCostPerMonth);
+                nodesEvaluated.increment();
+                bits = Double.doubleToRawLongBits(value);
+                values.set(index, bits);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+    }
+
+    /**
+     * CLASS TO SUMMARISE DEVIATIONS OF TABULATED APPROXIMATIONS FROM EXACT IMPUTATIONS
+     */
+    public static class Validation {
+
+        long samples;
+        double maxAbsoluteDeviation;        // per month
+        double maxRelativeDeviation;        // relative to the larger of exact disposable income and 1 per month
+        double sumAbsoluteDeviation;
+
+        synchronized void add(double approximate, double exact) {
+            double deviation = Math.abs(approximate - exact);
+            samples++;
+            sumAbsoluteDeviation += deviation;
+            maxAbsoluteDeviation = Math.max(maxAbsoluteDeviation, deviation);
+            maxRelativeDeviation = Math.max(maxRelativeDeviation, deviation / Math.max(1.0, Math.abs(exact)));
+        }
+
+        public synchronized long getSamples() { return samples; }
+        public synchronized double getMaxAbsoluteDeviation() { return maxAbsoluteDeviation; }
+        public synchronized double getMaxRelativeDeviation() { return maxRelativeDeviation; }
+        public synchronized double getMeanAbsoluteDeviation() { return (samples > 0) ? sumAbsoluteDeviation / samples : 0.0; }
+
+        @Override
+        public synchronized String toString() {
+            return samples + " validation samples, max deviation " + String.format("%.2f", maxAbsoluteDeviation) +
+                    " per month (" + String.format("%.2f", 100.0 * maxRelativeDeviation) + "%), mean deviation " +
+                    String.format("%.2f", getMeanAbsoluteDeviation()) + " per month";
+        }
+    }
+
+    /**
+     * CLASS TO IDENTIFY A COMBINATION OF CHARACTERISTICS OTHER THAN INCOME
+     */
+    private static class Key {
+
+        final int year, age, numberAdults, numberChildrenUnder5, numberChildren5To9, numberChildren10To17;
+        final int disability1, disability2, careProvision;
+        final double hoursWorkPerWeek1, hoursWorkPerWeek2;     // discrete labour supply options
+        final double childcareCostPerMonth;                     // rounded to CHILDCARE_STEP
+        final int hash;
+
+        Key(int year, int age, int numberAdults, int numberChildrenUnder5, int numberChildren5To9, int numberChildren10To17,
+            double hoursWorkPerWeek1, double hoursWorkPerWeek2, int disability1, int disability2, int careProvision,
+            double childcareCostPerMonth) {
+            this.year = year;
+            this.age = age;
+            this.numberAdults = numberAdults;
+            this.numberChildrenUnder5 = numberChildrenUnder5;
+            this.numberChildren5To9 = numberChildren5To9;
+            this.numberChildren10To17 = numberChildren10To17;
+            this.hoursWorkPerWeek1 = hoursWorkPerWeek1;
+            this.hoursWorkPerWeek2 = hoursWorkPerWeek2;
+            this.disability1 = disability1;
+            this.disability2 = disability2;
+            this.careProvision = careProvision;
+            this.childcareCostPerMonth = childcareCostPerMonth;
+            int hh = year;
+            hh = 31 * hh + age;
+            hh = 31 * hh + numberAdults;
+            hh = 31 * hh + numberChildrenUnder5;
+            hh = 31 * hh + numberChildren5To9;
+            hh = 31 * hh + numberChildren10To17;
+            hh = 31 * hh + Double.hashCode(hoursWorkPerWeek1);
+            hh = 31 * hh + Double.hashCode(hoursWorkPerWeek2);
+            hh = 31 * hh + disability1;
+            hh = 31 * hh + disability2;
+            hh = 31 * hh + careProvision;
+            hh = 31 * hh + Double.hashCode(childcareCostPerMonth);
+            hash = hh;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hash == other.hash && year == other.year && age == other.age && numberAdults == other.numberAdults &&
+                    numberChildrenUnder5 == other.numberChildrenUnder5 && numberChildren5To9 == other.numberChildren5To9 &&
+                    numberChildren10To17 == other.numberChildren10To17 && disability1 == other.disability1 &&
+                    disability2 == other.disability2 && careProvision == other.careProvision &&
+                    Double.compare(hoursWorkPerWeek1, other.hoursWorkPerWeek1) == 0 &&
+                    Double.compare(hoursWorkPerWeek2, other.hoursWorkPerWeek2) == 0 &&
+                    Double.compare(childcareCostPerMonth, other.childcareCostPerMonth) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
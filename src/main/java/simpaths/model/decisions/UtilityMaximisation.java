@@ -17,14 +17,21 @@ public class UtilityMaximisation {
      */
     double optimisedUtility;   // numerical approximation for value function
     double[] controls;          // numerical approximation for control variables
+    int functionEvaluations;    // number of utility function evaluations used to obtain solution
 
 
     /**
-     * CONSTRUCTOR
+     * CONSTRUCTORS
+     * @param consumptionShareGuess starting guess for consumption as a proportion of cash on hand (NaN if none)
      */
     public UtilityMaximisation(Grid valueFunction, States states, Expectations expectations, double emp1Pr, double emp2Pr) {
+        this(valueFunction, states, expectations, emp1Pr, emp2Pr, Double.NaN);
+    }
+    public UtilityMaximisation(Grid valueFunction, States states, Expectations expectations, double emp1Pr, double emp2Pr,
+                               double consumptionShareGuess) {
 
         // update expectations for combination of discrete control variables
+        SolveTelemetry.count(SolveTelemetry.Counter.UtilityMaximisations);
         expectations.updateForDiscreteControls(emp1Pr, emp2Pr);
 
         // instantiate assumed utility function object
@@ -60,7 +67,11 @@ public class UtilityMaximisation {
         } else {
             lowerBounds[dim] = DecisionParams.MIN_CONSUMPTION_PER_YEAR;
             upperBounds[dim] = expectations.cashOnHand;
-            target[dim] = lowerBounds[dim] * 0.8 +upperBounds[dim] * 0.2;
+            if (Double.isNaN(consumptionShareGuess)) {
+                target[dim] = lowerBounds[dim] * 0.8 +upperBounds[dim] * 0.2;
+            } else {
+                target[dim] = Math.max(lowerBounds[dim], Math.min(upperBounds[dim], consumptionShareGuess * expectations.cashOnHand));
+            }
         }
         dim++;
 
@@ -69,11 +80,13 @@ public class UtilityMaximisation {
         // pass for minimisation
         // **********************************
         Minimiser problem = new Minimiser(lowerBounds, upperBounds, target, function);
+        problem.warmStart = !Double.isNaN(consumptionShareGuess);
         problem.minimise();
 
 
         // pack for delivery
         optimisedUtility = - problem.minimisedValue;
+        functionEvaluations = problem.getEvaluations();
 
         // pack consumption solution
         dim = 0;
@@ -1,17 +1,17 @@
 package simpaths.model.taxes;
 
 public class CandidateList {
-    private DonorTaxUnit candidate;
+    private int candidate;          // position of candidate in donor pool
     private double sampleWeight;
     private double distance;
 
     public CandidateList(){}
-    public CandidateList(DonorTaxUnit ind, double weight, double dist) {
+    public CandidateList(int ind, double weight, double dist) {
         candidate = ind;
         sampleWeight = weight;
         distance = dist;
     }
-    public DonorTaxUnit getCandidate() {
+    public int getCandidate() {
         return candidate;
     }
     public double getWeight() {
@@ -0,0 +1,236 @@
+package simpaths.model.taxes;
+
+
+import org.apache.commons.lang3.tuple.Triple;
+import simpaths.data.MahalanobisDistance;
+import simpaths.data.Parameters;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *
+ * CLASS TO STORE THE DONOR POOL IN A FORM SUITED TO TAX IMPUTATION
+ *
+ * EACH IMPUTATION (SEE DonorTaxImputation) SEARCHES THE DONORS OF A COARSE-EXACT MATCH FOR THE NEAREST NEIGHBOUR BY
+ * ORIGINAL INCOME, AND THEN EVALUATES THE DISTANCE OF NEIGHBOURING DONORS ON UP TO THREE MATCHING FEATURES. THIS CLASS
+ * COMPILES THE DONOR POOL AND Parameters.taxdbReferences INTO IMMUTABLE PRIMITIVE ARRAYS: FOR EACH MATCH (SYSTEM YEAR,
+ * MATCHING REGIME AND KEY), A Group STORES THE NORMALISED ORIGINAL INCOMES OF ITS DONORS IN ASCENDING ORDER, WITH THEIR
+ * WEIGHTS AND MATCHING FEATURES IN PARALLEL ARRAYS. THE IMPUTED OUTPUTS OF EACH DONOR ARE STORED BY SYSTEM YEAR IN
+ * Policies, AND ARE ONLY READ FOR THE FEW DONORS THAT ARE SELECTED.
+ *
+ * NORMALISED INCOMES DEPEND ON THE PREVAILING PRICE INDICES, SO THE INDEX IS COMPILED AFRESH FOR EACH SIMULATION.
+ *
+ */
+public class DonorIndex {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    private final long[] donorId;                   // database id, by position in donor pool
+    private final Map<Integer, Policies> policies;  // donor outputs, by system year
+    private final Map<Long, Group> groups;          // donors of each coarse-exact match (see key)
+
+
+    /**
+     * CONSTRUCTOR
+     * @param donorPool donor pool, as Parameters.getDonorPool()
+     * @param references indices of donors of each coarse-exact match, as Parameters.getTaxdbReferences()
+     */
+    public DonorIndex(List<DonorTaxUnit> donorPool, Map<Triple<Integer,Integer,Integer>, List<Integer>> references) {
+
+        // characteristics that do not vary by system year
+        int donors = donorPool.size();
+        donorId = new long[donors];
+        double[] weight = new double[donors];
+        double[] originalIncome = new double[donors];
+        double[] secondIncome = new double[donors];
+        double[] childcareCost = new double[donors];
+        for (int ii=0; ii<donors; ii++) {
+
+            DonorTaxUnit donor = donorPool.get(ii);
+            donorId[ii] = donor.getId();
+            weight[ii] = donor.getWeight();
+
+            // matching features are measured against the policy of the base price year (see DonorTaxImputation)
+            DonorTaxUnitPolicy policy = donor.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR);
+            originalIncome[ii] = normalise(policy.getOriginalIncomePerMonth());
+            secondIncome[ii] = normalise(policy.getSecondIncomePerMonth());
+            childcareCost[ii] = normalise(policy.getChildcareCostPerMonth());
+        }
+
+        // donor outputs by system year
+        policies = new HashMap<>();
+        for (Triple<Integer,Integer,Integer> key : references.keySet()) {
+            policies.computeIfAbsent(key.getLeft(), systemYear -> new Policies(donorPool, systemYear));
+        }
+
+        // coarse-exact matches
+        groups = new HashMap<>();
+        for (Map.Entry<Triple<Integer,Integer,Integer>, List<Integer>> entry : references.entrySet()) {
+
+            Triple<Integer,Integer,Integer> key = entry.getKey();
+            List<Integer> members = entry.getValue();
+            Policies policiesHere = policies.get(key.getLeft());
+            Group group = new Group(policiesHere, members.size());
+            for (int ii=0; ii<group.size; ii++) {
+                int donor = members.get(ii);
+                group.donor[ii] = donor;
+                group.normalisedOriginalIncome[ii] = policiesHere.normalisedOriginalIncome[donor];
+                group.weight[ii] = weight[donor];
+                group.originalIncome[ii] = originalIncome[donor];
+                group.secondIncome[ii] = secondIncome[donor];
+                group.childcareCost[ii] = childcareCost[donor];
+            }
+            groups.put(key(key.getLeft(), key.getMiddle(), key.getRight()), group);
+        }
+    }
+
+
+    /**
+     * GETTERS AND SETTERS
+     */
+    public long getDonorId(int donor) {
+        return donorId[donor];
+    }
+    public int getNumberOfDonors() {
+        return donorId.length;
+    }
+
+    /**
+     * METHOD TO RETURN THE DONORS OF A COARSE-EXACT MATCH
+     * @return group of donors (null if no donor matches)
+     */
+    public Group getGroup(int systemYear, int regime, int key) {
+        return groups.get(key(systemYear, regime, key));
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    private static long key(int systemYear, int regime, int key) {
+        return ((long)systemYear << 40) | ((long)regime << 32) | (key & 0xFFFFFFFFL);
+    }
+
+    /**
+     * METHOD TO NORMALISE A MONTHLY FINANCIAL OF THE BASE PRICE YEAR
+     * Evaluated as the weekly financials supplied to DonorTaxImputation.getMeasurementVector, so that distances are unchanged
+     */
+    private static double normalise(double perMonth) {
+        return Parameters.normaliseWeeklyIncome(Parameters.BASE_PRICE_YEAR, perMonth / Parameters.WEEKS_PER_MONTH);
+    }
+
+
+    /**
+     * CLASS TO STORE THE DONORS OF A COARSE-EXACT MATCH, IN ASCENDING ORDER OF ORIGINAL INCOME
+     */
+    public static class Group {
+
+        final int size;
+        final Policies policies;                // outputs of donors for the system year of the match
+        final int[] donor;                      // position in donor pool
+        final double[] normalisedOriginalIncome;    // original income per month, normalised to base price year
+        final double[] weight;                  // sampling weight
+        final double[] originalIncome;          // matching features (normalised, base price year policy)
+        final double[] secondIncome;
+        final double[] childcareCost;
+        private final DonorTree[] trees = new DonorTree[3];    // by matching features (see getTree), compiled when first searched
+
+        Group(Policies policies, int size) {
+            this.size = size;
+            this.policies = policies;
+            donor = new int[size];
+            normalisedOriginalIncome = new double[size];
+            weight = new double[size];
+            originalIncome = new double[size];
+            secondIncome = new double[size];
+            childcareCost = new double[size];
+        }
+
+        public int size() { return size; }
+
+        /**
+         * METHOD TO POPULATE THE MEASUREMENT VECTOR OF A DONOR, AS DonorTaxImputation.getMeasurementVector
+         */
+        void measurementVector(int ii, boolean flagSecondIncome, boolean flagChildcareCost, double[] vector) {
+            int jj = 0;
+            vector[jj++] = originalIncome[ii];
+            if (flagSecondIncome) vector[jj++] = secondIncome[ii];
+            if (flagChildcareCost) vector[jj] = childcareCost[ii];
+        }
+
+        /**
+         * METHOD TO RETURN THE NEAREST NEIGHBOUR INDEX OF THE GROUP FOR A COMBINATION OF MATCHING FEATURES
+         * (at least one of second income and childcare costs)
+         */
+        DonorTree getTree(boolean flagSecondIncome, boolean flagChildcareCost) {
+
+            int tt;
+            MahalanobisDistance distance;
+            if (flagSecondIncome && flagChildcareCost) {
+                tt = 2;
+                distance = Parameters.getMdDualIncomeChildcare();
+            } else if (flagSecondIncome) {
+                tt = 0;
+                distance = Parameters.getMdDualIncome();
+            } else if (flagChildcareCost) {
+                tt = 1;
+                distance = Parameters.getMdChildcare();
+            } else {
+                throw new RuntimeException("donor tree requested for original income only");
+            }
+            // trees are immutable (final fields), so may be read without locking once compiled
+            DonorTree tree = trees[tt];
+            if (tree == null) {
+                synchronized (trees) {
+                    tree = trees[tt];
+                    if (tree == null) {
+                        tree = new DonorTree(this, flagSecondIncome, flagChildcareCost, distance);
+                        trees[tt] = tree;
+                    }
+                }
+            }
+            return tree;
+        }
+    }
+
+
+    /**
+     * CLASS TO STORE THE OUTPUTS OF ALL DONORS FOR A SYSTEM YEAR, BY POSITION IN DONOR POOL
+     */
+    public static class Policies {
+
+        final double[] normalisedOriginalIncome;    // per month, normalised to base price year
+        final double[] originalIncome;              // per month, in prices of system year
+        final double[] disposableIncome;            // per month, in prices of system year
+        final double[] benefits;                    // means tested and non-means tested benefits per month
+        final int[] receivesUC;
+        final int[] receivesLegacyBenefit;
+
+        Policies(List<DonorTaxUnit> donorPool, int systemYear) {
+
+            int donors = donorPool.size();
+            normalisedOriginalIncome = new double[donors];
+            originalIncome = new double[donors];
+            disposableIncome = new double[donors];
+            benefits = new double[donors];
+            receivesUC = new int[donors];
+            receivesLegacyBenefit = new int[donors];
+            for (int ii=0; ii<donors; ii++) {
+                DonorTaxUnitPolicy policy = donorPool.get(ii).getPolicyBySystemYear(systemYear);
+                normalisedOriginalIncome[ii] = policy.getNormalisedOriginalIncomePerMonth();
+                originalIncome[ii] = policy.getOriginalIncomePerMonth();
+                disposableIncome[ii] = policy.getDisposableIncomePerMonth();
+                benefits[ii] = policy.getBenMeansTestPerMonth() + policy.getBenNonMeansTestPerMonth();
+                receivesUC[ii] = policy.getReceivesUC();
+                receivesLegacyBenefit[ii] = policy.getReceivesLegacyBenefit();
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package simpaths.model.taxes;
+
+
+import org.apache.commons.lang3.tuple.Triple;
+import simpaths.data.Parameters;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ *
+ * CLASS TO SAVE AND RELOAD THE DONOR POOL USED FOR TAX IMPUTATION
+ *
+ * LOADING THE DONOR POOL FROM THE DATABASE (SEE SimPathsModel.populateTaxdbReferences) REQUIRES A PERSISTENCE UNIT TO
+ * BE INITIALISED, EVERY DONOR AND POLICY TO BE INSTANTIATED AS AN ENTITY, AND THE REFERENCES OF EACH COARSE-EXACT MATCH
+ * TO BE SORTED, IN EVERY NEW JVM. THIS CLASS SAVES THE DONOR POOL (THE DonorTaxUnit AND DonorTaxUnitPolicy DATA
+ * REQUIRED FOR IMPUTATION, IN THE ORDER OF THE POOL) AND Parameters.taxdbReferences TO A BINARY FILE, WHICH IS
+ * MEMORY-MAPPED AND READ ON LATER STARTS.
+ *
+ * ROUTINES THAT REWRITE THE SOURCE TABLES (TaxDonorDataParser.updateDefaultDonorTables AND insertTaxUnitPolicies)
+ * RECORD A NEW RANDOM GENERATION IN GENERATION_TABLE (SEE recordGeneration) IN THE SAME TRANSACTION. A SNAPSHOT IS
+ * ONLY READ IF THE HASH OF THE GENERATION SAVED WITH IT MATCHES THE GENERATION RECORDED IN THE DATABASE, WHICH IS A
+ * SINGLE ROW QUERY, SO THAT A STALE SNAPSHOT IS REPLACED THE NEXT TIME THE DONOR POOL IS LOADED. THE SNAPSHOT ALSO
+ * SAVES A HASH OF EVERY ROW OF THE SOURCE TABLES (SEE hashSourceTables), WHICH IS COMPARED ON REQUEST TO DETECT TABLES
+ * EDITED BY OTHER MEANS, AND WHICH STANDS IN FOR THE GENERATION OF TABLES POPULATED BEFORE GENERATIONS WERE RECORDED.
+ *
+ * DONOR PERSONS ARE NOT SAVED, AS THEY ARE ONLY USED TO POPULATE THE DONOR TABLES.
+ *
+ * THE FILE LAYOUT (BIG-ENDIAN) IS: MAGIC, VERSION, GENERATION HASH AND SOURCE TABLES HASH (HASH_BYTES EACH), NUMBER
+ * OF DONORS, AND FOR EACH DONOR ITS ID,
+ * WEIGHT AND NUMBER OF POLICIES, EACH POLICY SAVED AS POLICY_INTS INTEGERS AND POLICY_DOUBLES DOUBLES; FOLLOWED BY THE
+ * NUMBER OF REFERENCES, AND FOR EACH ITS SYSTEM YEAR, REGIME, KEY, AND NUMBER AND POSITIONS OF DONORS.
+ * NULL INTEGERS ARE SAVED AS NULL_INT, AND NULL DOUBLES AS NaN.
+ *
+ */
+public class DonorPoolSnapshot {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    public static final String FILE_NAME = "donor_pool.snapshot";
+    static final int MAGIC = 0x53504450;            // "SPDP"
+    static final int VERSION = 2;
+    static final int HASH_BYTES = 32;               // SHA-256
+    public static final int NULL_INT = Integer.MIN_VALUE;
+    public static final String GENERATION_TABLE = "DONORPOOLGENERATION";
+    public static final int POLICY_INTS = DonorTaxUnitPolicy.SNAPSHOT_INT_COLUMNS.length;   // from year, system year, keys, UC, legacy benefit
+    public static final int POLICY_DOUBLES = DonorTaxUnitPolicy.SNAPSHOT_DOUBLE_COLUMNS.length;
+    static final String[] SOURCE_QUERIES = {
+            "SELECT ID, WEIGHT FROM DONORTAXUNIT ORDER BY ID",
+            "SELECT ID, TUID, " + policyColumns() + " FROM DONORTAXUNITPOLICY ORDER BY ID"
+    };
+
+    private final List<DonorTaxUnit> donorPool;
+    private final Map<Triple<Integer,Integer,Integer>, List<Integer>> references;
+
+
+    /**
+     * CONSTRUCTOR
+     */
+    private DonorPoolSnapshot(List<DonorTaxUnit> donorPool, Map<Triple<Integer,Integer,Integer>, List<Integer>> references) {
+        this.donorPool = donorPool;
+        this.references = references;
+    }
+
+
+    /**
+     * GETTERS AND SETTERS
+     */
+    public List<DonorTaxUnit> getDonorPool() {
+        return donorPool;
+    }
+    public Map<Triple<Integer,Integer,Integer>, List<Integer>> getReferences() {
+        return references;
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO RECORD A NEW GENERATION OF THE SOURCE TABLES OF THE DONOR POOL
+     * To be called whenever the donor tax unit or policy tables are rewritten, before the rewrite is committed
+     * @param conn connection to the database from which the donor pool is loaded
+     */
+    public static void recordGeneration(Connection conn) throws SQLException {
+
+        try (Statement stat = conn.createStatement()) {
+            stat.execute("CREATE TABLE IF NOT EXISTS " + GENERATION_TABLE + " (GENERATION VARCHAR(64) NOT NULL)");
+            stat.execute("DELETE FROM " + GENERATION_TABLE);
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + GENERATION_TABLE + " (GENERATION) VALUES (?)")) {
+            insert.setString(1, UUID.randomUUID().toString());
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * METHOD TO HASH THE GENERATION OF THE SOURCE TABLES OF THE DONOR POOL
+     * Hashes the generation recorded by recordGeneration, the policy schedule, and the version of the snapshot
+     * @param conn connection to the database from which the donor pool is loaded
+     * @return SHA-256 hash (null if no generation is recorded)
+     */
+    public static byte[] hashGeneration(Connection conn) throws SQLException {
+
+        String generation = null;
+        try (ResultSet tables = conn.getMetaData().getTables(null, null, GENERATION_TABLE, null)) {
+            if (!tables.next()) return null;
+        }
+        try (Statement stat = conn.createStatement();
+             ResultSet rs = stat.executeQuery("SELECT GENERATION FROM " + GENERATION_TABLE)) {
+            if (rs.next()) generation = rs.getString(1);
+            if (rs.next()) return null;
+        }
+        if (generation == null) return null;
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        putSchedule(digest, buffer);
+        buffer.flip();
+        digest.update(buffer);
+        digest.update(generation.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    /**
+     * METHOD TO HASH THE SOURCE TABLES OF THE DONOR POOL
+     * Hashes every row of the donor tax unit and policy tables, the policy schedule, and the version of the snapshot
+     * @param conn connection to the database from which the donor pool is loaded
+     * @return SHA-256 hash
+     */
+    public static byte[] hashSourceTables(Connection conn) throws SQLException {
+
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        putSchedule(digest, buffer);
+        try (Statement stat = conn.createStatement()) {
+            for (String query : SOURCE_QUERIES) {
+                try (ResultSet rs = stat.executeQuery(query)) {
+
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int columns = meta.getColumnCount();
+                    boolean[] integral = new boolean[columns];
+                    for (int ii=0; ii<columns; ii++) {
+                        int type = meta.getColumnType(ii + 1);
+                        integral[ii] = (type == java.sql.Types.INTEGER || type == java.sql.Types.BIGINT ||
+                                type == java.sql.Types.SMALLINT || type == java.sql.Types.TINYINT);
+                    }
+                    long rows = 0;
+                    while (rs.next()) {
+                        flush(digest, buffer, columns * Long.BYTES);
+                        for (int ii=0; ii<columns; ii++) {
+                            if (integral[ii]) {
+                                long value = rs.getLong(ii + 1);
+                                buffer.putLong(rs.wasNull() ? Long.MIN_VALUE : value);
+                            } else {
+                                double value = rs.getDouble(ii + 1);
+                                buffer.putDouble(rs.wasNull() ? Double.NaN : value);
+                            }
+                        }
+                        rows++;
+                    }
+                    flush(digest, buffer, Long.BYTES);
+                    buffer.putLong(rows);
+                }
+            }
+        }
+        buffer.flip();
+        digest.update(buffer);
+        return digest.digest();
+    }
+
+    /**
+     * METHOD TO SAVE A DONOR POOL AND ITS REFERENCES
+     * The snapshot is written to a temporary file that replaces any existing snapshot once complete, so that
+     * processes reading the snapshot concurrently never see a partial file
+     * @param filePath path of snapshot
+     * @param generation hash of generation of source tables (see hashGeneration)
+     * @param hash hash of source tables (see hashSourceTables)
+     */
+    public static void write(String filePath, byte[] generation, byte[] hash, List<DonorTaxUnit> donorPool,
+                             Map<Triple<Integer,Integer,Integer>, List<Integer>> references) throws IOException {
+
+        if (generation.length != HASH_BYTES || hash.length != HASH_BYTES)
+            throw new IOException("unexpected length of donor pool hash: " + generation.length + ", " + hash.length);
+        Path path = Paths.get(filePath);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Path temp = Paths.get(filePath + ".tmp");
+        try (OutputStream os = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(generation);
+            out.write(hash);
+
+            // donors
+            int[] ints = new int[POLICY_INTS];
+            double[] doubles = new double[POLICY_DOUBLES];
+            out.writeInt(donorPool.size());
+            for (DonorTaxUnit donor : donorPool) {
+
+                out.writeLong(donor.getId());
+                out.writeDouble(orNaN(donor.getWeight()));
+                out.writeInt(donor.getPolicies().size());
+                for (DonorTaxUnitPolicy policy : donor.getPolicies()) {
+                    policy.toSnapshot(ints, doubles);
+                    for (int value : ints) {
+                        out.writeInt(value);
+                    }
+                    for (double value : doubles) {
+                        out.writeDouble(value);
+                    }
+                }
+            }
+
+            // references
+            out.writeInt(references.size());
+            for (Map.Entry<Triple<Integer,Integer,Integer>, List<Integer>> entry : references.entrySet()) {
+                out.writeInt(entry.getKey().getLeft());
+                out.writeInt(entry.getKey().getMiddle());
+                out.writeInt(entry.getKey().getRight());
+                out.writeInt(entry.getValue().size());
+                for (int donor : entry.getValue()) {
+                    out.writeInt(donor);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * METHOD TO READ A DONOR POOL AND ITS REFERENCES
+     * @param filePath path of snapshot
+     * @param generation hash of generation of source tables (see hashGeneration)
+     * @param hash hash of source tables (see hashSourceTables), or null if not verified
+     * @return snapshot (null if no snapshot is saved, or the saved snapshot was taken from different source tables)
+     * @throws IOException if the snapshot cannot be read, or is corrupt
+     */
+    public static DonorPoolSnapshot read(String filePath, byte[] generation, byte[] hash) throws IOException {
+
+        Path path = Paths.get(filePath);
+        if (!Files.exists(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("file " + filePath + " is not a donor pool snapshot");
+            if (buffer.getInt() != VERSION) return null;
+            byte[] saved = new byte[HASH_BYTES];
+            buffer.get(saved);
+            if (!Arrays.equals(saved, generation)) return null;
+            buffer.get(saved);
+            if (hash != null && !Arrays.equals(saved, hash)) return null;
+
+            // donors
+            int donors = buffer.getInt();
+            List<DonorTaxUnit> donorPool = new ArrayList<>(donors);
+            int[] ints = new int[POLICY_INTS];
+            double[] doubles = new double[POLICY_DOUBLES];
+            for (int ii=0; ii<donors; ii++) {
+
+                DonorTaxUnit donor = new DonorTaxUnit();
+                donor.setId(buffer.getLong());
+                double weight = buffer.getDouble();
+                if (!Double.isNaN(weight)) donor.setWeight(weight);
+                int policies = buffer.getInt();
+                for (int jj=0; jj<policies; jj++) {
+                    for (int kk=0; kk<POLICY_INTS; kk++) {
+                        ints[kk] = buffer.getInt();
+                    }
+                    for (int kk=0; kk<POLICY_DOUBLES; kk++) {
+                        doubles[kk] = buffer.getDouble();
+                    }
+                    donor.getPolicies().add(new DonorTaxUnitPolicy(donor, ints, doubles));
+                }
+                donorPool.add(donor);
+            }
+
+            // references
+            int entries = buffer.getInt();
+            Map<Triple<Integer,Integer,Integer>, List<Integer>> references = new HashMap<>(2 * entries);
+            for (int ii=0; ii<entries; ii++) {
+                Triple<Integer,Integer,Integer> key = Triple.of(buffer.getInt(), buffer.getInt(), buffer.getInt());
+                int size = buffer.getInt();
+                List<Integer> members = new ArrayList<>(size);
+                for (int jj=0; jj<size; jj++) {
+                    int donor = buffer.getInt();
+                    if (donor < 0 || donor >= donors)
+                        throw new IOException("donor pool snapshot " + filePath + " is corrupt");
+                    members.add(donor);
+                }
+                references.put(key, members);
+            }
+            if (buffer.hasRemaining())
+                throw new IOException("donor pool snapshot " + filePath + " is corrupt");
+            return new DonorPoolSnapshot(donorPool, references);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("donor pool snapshot " + filePath + " is truncated");
+        }
+    }
+
+    /**
+     * METHOD TO LIST THE COLUMNS OF DONORTAXUNITPOLICY SAVED FOR EACH POLICY, IN THE ORDER OF THE SNAPSHOT
+     * @return comma separated column names (see DonorTaxUnitPolicy.toSnapshot)
+     */
+    public static String policyColumns() {
+        return String.join(", ", DonorTaxUnitPolicy.SNAPSHOT_INT_COLUMNS) + ", " +
+                String.join(", ", DonorTaxUnitPolicy.SNAPSHOT_DOUBLE_COLUMNS);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available to hash donor pool", e);
+        }
+    }
+
+    // adds the version of the snapshot and the policy schedule to the buffer
+    private static void putSchedule(MessageDigest digest, ByteBuffer buffer) {
+        buffer.putInt(VERSION).putInt(Parameters.TAXDB_REGIMES);
+        for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
+            flush(digest, buffer, 2 * Integer.BYTES);
+            buffer.putInt(fromYear).putInt(Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue());
+        }
+    }
+
+    // passes buffered bytes to the digest, if fewer than required bytes remain in the buffer
+    private static void flush(MessageDigest digest, ByteBuffer buffer, int required) {
+        if (buffer.remaining() < required) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+    }
+
+    static int orNull(Integer value) {
+        return (value == null) ? NULL_INT : value;
+    }
+
+    static double orNaN(Double value) {
+        return (value == null) ? Double.NaN : value;
+    }
+}
@@ -1,7 +1,6 @@
 package simpaths.model.taxes;
 
 
-import org.apache.commons.lang3.tuple.Triple;
 import simpaths.model.enums.UpratingCase;
 
 import java.util.*;
@@ -18,6 +17,11 @@ import simpaths.data.Parameters;
  *  2: obtain candidate pool from donor pool based on proximity to original income
  *  3: select single candidate from donor pool or average over pool to impute disposable income
  *
+ * Donors are read from the compiled DonorIndex (Parameters.getDonorIndex()), and the outcomes of steps 1 to 3 may
+ * be memoised by ImputationCache (Parameters.getImputationCache()). Where candidates are matched on second income
+ * and/or childcare costs, step 2 may instead search a DonorTree of the donor pool for the exact nearest neighbours
+ * (Parameters.isDonorTreeSearch(), off by default as donors can differ from those of the bracketed search)
+ *
  */
 public class DonorTaxImputation {
 
@@ -25,6 +29,9 @@ public class DonorTaxImputation {
     /**
      * ATTRIBUTES
      */
+    private static final int PREFERRED_BRACKETS = 4;    // distinct distances of preferred candidates
+    private static final int NEAREST_CANDIDATES = 16;   // initial number of nearest neighbours searched by DonorTree
+
     private DonorKeys keys;                // keys for donor matching
 
     // the match criterion is a 4-digit indicator of the type of match obtained
@@ -101,18 +108,71 @@ public class DonorTaxImputation {
      */
     public void evaluate() {
 
+        //------------------------------------------------------------
+        // search donors, or reuse the outcome of an identical search
+        //------------------------------------------------------------
+        // normalised income is monthly in BASE_PRICE_YEAR prices (same as EUROMOD)
+        int systemYear = getSystemYear(keys.getSimYear());
+        targetNormalisedOriginalIncome = Parameters.normaliseWeeklyIncome(keys.getPriceYear(), keys.getOriginalIncomePerWeek());
+        double secondIncome = Parameters.normaliseWeeklyIncome(keys.getPriceYear(), keys.getSecondIncomePerWeek());
+        double childcareCost = Parameters.normaliseWeeklyIncome(keys.getPriceYear(), keys.getChildcareCostPerWeek());
+        ImputationCache cache = Parameters.getImputationCache();
+        ImputationCache.Outcome outcome;
+        if (cache == null) {
+            outcome = search(systemYear, targetNormalisedOriginalIncome, secondIncome, childcareCost, keys.getRandomDraw());
+        } else {
+            outcome = cache.get(systemYear, keys, targetNormalisedOriginalIncome, secondIncome, childcareCost, this::search);
+        }
+
+
+        //------------------------------------------------------------
+        // scale outcome to the income and hours of the benefit unit
+        //------------------------------------------------------------
+        matchCriterion = outcome.matchCriterion;
+        donorID = outcome.donorID;
+        grossIncomePerWeek = keys.getOriginalIncomePerWeek();
+        disposableIncomePerWeek = outcome.disposableIncomePerWeek;
+        benefitsReceivedPerWeek = outcome.benefitsReceivedPerWeek;
+        setReceivedUC(outcome.receivedUC);
+        setReceivedLegacyBenefit(outcome.receivedLegacyBenefit);
+        if ( !outcome.lowIncome ) {
+            disposableIncomePerWeek *= keys.getOriginalIncomePerWeek();
+            benefitsReceivedPerWeek *= keys.getOriginalIncomePerWeek();
+        }
+        if (keys.getHoursWorkedPerWeekMan() + keys.getHoursWorkedPerWeekWoman() > 0.1) {
+            disposableIncomePerWeek *= (1.0 + Parameters.disposableIncomeFromLabourInnov);
+            benefitsReceivedPerWeek *= (1.0 + Parameters.disposableIncomeFromLabourInnov);
+        }
+        if (outcome.meanUC > Math.random()) {  // Weighted probability of receiving UC
+            setReceivedUC(1);
+        }
+        if (outcome.meanLegacyBenefit > 0 && getReceivedUC() == 0) {  // Setting as received LB if benefits but not UC
+            setReceivedLegacyBenefit(1);
+        }
+    }
+
+    /**
+     * METHOD TO SEARCH DONORS FOR THE KEYS OF THE IMPUTATION
+     * Financials are normalised (see Parameters.normaliseWeeklyIncome), and may differ from those of the keys where
+     * searches are memoised (see ImputationCache)
+     * @return outcome of search, before scaling by income and hours
+     */
+    private ImputationCache.Outcome search(int systemYear, double originalIncome, double secondIncome,
+                                           double childcareCost, double randomDraw) {
+
 
         //------------------------------------------------------------
         // use keys to extract candidate pool from database
         //------------------------------------------------------------
-        List<Integer> candidatePool = null;
+        DonorIndex donorIndex = Parameters.getDonorIndex();
+        DonorIndex.Group candidatePool = null;
         int matchRegime = -1;
-        int systemYear = getSystemYear(keys.getSimYear());
+        int matchCriterion;
+        long donorID;
         boolean flagSecondIncome = false, flagChildcareCost = false;
         for (int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
 
-            Triple<Integer,Integer,Integer> key = Triple.of(systemYear,ii,keys.getKey(ii));
-            candidatePool = Parameters.getTaxdbReferences().get(key);
+            candidatePool = donorIndex.getGroup(systemYear, ii, keys.getKey(ii));
             int jjStart;
             if ( (getCounterVal(MatchFeature.DualIncome, ii, keys.getKey(ii))==1) ||
                     (getCounterVal(MatchFeature.Childcare, ii, keys.getKey(ii))==1) ) {
@@ -151,35 +211,34 @@ public class DonorTaxImputation {
         //------------------------------------------------------------
         // The candidate pool is organised in increasing order of original income
         // ordering is controlled by database query in SimPathsModel.populateTaxdbReferences
-        // normalised income is monthly in BASE_PRICE_YEAR prices (same as EUROMOD)
-        targetNormalisedOriginalIncome = Parameters.normaliseWeeklyIncome(keys.getPriceYear(), keys.getOriginalIncomePerWeek());
         int lowerInd, upperInd, testInd;
         double lowerOrigInc, upperOrigInc, testOrigInc;
         final double MEAN_BIAS = 0.5;
 
+        double[] poolOrigInc = candidatePool.normalisedOriginalIncome;
         lowerInd = 0;
-        lowerOrigInc = Parameters.getDonorPool().get(candidatePool.get(lowerInd)).getPolicyBySystemYear(systemYear).getNormalisedOriginalIncomePerMonth();
+        lowerOrigInc = poolOrigInc[lowerInd];
         upperInd = candidatePool.size()-1;
-        upperOrigInc = Parameters.getDonorPool().get(candidatePool.get(upperInd)).getPolicyBySystemYear(systemYear).getNormalisedOriginalIncomePerMonth();
+        upperOrigInc = poolOrigInc[upperInd];
 
         int iiTarget;
-        if (targetNormalisedOriginalIncome<lowerOrigInc) {
+        if (originalIncome<lowerOrigInc) {
             iiTarget = lowerInd;
-        } else if (targetNormalisedOriginalIncome>upperOrigInc) {
+        } else if (originalIncome>upperOrigInc) {
             iiTarget = upperInd;
         } else {
 
             while (upperInd > lowerInd+1) {
 
-                double adjFactor = 0.5 * MEAN_BIAS + (targetNormalisedOriginalIncome-lowerOrigInc) / (upperOrigInc - lowerOrigInc) * (1-MEAN_BIAS);
+                double adjFactor = 0.5 * MEAN_BIAS + (originalIncome-lowerOrigInc) / (upperOrigInc - lowerOrigInc) * (1-MEAN_BIAS);
                 int adjInd = (int) ((upperInd - lowerInd) * adjFactor);
                 testInd = lowerInd + Math.max(1, adjInd);
-                testOrigInc = Parameters.getDonorPool().get(candidatePool.get(testInd)).getPolicyBySystemYear(systemYear).getNormalisedOriginalIncomePerMonth();
+                testOrigInc = poolOrigInc[testInd];
 
-                if (testOrigInc > targetNormalisedOriginalIncome) {
+                if (testOrigInc > originalIncome) {
                     upperInd = testInd;
                     upperOrigInc = testOrigInc;
-                } else if (testOrigInc < targetNormalisedOriginalIncome) {
+                } else if (testOrigInc < originalIncome) {
                     lowerInd = testInd;
                     lowerOrigInc = testOrigInc;
                 } else {
@@ -190,12 +249,12 @@ public class DonorTaxImputation {
             }
             iiTarget = upperInd;
         }
-        DonorTaxUnit targetCandidate = Parameters.getDonorPool().get(candidatePool.get(iiTarget));
-        donorID = targetCandidate.getId();
-        double targetIncomeDifference = Math.abs(targetNormalisedOriginalIncome -
-                targetCandidate.getPolicyBySystemYear(systemYear).getNormalisedOriginalIncomePerMonth());
+        DonorIndex.Policies policies = candidatePool.policies;
+        int targetCandidate = candidatePool.donor[iiTarget];
+        donorID = donorIndex.getDonorId(targetCandidate);
+        double targetIncomeDifference = Math.abs(originalIncome - poolOrigInc[iiTarget]);
         if (!keys.isLowIncome(matchRegime)) {
-            targetIncomeDifference /= Math.abs(targetNormalisedOriginalIncome);
+            targetIncomeDifference /= Math.abs(originalIncome);
             targetIncomeDifference *= 100;
         }
         matchCriterion += Math.max(0, Math.min(99, (int)targetIncomeDifference)) * 1000;
@@ -204,49 +263,15 @@ public class DonorTaxImputation {
         //------------------------------------------------------------
         // focussed search around target
         //------------------------------------------------------------
-        List<CandidateList> candidatesList = new ArrayList<>();
-        int bracketPts = (!flagChildcareCost && !flagSecondIncome) ? 2 : 60;
-        double oi = keys.getOriginalIncomePerWeek();
-        double si = keys.getSecondIncomePerWeek();
-        double cc = keys.getChildcareCostPerWeek();
-        double[] targetVector = getMeasurementVector(keys.getPriceYear(), oi, flagSecondIncome, si, flagChildcareCost, cc);
-        for (int increment=-1; increment<2; increment=increment+2) {
-            // search backward and then forward through candidate list
-
-            // initialise directional search
-            int bracketInd = 0;
-            double localMin = 999.0;
-            double bracketDist = -999.0;
-            int ii;
-            if (increment<0) {
-                ii = iiTarget - 1;
-            } else {
-                ii = iiTarget;
-            }
-            while (ii>=0 && ii<candidatePool.size()) {
-
-                DonorTaxUnit candidate = Parameters.getDonorPool().get(candidatePool.get(ii));
-                double[] candidateVector = getCandidateMeasVector(candidate, flagSecondIncome, flagChildcareCost);
-                double distance = evaluateDistance(targetVector, candidateVector, flagSecondIncome, flagChildcareCost);
-                if (Math.abs(distance - bracketDist) > 1.0E-4) {
-                    bracketDist = distance;
-                    bracketInd++;
-                }
-                if (distance < localMin) {
-                    bracketInd = 0;
-                    localMin = distance;
-                }
-                if (bracketInd <= bracketPts) {
-                    candidatesList.add(new CandidateList(candidate, candidate.getWeight(), distance));
-                } else {
-                    break;
-                }
-                ii = ii + increment;
-            }
+        double[] targetVector = getMeasurementVector(originalIncome, flagSecondIncome, secondIncome, flagChildcareCost, childcareCost);
+        List<CandidateList> candidatesList;
+        if ((flagSecondIncome || flagChildcareCost) && Parameters.isDonorTreeSearch()) {
+            candidatesList = nearestCandidates(candidatePool, targetVector, flagSecondIncome, flagChildcareCost);
+        } else {
+            candidatesList = bracketedCandidates(candidatePool, iiTarget, targetVector, flagSecondIncome, flagChildcareCost);
         }
 
         // select subset of preferred candidates
-        Collections.sort(candidatesList, new CandidateListComparator());
         int candidateLast = 0;
         int bracketInd = 0;
         double bracketDist = -999.0;
@@ -257,7 +282,7 @@ public class DonorTaxImputation {
                 bracketDist = candidateList.getDistance();
                 bracketInd++;
             }
-            if (bracketInd <= 4) {
+            if (bracketInd <= PREFERRED_BRACKETS) {
                 weightSum += candidateList.getWeight();
             } else {
                 break;
@@ -269,9 +294,8 @@ public class DonorTaxImputation {
 
         // If focussed search produced no candidates, fall back to nearest neighbour.
         if (candidatesList.isEmpty()) {
-            DonorTaxUnit candidate = Parameters.getDonorPool().get(candidatePool.get(iiTarget));
-            candidatesList.add(new CandidateList(candidate, candidate.getWeight(), 0.0));
-            weightSum = candidate.getWeight();
+            candidatesList.add(new CandidateList(targetCandidate, candidatePool.weight[iiTarget], 0.0));
+            weightSum = candidatePool.weight[iiTarget];
         }
         if (weightSum <= 0.0) {
             // Degenerate weights: use equal probabilities over selected candidates.
@@ -282,16 +306,15 @@ public class DonorTaxImputation {
         //------------------------------------------------------------
         // impute disposable income from set of preferred candidates
         //------------------------------------------------------------
-        grossIncomePerWeek = keys.getOriginalIncomePerWeek();
-        disposableIncomePerWeek = -999.0;
-        benefitsReceivedPerWeek = 0.0;
+        double disposableIncomePerWeek = -999.0;
+        double benefitsReceivedPerWeek = 0.0;
         matchCriterion += Math.min(9, candidatesList.size());
         double weightHere = 0.0;
         double infAdj = 1.0;
         double UCmean = 0.;  // Take a weighted mean of whether received UC or not across all candidates
         double LBmean = 0.;  // Take a weighted mean of whether received LB or not across all candidates
-        setReceivedUC(0);
-        setReceivedLegacyBenefit(0);
+        int receivedUC = 0;
+        int receivedLegacyBenefit = 0;
         if (systemYear != keys.getPriceYear())
             infAdj = Parameters.getTimeSeriesIndex(keys.getPriceYear(), UpratingCase.TaxDonor) / Parameters.getTimeSeriesIndex(systemYear, UpratingCase.TaxDonor);
         for (CandidateList candidateList : candidatesList) {
@@ -303,74 +326,143 @@ public class DonorTaxImputation {
             }
             double weight = baseWeight / weightSum;
             weightHere += weight;
-            if (keys.getRandomDraw() <= weightHere) {
+            if (randomDraw <= weightHere) {
 
                 if (Math.abs(disposableIncomePerWeek+999.0)<1.0E-5)
                     disposableIncomePerWeek = 0.0;
-                if (keys.getRandomDraw()>0.0 || Math.abs(keys.getRandomDraw()+2.0)<1.0E-2)
+                if (randomDraw>0.0 || Math.abs(randomDraw+2.0)<1.0E-2)
                     weight = 1.0;
-                DonorTaxUnit candidate = candidateList.getCandidate();
+                int candidate = candidateList.getCandidate();
                 if ( keys.isLowIncome(matchRegime) ) {
                     // impute based on observed disposable income
-                    disposableIncomePerWeek += candidate.getPolicyBySystemYear(systemYear).getDisposableIncomePerMonth() / Parameters.WEEKS_PER_MONTH * weight * infAdj;
-                    benefitsReceivedPerWeek += (candidate.getPolicyBySystemYear(systemYear).getBenMeansTestPerMonth() + candidate.getPolicyBySystemYear(systemYear).getBenNonMeansTestPerMonth()) / Parameters.WEEKS_PER_MONTH * weight * infAdj;
-                    UCmean += candidate.getPolicyBySystemYear(systemYear).getReceivesUC() * weight * infAdj;
-                    LBmean += candidate.getPolicyBySystemYear(systemYear).getReceivesLegacyBenefit() * weight * infAdj;
+                    disposableIncomePerWeek += policies.disposableIncome[candidate] / Parameters.WEEKS_PER_MONTH * weight * infAdj;
+                    benefitsReceivedPerWeek += policies.benefits[candidate] / Parameters.WEEKS_PER_MONTH * weight * infAdj;
+                    UCmean += policies.receivesUC[candidate] * weight * infAdj;
+                    LBmean += policies.receivesLegacyBenefit[candidate] * weight * infAdj;
                 } else {
                     // impute based on ratio of disposable to original income
-                    disposableIncomePerWeek += candidate.getPolicyBySystemYear(systemYear).getDisposableIncomePerMonth() / candidate.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth() * weight;
-                    benefitsReceivedPerWeek += (candidate.getPolicyBySystemYear(systemYear).getBenMeansTestPerMonth() + candidate.getPolicyBySystemYear(systemYear).getBenNonMeansTestPerMonth()) / candidate.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth() * weight;
-                    UCmean += candidate.getPolicyBySystemYear(systemYear).getReceivesUC() * weight * infAdj;
-                    LBmean += candidate.getPolicyBySystemYear(systemYear).getReceivesLegacyBenefit() * weight * infAdj;
+                    disposableIncomePerWeek += policies.disposableIncome[candidate] / policies.originalIncome[candidate] * weight;
+                    benefitsReceivedPerWeek += policies.benefits[candidate] / policies.originalIncome[candidate] * weight;
+                    UCmean += policies.receivesUC[candidate] * weight * infAdj;
+                    LBmean += policies.receivesLegacyBenefit[candidate] * weight * infAdj;
                 }
-                if (keys.getRandomDraw()>0.0 || Math.abs(keys.getRandomDraw()+2.0)<1.0E-2) {
-                    donorID = candidate.getId();
+                if (randomDraw>0.0 || Math.abs(randomDraw+2.0)<1.0E-2) {
+                    donorID = donorIndex.getDonorId(candidate);
                     break;
                 }
             }
         }
         if (Math.abs(disposableIncomePerWeek+999.0)<1.0E-5) {
             // Deterministic fallback: use nearest neighbour directly.
-            DonorTaxUnit fallback = (targetCandidate != null) ? targetCandidate :
-                    (!candidatesList.isEmpty() ? candidatesList.get(0).getCandidate() : null);
-            if (fallback != null) {
-                donorID = fallback.getId();
-                if (keys.isLowIncome(matchRegime)) {
-                    disposableIncomePerWeek = fallback.getPolicyBySystemYear(systemYear).getDisposableIncomePerMonth()
-                            / Parameters.WEEKS_PER_MONTH * infAdj;
-                    benefitsReceivedPerWeek = (fallback.getPolicyBySystemYear(systemYear).getBenMeansTestPerMonth()
-                            + fallback.getPolicyBySystemYear(systemYear).getBenNonMeansTestPerMonth())
-                            / Parameters.WEEKS_PER_MONTH * infAdj;
+            int fallback = targetCandidate;
+            donorID = donorIndex.getDonorId(fallback);
+            if (keys.isLowIncome(matchRegime)) {
+                disposableIncomePerWeek = policies.disposableIncome[fallback] / Parameters.WEEKS_PER_MONTH * infAdj;
+                benefitsReceivedPerWeek = policies.benefits[fallback] / Parameters.WEEKS_PER_MONTH * infAdj;
+            } else {
+                double origIncMonth = policies.originalIncome[fallback];
+                if (Math.abs(origIncMonth) > 1.0E-9) {
+                    disposableIncomePerWeek = policies.disposableIncome[fallback] / origIncMonth;
+                    benefitsReceivedPerWeek = policies.benefits[fallback] / origIncMonth;
                 } else {
-                    double origIncMonth = fallback.getPolicyBySystemYear(systemYear).getOriginalIncomePerMonth();
-                    if (Math.abs(origIncMonth) > 1.0E-9) {
-                        disposableIncomePerWeek = fallback.getPolicyBySystemYear(systemYear).getDisposableIncomePerMonth() / origIncMonth;
-                        benefitsReceivedPerWeek = (fallback.getPolicyBySystemYear(systemYear).getBenMeansTestPerMonth()
-                                + fallback.getPolicyBySystemYear(systemYear).getBenNonMeansTestPerMonth()) / origIncMonth;
-                    } else {
-                        disposableIncomePerWeek = 0.0;
-                        benefitsReceivedPerWeek = 0.0;
-                    }
+                    disposableIncomePerWeek = 0.0;
+                    benefitsReceivedPerWeek = 0.0;
                 }
-                setReceivedUC(fallback.getPolicyBySystemYear(systemYear).getReceivesUC());
-                setReceivedLegacyBenefit(fallback.getPolicyBySystemYear(systemYear).getReceivesLegacyBenefit());
             }
+            receivedUC = policies.receivesUC[fallback];
+            receivedLegacyBenefit = policies.receivesLegacyBenefit[fallback];
         }
         if (Math.abs(disposableIncomePerWeek+999.0)<1.0E-5)
             throw new RuntimeException("Failed to populate disposable income and benefits from donor with inner key value " + keys.getKey(0));
-        if ( !keys.isLowIncome(matchRegime) ) {
-            disposableIncomePerWeek *= keys.getOriginalIncomePerWeek();
-            benefitsReceivedPerWeek *= keys.getOriginalIncomePerWeek();
-        }
-        if (keys.getHoursWorkedPerWeekMan() + keys.getHoursWorkedPerWeekWoman() > 0.1) {
-            disposableIncomePerWeek *= (1.0 + Parameters.disposableIncomeFromLabourInnov);
-            benefitsReceivedPerWeek *= (1.0 + Parameters.disposableIncomeFromLabourInnov);
-        }
-        if (UCmean > Math.random()) {  // Weighted probability of receiving UC
-            setReceivedUC(1);
+        return new ImputationCache.Outcome(matchCriterion, donorID, keys.isLowIncome(matchRegime), disposableIncomePerWeek,
+                benefitsReceivedPerWeek, UCmean, LBmean, receivedUC, receivedLegacyBenefit);
+    }
+
+    /**
+     * METHOD TO SEARCH CANDIDATES BACKWARD AND FORWARD FROM THE NEAREST NEIGHBOUR BY ORIGINAL INCOME, UNTIL THE DISTANCE
+     * HAS NOT IMPROVED OVER bracketPts DISTINCT DISTANCES
+     * @return candidates, in ascending order of distance
+     */
+    private List<CandidateList> bracketedCandidates(DonorIndex.Group candidatePool, int iiTarget, double[] targetVector,
+                                                    boolean flagSecondIncome, boolean flagChildcareCost) {
+
+        List<CandidateList> candidatesList = new ArrayList<>();
+        int bracketPts = (!flagChildcareCost && !flagSecondIncome) ? 2 : 60;
+        double[] candidateVector = new double[targetVector.length];
+        for (int increment=-1; increment<2; increment=increment+2) {
+            // search backward and then forward through candidate list
+
+            // initialise directional search
+            int bracketInd = 0;
+            double localMin = 999.0;
+            double bracketDist = -999.0;
+            int ii;
+            if (increment<0) {
+                ii = iiTarget - 1;
+            } else {
+                ii = iiTarget;
+            }
+            while (ii>=0 && ii<candidatePool.size()) {
+
+                candidatePool.measurementVector(ii, flagSecondIncome, flagChildcareCost, candidateVector);
+                double distance = evaluateDistance(targetVector, candidateVector, flagSecondIncome, flagChildcareCost);
+                if (Math.abs(distance - bracketDist) > 1.0E-4) {
+                    bracketDist = distance;
+                    bracketInd++;
+                }
+                if (distance < localMin) {
+                    bracketInd = 0;
+                    localMin = distance;
+                }
+                if (bracketInd <= bracketPts) {
+                    candidatesList.add(new CandidateList(candidatePool.donor[ii], candidatePool.weight[ii], distance));
+                } else {
+                    break;
+                }
+                ii = ii + increment;
+            }
         }
-        if (LBmean > 0 && getReceivedUC() == 0) {  // Setting as received LB if benefits but not UC
-            setReceivedLegacyBenefit(1);
+        Collections.sort(candidatesList, new CandidateListComparator());
+        return candidatesList;
+    }
+
+    /**
+     * METHOD TO SEARCH THE NEAREST CANDIDATES BY MAHALANOBIS DISTANCE OF THE MEASUREMENT VECTOR (SEE DonorTree)
+     * The number of neighbours searched is doubled until they span more than PREFERRED_BRACKETS distinct distances, so
+     * that the preferred candidates are the same as for a sort of the full candidate pool
+     * @return nearest candidates, in ascending order of distance
+     */
+    private List<CandidateList> nearestCandidates(DonorIndex.Group candidatePool, double[] targetVector,
+                                                  boolean flagSecondIncome, boolean flagChildcareCost) {
+
+        DonorTree tree = candidatePool.getTree(flagSecondIncome, flagChildcareCost);
+        double[] candidateVector = new double[targetVector.length];
+        int neighbours = Math.min(NEAREST_CANDIDATES, candidatePool.size());
+        while (true) {
+
+            DonorTree.Neighbours nearest = new DonorTree.Neighbours(neighbours);
+            tree.nearest(targetVector, nearest);
+            List<CandidateList> candidatesList = new ArrayList<>(neighbours);
+            for (int ii : nearest.drain()) {
+                // distances evaluated as for other searches, to avoid rounding differences of the transformed vectors
+                candidatePool.measurementVector(ii, flagSecondIncome, flagChildcareCost, candidateVector);
+                double distance = evaluateDistance(targetVector, candidateVector, flagSecondIncome, flagChildcareCost);
+                candidatesList.add(new CandidateList(candidatePool.donor[ii], candidatePool.weight[ii], distance));
+            }
+            Collections.sort(candidatesList, new CandidateListComparator());
+            if (neighbours == candidatePool.size())
+                return candidatesList;
+            int bracketInd = 0;
+            double bracketDist = -999.0;
+            for (CandidateList candidateList : candidatesList) {
+                if (Math.abs(candidateList.getDistance() - bracketDist) > 1.0E-4) {
+                    bracketDist = candidateList.getDistance();
+                    bracketInd++;
+                }
+            }
+            if (bracketInd > PREFERRED_BRACKETS)
+                return candidatesList;
+            neighbours = Math.min(2 * neighbours, candidatePool.size());
         }
     }
 
@@ -401,7 +493,7 @@ public class DonorTaxImputation {
         return Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
     }
 
-    private Integer getPoolSize(List<Integer> pool) {
+    private Integer getPoolSize(DonorIndex.Group pool) {
 
         if ( pool == null ) {
             return 0;
@@ -424,34 +516,19 @@ public class DonorTaxImputation {
         throw new RuntimeException("attempt to evaluate index of unrecognised target feature");
     }
 
-    private double[] getMeasurementVector(int priceYear, double originalIncomePerWeek, boolean flagSecondIncome, double secondIncomePerWeek,
-                                          boolean flagChildcareCost, double childcareCostPerWeek) {
+    private double[] getMeasurementVector(double originalIncome, boolean flagSecondIncome, double secondIncome,
+                                          boolean flagChildcareCost, double childcareCost) {
 
-        double oiAdj = Parameters.normaliseWeeklyIncome(priceYear, originalIncomePerWeek);
-        double siAdj = Parameters.normaliseWeeklyIncome(priceYear, secondIncomePerWeek);
-        double ccAdj = Parameters.normaliseWeeklyIncome(priceYear, childcareCostPerWeek);
         if (!flagSecondIncome && !flagChildcareCost) {
-            return new double[] {oiAdj};
+            return new double[] {originalIncome};
         } else if (flagSecondIncome && !flagChildcareCost) {
-            return new double[] {oiAdj, siAdj};
+            return new double[] {originalIncome, secondIncome};
         } else if (!flagSecondIncome && flagChildcareCost) {
-            return new double[]{oiAdj, ccAdj};
+            return new double[]{originalIncome, childcareCost};
         } else {
-            return new double[]{oiAdj, siAdj, ccAdj};
+            return new double[]{originalIncome, secondIncome, childcareCost};
         }
     }
-    private double[] getCandidateMeasVector(DonorTaxUnit candidate, boolean flagSecondIncome, boolean flagChildcareCost) {
-
-        int priceYear = Parameters.BASE_PRICE_YEAR;
-        double oiWeekly = candidate.getPolicyBySystemYear(priceYear).getOriginalIncomePerMonth() / Parameters.WEEKS_PER_MONTH;
-        double siWeekly = 0.0;
-        if (flagSecondIncome)
-            siWeekly = candidate.getPolicyBySystemYear(priceYear).getSecondIncomePerMonth() / Parameters.WEEKS_PER_MONTH;
-        double ccWeekly = 0.0;
-        if (flagChildcareCost)
-            ccWeekly = candidate.getPolicyBySystemYear(priceYear).getChildcareCostPerMonth() / Parameters.WEEKS_PER_MONTH;
-        return getMeasurementVector(priceYear, oiWeekly, flagSecondIncome, siWeekly, flagChildcareCost, ccWeekly);
-    }
     private double evaluateDistance(double[] targetVector, double[] candidateVector, boolean flagSecondIncome, boolean flagChildcareCost) {
         if (flagSecondIncome && flagChildcareCost) {
             return Parameters.getMdDualIncomeChildcare().getMahalanobisDistance(targetVector, candidateVector);
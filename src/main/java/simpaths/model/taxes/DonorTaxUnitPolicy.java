@@ -20,6 +20,13 @@ import simpaths.data.Parameters;
 )
 public class DonorTaxUnitPolicy {
 
+    // mapped columns of the attributes copied by toSnapshot, in the order copied (shared by DonorPoolSnapshot and
+    // TaxDonorDataParser, which access the table via JDBC)
+    public static final String[] SNAPSHOT_INT_COLUMNS = {"FROM_YEAR", "SYSTEM_YEAR", "DONOR_KEY0", "DONOR_KEY1",
+            "DONOR_KEY2", "DONOR_KEY3", "DONOR_KEY4", "RECEIVES_UC", "RECEIVES_LB"};
+    public static final String[] SNAPSHOT_DOUBLE_COLUMNS = {"ILS_DISPY", "ILS_ORIGY", "ILS_EARNS", "ILS_BENMT",
+            "ILS_BENNT", "SECOND_INCOME", "XCC"};
+
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY) @Column(name = "id", unique = true, nullable = false) private Long id;
     @ManyToOne(fetch = FetchType.EAGER, cascade=CascadeType.REFRESH)
     @BatchSize(size = 100)
@@ -63,6 +70,29 @@ public class DonorTaxUnitPolicy {
         receivesLegacyBenefit = 0;
     }
 
+    /**
+     * CONSTRUCTOR FOR A POLICY SAVED IN A DonorPoolSnapshot (SEE toSnapshot)
+     */
+    DonorTaxUnitPolicy(DonorTaxUnit tu, int[] ints, double[] doubles) {
+        taxUnit = tu;
+        fromYear = fromSnapshot(ints[0]);
+        systemYear = fromSnapshot(ints[1]);
+        donorKey0 = fromSnapshot(ints[2]);
+        donorKey1 = fromSnapshot(ints[3]);
+        donorKey2 = fromSnapshot(ints[4]);
+        donorKey3 = fromSnapshot(ints[5]);
+        donorKey4 = fromSnapshot(ints[6]);
+        receivesUC = fromSnapshot(ints[7]);
+        receivesLegacyBenefit = fromSnapshot(ints[8]);
+        disposableIncomePerMonth = fromSnapshot(doubles[0]);
+        originalIncomePerMonth = fromSnapshot(doubles[1]);
+        earningsPerMonth = fromSnapshot(doubles[2]);
+        benMeansTestPerMonth = fromSnapshot(doubles[3]);
+        benNonMeansTestPerMonth = fromSnapshot(doubles[4]);
+        secondIncomePerMonth = fromSnapshot(doubles[5]);
+        childcareCostPerMonth = fromSnapshot(doubles[6]);
+    }
+
 
     /**
      * GETTERS AND SETTERS
@@ -158,6 +188,33 @@ public class DonorTaxUnitPolicy {
             throw new RuntimeException("attempt to get earnings before instantiated");
         return earningsPerMonth;
     }
+    /**
+     * METHOD TO COPY ATTRIBUTES TO ARRAYS SAVED IN A DonorPoolSnapshot (null values saved as NULL_INT and NaN)
+     */
+    public void toSnapshot(int[] ints, double[] doubles) {
+        ints[0] = DonorPoolSnapshot.orNull(fromYear);
+        ints[1] = DonorPoolSnapshot.orNull(systemYear);
+        ints[2] = DonorPoolSnapshot.orNull(donorKey0);
+        ints[3] = DonorPoolSnapshot.orNull(donorKey1);
+        ints[4] = DonorPoolSnapshot.orNull(donorKey2);
+        ints[5] = DonorPoolSnapshot.orNull(donorKey3);
+        ints[6] = DonorPoolSnapshot.orNull(donorKey4);
+        ints[7] = DonorPoolSnapshot.orNull(receivesUC);
+        ints[8] = DonorPoolSnapshot.orNull(receivesLegacyBenefit);
+        doubles[0] = DonorPoolSnapshot.orNaN(disposableIncomePerMonth);
+        doubles[1] = DonorPoolSnapshot.orNaN(originalIncomePerMonth);
+        doubles[2] = DonorPoolSnapshot.orNaN(earningsPerMonth);
+        doubles[3] = DonorPoolSnapshot.orNaN(benMeansTestPerMonth);
+        doubles[4] = DonorPoolSnapshot.orNaN(benNonMeansTestPerMonth);
+        doubles[5] = DonorPoolSnapshot.orNaN(secondIncomePerMonth);
+        doubles[6] = DonorPoolSnapshot.orNaN(childcareCostPerMonth);
+    }
+    private static Integer fromSnapshot(int value) {
+        return (value == DonorPoolSnapshot.NULL_INT) ? null : value;
+    }
+    private static Double fromSnapshot(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
     public Integer getDonorKey(int regime) {
         if (regime==0) {
             return donorKey0;
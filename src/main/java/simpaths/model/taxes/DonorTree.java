@@ -0,0 +1,259 @@
+package simpaths.model.taxes;
+
+
+import simpaths.data.MahalanobisDistance;
+
+
+/**
+ *
+ * CLASS TO SEARCH THE DONORS OF A COARSE-EXACT MATCH FOR NEAREST NEIGHBOURS ON MULTIPLE MATCHING FEATURES
+ *
+ * WHERE A MATCH IS REFINED BY SECOND INCOME AND/OR CHILDCARE COSTS, DonorTaxImputation SELECTS DONORS BY THE MAHALANOBIS
+ * DISTANCE OF THEIR MEASUREMENT VECTORS (SEE DonorIndex.Group.measurementVector). THE MAHALANOBIS DISTANCE IS THE
+ * EUCLIDEAN DISTANCE BETWEEN VECTORS TRANSFORMED BY MahalanobisDistance.getWhiteningTransform, SO THE TRANSFORMED VECTORS
+ * ARE STORED IN A KD-TREE, AND THE k NEAREST DONORS ARE FOUND BY A BRANCH AND BOUND SEARCH OF THE TREE INTO A BOUNDED HEAP.
+ *
+ * THE TREE IS IMPLICIT AND BALANCED: THE NODE OF A RANGE OF POSITIONS [lo, hi) IS ITS MEDIAN POSITION, SPLITTING THE RANGE
+ * ON THE AXIS OF WIDEST SPREAD, WITH THE LOWER HALF OF THE RANGE TO THE LEFT AND THE UPPER HALF TO THE RIGHT.
+ *
+ */
+public class DonorTree {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    private final int dimension;
+    private final int size;
+    private final double[][] transform;     // whitening transform of measurement vectors
+    private final double[] coordinates;     // transformed measurement vectors, dimension values by node
+    private final int[] member;             // position in group, by node
+    private final int[] axis;               // splitting axis, by node
+
+
+    /**
+     * CONSTRUCTOR
+     * @param group donors of coarse-exact match
+     * @param flagSecondIncome true if second income is a matching feature
+     * @param flagChildcareCost true if childcare costs are a matching feature
+     * @param distance Mahalanobis distance of the matching features
+     */
+    DonorTree(DonorIndex.Group group, boolean flagSecondIncome, boolean flagChildcareCost, MahalanobisDistance distance) {
+
+        transform = distance.getWhiteningTransform();
+        dimension = transform.length;
+        size = group.size();
+        double[] points = new double[size * dimension];
+        double[] vector = new double[dimension];
+        int[] order = new int[size];
+        for (int ii=0; ii<size; ii++) {
+            group.measurementVector(ii, flagSecondIncome, flagChildcareCost, vector);
+            transform(vector, points, ii * dimension);
+            order[ii] = ii;
+        }
+
+        axis = new int[size];
+        build(points, order, 0, size);
+        member = order;
+        coordinates = new double[size * dimension];
+        for (int ii=0; ii<size; ii++) {
+            System.arraycopy(points, member[ii] * dimension, coordinates, ii * dimension, dimension);
+        }
+    }
+
+
+    /**
+     * GETTERS AND SETTERS
+     */
+    public int size() { return size; }
+    public int getDimension() { return dimension; }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO FIND THE NEAREST DONORS TO A MEASUREMENT VECTOR
+     * @param target measurement vector (untransformed, as DonorTaxImputation.getMeasurementVector)
+     * @param neighbours heap to populate with the positions in group of the nearest donors (cleared before search)
+     */
+    public void nearest(double[] target, Neighbours neighbours) {
+
+        if (target.length != dimension)
+            throw new RuntimeException("donor tree supplied measurement vector of different dimension to matching features");
+        double[] query = new double[dimension];
+        transform(target, query, 0);
+        neighbours.clear();
+        search(query, 0, size, neighbours);
+    }
+
+    private void search(double[] query, int lo, int hi, Neighbours neighbours) {
+
+        if (lo >= hi)
+            return;
+        int node = (lo + hi) >>> 1;
+        double distance2 = 0.0;
+        int offset = node * dimension;
+        for (int dd=0; dd<dimension; dd++) {
+            double diff = query[dd] - coordinates[offset + dd];
+            distance2 += diff * diff;
+        }
+        neighbours.offer(member[node], distance2);
+
+        // search the side of the splitting plane that includes the query first, and the other side only if it may be nearer
+        double diff = query[axis[node]] - coordinates[offset + axis[node]];
+        if (diff < 0.0) {
+            search(query, lo, node, neighbours);
+            if (!neighbours.isFull() || diff * diff <= neighbours.worst())
+                search(query, node + 1, hi, neighbours);
+        } else {
+            search(query, node + 1, hi, neighbours);
+            if (!neighbours.isFull() || diff * diff <= neighbours.worst())
+                search(query, lo, node, neighbours);
+        }
+    }
+
+    private void build(double[] points, int[] order, int lo, int hi) {
+
+        if (hi - lo < 2) {
+            if (hi > lo) axis[lo] = 0;
+            return;
+        }
+
+        // split on axis of widest spread
+        int splitAxis = 0;
+        double widest = -1.0;
+        for (int dd=0; dd<dimension; dd++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int ii=lo; ii<hi; ii++) {
+                double value = points[order[ii] * dimension + dd];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                splitAxis = dd;
+            }
+        }
+        int node = (lo + hi) >>> 1;
+        select(points, order, lo, hi - 1, node, splitAxis);
+        axis[node] = splitAxis;
+        build(points, order, lo, node);
+        build(points, order, node + 1, hi);
+    }
+
+    /**
+     * METHOD TO PARTIALLY ORDER order[lo..hi] (INCLUSIVE) SO THAT order[kk] IS PRECEDED BY NO GREATER AND FOLLOWED BY NO
+     * SMALLER VALUE ON THE SPLITTING AXIS (QUICKSELECT)
+     */
+    private void select(double[] points, int[] order, int lo, int hi, int kk, int splitAxis) {
+
+        while (hi > lo) {
+            int mid = (lo + hi) >>> 1;
+            double pivot = points[order[mid] * dimension + splitAxis];
+            int ii = lo, jj = hi;
+            while (ii <= jj) {
+                while (points[order[ii] * dimension + splitAxis] < pivot) ii++;
+                while (points[order[jj] * dimension + splitAxis] > pivot) jj--;
+                if (ii <= jj) {
+                    int swap = order[ii];
+                    order[ii] = order[jj];
+                    order[jj] = swap;
+                    ii++;
+                    jj--;
+                }
+            }
+            if (kk <= jj) {
+                hi = jj;
+            } else if (kk >= ii) {
+                lo = ii;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void transform(double[] vector, double[] result, int offset) {
+        for (int ii=0; ii<dimension; ii++) {
+            double value = 0.0;
+            for (int jj=0; jj<dimension; jj++) {
+                value += transform[ii][jj] * vector[jj];
+            }
+            result[offset + ii] = value;
+        }
+    }
+
+
+    /**
+     * CLASS TO STORE THE k NEAREST DONORS FOUND BY A SEARCH, AS A MAX-HEAP OF SQUARED (TRANSFORMED) DISTANCES
+     */
+    public static class Neighbours {
+
+        private final int capacity;
+        private final int[] member;
+        private final double[] distance2;
+        private int size;
+
+        public Neighbours(int capacity) {
+            if (capacity < 1)
+                throw new RuntimeException("nearest neighbour search must retain at least one donor");
+            this.capacity = capacity;
+            member = new int[capacity];
+            distance2 = new double[capacity];
+        }
+
+        public int size() { return size; }
+        public boolean isFull() { return size == capacity; }
+        double worst() { return distance2[0]; }
+        void clear() { size = 0; }
+
+        void offer(int candidate, double candidateDistance2) {
+            if (size < capacity) {
+                // sift up
+                int ii = size++;
+                while (ii > 0) {
+                    int parent = (ii - 1) >>> 1;
+                    if (distance2[parent] >= candidateDistance2) break;
+                    member[ii] = member[parent];
+                    distance2[ii] = distance2[parent];
+                    ii = parent;
+                }
+                member[ii] = candidate;
+                distance2[ii] = candidateDistance2;
+            } else if (candidateDistance2 < distance2[0]) {
+                siftDown(candidate, candidateDistance2);
+            }
+        }
+
+        private void siftDown(int candidate, double candidateDistance2) {
+            int ii = 0;
+            while (true) {
+                int child = 2 * ii + 1;
+                if (child >= size) break;
+                if (child + 1 < size && distance2[child + 1] > distance2[child]) child++;
+                if (distance2[child] <= candidateDistance2) break;
+                member[ii] = member[child];
+                distance2[ii] = distance2[child];
+                ii = child;
+            }
+            member[ii] = candidate;
+            distance2[ii] = candidateDistance2;
+        }
+
+        /**
+         * METHOD TO RETURN THE POSITIONS IN GROUP OF THE DONORS FOUND, IN ASCENDING ORDER OF DISTANCE (EMPTIES THE HEAP)
+         */
+        public int[] drain() {
+            int[] result = new int[size];
+            while (size > 0) {
+                int top = member[0];
+                size--;
+                if (size > 0) siftDown(member[size], distance2[size]);
+                result[size] = top;
+            }
+            return result;
+        }
+    }
+}
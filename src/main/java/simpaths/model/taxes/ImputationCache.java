@@ -0,0 +1,228 @@
+package simpaths.model.taxes;
+
+
+import simpaths.data.Parameters;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *
+ * CLASS TO MEMOISE DONOR SEARCHES OF TAX IMPUTATIONS
+ *
+ * WITHIN A YEAR, BENEFIT UNITS EVALUATE TAXES AND BENEFITS FOR EACH OF THEIR LABOUR ALTERNATIVES, AND THE IO SOLUTION
+ * EVALUATES THEM FOR EVERY STATE COMBINATION AND DISCRETE CONTROL, SO THAT THE SAME DONOR SEARCH IS REPEATED MANY TIMES.
+ * THE OUTCOME OF A DONOR SEARCH (SEE DonorTaxImputation.search) DEPENDS ONLY ON THE SYSTEM YEAR, PRICE YEAR, MATCHING
+ * KEYS, NORMALISED ORIGINAL INCOME, SECOND INCOME AND CHILDCARE COSTS, AND THE RANDOM DRAW USED TO SELECT A DONOR.
+ * OUTCOMES ARE STORED HERE BY THOSE CHARACTERISTICS, AND ARE SCALED TO THE INCOME AND HOURS OF EACH IMPUTATION BY
+ * DonorTaxImputation.evaluate.
+ *
+ * IN EXACT MODE (quantum = 0), OUTCOMES ARE ONLY REUSED FOR BIT-IDENTICAL CHARACTERISTICS, SO THAT IMPUTATIONS ARE
+ * UNCHANGED. OTHERWISE NORMALISED FINANCIALS (ASINH OF MONTHLY VALUES) ARE ROUNDED TO BUCKETS OF WIDTH quantum, AND
+ * POSITIVE RANDOM DRAWS TO RANDOM_DRAW_BUCKETS BUCKETS, AND THE DONOR SEARCH IS EVALUATED AT THE CENTRE OF EACH BUCKET.
+ *
+ * THE CACHE IS BOUNDED: WHEN IT HOLDS capacity OUTCOMES IT IS CLEARED (COUNTED AS AN EVICTION)
+ *
+ */
+public class ImputationCache {
+
+
+    /**
+     * ATTRIBUTES
+     */
+    static final int RANDOM_DRAW_BUCKETS = 64;      // buckets of positive random draws (quantised mode only)
+
+    private final int capacity;                     // maximum number of outcomes stored
+    private final double quantum;                   // bucket width of normalised financials (0 = exact)
+    private final Map<Key, Outcome> outcomes = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * CONSTRUCTOR
+     * @param capacity maximum number of outcomes stored
+     * @param quantum bucket width of normalised financials (0 to only reuse outcomes of bit-identical characteristics)
+     */
+    public ImputationCache(int capacity, double quantum) {
+        if (capacity < 1)
+            throw new InvalidParameterException("tax imputation cache must hold at least one outcome");
+        if (quantum < 0.0 || Double.isNaN(quantum))
+            throw new InvalidParameterException("tax imputation cache quantum must be non-negative");
+        this.capacity = capacity;
+        this.quantum = quantum;
+    }
+
+
+    /**
+     * GETTERS AND SETTERS
+     */
+    public int getCapacity() { return capacity; }
+    public double getQuantum() { return quantum; }
+    public boolean isExact() { return quantum == 0.0; }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public int size() { return outcomes.size(); }
+    public double getHitRate() {
+        long hitsHere = getHits();
+        long lookups = hitsHere + getMisses();
+        return (lookups > 0) ? (double)hitsHere / lookups : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return "tax imputation cache (" + (isExact() ? "exact" : "quantum " + quantum) + "): " + getHits() + " hits, " +
+                getMisses() + " misses (hit rate " + String.format("%.3f", getHitRate()) + "), " + size() +
+                " outcomes stored, " + getEvictions() + " evictions";
+    }
+
+
+    /*
+     * WORKING METHODS
+     */
+
+
+    /**
+     * METHOD TO RETURN THE OUTCOME OF A DONOR SEARCH, EVALUATING IT IF NOT STORED
+     * @param systemYear system year of imputation
+     * @param keys donor keys of imputation (regime keys, price year and random draw are read)
+     * @param originalIncome normalised original income
+     * @param secondIncome normalised second income
+     * @param childcareCost normalised childcare cost
+     * @param search donor search, evaluated at the (bucketed) characteristics if the outcome is not stored
+     * @return outcome of donor search
+     */
+    public Outcome get(int systemYear, DonorKeys keys, double originalIncome, double secondIncome, double childcareCost,
+                       Search search) {
+
+        double oi = bucket(originalIncome);
+        double si = bucket(secondIncome);
+        double cc = bucket(childcareCost);
+        double draw = bucketDraw(keys.getRandomDraw());
+        Key key = new Key(systemYear, keys, oi, si, cc, draw);
+        Outcome outcome = outcomes.get(key);
+        if (outcome != null) {
+            hits.increment();
+            return outcome;
+        }
+
+        // evaluated outside the map, so that concurrent searches for other keys are not blocked
+        misses.increment();
+        outcome = search.search(systemYear, oi, si, cc, draw);
+        if (outcomes.size() >= capacity) {
+            outcomes.clear();
+            evictions.increment();
+        }
+        Outcome stored = outcomes.putIfAbsent(key, outcome);
+        return (stored != null) ? stored : outcome;
+    }
+
+    private double bucket(double value) {
+        if (isExact())
+            return value;
+        return (Math.floor(value / quantum) + 0.5) * quantum;
+    }
+
+    private double bucketDraw(double draw) {
+        if (isExact() || draw <= 0.0)
+            return draw;    // averaging (-1) and nearest neighbour (-2) retained
+        double bucket = Math.min(Math.floor(draw * RANDOM_DRAW_BUCKETS), RANDOM_DRAW_BUCKETS - 1);
+        return (bucket + 0.5) / RANDOM_DRAW_BUCKETS;
+    }
+
+
+    /**
+     * INTERFACE OF THE DONOR SEARCH TO MEMOISE
+     */
+    @FunctionalInterface
+    public interface Search {
+        Outcome search(int systemYear, double originalIncome, double secondIncome, double childcareCost, double randomDraw);
+    }
+
+
+    /**
+     * CLASS TO STORE THE OUTCOME OF A DONOR SEARCH, BEFORE SCALING BY THE INCOME AND HOURS OF AN IMPUTATION
+     */
+    public static class Outcome {
+
+        final int matchCriterion;
+        final long donorID;
+        final boolean lowIncome;                // disposable income and benefits are per week if true, and ratios to original income otherwise
+        final double disposableIncomePerWeek;
+        final double benefitsReceivedPerWeek;
+        final double meanUC;                    // weighted mean of candidates that received UC
+        final double meanLegacyBenefit;         // weighted mean of candidates that received legacy benefits
+        final int receivedUC;                   // as reported by nearest neighbour, if no preferred candidate was selected
+        final int receivedLegacyBenefit;
+
+        Outcome(int matchCriterion, long donorID, boolean lowIncome, double disposableIncomePerWeek,
+                double benefitsReceivedPerWeek, double meanUC, double meanLegacyBenefit, int receivedUC,
+                int receivedLegacyBenefit) {
+            this.matchCriterion = matchCriterion;
+            this.donorID = donorID;
+            this.lowIncome = lowIncome;
+            this.disposableIncomePerWeek = disposableIncomePerWeek;
+            this.benefitsReceivedPerWeek = benefitsReceivedPerWeek;
+            this.meanUC = meanUC;
+            this.meanLegacyBenefit = meanLegacyBenefit;
+            this.receivedUC = receivedUC;
+            this.receivedLegacyBenefit = receivedLegacyBenefit;
+        }
+    }
+
+
+    /**
+     * CLASS TO IDENTIFY DONOR SEARCHES (FINANCIALS AND DRAWS COMPARED BY BIT PATTERN)
+     */
+    private static class Key {
+
+        final int systemYear, priceYear;
+        final int[] keys;
+        final long originalIncome, secondIncome, childcareCost, randomDraw;
+        final int hash;
+
+        Key(int systemYear, DonorKeys donorKeys, double originalIncome, double secondIncome, double childcareCost,
+            double randomDraw) {
+            this.systemYear = systemYear;
+            priceYear = donorKeys.getPriceYear();
+            keys = new int[Parameters.TAXDB_REGIMES];
+            for (int ii=0; ii<keys.length; ii++) {
+                keys[ii] = donorKeys.getKey(ii);
+            }
+            this.originalIncome = Double.doubleToLongBits(originalIncome);
+            this.secondIncome = Double.doubleToLongBits(secondIncome);
+            this.childcareCost = Double.doubleToLongBits(childcareCost);
+            this.randomDraw = Double.doubleToLongBits(randomDraw);
+            int hh = systemYear;
+            hh = 31 * hh + priceYear;
+            hh = 31 * hh + Arrays.hashCode(keys);
+            hh = 31 * hh + Long.hashCode(this.originalIncome);
+            hh = 31 * hh + Long.hashCode(this.secondIncome);
+            hh = 31 * hh + Long.hashCode(this.childcareCost);
+            hh = 31 * hh + Long.hashCode(this.randomDraw);
+            hash = hh;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return systemYear == other.systemYear && priceYear == other.priceYear &&
+                    originalIncome == other.originalIncome && secondIncome == other.secondIncome &&
+                    childcareCost == other.childcareCost && randomDraw == other.randomDraw &&
+                    Arrays.equals(keys, other.keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
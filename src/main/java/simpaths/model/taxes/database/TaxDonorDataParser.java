@@ -2,6 +2,7 @@ package simpaths.model.taxes.database;
 
 
 import javax.swing.*;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -11,9 +12,17 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityTransaction;
@@ -115,6 +124,7 @@ public class TaxDonorDataParser {
                 + "ALTER TABLE DONORTAXUNITPOLICY ADD FOREIGN KEY (TUID) REFERENCES DONORTAXUNIT (ID);"
                 + "ALTER TABLE DONORPERSONPOLICY ADD FOREIGN KEY (PID) REFERENCES DONORPERSON (ID);"
             );
+            DonorPoolSnapshot.recordGeneration(conn);
         }
         catch(SQLException e){
             throw new RuntimeException("SQL Exception thrown! " + e.getMessage());
@@ -480,46 +490,44 @@ public class TaxDonorDataParser {
             // create list of attributes (column names) of EUROMOD output files that depend on the policy parameters and that will vary between different scenarios
             Set<String> policyOutputVariables = new LinkedHashSet<String>(Arrays.asList(Parameters.DONOR_POLICY_VARIABLES));
 
+            // read EUROMOD output files in parallel, retaining only the required columns
+            // The first file should include Input & Output vars, the rest only Output vars.
+            List<String> policyNames = new ArrayList<>(euromodPolicySchedule.values());
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(policyNames.size(), Runtime.getRuntime().availableProcessors())));
+            List<Future<List<String[]>>> readers = new ArrayList<>(policyNames.size());
+            for (int ii = 0; ii < policyNames.size(); ii++) {
+                Set<String> invariantHere = (ii == 0) ? policyInvariantAttributeNames : Collections.emptySet();
+                String policyName = policyNames.get(ii);
+                readers.add(executor.submit(() -> readEuromodOutput(policyName, invariantHere, policyOutputVariables)));
+            }
             int numRows = -1;
-            for (String policyName: euromodPolicySchedule.values()) {
-
-                Path source;
-                source = FileSystems.getDefault().getPath(Parameters.getEuromodOutputDirectory(), policyName + ".txt");
-                List<String> fileContentByLine = Files.readAllLines(source);
-
-                // Get indices of required vars. The first file should include Input & Output vars, the rest only Output vars.
-                String[] tmpHeader = fileContentByLine.get(0).split("\t");
-                Map<String, Integer> indices = new LinkedHashMap<String, Integer>();
-                int p = 0;
-                for (String vr: tmpHeader)
-                {
-                    if (numRows == -1 && policyInvariantAttributeNames.contains(vr)) indices.put(vr, p);
-                    if (policyOutputVariables.contains(vr)) indices.put(vr, p);
-                    p++;
-                }
-
-                // check the number of rows of each .txt file (which corresponds to the number of persons) are the same
-                if (numRows == -1) {	//Set the length to the first file
-                    numRows = fileContentByLine.size();
-                }
-                else {
-                    int newNumRows = fileContentByLine.size();
-                    if (newNumRows != numRows) {
-                        throw new IllegalArgumentException("ERROR - the EUROMOD policy scenario textfile " + policyName + ".txt has " + newNumRows + " rows, which is not the same number as at least one other EUROMOD .txt file!  All files must have the same number of rows (each row corresponds to a different person / agent)!");
-                    }
-                }
+            try {
+                for (int ii = 0; ii < policyNames.size(); ii++) {
 
-                List<String[]> fileContentByLineSplit = new ArrayList<>(numRows);
+                    String policyName = policyNames.get(ii);
+                    List<String[]> fileContentByLineSplit = readers.get(ii).get();
 
-                for (String line: fileContentByLine) {
-                    String[] dataArray = line.split("\t");
-                    List<String> usedVars = new ArrayList<>();
-                    for (Integer ind: indices.values()) usedVars.add(dataArray[ind]);
-                    fileContentByLineSplit.add(usedVars.toArray(new String[0]));
-                    //				fileContentByLineSplit.add(dataArray);
+                    // check the number of rows of each .txt file (which corresponds to the number of persons) are the same
+                    if (numRows == -1) {	//Set the length to the first file
+                        numRows = fileContentByLineSplit.size();
+                    }
+                    else {
+                        int newNumRows = fileContentByLineSplit.size();
+                        if (newNumRows != numRows) {
+                            throw new IllegalArgumentException("ERROR - the EUROMOD policy scenario textfile " + policyName + ".txt has " + newNumRows + " rows, which is not the same number as at least one other EUROMOD .txt file!  All files must have the same number of rows (each row corresponds to a different person / agent)!");
+                        }
+                    }
+                    allFilesByName.put(policyName, fileContentByLineSplit);
                 }
-
-                allFilesByName.put(policyName, fileContentByLineSplit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while reading EUROMOD output files");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new RuntimeException("failed to read EUROMOD output files", e.getCause());
+            } finally {
+                executor.shutdownNow();
             }
 
             // write data
@@ -561,18 +569,34 @@ public class TaxDonorDataParser {
             bufferWriter.append(newLine);
 
             // write data to new file
+            List<List<String[]>> contentByFile = new ArrayList<>();
+            List<int[]> columnsByFile = new ArrayList<>();
+            for (String filename: attributePositionsByNameByFilename.keySet()) {
+                Map<String, Integer> mapColumnNamesByIndex = attributePositionsByNameByFilename.get(filename);
+                String[] headerHere = allFilesByName.get(filename).get(0);
+                int[] columns = new int[mapColumnNamesByIndex.size()];
+                int kk = 0;
+                for (String columnName: mapColumnNamesByIndex.keySet()) {
+                    int column = mapColumnNamesByIndex.get(columnName);
+                    if (!columnName.equals(headerHere[column])) {
+                        throw new IllegalArgumentException("ERROR - column names do not match!");
+                    }
+                    columns[kk++] = column;
+                }
+                contentByFile.add(allFilesByName.get(filename));
+                columnsByFile.add(columns);
+            }
+            StringBuilder line = new StringBuilder();
             for (int row = 1; row < numRows; row++) {
-                for (String filename: attributePositionsByNameByFilename.keySet()) {
-                    Map<String, Integer> mapColumnNamesByIndex = attributePositionsByNameByFilename.get(filename);
-                    for (String columnName: mapColumnNamesByIndex.keySet()) {
-                        int column = mapColumnNamesByIndex.get(columnName);
-                        if (!columnName.equals(allFilesByName.get(filename).get(0)[column])) {
-                            throw new IllegalArgumentException("ERROR - column names do not match!");
-                        }
-                        bufferWriter.append(allFilesByName.get(filename).get(row)[column] + delimiter);
+                line.setLength(0);
+                for (int ff = 0; ff < contentByFile.size(); ff++) {
+                    String[] values = contentByFile.get(ff).get(row);
+                    for (int column: columnsByFile.get(ff)) {
+                        line.append(values[column]).append(delimiter);
                     }
                 }
-                bufferWriter.append(newLine);
+                line.append(newLine);
+                bufferWriter.append(line);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -598,10 +622,60 @@ public class TaxDonorDataParser {
     }
 
 
+    /**
+     *
+     * METHOD TO READ THE REQUIRED COLUMNS OF A EUROMOD OUTPUT FILE
+     *
+     * @param policyName name of EUROMOD policy (file name without extension)
+     * @param policyInvariantAttributeNames names of policy invariant columns to retain
+     * @param policyOutputVariables names of policy dependent columns to retain
+     * @return retained values of each line (including the header), in order of columns in the file
+     *
+     */
+    private static List<String[]> readEuromodOutput(String policyName, Set<String> policyInvariantAttributeNames,
+                                                    Set<String> policyOutputVariables) throws IOException {
+
+        Path source = FileSystems.getDefault().getPath(Parameters.getEuromodOutputDirectory(), policyName + ".txt");
+        List<String[]> fileContentByLineSplit = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(source)) {
+
+            // Get indices of required vars
+            String line = reader.readLine();
+            if (line == null)
+                throw new IllegalArgumentException("ERROR - the EUROMOD policy scenario textfile " + policyName + ".txt is empty");
+            String[] tmpHeader = line.split("\t");
+            Map<String, Integer> indexMap = new LinkedHashMap<>();
+            int p = 0;
+            for (String vr: tmpHeader) {
+                if (policyInvariantAttributeNames.contains(vr)) indexMap.put(vr, p);
+                if (policyOutputVariables.contains(vr)) indexMap.put(vr, p);
+                p++;
+            }
+            int[] indices = new int[indexMap.size()];
+            p = 0;
+            for (Integer ind: indexMap.values()) indices[p++] = ind;
+
+            while (line != null) {
+                String[] dataArray = line.split("\t");
+                String[] usedVars = new String[indices.length];
+                for (int ii = 0; ii < indices.length; ii++) {
+                    usedVars[ii] = dataArray[indices[ii]];
+                }
+                fileContentByLineSplit.add(usedVars);
+                line = reader.readLine();
+            }
+        }
+        return fileContentByLineSplit;
+    }
+
+
     /**
      *
      * METHOD TO POPULATE TAX UNIT TABLES FROM PERSON LEVEL DATA
      *
+     * Tax unit policies are evaluated from the persons of each tax unit in parallel, and are written to the
+     * DONORTAXUNITPOLICY table in batches via JDBC, replacing any existing policies for the EUROMOD policy schedule
+     *
      */
     public static void populateDonorTaxUnitTables(Country country, boolean showGui) {
 
@@ -618,27 +692,33 @@ public class TaxDonorDataParser {
 
         // gather all donor tax units
         List<DonorTaxUnit> taxUnits = null;
+        List<List<DonorTaxUnitPolicy>> taxUnitPolicies = null;
 
         // establish session for database link
+        String url = "jdbc:h2:file:" + Parameters.getInputDirectory() + "input" + ";TRACE_LEVEL_FILE=0;TRACE_LEVEL_SYSTEM_OUT=0;AUTO_SERVER=TRUE";
         EntityTransaction txn = null;
         try {
             // access database and obtain donor pool
             Map propertyMap = new HashMap();
-            propertyMap.put("hibernate.connection.url", "jdbc:h2:file:" + Parameters.getInputDirectory() + "input" + ";TRACE_LEVEL_FILE=0;TRACE_LEVEL_SYSTEM_OUT=0;AUTO_SERVER=TRUE");
+            propertyMap.put("hibernate.connection.url", url);
             EntityManager em = Persistence.createEntityManagerFactory("tax-database", propertyMap).createEntityManager();
             txn = em.getTransaction();
             txn.begin();
 
             // check that all annual samples are the same size (system files for database should have used the same input data
-            Integer checkSum = null;
+            Map<Integer, Long> sampleSizes = new HashMap<>();
+            List<Object[]> counts = em.createQuery("SELECT pu.systemYear, COUNT(pu) FROM DonorPersonPolicy pu GROUP BY pu.systemYear").getResultList();
+            for (Object[] count : counts) {
+                sampleSizes.put((Integer) count[0], (Long) count[1]);
+            }
+            Long checkSum = null;
             for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
                 int systemYear = Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
-                String query = "SELECT pu FROM DonorPersonPolicy pu WHERE systemYear=" + systemYear;
-                List<DonorPersonPolicy> persons = em.createQuery(query).getResultList();
+                long sampleSize = sampleSizes.getOrDefault(systemYear, 0L);
                 if (checkSum==null) {
-                    checkSum = persons.size();
+                    checkSum = sampleSize;
                 } else {
-                    if (checkSum!=persons.size())
+                    if (checkSum!=sampleSize)
                         // All tax database files should be derived using same input dataset
                         throw new RuntimeException("sample sizes for tax database vary between system years");
                 }
@@ -648,138 +728,232 @@ public class TaxDonorDataParser {
             // populate tax unit data
             taxUnits = em.createQuery("SELECT DISTINCT tu FROM DonorTaxUnit tu LEFT JOIN FETCH tu.persons tp LEFT JOIN FETCH tp.policies pl").getResultList();
             System.out.println("Completed querying full donor database sample");
-            int counter = 0, decile=(int)((double)taxUnits.size()*0.1);
-            for (DonorTaxUnit taxUnit : taxUnits) {
-                // loop through tax units
-
-                counter++;
-                int age = 0, numberMembersOver17 = 0, numberChildrenUnder5 = 0, numberChildren5To9 = 0;
-                int numberChildren10To17 = 0, dlltsd1 = -1, dlltsd2 = -1, careProvision = -1;
-                double hoursWorkedPerWeek1 = 0.0, hoursWorkedPerWeek2 = 0.0;
-                boolean flagInitialiseDemographics = true;
-                for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
-
-                    int systemYear = Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
-                    double origIncome = 0.0;
-                    double earnings = 0.0;
-                    double dispIncome = 0.0;
-                    double benmt = 0.0;
-                    double bennt = 0.0;
-                    double principalIncome = -999999.0;
-                    double childcare = 0.0;
-                    int ageTest = 0;
-                    boolean receivesUC = false;
-                    boolean receivesLB = false;
-                    for(DonorPerson person : taxUnit.getPersons()) {
-                        // loop through persons
-
-                        origIncome += person.getPolicy(fromYear).getOriginalIncomePerMonth();
-                        if (person.getPolicy(fromYear).getOriginalIncomePerMonth() > principalIncome)
-                            principalIncome = person.getPolicy(fromYear).getOriginalIncomePerMonth();
-                        earnings += person.getPolicy(fromYear).getEarningsPerMonth();
-                        dispIncome += person.getPolicy(fromYear).getDisposableIncomePerMonth();
-                        benmt += person.getPolicy(fromYear).getMonetaryBenefitsAmount();
-                        bennt += person.getPolicy(fromYear).getNonMonetaryBenefitsAmount();
-                        childcare += person.getPolicy(fromYear).getChildcareCostPerMonth();
-                        receivesUC = receivesUC || person.getPolicy(fromYear).getReceivesUC() == 1;
-                        receivesLB = receivesLB || person.getPolicy(fromYear).getReceivesLegacyBenefit() == 1;
-                        int agePerson = person.getAge();
-                        if (flagInitialiseDemographics) {
-                            // need to instantiate variables to evaluate keys
-
-                            age = Math.max(age, agePerson);
-                            if (agePerson < 5) {
-                                numberChildrenUnder5 += 1;
-                            } else if (agePerson < 10) {
-                                numberChildren5To9 += 1;
-                            } else if (agePerson < Parameters.AGE_TO_BECOME_RESPONSIBLE) {
-                                numberChildren10To17 += 1;
-                            } else {
-                                numberMembersOver17 += 1;
-                            }
-                            int hoursWorked = person.getHoursWorkedWeekly();
-                            if (hoursWorked > hoursWorkedPerWeek1) {
-                                hoursWorkedPerWeek2 = hoursWorkedPerWeek1;
-                                hoursWorkedPerWeek1 = hoursWorked;
-                            } else if (hoursWorked > hoursWorkedPerWeek2) {
-                                hoursWorkedPerWeek2 = hoursWorked;
-                            }
-                            if (agePerson >= Parameters.AGE_TO_BECOME_RESPONSIBLE) {
-                                int dlltsd = person.getDlltsd();
-                                if (dlltsd > dlltsd1) {
-                                    dlltsd2 = dlltsd1;
-                                    dlltsd1 = dlltsd;
-                                } else if (dlltsd > dlltsd2) {
-                                    dlltsd2 = dlltsd;
-                                }
-                            }
-                            int cphere = person.getCarer();
-                            if (cphere>careProvision)
-                                careProvision = cphere;
-                        } else {
-                            ageTest = Math.max(ageTest, agePerson);
-                        }
-                    }
-                    if (!flagInitialiseDemographics && ageTest!=age)
-                        throw new RuntimeException("Demographic characteristics vary across system years derived from EUROMOD");
-                    flagInitialiseDemographics = false;
-                    double secondIncome = Math.max(0.0, origIncome - principalIncome);
-                    DonorTaxUnitPolicy taxUnitPolicy = taxUnit.getPolicyByFromYear(fromYear);
-                    taxUnitPolicy.setSystemYear(systemYear);
-                    if (numberMembersOver17==1 || numberMembersOver17==2) {
-
-                        // evaluate donor keys
-                        double originalIncomePerWeek = origIncome / Parameters.WEEKS_PER_MONTH;
-                        double childcareCostPerWeek = childcare / Parameters.WEEKS_PER_MONTH;
-                        double secondIncomePerWeek = secondIncome / Parameters.WEEKS_PER_MONTH;
-                        DonorKeys keys = new DonorKeys();
-                        KeyFunction keyFunction = new KeyFunction(systemYear, systemYear, age, numberMembersOver17, numberChildrenUnder5,
-                                numberChildren5To9, numberChildren10To17, hoursWorkedPerWeek1, hoursWorkedPerWeek2, dlltsd1, dlltsd2,
-                                careProvision, originalIncomePerWeek, secondIncomePerWeek, childcareCostPerWeek);
-                        keys.evaluate(keyFunction);
-
-                        // set all taxUnitPolicy attributes
-                        taxUnitPolicy.setOriginalIncomePerMonth(origIncome);
-                        taxUnitPolicy.setEarningsPerMonth(earnings);
-                        taxUnitPolicy.setDisposableIncomePerMonth(dispIncome);
-                        taxUnitPolicy.setBenMeansTestPerMonth(benmt);
-                        taxUnitPolicy.setBenNonMeansTestPerMonth(bennt);
-                        taxUnitPolicy.setSecondIncomePerMonth(secondIncome);
-                        taxUnitPolicy.setChildcareCostPerMonth(childcare);
-                        taxUnitPolicy.setReceivesUC(receivesUC ? 1 : 0);
-                        taxUnitPolicy.setReceivesLegacyBenefit(receivesLB ? 1 : 0);
-                        for(int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
-                            taxUnitPolicy.setDonorKey(ii, keys.getKey(ii));
-                        }
-                    } else {
-
-                        for(int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
-                            taxUnitPolicy.setDonorKey(ii, -1);
-                        }
-                    }
+            taxUnitPolicies = taxUnits.parallelStream()
+                    .map(TaxDonorDataParser::evaluateTaxUnitPolicies)
+                    .collect(Collectors.toList());
+            System.out.println("Completed evaluating policies of " + taxUnits.size() + " donor tax units");
 
-                    em.persist(taxUnitPolicy);
-                }
-                em.persist(taxUnit);
-                if ((counter % decile)==0) {
-                    int dec = counter/decile;
-                    System.out.println("Completed processing decile " + dec + " of donor database");
-                }
-            }
-
-            // close connection
+            // close connection (entities are not modified)
             txn.commit();
             em.close();
         } catch (Exception e) {
-            if (txn != null) {
+            if (txn != null && txn.isActive()) {
                 txn.rollback();
             }
             e.printStackTrace();
             throw new RuntimeException("Problem populating tax unit database for imputing tax and benefit payments");
         }
 
+        // write tax unit policies
+        try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+            insertTaxUnitPolicies(conn, taxUnitPolicies);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Problem populating tax unit database for imputing tax and benefit payments");
+        }
+
         // remove message box
         if (csvFrame != null)
             csvFrame.setVisible(false);
     }
+
+
+    /**
+     *
+     * METHOD TO EVALUATE THE POLICIES OF A TAX UNIT FROM THE POLICIES OF ITS MEMBERS, FOR EACH EUROMOD POLICY
+     *
+     * @param taxUnit tax unit, with its persons and their policies
+     * @return new tax unit policies, in order of the EUROMOD policy schedule
+     *
+     */
+    private static List<DonorTaxUnitPolicy> evaluateTaxUnitPolicies(DonorTaxUnit taxUnit) {
+        return evaluateTaxUnitPolicies(taxUnit, KeyFunction::evaluateKeys);
+    }
+
+    /**
+     * @param keyEvaluation evaluates the donor keys of each regime (KeyFunction.evaluateKeys)
+     */
+    static List<DonorTaxUnitPolicy> evaluateTaxUnitPolicies(DonorTaxUnit taxUnit, Function<KeyFunction, Integer[]> keyEvaluation) {
+
+        List<DonorTaxUnitPolicy> taxUnitPolicies = new ArrayList<>(Parameters.EUROMODpolicyScheduleSystemYearMap.size());
+        int age = 0, numberMembersOver17 = 0, numberChildrenUnder5 = 0, numberChildren5To9 = 0;
+        int numberChildren10To17 = 0, dlltsd1 = -1, dlltsd2 = -1, careProvision = -1;
+        double hoursWorkedPerWeek1 = 0.0, hoursWorkedPerWeek2 = 0.0;
+        boolean flagInitialiseDemographics = true;
+        for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
+
+            int systemYear = Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
+            double origIncome = 0.0;
+            double earnings = 0.0;
+            double dispIncome = 0.0;
+            double benmt = 0.0;
+            double bennt = 0.0;
+            double principalIncome = -999999.0;
+            double childcare = 0.0;
+            int ageTest = 0;
+            boolean receivesUC = false;
+            boolean receivesLB = false;
+            for(DonorPerson person : taxUnit.getPersons()) {
+                // loop through persons
+
+                DonorPersonPolicy personPolicy = person.getPolicy(fromYear);
+                origIncome += personPolicy.getOriginalIncomePerMonth();
+                if (personPolicy.getOriginalIncomePerMonth() > principalIncome)
+                    principalIncome = personPolicy.getOriginalIncomePerMonth();
+                earnings += personPolicy.getEarningsPerMonth();
+                dispIncome += personPolicy.getDisposableIncomePerMonth();
+                benmt += personPolicy.getMonetaryBenefitsAmount();
+                bennt += personPolicy.getNonMonetaryBenefitsAmount();
+                childcare += personPolicy.getChildcareCostPerMonth();
+                receivesUC = receivesUC || personPolicy.getReceivesUC() == 1;
+                receivesLB = receivesLB || personPolicy.getReceivesLegacyBenefit() == 1;
+                int agePerson = person.getAge();
+                if (flagInitialiseDemographics) {
+                    // need to instantiate variables to evaluate keys
+
+                    age = Math.max(age, agePerson);
+                    if (agePerson < 5) {
+                        numberChildrenUnder5 += 1;
+                    } else if (agePerson < 10) {
+                        numberChildren5To9 += 1;
+                    } else if (agePerson < Parameters.AGE_TO_BECOME_RESPONSIBLE) {
+                        numberChildren10To17 += 1;
+                    } else {
+                        numberMembersOver17 += 1;
+                    }
+                    int hoursWorked = person.getHoursWorkedWeekly();
+                    if (hoursWorked > hoursWorkedPerWeek1) {
+                        hoursWorkedPerWeek2 = hoursWorkedPerWeek1;
+                        hoursWorkedPerWeek1 = hoursWorked;
+                    } else if (hoursWorked > hoursWorkedPerWeek2) {
+                        hoursWorkedPerWeek2 = hoursWorked;
+                    }
+                    if (agePerson >= Parameters.AGE_TO_BECOME_RESPONSIBLE) {
+                        int dlltsd = person.getDlltsd();
+                        if (dlltsd > dlltsd1) {
+                            dlltsd2 = dlltsd1;
+                            dlltsd1 = dlltsd;
+                        } else if (dlltsd > dlltsd2) {
+                            dlltsd2 = dlltsd;
+                        }
+                    }
+                    int cphere = person.getCarer();
+                    if (cphere>careProvision)
+                        careProvision = cphere;
+                } else {
+                    ageTest = Math.max(ageTest, agePerson);
+                }
+            }
+            if (!flagInitialiseDemographics && ageTest!=age)
+                throw new RuntimeException("Demographic characteristics vary across system years derived from EUROMOD");
+            flagInitialiseDemographics = false;
+            double secondIncome = Math.max(0.0, origIncome - principalIncome);
+            DonorTaxUnitPolicy taxUnitPolicy = new DonorTaxUnitPolicy(fromYear, taxUnit);
+            taxUnitPolicy.setSystemYear(systemYear);
+            if (numberMembersOver17==1 || numberMembersOver17==2) {
+
+                // evaluate donor keys
+                double originalIncomePerWeek = origIncome / Parameters.WEEKS_PER_MONTH;
+                double childcareCostPerWeek = childcare / Parameters.WEEKS_PER_MONTH;
+                double secondIncomePerWeek = secondIncome / Parameters.WEEKS_PER_MONTH;
+                KeyFunction keyFunction = new KeyFunction(systemYear, systemYear, age, numberMembersOver17, numberChildrenUnder5,
+                        numberChildren5To9, numberChildren10To17, hoursWorkedPerWeek1, hoursWorkedPerWeek2, dlltsd1, dlltsd2,
+                        careProvision, originalIncomePerWeek, secondIncomePerWeek, childcareCostPerWeek);
+                Integer[] keys = keyEvaluation.apply(keyFunction);
+
+                // set all taxUnitPolicy attributes
+                taxUnitPolicy.setOriginalIncomePerMonth(origIncome);
+                taxUnitPolicy.setEarningsPerMonth(earnings);
+                taxUnitPolicy.setDisposableIncomePerMonth(dispIncome);
+                taxUnitPolicy.setBenMeansTestPerMonth(benmt);
+                taxUnitPolicy.setBenNonMeansTestPerMonth(bennt);
+                taxUnitPolicy.setSecondIncomePerMonth(secondIncome);
+                taxUnitPolicy.setChildcareCostPerMonth(childcare);
+                taxUnitPolicy.setReceivesUC(receivesUC ? 1 : 0);
+                taxUnitPolicy.setReceivesLegacyBenefit(receivesLB ? 1 : 0);
+                for(int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
+                    if (keys[ii] == null)
+                        throw new RuntimeException("request for uninitialised key");
+                    taxUnitPolicy.setDonorKey(ii, keys[ii]);
+                }
+            } else {
+
+                for(int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
+                    taxUnitPolicy.setDonorKey(ii, -1);
+                }
+            }
+            taxUnitPolicies.add(taxUnitPolicy);
+        }
+        return taxUnitPolicies;
+    }
+
+
+    /**
+     *
+     * METHOD TO WRITE TAX UNIT POLICIES TO THE DONORTAXUNITPOLICY TABLE IN BATCHES, RECORDING A NEW GENERATION OF
+     * THE DONOR TABLES (SEE DonorPoolSnapshot)
+     * Columns are as mapped by DonorTaxUnitPolicy (the table is brought up to date with the mapping by the persistence unit),
+     * listed by DonorPoolSnapshot.policyColumns
+     *
+     * @param conn database connection
+     * @param taxUnitPolicies policies of each tax unit
+     *
+     */
+    static void insertTaxUnitPolicies(Connection conn, List<List<DonorTaxUnitPolicy>> taxUnitPolicies) throws SQLException {
+
+        final int BATCH_SIZE = 5000;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+
+            // remove policies replaced by those evaluated
+            StringBuilder fromYears = new StringBuilder();
+            for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
+                if (fromYears.length() > 0) fromYears.append(",");
+                fromYears.append(fromYear);
+            }
+            try (Statement stat = conn.createStatement()) {
+                stat.execute("DELETE FROM DONORTAXUNITPOLICY WHERE FROM_YEAR IN (" + fromYears + ")");
+            }
+
+            StringBuilder values = new StringBuilder("?");
+            for (int ii=0; ii<DonorPoolSnapshot.POLICY_INTS + DonorPoolSnapshot.POLICY_DOUBLES; ii++) {
+                values.append(", ?");
+            }
+            String sql = "INSERT INTO DONORTAXUNITPOLICY (TUID, " + DonorPoolSnapshot.policyColumns() + ") VALUES (" + values + ")";
+            try (PreparedStatement insert = conn.prepareStatement(sql)) {
+
+                // attributes copied in the column order of DonorTaxUnitPolicy.toSnapshot, so that null values are retained
+                int[] ints = new int[DonorPoolSnapshot.POLICY_INTS];
+                double[] doubles = new double[DonorPoolSnapshot.POLICY_DOUBLES];
+                int batched = 0;
+                for (List<DonorTaxUnitPolicy> policies : taxUnitPolicies) {
+                    for (DonorTaxUnitPolicy policy : policies) {
+
+                        policy.toSnapshot(ints, doubles);
+                        int kk = 1;
+                        insert.setLong(kk++, policy.getTaxUnit().getId());
+                        for (int value : ints) {
+                            if (value == DonorPoolSnapshot.NULL_INT) insert.setNull(kk++, Types.INTEGER);
+                            else insert.setInt(kk++, value);
+                        }
+                        for (double value : doubles) {
+                            if (Double.isNaN(value)) insert.setNull(kk++, Types.DOUBLE);
+                            else insert.setDouble(kk++, value);
+                        }
+                        insert.addBatch();
+                        if (++batched % BATCH_SIZE == 0) insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            DonorPoolSnapshot.recordGeneration(conn);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import simpaths.data.Parameters;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnticipatedStatesTest extends DecisionTestFixture {
+
+    static int ageYears;
+
+    @BeforeAll
+    static void setUp() {
+        ageYears = Parameters.AGE_TO_BECOME_RESPONSIBLE + 1;
+    }
+
+    @Test
+    void appendedCopiesReplicateStatesAndProbability() {
+        AnticipatedStates anticipated = new AnticipatedStates(scale, ageYears);
+        assertEquals(1, anticipated.size());
+        assertEquals(new States(scale, ageYears).labStatesContObject.length, anticipated.width);
+        anticipated.set(0, 1, 0.25);
+        anticipated.setProbability(0, 0.5);
+
+        // repeated expansion beyond initial capacity
+        int first = anticipated.append(0, 3);
+        assertEquals(1, first);
+        anticipated.set(2, 1, 0.75);
+        first = anticipated.append(2, 6);
+        assertEquals(4, first);
+        assertEquals(10, anticipated.size());
+        for (int ii=0; ii<anticipated.size(); ii++) {
+            assertEquals(0.5, anticipated.getProbability(ii));
+            assertEquals((ii == 2 || ii >= 4) ? 0.75 : 0.25, anticipated.get(ii, 1));
+        }
+
+        // copies are independent of the original
+        AnticipatedStates copy = new AnticipatedStates(anticipated);
+        copy.set(9, 1, 1.0);
+        copy.setProbability(9, 0.1);
+        assertEquals(0.75, anticipated.get(9, 1));
+        assertEquals(0.5, anticipated.getProbability(9));
+
+        // states objects reproduce rows
+        States states = anticipated.toStates(3);
+        assertEquals(ageYears, states.ageYears);
+        assertEquals(0.25, states.labStatesContObject[1]);
+        assertSame(states, anticipated.view(9, states));
+        assertEquals(0.75, states.labStatesContObject[1]);
+    }
+
+    @Test
+    void batchInterpolationMatchesStatesArray() {
+        long size = scale.gridDimensions[3][3];
+        Grid grid = new Grid(scale, new HeapGridStore(size));
+        for (long ii=0; ii<size; ii++) {
+            grid.put(ii, 0.5 + 0.4 * Math.sin(ii * 0.37));
+        }
+        int aa = ageYears - Parameters.AGE_TO_BECOME_RESPONSIBLE;
+        AnticipatedStates anticipated = new AnticipatedStates(scale, ageYears);
+        for (int ii=0; ii<anticipated.width; ii++) {
+            anticipated.set(0, ii, scale.axes[aa][ii][1]);
+        }
+        int last = anticipated.width - 1;
+        int copies = (int)Math.round(scale.axes[aa][last][0]) - 1;
+        anticipated.append(0, copies);
+        States[] supplied = new States[anticipated.size()];
+        for (int ii=0; ii<anticipated.size(); ii++) {
+            double[] axis = scale.axes[aa][last];
+            anticipated.set(ii, last, axis[1] + (copies > 0 ? ii * (axis[2] - axis[1]) / copies : 0.0));
+            supplied[ii] = anticipated.toStates(ii);
+        }
+
+        double firstState = 0.5 * (scale.axes[aa][0][1] + scale.axes[aa][0][2]);
+        double[] expected = new double[supplied.length];
+        double[] result = new double[supplied.length];
+        grid.interpolateBatch(grid.prepareBatch(supplied, null, true), firstState, expected);
+        grid.interpolateBatch(grid.prepareBatch(anticipated, null, true), firstState, result);
+        assertArrayEquals(expected, result);
+        for (int ii=0; ii<supplied.length; ii++) {
+            supplied[ii].labStatesContObject[0] = firstState;
+            assertEquals(grid.interpolateAll(supplied[ii], true), result[ii]);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedGridStoreTest extends DecisionTestFixture {
+
+    @TempDir
+    Path directory;
+
+    private Grid smoothGrid() {
+        Grid grid = new Grid(scale, new HeapGridStore(size));
+        for (long ii=0; ii<size; ii++) {
+            grid.put(ii, Math.log(1.0 + ii % 1000) + ii / (double)size);
+        }
+        return grid;
+    }
+
+    @Test
+    void chunksAreDecompressedOnFirstAccess() throws IOException {
+        Grid grid = smoothGrid();
+        String filePath = directory.resolve("grid.ufc").toString();
+        ChunkedGridStore.write(grid, filePath, false);
+
+        ChunkedGridStore store = new ChunkedGridStore(filePath, size, scale.fingerprint());
+        assertEquals(3, store.getNumberOfChunks());
+        assertEquals(0, store.getChunksDecompressed());
+        long index = scale.gridDimensions[1][3] + 5;
+        assertEquals(grid.get(index), store.get(index));
+        assertEquals(1, store.getChunksDecompressed());
+        for (long ii=0; ii<size; ii++) {
+            assertEquals(grid.get(ii), store.get(ii));
+        }
+        assertEquals(3, store.getChunksDecompressed());
+        assertThrows(UnsupportedOperationException.class, () -> store.put(0, 1.0));
+        store.close();
+    }
+
+    @Test
+    void quantisedValuesMatchToSinglePrecision() throws IOException {
+        Grid grid = smoothGrid();
+        String filePath = directory.resolve("grid.ufc").toString();
+        ChunkedGridStore.write(grid, filePath, true);
+
+        ChunkedGridStore store = new ChunkedGridStore(filePath, size, scale.fingerprint());
+        assertTrue(store.isFloat32());
+        for (long ii=0; ii<size; ii++) {
+            assertEquals((float)grid.get(ii), store.get(ii));
+        }
+        store.close();
+    }
+
+    @Test
+    void compressedFileIsReadByManagerFileGrids() throws IOException {
+        Grid grid = smoothGrid();
+        ChunkedGridStore.write(grid, directory.resolve(ManagerFileGrids.compressedFileName(ManagerFileGrids.CONSUMPTION_FILE)).toString(), false);
+
+        Grid loaded = new Grid(scale, new HeapGridStore(size));
+        ManagerFileGrids.unformattedReadWrite(loaded, "read", directory.toString(), ManagerFileGrids.CONSUMPTION_FILE);
+        for (long ii=0; ii<size; ii++) {
+            assertEquals(grid.get(ii), loaded.get(ii));
+        }
+    }
+
+    @Test
+    void rejectsCorruptedChunk() throws IOException {
+        Grid grid = smoothGrid();
+        String filePath = directory.resolve("grid.ufc").toString();
+        ChunkedGridStore.write(grid, filePath, false);
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+            file.seek(file.length() - 10);
+            int value = file.readByte();
+            file.seek(file.length() - 10);
+            file.writeByte(value ^ 0xFF);
+        }
+        ChunkedGridStore store = new ChunkedGridStore(filePath, size, scale.fingerprint());
+        assertEquals(grid.get(0), store.get(0));
+        assertThrows(RuntimeException.class, () -> store.get(size - 1));
+        store.close();
+    }
+}
@@ -0,0 +1,53 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import simpaths.data.Parameters;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixture for tests that use the default state space of DecisionBenchmarks.setDefaultScaleParameters.
+ *
+ * The static state of DecisionParams (and Parameters.flagSocialCare) is saved before the default scale parameters are
+ * set for a test class, and restored after all of its tests, so that test results do not depend on the order in which
+ * test classes are run.
+ */
+abstract class DecisionTestFixture {
+
+    static GridScale scale;     // default state space
+    static long size;           // grid points of first three age slices
+
+    private static final Map<Field, Object> savedDecisionParams = new LinkedHashMap<>();
+    private static boolean savedFlagSocialCare;
+
+    @BeforeAll
+    static void setDefaultScale() throws IllegalAccessException {
+        savedDecisionParams.clear();
+        for (Field field : DecisionParams.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+                field.setAccessible(true);
+                savedDecisionParams.put(field, field.get(null));
+            }
+        }
+        savedFlagSocialCare = Parameters.flagSocialCare;
+
+        DecisionBenchmarks.setDefaultScaleParameters();
+        scale = new GridScale();
+        size = scale.gridDimensions[3][3];
+    }
+
+    @AfterAll
+    static void restoreStaticState() throws IllegalAccessException {
+        for (Map.Entry<Field, Object> entry : savedDecisionParams.entrySet()) {
+            entry.getKey().set(null, entry.getValue());
+        }
+        savedDecisionParams.clear();
+        Parameters.flagSocialCare = savedFlagSocialCare;
+        scale = null;
+    }
+}
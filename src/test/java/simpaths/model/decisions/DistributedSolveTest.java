@@ -0,0 +1,185 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistributedSolveTest extends DecisionTestFixture {
+
+    static final int RANKS = 2;
+    static final int AGES = 3;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void setSmallScale() {
+        DecisionParams.flagHealth = false;
+        DecisionParams.flagDisability = false;
+        DecisionParams.flagEducation = false;
+        DecisionParams.flagLowWageOffer1 = false;
+        DecisionParams.checkpointDirectory = null;
+    }
+
+    private static double solution(int aa, int rank) {
+        return 10.0 * (aa + 1) + rank;
+    }
+
+    /**
+     * solves the share of a process for each age, confirming that the shares of all processes for the age are
+     * visible once the age is complete
+     */
+    private Void solve(int rank) {
+        DistributedSolve distributed = new DistributedSolve(directory.toString(), rank, RANKS);
+        Grids grids = distributed.openGrids();
+        for (int aa=AGES-1; aa>=0; aa--) {
+            grids.valueFunction.put((long)aa * RANKS + rank, solution(aa, rank));
+            distributed.completeAge(grids, aa);
+            for (int rr=0; rr<RANKS; rr++) {
+                assertEquals(solution(aa, rr), grids.valueFunction.get((long)aa * RANKS + rr));
+            }
+        }
+        distributed.finish(grids);
+        grids.close();
+        return null;
+    }
+
+    @Test
+    void ranksShareSolutionsByAge() throws Exception {
+
+        // worker started before coordinator
+        ExecutorService executor = Executors.newFixedThreadPool(RANKS);
+        try {
+            Future<Void> worker = executor.submit(() -> solve(1));
+            Thread.sleep(DistributedSolve.POLL_MILLIS);
+            Future<Void> coordinator = executor.submit(() -> solve(0));
+            coordinator.get(60, TimeUnit.SECONDS);
+            worker.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // coordinator clears marker files once solution is complete
+        File[] files = directory.toFile().listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            String name = file.getName();
+            assertFalse(name.equals(DistributedSolve.READY_FILE) || name.endsWith(".done") ||
+                    name.endsWith(".failed") || name.endsWith(".tmp"), "marker file " + name + " not cleared");
+        }
+        Grids grids = new Grids(directory.toString(), true, false);
+        for (int aa=0; aa<AGES; aa++) {
+            for (int rr=0; rr<RANKS; rr++) {
+                assertEquals(solution(aa, rr), grids.valueFunction.get((long)aa * RANKS + rr));
+            }
+        }
+        grids.close();
+    }
+
+    @Test
+    void failureOfWorkerStopsCoordinator() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(RANKS);
+        try {
+            Future<Void> coordinator = executor.submit(() -> {
+                DistributedSolve distributed = new DistributedSolve(directory.toString(), 0, RANKS);
+                Grids grids = distributed.openGrids();
+                try {
+                    RuntimeException e = assertThrows(RuntimeException.class, () -> distributed.completeAge(grids, AGES - 1));
+                    assertTrue(e.getMessage().contains("process 1 failed"), e.getMessage());
+                } finally {
+                    grids.close();
+                }
+                return null;
+            });
+            Future<Void> worker = executor.submit(() -> {
+                DistributedSolve distributed = new DistributedSolve(directory.toString(), 1, RANKS);
+                Grids grids = distributed.openGrids();
+                distributed.fail(new RuntimeException("worker failure"));
+                grids.close();
+                return null;
+            });
+            worker.get(60, TimeUnit.SECONDS);
+            coordinator.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void killedWorkerIsPresumedFailed() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(RANKS);
+        try {
+            Future<Void> coordinator = executor.submit(() -> {
+                DistributedSolve distributed = new DistributedSolve(directory.toString(), 0, RANKS, 3000);
+                Grids grids = distributed.openGrids();
+                try {
+                    RuntimeException e = assertThrows(RuntimeException.class, () -> distributed.completeAge(grids, AGES - 1));
+                    assertTrue(e.getMessage().contains("process 1 has not reported"), e.getMessage());
+                } finally {
+                    distributed.stopHeartbeat();
+                    grids.close();
+                }
+                return null;
+            });
+            Future<Void> worker = executor.submit(() -> {
+                // worker stops without reporting failure, as if killed
+                DistributedSolve distributed = new DistributedSolve(directory.toString(), 1, RANKS, 3000);
+                Grids grids = distributed.openGrids();
+                distributed.stopHeartbeat();
+                grids.close();
+                return null;
+            });
+            worker.get(60, TimeUnit.SECONDS);
+            coordinator.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void workerThatNeverStartsIsPresumedFailed() {
+        DistributedSolve distributed = new DistributedSolve(directory.toString(), 0, RANKS, 2000);
+        Grids grids = distributed.openGrids();
+        try {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> distributed.completeAge(grids, AGES - 1));
+            assertTrue(e.getMessage().contains("process 1 has not started"), e.getMessage());
+        } finally {
+            distributed.stopHeartbeat();
+            grids.close();
+        }
+    }
+
+    @Test
+    void readyFileOfInterruptedSolutionIsIgnored() throws Exception {
+
+        // ready file left by a coordinator that is no longer running
+        Process finished = new ProcessBuilder("java", "-version").redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        finished.waitFor();
+        Files.writeString(directory.resolve(DistributedSolve.READY_FILE), "stale-token\n" + finished.pid() + "\n0");
+
+        ExecutorService executor = Executors.newFixedThreadPool(RANKS);
+        try {
+            Future<Void> worker = executor.submit(() -> solve(1));
+            Thread.sleep(3 * DistributedSolve.POLL_MILLIS);
+            Future<Void> coordinator = executor.submit(() -> solve(0));
+            coordinator.get(60, TimeUnit.SECONDS);
+            worker.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(Files.exists(directory.resolve(DistributedSolve.READY_FILE)));
+    }
+}
@@ -0,0 +1,74 @@
+package simpaths.model.decisions;
+
+import microsim.statistics.IDoubleSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpectationsCacheTest {
+
+    enum Variable { Age, Health, Region }
+
+    static class Proxy implements IDoubleSource {
+        final Map<Variable, Double> values = new EnumMap<>(Variable.class);
+        Proxy(double age, double health, double region) {
+            values.put(Variable.Age, age);
+            values.put(Variable.Health, health);
+            values.put(Variable.Region, region);
+        }
+        @Override
+        public double getDoubleValue(Enum<?> variableID) {
+            return values.get((Variable) variableID);
+        }
+    }
+
+    static class CountingEvaluator implements Function<IDoubleSource, Double> {
+        int calls = 0;
+        @Override
+        public Double apply(IDoubleSource source) {
+            calls++;
+            return source.getDoubleValue(Variable.Age) + 10.0 * source.getDoubleValue(Variable.Health);
+        }
+    }
+
+    @Test
+    void evaluationsAreKeyedByVariablesRequested() {
+        ExpectationsCache cache = new ExpectationsCache();
+        CountingEvaluator evaluator = new CountingEvaluator();
+
+        assertEquals(32.0, cache.get("health", new Proxy(30, 0.2, 1), evaluator), 1.0E-12);
+        // region is not requested by the step, so does not affect the key
+        assertEquals(32.0, cache.get("health", new Proxy(30, 0.2, 5), evaluator), 1.0E-12);
+        assertEquals(1, evaluator.calls);
+        assertEquals(1, cache.getHits());
+
+        // change to a requested variable is evaluated
+        assertEquals(33.0, cache.get("health", new Proxy(31, 0.2, 1), evaluator), 1.0E-12);
+        assertEquals(2, evaluator.calls);
+
+        // steps are memoised separately
+        assertEquals(32.0, cache.get("other", new Proxy(30, 0.2, 1), evaluator), 1.0E-12);
+        assertEquals(3, evaluator.calls);
+        assertEquals(3, cache.getKeys());
+    }
+
+    @Test
+    void stepsRequestingVaryingVariablesAreExcluded() {
+        ExpectationsCache cache = new ExpectationsCache();
+        int[] calls = {0};
+        Function<IDoubleSource, Double> evaluator = source -> {
+            calls[0]++;
+            double age = source.getDoubleValue(Variable.Age);
+            return (age > 50) ? source.getDoubleValue(Variable.Region) : age;
+        };
+
+        assertEquals(30.0, cache.get("step", new Proxy(30, 0, 1), evaluator), 1.0E-12);
+        assertEquals(1.0, cache.get("step", new Proxy(60, 0, 1), evaluator), 1.0E-12);
+        assertEquals(2.0, cache.get("step", new Proxy(60, 0, 2), evaluator), 1.0E-12);
+        assertEquals(3, calls[0]);
+    }
+}
@@ -0,0 +1,80 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GridComparisonTest extends DecisionTestFixture {
+
+    @TempDir
+    Path directory;
+
+    static Grid populate() {
+        Grid grid = new Grid(scale, new HeapGridStore(size));
+        for (long ii=0; ii<size; ii++) {
+            grid.put(ii, 0.5 + 0.4 * Math.sin(ii * 0.37));
+        }
+        return grid;
+    }
+
+    @Test
+    void reportsDifferencesByAgeAndWorstStates() {
+        Grid reference = populate();
+        Grid modified = populate();
+        long index = scale.gridDimensions[1][3] + 5;
+        modified.put(index, modified.get(index) + 1.0E-3);
+        modified.put(3, DecisionParams.GRID_DEFAULT_VALUE);
+
+        GridComparison.Comparison identical = GridComparison.compare(reference.store, populate().store, scale, 1.0E-9);
+        assertTrue(identical.isPassed());
+        assertEquals(0.0, identical.getMaxDifference());
+        assertEquals(3, identical.getAges().size());
+
+        GridComparison.Comparison comparison = GridComparison.compare(reference.store, modified.store, scale, 1.0E-6);
+        assertFalse(comparison.isPassed());
+        assertEquals(1, comparison.getAges().get(0).getSolvedInOne());
+        assertEquals(1, comparison.getAges().get(1).getOverTolerance());
+        assertEquals(0.0, comparison.getAges().get(2).getMaxDifference());
+        assertEquals(1, comparison.getWorstStates().size());
+        assertTrue(comparison.getWorstStates().get(0).contains("(index " + index + ")"));
+        assertEquals(index, GridComparison.decode(scale, 1, index).returnGridIndex());
+    }
+
+    @Test
+    void failsGridsWithNonFiniteValues() {
+        Grid reference = populate();
+        Grid modified = populate();
+        long index = scale.gridDimensions[1][3] + 5;
+        modified.put(index, Double.NaN);
+        reference.put(index + 1, Double.NaN);
+        modified.put(index + 1, Double.NaN);
+        modified.put(index + 2, Double.POSITIVE_INFINITY);
+
+        GridComparison.Comparison comparison = GridComparison.compare(reference.store, modified.store, scale, 1.0E-6);
+        assertFalse(comparison.isPassed());
+        GridComparison.AgeDifferences age = comparison.getAges().get(1);
+        assertEquals(3, age.getNonFinite());
+        assertEquals(3, age.getOverTolerance());
+        assertEquals(0, age.getSolvedInOne());
+        assertEquals(Double.POSITIVE_INFINITY, comparison.getMaxDifference());
+        assertEquals(0.0, age.getMeanDifference());
+        assertTrue(comparison.getWorstStates().get(0).contains("(index " + index + ")"));
+
+        // NaN in the reference only
+        assertFalse(GridComparison.compare(modified.store, populate().store, scale, 1.0E-6).isPassed());
+    }
+
+    @Test
+    void streamsSavedFiles() throws IOException {
+        Grid grid = populate();
+        ManagerFileGrids.unformattedReadWrite(grid, "write", directory.toString(), ManagerFileGrids.CONSUMPTION_FILE);
+        GridStore saved = GridComparison.open(directory.toString(), ManagerFileGrids.CONSUMPTION_FILE, size, scale.fingerprint());
+        assertInstanceOf(MappedGridStore.class, saved);
+        assertTrue(GridComparison.compare(grid.store, saved, scale, 0.0).isPassed());
+        saved.close();
+    }
+}
@@ -0,0 +1,59 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GridQuantisationTest extends DecisionTestFixture {
+
+    @Test
+    void singlePrecisionCopyRoundsValues() {
+        HeapGridStore heap = new HeapGridStore(size + 3);
+        for (long ii=0; ii<size; ii++) {
+            heap.put(ii, 1.0 / (ii + 3));
+        }
+        FloatGridStore store = new FloatGridStore(heap);
+        assertEquals(heap.size(), store.size());
+        for (long ii=0; ii<size; ii+=101) {
+            assertEquals((float)(1.0 / (ii + 3)), store.get(ii));
+        }
+        assertEquals(DecisionParams.GRID_DEFAULT_VALUE, store.get(size + 2));
+    }
+
+    @Test
+    void interpolationErrorsAreReported() {
+        Grid grid = new Grid(scale, new HeapGridStore(size));
+        for (long ii=0; ii<size; ii++) {
+            grid.put(ii, 0.5 + 0.4 * Math.sin(ii * 0.37));
+        }
+        Grid reference = new Grid(scale, new HeapGridStore(size));
+        for (long ii=0; ii<size; ii++) {
+            reference.put(ii, grid.get(ii));
+        }
+
+        GridQuantisation.Errors errors = GridQuantisation.quantise(grid, 2000, new Random(1));
+        assertInstanceOf(FloatGridStore.class, grid.store);
+        assertEquals(2000, errors.getSamples());
+        assertTrue(errors.getMaxAbsoluteError() > 0.0);
+        assertTrue(errors.getMaxAbsoluteError() < 1.0E-7);
+
+        // errors are evaluated against the double precision grid
+        GridQuantisation.Errors check = GridQuantisation.compare(reference, grid, 2000, new Random(1));
+        assertEquals(errors.getMaxAbsoluteError(), check.getMaxAbsoluteError());
+    }
+
+    @Test
+    void rejectsContradictoryPrecisions() {
+        DecisionParams.checkGridPrecision(false, false, false, false, false);
+        DecisionParams.checkGridPrecision(false, false, false, true, true);
+        DecisionParams.checkGridPrecision(false, true, true, true, false);
+        DecisionParams.checkGridPrecision(true, true, false, false, false);
+        assertThrows(RuntimeException.class, () -> DecisionParams.checkGridPrecision(false, false, true, true, false));
+        assertThrows(RuntimeException.class, () -> DecisionParams.checkGridPrecision(false, true, true, false, false));
+        assertThrows(RuntimeException.class, () -> DecisionParams.checkGridPrecision(false, true, false, true, false));
+        assertThrows(RuntimeException.class, () -> DecisionParams.checkGridPrecision(true, false, false, true, false));
+        assertThrows(RuntimeException.class, () -> DecisionParams.checkGridPrecision(true, false, false, false, true));
+    }
+}
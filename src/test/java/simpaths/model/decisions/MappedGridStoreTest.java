@@ -0,0 +1,137 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedGridStoreTest extends DecisionTestFixture {
+
+    static final long FINGERPRINT = 0x5EEDL;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void newStoreIsInitialisedToDefault() throws IOException {
+        MappedGridStore store = new MappedGridStore(directory.resolve("grid.uft").toString(), 100, FINGERPRINT, false, true);
+        assertEquals(100, store.size());
+        for (long ii=0; ii<store.size(); ii++) {
+            assertEquals(DecisionParams.GRID_DEFAULT_VALUE, store.get(ii));
+        }
+        store.close();
+    }
+
+    @Test
+    void valuesPersistAcrossMappings() throws IOException {
+        String filePath = directory.resolve("grid.uft").toString();
+        MappedGridStore store = new MappedGridStore(filePath, 1000, FINGERPRINT, false, true);
+        for (long ii=0; ii<store.size(); ii++) {
+            store.put(ii, ii * 0.5);
+        }
+        store.close();
+
+        MappedGridStore readOnly = new MappedGridStore(filePath, 1000, FINGERPRINT, true, false);
+        for (long ii=0; ii<readOnly.size(); ii++) {
+            assertEquals(ii * 0.5, readOnly.get(ii));
+        }
+        assertThrows(UnsupportedOperationException.class, () -> readOnly.put(0, 1.0));
+        readOnly.close();
+    }
+
+    @Test
+    void readsFileWrittenByManagerFileGrids() throws IOException {
+        Grid grid = new Grid(scale, new HeapGridStore(257));
+        for (long ii=0; ii<grid.size; ii++) {
+            grid.put(ii, Math.sqrt(ii));
+        }
+        ManagerFileGrids.unformattedReadWrite(grid, "write", directory.toString(), ManagerFileGrids.VALUE_FUNCTION_FILE);
+
+        MappedGridStore store = new MappedGridStore(directory.resolve(ManagerFileGrids.VALUE_FUNCTION_FILE).toString(), 257, scale.fingerprint(), true, false);
+        for (long ii=0; ii<grid.size; ii++) {
+            assertEquals(grid.get(ii), store.get(ii));
+        }
+        store.close();
+
+        Grid loaded = new Grid(scale, new HeapGridStore(257));
+        ManagerFileGrids.unformattedReadWrite(loaded, "read", directory.toString(), ManagerFileGrids.VALUE_FUNCTION_FILE);
+        for (long ii=0; ii<grid.size; ii++) {
+            assertEquals(grid.get(ii), loaded.get(ii));
+        }
+    }
+
+    @Test
+    void rejectsFileTooShortForGrid() throws IOException {
+        String filePath = directory.resolve("grid.uft").toString();
+        new MappedGridStore(filePath, 10, FINGERPRINT, false, true).close();
+        assertThrows(IOException.class, () -> new MappedGridStore(filePath, 11, FINGERPRINT, true, false));
+    }
+
+    @Test
+    void rejectsFileForDifferentStateSpace() throws IOException {
+        String filePath = directory.resolve("grid.uft").toString();
+        new MappedGridStore(filePath, 10, FINGERPRINT, false, true).close();
+        assertThrows(IOException.class, () -> new MappedGridStore(filePath, 10, FINGERPRINT + 1, true, false));
+    }
+
+    @Test
+    void rejectsFileOfOtherFormatVersion() throws IOException {
+        String filePath = directory.resolve("grid.uft").toString();
+        new MappedGridStore(filePath, 10, FINGERPRINT, false, true).close();
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+            file.seek(4);
+            file.writeInt(GridFileHeader.FORMAT_VERSION - 1);
+        }
+        IOException exception = assertThrows(IOException.class, () -> new MappedGridStore(filePath, 10, FINGERPRINT, true, false));
+        assertTrue(exception.getMessage().contains("format version " + (GridFileHeader.FORMAT_VERSION - 1)));
+    }
+
+    @Test
+    void rejectsCorruptedFile() throws IOException {
+        Grid grid = new Grid(scale, new HeapGridStore(64));
+        ManagerFileGrids.unformattedReadWrite(grid, "write", directory.toString(), ManagerFileGrids.CONSUMPTION_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(ManagerFileGrids.CONSUMPTION_FILE).toFile(), "rw")) {
+            file.seek(GridFileHeader.HEADER_BYTES + 8 * 10);
+            file.writeDouble(1.0);
+        }
+        Grid loaded = new Grid(scale, new HeapGridStore(64));
+        assertThrows(IOException.class, () -> ManagerFileGrids.unformattedReadWrite(loaded, "read", directory.toString(), ManagerFileGrids.CONSUMPTION_FILE));
+    }
+
+    @Test
+    void verifiesChecksumOfReadOnlyMapping() throws IOException {
+        Grid grid = new Grid(scale, new HeapGridStore(64));
+        ManagerFileGrids.unformattedReadWrite(grid, "write", directory.toString(), ManagerFileGrids.CONSUMPTION_FILE);
+        String filePath = directory.resolve(ManagerFileGrids.CONSUMPTION_FILE).toString();
+        MappedGridStore store = new MappedGridStore(filePath, 64, scale.fingerprint(), true, false);
+        assertTrue(store.verifyChecksum());
+        store.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+            file.seek(GridFileHeader.HEADER_BYTES + 8 * 10);
+            file.writeDouble(1.0);
+        }
+        MappedGridStore corrupted = new MappedGridStore(filePath, 64, scale.fingerprint(), true, false);
+        assertThrows(IOException.class, corrupted::verifyChecksum);
+        corrupted.close();
+    }
+
+    @Test
+    void failedWriteOfGridsIsReported() throws IOException {
+        Grids grids = new Grids(scale);
+        grids.valueFunction = new Grid(scale, new HeapGridStore(257));
+        grids.consumption = new Grid(scale, new HeapGridStore(257));
+
+        // output directory obstructed by a file
+        Path obstruction = directory.resolve("grids");
+        Files.writeString(obstruction, "not a directory");
+        DecisionParams.gridsOutputDirectory = obstruction.toString();
+        DecisionParams.compressGrids = false;
+        assertThrows(RuntimeException.class, () -> ManagerFileGrids.unformattedWrite(grids));
+    }
+}
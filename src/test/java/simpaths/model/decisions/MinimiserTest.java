@@ -0,0 +1,84 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import simpaths.data.IEvaluation;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MinimiserTest {
+
+    /**
+     * consumption shares solved for a row of liquid wealth grid points, each search started from the default guess or
+     * (if warmStart) from the solution for the preceding wealth point, as UtilityMaximisation within SolveScheduler
+     */
+    private static double[] solveRow(double income, double discount, double curvature, int wealthPoints,
+                                     boolean warmStart, long[] evaluations) {
+
+        double[] shares = new double[wealthPoints];
+        double share = Double.NaN;
+        for (int ww=0; ww<wealthPoints; ww++) {
+            double wealth = Math.exp(Math.log(1000.0) + ww * (Math.log(1.0E6) - Math.log(1000.0)) / (wealthPoints - 1)) - 1000.0;
+            final double cashOnHand = income + wealth;
+            double[] lower = {DecisionParams.MIN_CONSUMPTION_PER_YEAR};
+            double[] upper = {cashOnHand};
+            double[] target = {(warmStart && !Double.isNaN(share)) ?
+                    Math.max(lower[0], Math.min(upper[0], share * cashOnHand)) : lower[0] * 0.8 + upper[0] * 0.2};
+            Minimiser problem = new Minimiser(lower, upper, target, args -> {
+                double consumption = args[0] / 10000.0;
+                double saving = (cashOnHand - args[0] + 2000.0) / 10000.0;
+                return Math.pow(consumption, -curvature) + discount * 12.0 * Math.pow(saving, -curvature);
+            });
+            problem.warmStart = warmStart && !Double.isNaN(share);
+            problem.minimise();
+            evaluations[0] += problem.getEvaluations();
+            share = problem.target[0] / cashOnHand;
+            shares[ww] = share;
+        }
+        return shares;
+    }
+
+    @Test
+    void warmStartedConsumptionAgreesWithFullSearch() {
+
+        // outer state combinations of an age, each with a row of liquid wealth grid points
+        Random random = new Random(2718);
+        int rows = 200, wealthPoints = 26;
+        long[] evaluationsFull = new long[1], evaluationsWarm = new long[1];
+        double maxDifference = 0.0;
+        for (int rr=0; rr<rows; rr++) {
+            double income = 5000.0 + random.nextDouble() * 60000.0;
+            double discount = 0.9 + random.nextDouble() * 0.1;
+            double curvature = 0.5 + random.nextDouble() * 2.0;
+            double[] full = solveRow(income, discount, curvature, wealthPoints, false, evaluationsFull);
+            double[] warm = solveRow(income, discount, curvature, wealthPoints, true, evaluationsWarm);
+            for (int ww=0; ww<wealthPoints; ww++) {
+                maxDifference = Math.max(maxDifference, Math.abs(full[ww] - warm[ww]));
+            }
+        }
+        assertTrue(maxDifference < 1.0E-3, "maximum difference in consumption share " + maxDifference);
+        assertTrue(evaluationsWarm[0] < evaluationsFull[0]);
+    }
+
+    @Test
+    void warmStartFallsBackToFullSearchFromEdgeOfNeighbourhood() {
+
+        // starting guess is lower than the edges of its neighbourhood, but the function declines throughout the
+        // neighbourhood, above which it falls to its global minimum
+        double step = Minimiser.WARM_START_BRACKET * 100.0;
+        IEvaluation function = args -> {
+            double xx = args[0];
+            if (xx <= 50.0 - step) return 10.0 + (50.0 - step - xx);
+            if (xx < 50.0 + step) return 50.0 - xx;
+            return 10.0 - 20.0 * Math.min(1.0, (xx - 50.0 - step) / 10.0) + 0.01 * (xx - 80.0) * (xx - 80.0);
+        };
+        Minimiser warm = new Minimiser(new double[]{0.0}, new double[]{100.0}, new double[]{50.0}, function);
+        warm.warmStart = true;
+        warm.minimise();
+        Minimiser full = new Minimiser(new double[]{0.0}, new double[]{100.0}, new double[]{50.0}, function);
+        full.minimise();
+        assertEquals(full.target[0], warm.target[0], 1.0E-3);
+        assertEquals(full.minimisedValue, warm.minimisedValue, 1.0E-6);
+    }
+}
@@ -0,0 +1,51 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeriodSignaturesTest extends DecisionTestFixture {
+
+    @Test
+    void oldestChangedAgeIsResolved() {
+        long[] saved = {11L, 12L, 13L, 14L};
+        assertEquals(-1, PeriodSignatures.oldestChange(saved, new long[]{11L, 12L, 13L, 14L}));
+        assertEquals(1, PeriodSignatures.oldestChange(saved, new long[]{21L, 22L, 13L, 14L}));
+        assertEquals(3, PeriodSignatures.oldestChange(saved, new long[]{11L, 12L, 13L, 24L}));
+        // missing or inconsistent signatures require a full solution
+        assertEquals(3, PeriodSignatures.oldestChange(null, saved));
+        assertEquals(3, PeriodSignatures.oldestChange(new long[]{11L, 12L}, saved));
+    }
+
+    @Test
+    void signaturesAreSavedWithGrids(@TempDir Path directory) {
+        long[] signatures = {0x8000000000000001L, -1L, 0L, 42L};
+        assertNull(PeriodSignatures.read(directory.toString()));
+        PeriodSignatures.write(signatures, directory.toString());
+        assertArrayEquals(signatures, PeriodSignatures.read(directory.toString()));
+        PeriodSignatures.delete(directory.toString());
+        assertNull(PeriodSignatures.read(directory.toString()));
+    }
+
+    @Test
+    void changedModelParametersChangeSignature() {
+        DecisionParams.rSafeAssets = 0.02;
+        long inputs = PeriodSignatures.evaluateInputs();
+        assertEquals(inputs, PeriodSignatures.evaluateInputs());
+
+        DecisionParams.rSafeAssets = 0.025;
+        assertNotEquals(inputs, PeriodSignatures.evaluateInputs());
+        DecisionParams.rSafeAssets = 0.02;
+        DecisionParams.minAgeToRetire++;
+        assertNotEquals(inputs, PeriodSignatures.evaluateInputs());
+        DecisionParams.minAgeToRetire--;
+
+        // options that do not affect the solution leave the signature unchanged
+        DecisionParams.solverThreads++;
+        DecisionParams.warmStartConsumption = !DecisionParams.warmStartConsumption;
+        assertEquals(inputs, PeriodSignatures.evaluateInputs());
+    }
+}
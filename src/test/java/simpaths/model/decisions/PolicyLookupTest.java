@@ -0,0 +1,40 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import simpaths.data.Parameters;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolicyLookupTest extends DecisionTestFixture {
+
+    @Test
+    void lookupMatchesInterpolationOfEachGrid() {
+        Grid first = new Grid(scale, new HeapGridStore(size));
+        Grid second = new Grid(scale, new HeapGridStore(size));
+        for (long ii=0; ii<size; ii++) {
+            first.put(ii, 0.5 + 0.4 * Math.sin(ii * 0.37));
+            second.put(ii, 0.5 + 0.4 * Math.cos(ii * 0.11));
+        }
+
+        Random random = new Random(3);
+        for (int nn=0; nn<500; nn++) {
+            int aa = random.nextInt(3);
+            States states = new States(scale, aa + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+            for (int ii=0; ii<states.labStatesContObject.length; ii++) {
+                double[] axis = scale.axes[aa][ii];
+                int points = (int)Math.round(axis[0]);
+                states.labStatesContObject[ii] = (axis[3] > 0.3) ? axis[1] + random.nextDouble() * (axis[2] - axis[1]) :
+                        axis[1] + ((points > 1) ? random.nextInt(points) * (axis[2] - axis[1]) / (points - 1) : 0.0);
+            }
+            PolicyLookup lookup = new PolicyLookup(states);
+            assertEquals(first.interpolateAll(states, false), lookup.interpolate(first));
+            assertEquals(second.interpolateAll(states, false), lookup.interpolate(second));
+
+            // state combinations updated after the first look-up are located afresh
+            states.labStatesContObject[0] = scale.axes[aa][0][1];
+            assertEquals(first.interpolateAll(states, false), lookup.interpolate(first));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolveCheckpointTest extends DecisionTestFixture {
+
+    @TempDir
+    Path directory;
+
+    private static Grids emptyGrids() {
+        Grids grids = new Grids(scale);
+        grids.valueFunction = new Grid(scale, new HeapGridStore(size));
+        grids.consumption = new Grid(scale, new HeapGridStore(size));
+        return grids;
+    }
+
+    private static long[] signatures() {
+        long[] signatures = new long[scale.simLifeSpan];
+        Arrays.fill(signatures, 7L);
+        return signatures;
+    }
+
+    @Test
+    void solutionResumesAfterLastCompletedAge() {
+        Grids grids = emptyGrids();
+        for (long ii=0; ii<size; ii++) {
+            grids.valueFunction.put(ii, ii);
+            grids.consumption.put(ii, -ii);
+        }
+        SolveCheckpoint checkpoint = new SolveCheckpoint(directory.toString());
+        assertEquals(2, checkpoint.resume(grids, 2, signatures()));
+        checkpoint.save(grids, 2);
+        checkpoint.save(grids, 1);
+        assertThrows(RuntimeException.class, () -> checkpoint.save(grids, 2));
+
+        // restart: ages 2 and 1 restored, age 0 remaining
+        Grids restored = emptyGrids();
+        assertEquals(0, new SolveCheckpoint(directory.toString()).resume(restored, 2, signatures()));
+        for (long ii=scale.gridDimensions[1][3]; ii<size; ii++) {
+            assertEquals(ii, restored.valueFunction.get(ii));
+            assertEquals(-ii, restored.consumption.get(ii));
+        }
+        assertEquals(DecisionParams.GRID_DEFAULT_VALUE, restored.valueFunction.get(0));
+    }
+
+    @Test
+    void changedPeriodProblemIsResolved() throws Exception {
+        Grids grids = emptyGrids();
+        SolveCheckpoint checkpoint = new SolveCheckpoint(directory.toString());
+        checkpoint.resume(grids, 2, signatures());
+        checkpoint.save(grids, 2);
+        checkpoint.save(grids, 1);
+        checkpoint.save(grids, 0);
+        assertEquals(-1, new SolveCheckpoint(directory.toString()).resume(emptyGrids(), 2, signatures()));
+
+        long[] changed = signatures();
+        changed[1] = 8L;
+        assertEquals(1, new SolveCheckpoint(directory.toString()).resume(emptyGrids(), 2, changed));
+
+        // corrupted slice is reported
+        Path slice = directory.resolve("slice_" + (2 + simpaths.data.Parameters.AGE_TO_BECOME_RESPONSIBLE) + ".ckp");
+        byte[] bytes = Files.readAllBytes(slice);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(slice, bytes);
+        assertThrows(RuntimeException.class, () -> new SolveCheckpoint(directory.toString()).resume(emptyGrids(), 2, changed));
+    }
+}
@@ -0,0 +1,49 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolveTelemetryTest {
+
+    private static void countOnThreads(int threads, int countsPerThread) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int ii=0; ii<threads; ii++) {
+            workers[ii] = new Thread(() -> {
+                for (int jj=0; jj<countsPerThread; jj++) {
+                    SolveTelemetry.count(SolveTelemetry.Counter.UtilityMaximisations);
+                }
+            });
+            workers[ii].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    @Test
+    void aggregatesCountsOfEachSolveOnly() throws InterruptedException {
+
+        // first solve, leaving counts of main thread undrained after its last age
+        SolveTelemetry.reset();
+        countOnThreads(3, 10);
+        SolveTelemetry.count(SolveTelemetry.Counter.ImperfectTaxMatches);
+        SolveScheduler.AgeStatistics first = new SolveScheduler.AgeStatistics(80, 100);
+        SolveTelemetry.drain(first);
+        assertEquals(30, first.getCount(SolveTelemetry.Counter.UtilityMaximisations));
+        assertEquals(1, first.getCount(SolveTelemetry.Counter.ImperfectTaxMatches));
+        assertEquals(4, SolveTelemetry.getNumberOfRecorders());
+        SolveTelemetry.count(SolveTelemetry.Counter.UtilityMaximisations);
+
+        // second solve, on new threads
+        SolveTelemetry.reset();
+        assertEquals(0, SolveTelemetry.getNumberOfRecorders());
+        countOnThreads(2, 5);
+        SolveTelemetry.count(SolveTelemetry.Counter.ImperfectTaxMatches);
+        SolveScheduler.AgeStatistics second = new SolveScheduler.AgeStatistics(80, 100);
+        SolveTelemetry.drain(second);
+        assertEquals(10, second.getCount(SolveTelemetry.Counter.UtilityMaximisations));
+        assertEquals(1, second.getCount(SolveTelemetry.Counter.ImperfectTaxMatches));
+        assertEquals(3, SolveTelemetry.getNumberOfRecorders());
+    }
+}
@@ -0,0 +1,93 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import simpaths.data.Parameters;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StateNodesTest extends DecisionTestFixture {
+
+    static final int AGE_INDEX = 60;
+
+    @TempDir
+    Path directory;
+
+    private static Grid populate(GridScale scale, DoubleUnaryOperator function) {
+        long start = scale.gridDimensions[AGE_INDEX][3];
+        long sliceSize = scale.gridDimensions[AGE_INDEX][2];
+        int nn = (int)Math.round(scale.axes[AGE_INDEX][0][0]);
+        Grid grid = new Grid(scale, new HeapGridStore(start + sliceSize));
+        for (long ll = 0; ll < sliceSize; ll++) {
+            grid.put(start + ll, function.applyAsDouble(scale.node(AGE_INDEX, 0, (int)(ll % nn))) + ll / nn);
+        }
+        return grid;
+    }
+
+    private static States states(GridScale scale, double wealth) {
+        States states = new States(scale, AGE_INDEX + Parameters.AGE_TO_BECOME_RESPONSIBLE);
+        for (int ii = 1; ii < states.labStatesContObject.length; ii++) {
+            states.labStatesContObject[ii] = scale.axes[AGE_INDEX][ii][1];
+        }
+        states.labStatesContObject[0] = wealth;
+        return states;
+    }
+
+    @Test
+    void interpolationOverUnevenNodesIsLinearInState() {
+        GridScale scale = new GridScale();
+        long uniform = scale.fingerprint();
+        double min = scale.axes[AGE_INDEX][0][1];
+        double max = scale.axes[AGE_INDEX][0][2];
+        double[] nodes = {min, min + 0.01 * (max - min), min + 0.05 * (max - min), min + 0.3 * (max - min), max};
+        scale.setNodes(AGE_INDEX, 0, nodes);
+        assertEquals(5, (int)scale.axes[AGE_INDEX][0][0]);
+        assertEquals(scale.innerGridSize(AGE_INDEX), scale.gridDimensions[AGE_INDEX][0]);
+        assertNotEquals(uniform, scale.fingerprint());
+
+        Grid grid = populate(scale, x -> 3.0 * x - 2.0);
+        for (double wealth : new double[] {min, nodes[1], 0.5 * (nodes[1] + nodes[2]), min + 0.2 * (max - min), max}) {
+            States states = states(scale, wealth);
+            assertEquals(3.0 * wealth - 2.0, grid.interpolateAll(states, true), 1.0E-9);
+            double[] result = new double[1];
+            grid.interpolateBatch(grid.prepareBatch(new States[] {states}, null, true), wealth, result);
+            assertEquals(grid.interpolateAll(states, true), result[0]);
+        }
+
+        // grid points are populated at nodes, and indexed accordingly
+        States states = states(scale, max);
+        states.populateInnerGridStates(3);
+        assertEquals(nodes[3], states.labStatesContObject[0]);
+        assertEquals(3, states.returnAgeSpecificIndex());
+    }
+
+    @Test
+    void nodesConcentrateWhereValueFunctionIsCurved() {
+        GridScale scale = new GridScale();
+        double min = scale.axes[AGE_INDEX][0][1];
+        double max = scale.axes[AGE_INDEX][0][2];
+        Grid grid = populate(scale, x -> -Math.exp(-8.0 * (x - min) / (max - min)));
+        double[] nodes = StateNodes.derive(grid, AGE_INDEX, 0, 9);
+        assertEquals(9, nodes.length);
+        assertEquals(min, nodes[0]);
+        assertEquals(max, nodes[8]);
+        for (int kk = 1; kk < nodes.length; kk++) {
+            assertTrue(nodes[kk] > nodes[kk-1]);
+        }
+        assertTrue(nodes[1] - nodes[0] < 0.5 * (nodes[8] - nodes[7]));
+
+        // nodes saved to file describe the same state space when applied
+        String file = directory.resolve("nodes.csv").toString();
+        int ageYears = AGE_INDEX + Parameters.AGE_TO_BECOME_RESPONSIBLE;
+        StateNodes.write(Map.of(ageYears, Map.of(Axis.LiquidWealth, nodes)), file);
+        GridScale adapted = new GridScale();
+        StateNodes.apply(adapted, StateNodes.read(file));
+        scale.setNodes(AGE_INDEX, 0, nodes);
+        assertEquals(scale.fingerprint(), adapted.fingerprint());
+        assertArrayEquals(nodes, adapted.nodes[AGE_INDEX][0]);
+    }
+}
@@ -0,0 +1,164 @@
+package simpaths.model.decisions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaxBenefitTableTest {
+
+    private static double asinhScaled(double incomePerMonth) {
+        double xx = incomePerMonth / TaxBenefitTable.INCOME_SCALE;
+        return Math.log(xx + Math.sqrt(xx * xx + 1.0));
+    }
+
+    /**
+     * synthetic imputation with progressive taxes and a benefit withdrawn with income, varying with children and
+     * childcare costs
+     */
+    private static double imputation(int numberChildren, double originalIncome, double secondIncome, double childcareCost) {
+        double taxable = Math.max(0.0, originalIncome - 1000.0);
+        return originalIncome - 0.2 * taxable - 0.0000025 * taxable * taxable - 0.05 * secondIncome +
+                100.0 * numberChildren * Math.exp(-Math.max(0.0, originalIncome) / 2000.0) - 0.3 * childcareCost;
+    }
+
+    private static TaxBenefitTable syntheticTable() {
+        return new TaxBenefitTable((year, age, numberAdults, nU5, n5To9, n10To17, hours1, hours2, disability1,
+                                    disability2, careProvision, originalIncome, secondIncome, childcareCost) ->
+                imputation(nU5 + n5To9 + n10To17, originalIncome, secondIncome, childcareCost));
+    }
+
+    private static double single(TaxBenefitTable table, double income) {
+        return table.getImputedDisposableIncomePerMonth(2030, 40, 1, 0, 0, 0, 35.0, 0.0, 0, 0, 0,
+                income, 0.0, 0.0);
+    }
+
+    @Test
+    void interpolationReproducesFunctionsLinearBetweenNodes() {
+
+        // linear in the asinh of income and in the second earner share, so bilinear interpolation is exact
+        TaxBenefitTable table = new TaxBenefitTable((year, age, numberAdults, nU5, n5To9, n10To17, hours1, hours2,
+                                                     disability1, disability2, careProvision, originalIncome, secondIncome,
+                                                     childcareCost) ->
+                1000.0 * asinhScaled(originalIncome) + 3000.0 * secondIncome / Math.max(1.0, originalIncome));
+        Random random = new Random(11);
+        for (int ii=0; ii<200; ii++) {
+            double income = 50.0 + random.nextDouble() * 40000.0;
+            double share = 0.5 * random.nextDouble();
+            double expected = 1000.0 * asinhScaled(income) + 3000.0 * share;
+            double tabulated = table.getImputedDisposableIncomePerMonth(2030, 40, 2, 1, 0, 0, 35.0, 20.0, 0, 0, 0,
+                    income, income * share, 0.0);
+            assertEquals(expected, tabulated, 1.0E-8);
+        }
+        assertEquals(1, table.getTables());
+        assertTrue(table.getNodesEvaluated() <= TaxBenefitTable.INCOME_POINTS * TaxBenefitTable.SHARE_POINTS);
+    }
+
+    @Test
+    void interpolationApproximatesNonlinearImputation() {
+
+        TaxBenefitTable table = syntheticTable();
+        for (int ix=1; ix<TaxBenefitTable.INCOME_POINTS; ix+=37) {
+            double income = TaxBenefitTable.incomeAtNode(ix);
+            assertEquals(imputation(0, income, 0.0, 0.0), single(table, income), 1.0E-9 * Math.max(1.0, Math.abs(income)));
+        }
+        Random random = new Random(12);
+        for (int ii=0; ii<500; ii++) {
+            double income = TaxBenefitTable.MIN_INCOME_PER_MONTH +
+                    random.nextDouble() * (TaxBenefitTable.MAX_INCOME_PER_MONTH - TaxBenefitTable.MIN_INCOME_PER_MONTH);
+            double exact = imputation(0, income, 0.0, 0.0);
+            assertEquals(exact, single(table, income), 1.0E-3 * Math.max(100.0, Math.abs(exact)));
+        }
+        assertEquals(0, table.getExactEvaluations());
+    }
+
+    @Test
+    void nodesAreSharedBetweenQueries() {
+
+        TaxBenefitTable table = syntheticTable();
+        single(table, 1234.5);
+        assertEquals(2, table.getNodesEvaluated());
+        single(table, 1234.5);
+        single(table, 1234.6);
+        assertEquals(2, table.getNodesEvaluated());
+        for (int ii=0; ii<10000; ii++) {
+            single(table, ii * 4.0);
+        }
+        assertTrue(table.getNodesEvaluated() <= TaxBenefitTable.INCOME_POINTS);
+        assertTrue(table.getNodesPerQuery() < 0.05);
+        assertEquals(1, table.getTables());
+    }
+
+    @Test
+    void incomesOutsideRangeAreEvaluatedExactly() {
+
+        TaxBenefitTable table = syntheticTable();
+        double high = TaxBenefitTable.MAX_INCOME_PER_MONTH + 1.0;
+        double low = TaxBenefitTable.MIN_INCOME_PER_MONTH - 1.0;
+        assertEquals(imputation(0, high, 0.0, 0.0), single(table, high), 0.0);
+        assertEquals(imputation(0, low, 0.0, 0.0), single(table, low), 0.0);
+        assertEquals(2, table.getExactEvaluations());
+        assertEquals(0, table.getNodesEvaluated());
+        assertEquals(2, table.getQueries());
+    }
+
+    @Test
+    void childcareCostsAreRoundedToDefineTables() {
+
+        List<Double> evaluatedChildcare = new ArrayList<>();
+        TaxBenefitTable table = new TaxBenefitTable((year, age, numberAdults, nU5, n5To9, n10To17, hours1, hours2,
+                                                     disability1, disability2, careProvision, originalIncome, secondIncome,
+                                                     childcareCost) -> {
+            synchronized (evaluatedChildcare) {
+                evaluatedChildcare.add(childcareCost);
+            }
+            return imputation(nU5, originalIncome, secondIncome, childcareCost);
+        });
+        double step = TaxBenefitTable.CHILDCARE_STEP;
+        double[] childcare = {10.0 * step + 0.1, 10.0 * step + 0.4 * step, 10.0 * step - 0.4 * step, 11.0 * step};
+        for (double cost : childcare) {
+            table.getImputedDisposableIncomePerMonth(2030, 30, 1, 1, 0, 0, 20.0, 0.0, 0, 0, 0, 1500.0, 0.0, cost);
+        }
+        assertEquals(2, table.getTables());
+        for (double cost : evaluatedChildcare) {
+            assertTrue(cost == 10.0 * step || cost == 11.0 * step);
+        }
+
+        // exact evaluations outside the tabulated range use the childcare costs supplied
+        evaluatedChildcare.clear();
+        table.getImputedDisposableIncomePerMonth(2030, 30, 1, 1, 0, 0, 20.0, 0.0, 0, 0, 0,
+                TaxBenefitTable.MAX_INCOME_PER_MONTH * 2.0, 0.0, childcare[0]);
+        assertEquals(List.of(childcare[0]), evaluatedChildcare);
+    }
+
+    @Test
+    void validationSamplesDeviationsFromExactImputation() {
+
+        TaxBenefitTable table = syntheticTable();
+        Random random = new Random(13);
+        double maxDeviation = 0.0, maxRelative = 0.0, sumDeviation = 0.0;
+        int samples = 3;
+        for (int qq=1; qq<=samples * TaxBenefitTable.VALIDATION_INTERVAL; qq++) {
+            double income = 100.0 + random.nextDouble() * 20000.0;
+            double share = 0.5 * random.nextDouble();
+            double tabulated = table.getImputedDisposableIncomePerMonth(2030, 40, 2, 0, 1, 0, 35.0, 35.0, 0, 0, 0,
+                    income, income * share, 0.0);
+            if (qq % TaxBenefitTable.VALIDATION_INTERVAL == 0) {
+                double exact = imputation(1, income, income * share, 0.0);
+                double deviation = Math.abs(tabulated - exact);
+                maxDeviation = Math.max(maxDeviation, deviation);
+                maxRelative = Math.max(maxRelative, deviation / Math.max(1.0, Math.abs(exact)));
+                sumDeviation += deviation;
+            }
+        }
+        TaxBenefitTable.Validation validation = table.getValidation();
+        assertEquals(samples, validation.getSamples());
+        assertTrue(maxDeviation > 0.0);
+        assertEquals(maxDeviation, validation.getMaxAbsoluteDeviation(), 1.0E-12);
+        assertEquals(maxRelative, validation.getMaxRelativeDeviation(), 1.0E-12);
+        assertEquals(sumDeviation / samples, validation.getMeanAbsoluteDeviation(), 1.0E-12);
+    }
+}
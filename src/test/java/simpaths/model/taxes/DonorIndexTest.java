@@ -0,0 +1,64 @@
+package simpaths.model.taxes;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.Test;
+import simpaths.data.Parameters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DonorIndexTest {
+
+    private static DonorTaxUnit donor(long id, double weight, double originalIncome, double secondIncome) {
+        DonorTaxUnit unit = new DonorTaxUnit();
+        unit.setId(id);
+        unit.setWeight(weight);
+        DonorTaxUnitPolicy policy = new DonorTaxUnitPolicy(Parameters.BASE_PRICE_YEAR, unit);
+        policy.setSystemYear(Parameters.BASE_PRICE_YEAR);
+        policy.setOriginalIncomePerMonth(originalIncome);
+        policy.setSecondIncomePerMonth(secondIncome);
+        policy.setDisposableIncomePerMonth(0.8 * originalIncome + 100.0);
+        policy.setBenMeansTestPerMonth(50.0);
+        policy.setBenNonMeansTestPerMonth(25.0);
+        policy.setReceivesUC((id % 2 == 0) ? 1 : 0);
+        unit.getPolicies().add(policy);
+        return unit;
+    }
+
+    @Test
+    void groupsReproduceDonorPolicies() {
+        List<DonorTaxUnit> pool = new ArrayList<>();
+        pool.add(donor(11, 1.5, 500.0, 0.0));
+        pool.add(donor(12, 2.0, 2500.0, 800.0));
+        pool.add(donor(13, 0.5, 1200.0, 0.0));
+        Map<Triple<Integer,Integer,Integer>, List<Integer>> references = new HashMap<>();
+        references.put(Triple.of(Parameters.BASE_PRICE_YEAR, 0, 7), List.of(0, 2, 1));
+        references.put(Triple.of(Parameters.BASE_PRICE_YEAR, 1, 3), List.of(2));
+
+        DonorIndex index = new DonorIndex(pool, references);
+        assertNull(index.getGroup(Parameters.BASE_PRICE_YEAR, 0, 8));
+        DonorIndex.Group group = index.getGroup(Parameters.BASE_PRICE_YEAR, 0, 7);
+        assertEquals(3, group.size());
+        double[] vector = new double[2];
+        for (int ii=0; ii<group.size(); ii++) {
+            DonorTaxUnit unit = pool.get(group.donor[ii]);
+            DonorTaxUnitPolicy policy = unit.getPolicyBySystemYear(Parameters.BASE_PRICE_YEAR);
+            assertEquals(unit.getId(), index.getDonorId(group.donor[ii]));
+            assertEquals(unit.getWeight(), group.weight[ii]);
+            assertEquals(policy.getNormalisedOriginalIncomePerMonth(), group.normalisedOriginalIncome[ii]);
+            if (ii > 0) assertTrue(group.normalisedOriginalIncome[ii] >= group.normalisedOriginalIncome[ii-1]);
+            group.measurementVector(ii, true, false, vector);
+            assertEquals(Parameters.normaliseWeeklyIncome(Parameters.BASE_PRICE_YEAR, policy.getOriginalIncomePerMonth() / Parameters.WEEKS_PER_MONTH), vector[0]);
+            assertEquals(Parameters.normaliseWeeklyIncome(Parameters.BASE_PRICE_YEAR, policy.getSecondIncomePerMonth() / Parameters.WEEKS_PER_MONTH), vector[1]);
+            int donor = group.donor[ii];
+            assertEquals(policy.getDisposableIncomePerMonth(), group.policies.disposableIncome[donor]);
+            assertEquals(policy.getBenMeansTestPerMonth() + policy.getBenNonMeansTestPerMonth(), group.policies.benefits[donor]);
+            assertEquals(policy.getReceivesUC(), group.policies.receivesUC[donor]);
+        }
+        assertSame(group.policies, index.getGroup(Parameters.BASE_PRICE_YEAR, 1, 3).policies);
+    }
+}
@@ -0,0 +1,83 @@
+package simpaths.model.taxes;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DonorPoolSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void snapshotReproducesDonorPoolAndReferences() throws Exception {
+        DonorTaxUnit unit = new DonorTaxUnit();
+        unit.setId(42);
+        unit.setWeight(1.25);
+        for (int systemYear = 2019; systemYear < 2021; systemYear++) {
+            DonorTaxUnitPolicy policy = new DonorTaxUnitPolicy(systemYear, unit);
+            policy.setSystemYear(systemYear);
+            policy.setOriginalIncomePerMonth(1000.0 + systemYear);
+            policy.setDisposableIncomePerMonth(900.0);
+            policy.setSecondIncomePerMonth(200.0);
+            policy.setReceivesUC(null);
+            for (int ii=0; ii<4; ii++) {
+                policy.setDonorKey(ii, 10 * systemYear + ii);
+            }
+            unit.getPolicies().add(policy);
+        }
+        Map<Triple<Integer,Integer,Integer>, List<Integer>> references = new HashMap<>();
+        references.put(Triple.of(2019, 0, 20190), List.of(0));
+
+        String filePath = directory.resolve(DonorPoolSnapshot.FILE_NAME).toString();
+        byte[] generation = new byte[DonorPoolSnapshot.HASH_BYTES];
+        byte[] hash = new byte[DonorPoolSnapshot.HASH_BYTES];
+        Arrays.fill(generation, (byte)3);
+        Arrays.fill(hash, (byte)7);
+        DonorPoolSnapshot.write(filePath, generation, hash, List.of(unit), references);
+
+        DonorPoolSnapshot snapshot = DonorPoolSnapshot.read(filePath, generation, null);
+        assertNotNull(snapshot);
+        assertEquals(references, snapshot.getReferences());
+        assertEquals(1, snapshot.getDonorPool().size());
+        DonorTaxUnit copy = snapshot.getDonorPool().get(0);
+        assertEquals(42, copy.getId());
+        assertEquals(1.25, copy.getWeight());
+        assertEquals(2, copy.getPolicies().size());
+        for (int systemYear = 2019; systemYear < 2021; systemYear++) {
+            DonorTaxUnitPolicy policy = unit.getPolicyBySystemYear(systemYear);
+            DonorTaxUnitPolicy restored = copy.getPolicyBySystemYear(systemYear);
+            assertSame(copy, restored.getTaxUnit());
+            assertEquals(policy.getFromYear(), restored.getFromYear());
+            assertEquals(policy.getOriginalIncomePerMonth(), restored.getOriginalIncomePerMonth());
+            assertEquals(policy.getDisposableIncomePerMonth(), restored.getDisposableIncomePerMonth());
+            assertEquals(policy.getSecondIncomePerMonth(), restored.getSecondIncomePerMonth());
+            assertEquals(policy.getBenMeansTestPerMonth(), restored.getBenMeansTestPerMonth());
+            assertNull(restored.getReceivesUC());
+            assertEquals(policy.getReceivesLegacyBenefit(), restored.getReceivesLegacyBenefit());
+            for (int ii=0; ii<5; ii++) {
+                assertEquals(policy.getDonorKey(ii), restored.getDonorKey(ii));
+            }
+        }
+
+        // snapshots are verified against the hash of the source tables on request
+        assertNotNull(DonorPoolSnapshot.read(filePath, generation, hash));
+        byte[] other = hash.clone();
+        other[0] = 8;
+        assertNull(DonorPoolSnapshot.read(filePath, generation, other));
+
+        // snapshots taken from other generations of the source tables are ignored
+        other = generation.clone();
+        other[0] = 8;
+        assertNull(DonorPoolSnapshot.read(filePath, other, null));
+        assertNull(DonorPoolSnapshot.read(filePath, other, hash));
+    }
+}
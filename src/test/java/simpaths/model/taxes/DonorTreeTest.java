@@ -0,0 +1,55 @@
+package simpaths.model.taxes;
+
+import org.junit.jupiter.api.Test;
+import simpaths.data.MahalanobisDistance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DonorTreeTest {
+
+    @Test
+    void nearestNeighboursMatchExhaustiveSearch() {
+        Random random = new Random(2024);
+        int size = 500;
+        DonorIndex.Group group = new DonorIndex.Group(null, size);
+        double[][] data = new double[size][];
+        for (int ii=0; ii<size; ii++) {
+            group.donor[ii] = ii;
+            group.originalIncome[ii] = 7.0 + random.nextGaussian();
+            group.secondIncome[ii] = 0.6 * group.originalIncome[ii] + 0.5 * random.nextGaussian();
+            group.childcareCost[ii] = (ii % 5 == 0) ? 0.0 : 4.0 + random.nextGaussian();     // repeated values
+            data[ii] = new double[] {group.originalIncome[ii], group.secondIncome[ii], group.childcareCost[ii]};
+        }
+        MahalanobisDistance distance = new MahalanobisDistance(data);
+        DonorTree tree = new DonorTree(group, true, true, distance);
+        assertEquals(size, tree.size());
+        assertEquals(3, tree.getDimension());
+
+        DonorTree.Neighbours neighbours = new DonorTree.Neighbours(12);
+        double[] vector = new double[3];
+        for (int trial=0; trial<50; trial++) {
+            double[] target = {7.0 + 2.0 * random.nextGaussian(), 4.0 + random.nextGaussian(), 4.0 * random.nextDouble()};
+            double[] exhaustive = new double[size];
+            for (int ii=0; ii<size; ii++) {
+                group.measurementVector(ii, true, true, vector);
+                exhaustive[ii] = distance.getMahalanobisDistance(target, vector);
+            }
+            Integer[] order = IntStream.range(0, size).boxed().toArray(Integer[]::new);
+            Arrays.sort(order, Comparator.comparingDouble(ii -> exhaustive[ii]));
+
+            tree.nearest(target, neighbours);
+            assertTrue(neighbours.isFull());
+            int[] nearest = neighbours.drain();
+            assertEquals(0, neighbours.size());
+            assertEquals(12, nearest.length);
+            for (int ii=0; ii<nearest.length; ii++) {
+                assertEquals(exhaustive[order[ii]], exhaustive[nearest[ii]], 1.0E-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package simpaths.model.taxes;
+
+import org.junit.jupiter.api.Test;
+import simpaths.data.Parameters;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImputationCacheTest {
+
+    static final int YEAR = 2019;
+
+    private static DonorKeys keys(int priceYear, int key, double randomDraw) {
+        KeyFunction function = new KeyFunction() {
+            @Override
+            public Integer[] evaluateKeys() {
+                Integer[] keys = new Integer[Parameters.TAXDB_REGIMES];
+                Arrays.fill(keys, key);
+                return keys;
+            }
+            @Override
+            public boolean[] isLowIncome(Integer[] keys) {
+                return new boolean[Parameters.TAXDB_REGIMES];
+            }
+        };
+        function.setSimYear(priceYear);
+        function.setPriceYear(priceYear);
+        DonorKeys keys = new DonorKeys(randomDraw);
+        keys.evaluate(function);
+        return keys;
+    }
+
+    /**
+     * donor search recording its arguments, with outcomes that identify the arguments and the order of search
+     */
+    private static class RecordingSearch implements ImputationCache.Search {
+
+        final List<double[]> searches = new ArrayList<>();
+
+        @Override
+        public ImputationCache.Outcome search(int systemYear, double originalIncome, double secondIncome,
+                                              double childcareCost, double randomDraw) {
+            searches.add(new double[]{systemYear, originalIncome, secondIncome, childcareCost, randomDraw});
+            return new ImputationCache.Outcome(systemYear, searches.size(), false, originalIncome, secondIncome,
+                    childcareCost, randomDraw, 0, 0);
+        }
+    }
+
+    private static void assertSameOutcome(ImputationCache.Outcome expected, ImputationCache.Outcome actual) {
+        assertEquals(expected.matchCriterion, actual.matchCriterion);
+        assertEquals(expected.lowIncome, actual.lowIncome);
+        assertEquals(expected.disposableIncomePerWeek, actual.disposableIncomePerWeek);
+        assertEquals(expected.benefitsReceivedPerWeek, actual.benefitsReceivedPerWeek);
+        assertEquals(expected.meanUC, actual.meanUC);
+        assertEquals(expected.meanLegacyBenefit, actual.meanLegacyBenefit);
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(InvalidParameterException.class, () -> new ImputationCache(0, 0.0));
+        assertThrows(InvalidParameterException.class, () -> new ImputationCache(10, -0.1));
+        assertThrows(InvalidParameterException.class, () -> new ImputationCache(10, Double.NaN));
+    }
+
+    @Test
+    void exactModeReturnsUncachedOutcome() {
+        ImputationCache cache = new ImputationCache(100, 0.0);
+        assertTrue(cache.isExact());
+        RecordingSearch search = new RecordingSearch();
+        RecordingSearch uncached = new RecordingSearch();
+        DonorKeys keys = keys(YEAR, 3, 0.37);
+
+        ImputationCache.Outcome first = cache.get(YEAR, keys, 7.123, 1.5, 0.25, search);
+        assertSameOutcome(uncached.search(YEAR, 7.123, 1.5, 0.25, 0.37), first);
+        assertSame(first, cache.get(YEAR, keys, 7.123, 1.5, 0.25, search));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // any difference in characteristics is searched afresh
+        ImputationCache.Outcome other = cache.get(YEAR, keys, Math.nextUp(7.123), 1.5, 0.25, search);
+        assertSameOutcome(uncached.search(YEAR, Math.nextUp(7.123), 1.5, 0.25, 0.37), other);
+        cache.get(YEAR, keys(YEAR, 4, 0.37), 7.123, 1.5, 0.25, search);
+        cache.get(YEAR, keys(YEAR + 1, 3, 0.37), 7.123, 1.5, 0.25, search);
+        cache.get(YEAR + 1, keys, 7.123, 1.5, 0.25, search);
+        cache.get(YEAR, keys(YEAR, 3, 0.38), 7.123, 1.5, 0.25, search);
+        assertEquals(6, search.searches.size());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void quantisedModeSharesSearchesWithinBuckets() {
+        ImputationCache cache = new ImputationCache(100, 0.5);
+        assertFalse(cache.isExact());
+        RecordingSearch search = new RecordingSearch();
+
+        // financials of the same bucket share a search, evaluated at the bucket centre
+        ImputationCache.Outcome outcome = cache.get(YEAR, keys(YEAR, 3, 0.101), 7.05, 1.2, 0.0, search);
+        assertArrayEquals(new double[]{YEAR, 7.25, 1.25, 0.25, 6.5 / ImputationCache.RANDOM_DRAW_BUCKETS},
+                search.searches.get(0));
+        assertSame(outcome, cache.get(YEAR, keys(YEAR, 3, 0.105), 7.45, 1.0, 0.49, search));
+        assertEquals(1, search.searches.size());
+
+        // adjacent buckets are searched separately
+        cache.get(YEAR, keys(YEAR, 3, 0.101), 7.5, 1.2, 0.0, search);
+        cache.get(YEAR, keys(YEAR, 3, 0.101), 7.05, 1.5, 0.0, search);
+        cache.get(YEAR, keys(YEAR, 3, 0.101), 7.05, 1.2, -0.01, search);
+        cache.get(YEAR, keys(YEAR, 3, 0.11), 7.05, 1.2, 0.0, search);
+        assertEquals(5, search.searches.size());
+        assertEquals(7.75, search.searches.get(1)[1]);
+        assertEquals(-0.25, search.searches.get(3)[3]);
+        assertEquals(7.5 / ImputationCache.RANDOM_DRAW_BUCKETS, search.searches.get(4)[4]);
+
+        // averaging (-1) and nearest neighbour (-2) draws are not bucketed
+        cache.get(YEAR, keys(YEAR, 3, -1.0), 7.05, 1.2, 0.0, search);
+        cache.get(YEAR, keys(YEAR, 3, -2.0), 7.05, 1.2, 0.0, search);
+        assertEquals(-1.0, search.searches.get(5)[4]);
+        assertEquals(-2.0, search.searches.get(6)[4]);
+
+        // draws of 1 fall in the last bucket
+        cache.get(YEAR, keys(YEAR, 3, 1.0), 7.05, 1.2, 0.0, search);
+        assertEquals((ImputationCache.RANDOM_DRAW_BUCKETS - 0.5) / ImputationCache.RANDOM_DRAW_BUCKETS, search.searches.get(7)[4]);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void clearsWhenFullWithoutReturningStaleOutcomes() {
+        ImputationCache cache = new ImputationCache(2, 0.0);
+        RecordingSearch search = new RecordingSearch();
+        DonorKeys keys = keys(YEAR, 3, -1.0);
+
+        ImputationCache.Outcome first = cache.get(YEAR, keys, 1.0, 0.0, 0.0, search);
+        cache.get(YEAR, keys, 2.0, 0.0, 0.0, search);
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        // third outcome clears the cache
+        ImputationCache.Outcome third = cache.get(YEAR, keys, 3.0, 0.0, 0.0, search);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.size());
+        assertSame(third, cache.get(YEAR, keys, 3.0, 0.0, 0.0, search));
+
+        // cleared outcomes are searched again, and reflect the new search
+        ImputationCache.Outcome again = cache.get(YEAR, keys, 1.0, 0.0, 0.0, search);
+        assertNotSame(first, again);
+        assertEquals(4, again.donorID);
+        assertEquals(1.0, again.disposableIncomePerWeek);
+        assertEquals(4, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertTrue(cache.size() <= cache.getCapacity());
+    }
+}
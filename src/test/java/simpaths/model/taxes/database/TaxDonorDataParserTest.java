@@ -0,0 +1,347 @@
+package simpaths.model.taxes.database;
+
+import org.apache.commons.math3.util.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import simpaths.data.Parameters;
+import simpaths.model.taxes.DonorPerson;
+import simpaths.model.taxes.DonorPersonPolicy;
+import simpaths.model.taxes.DonorPoolSnapshot;
+import simpaths.model.taxes.DonorTaxUnit;
+import simpaths.model.taxes.DonorTaxUnitPolicy;
+import simpaths.model.taxes.KeyFunction;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaxDonorDataParserTest {
+
+    private Map<Integer, Pair<String, Integer>> savedSchedule;
+
+    @BeforeEach
+    void setSchedule() {
+        savedSchedule = new TreeMap<>(Parameters.EUROMODpolicyScheduleSystemYearMap);
+        Parameters.EUROMODpolicyScheduleSystemYearMap.clear();
+        Parameters.EUROMODpolicyScheduleSystemYearMap.put(2019, new Pair<>("UK_2019", 2019));
+        Parameters.EUROMODpolicyScheduleSystemYearMap.put(2022, new Pair<>("UK_2022", 2022));
+    }
+
+    @AfterEach
+    void restoreSchedule() {
+        Parameters.EUROMODpolicyScheduleSystemYearMap.clear();
+        Parameters.EUROMODpolicyScheduleSystemYearMap.putAll(savedSchedule);
+    }
+
+    /**
+     * synthetic donor keys, varying with the characteristics supplied to the key function (KeyFunction.evaluateKeys
+     * requires the uprating indices of the model parameters)
+     */
+    private static final Function<KeyFunction, Integer[]> KEYS = function -> {
+        Integer[] keys = new Integer[Parameters.TAXDB_REGIMES];
+        for (int ii=0; ii<keys.length; ii++) {
+            keys[ii] = function.getSimYear() * 1000 + function.getNumberMembersOver17() * 100 +
+                    function.getNumberChildrenUnder5() * 10 + (int)(function.getOriginalIncomePerWeek() / (ii + 1)) % 10;
+        }
+        return keys;
+    };
+
+    private static void set(Object object, String name, Object value) throws Exception {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    private static void addPerson(DonorTaxUnit unit, long id, int age, int hours, int disabled, int carer,
+                                  double originalIncome, double universalCredit) throws Exception {
+        DonorPerson person = new DonorPerson();
+        set(person, "id", id);
+        set(person, "taxUnit", unit);
+        set(person, "age", age);
+        set(person, "dem", 1.0);
+        set(person, "labHrsWorkWeek", hours);
+        set(person, "healthDsblLongtermFlag", disabled);
+        set(person, "carer", carer);
+        for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
+            DonorPersonPolicy policy = new DonorPersonPolicy();
+            double income = originalIncome * (1.0 + 0.1 * (fromYear - 2019));
+            set(policy, "person", person);
+            set(policy, "fromYear", fromYear);
+            set(policy, "systemYear", fromYear);
+            set(policy, "originalIncomePerMonth", income);
+            set(policy, "earningsPerMonth", 0.8 * income);
+            set(policy, "disposableIncomePerMonth", 0.75 * income + universalCredit);
+            set(policy, "ilsBenmtPerMonth", universalCredit);
+            set(policy, "ilsBenntPerMonth", (age < 18) ? 90.0 : 0.0);
+            set(policy, "childcareCostPerMonth", (age < 5) ? 300.0 : 0.0);
+            set(policy, "benefitUCPerMonth", universalCredit);
+            person.getPolicies().add(policy);
+        }
+        unit.getPersons().add(person);
+    }
+
+    /**
+     * single adult, couple with a young child and universal credit, three adults (without donor keys), and a child
+     */
+    private static List<DonorTaxUnit> taxUnits() throws Exception {
+        List<DonorTaxUnit> units = new ArrayList<>();
+        DonorTaxUnit single = new DonorTaxUnit();
+        single.setId(1);
+        single.setWeight(1.0);
+        addPerson(single, 11, 45, 37, 0, 0, 2500.0, 0.0);
+        units.add(single);
+
+        DonorTaxUnit couple = new DonorTaxUnit();
+        couple.setId(2);
+        couple.setWeight(2.0);
+        addPerson(couple, 21, 33, 40, 0, 0, 1800.0, 0.0);
+        addPerson(couple, 22, 31, 16, 1, 1, 700.0, 250.0);
+        addPerson(couple, 23, 2, 0, 0, 0, 0.0, 0.0);
+        units.add(couple);
+
+        DonorTaxUnit adults = new DonorTaxUnit();
+        adults.setId(3);
+        adults.setWeight(0.5);
+        addPerson(adults, 31, 60, 0, 1, 0, 900.0, 0.0);
+        addPerson(adults, 32, 58, 20, 0, 1, 600.0, 0.0);
+        addPerson(adults, 33, 25, 40, 0, 0, 1500.0, 0.0);
+        units.add(adults);
+
+        DonorTaxUnit child = new DonorTaxUnit();
+        child.setId(4);
+        child.setWeight(0.25);
+        addPerson(child, 41, 16, 10, 0, 0, 200.0, 0.0);
+        units.add(child);
+        return units;
+    }
+
+    /**
+     * evaluation of tax unit policies as made for each tax unit before policies were evaluated in parallel
+     */
+    private static List<DonorTaxUnitPolicy> baselineTaxUnitPolicies(DonorTaxUnit taxUnit) {
+
+        List<DonorTaxUnitPolicy> result = new ArrayList<>();
+        int age = 0, numberMembersOver17 = 0, numberChildrenUnder5 = 0, numberChildren5To9 = 0;
+        int numberChildren10To17 = 0, dlltsd1 = -1, dlltsd2 = -1, careProvision = -1;
+        double hoursWorkedPerWeek1 = 0.0, hoursWorkedPerWeek2 = 0.0;
+        boolean flagInitialiseDemographics = true;
+        for (int fromYear : Parameters.EUROMODpolicyScheduleSystemYearMap.keySet()) {
+
+            int systemYear = Parameters.EUROMODpolicyScheduleSystemYearMap.get(fromYear).getValue();
+            double origIncome = 0.0, earnings = 0.0, dispIncome = 0.0, benmt = 0.0, bennt = 0.0;
+            double principalIncome = -999999.0, childcare = 0.0;
+            boolean receivesUC = false, receivesLB = false;
+            for (DonorPerson person : taxUnit.getPersons()) {
+
+                origIncome += person.getPolicy(fromYear).getOriginalIncomePerMonth();
+                if (person.getPolicy(fromYear).getOriginalIncomePerMonth() > principalIncome)
+                    principalIncome = person.getPolicy(fromYear).getOriginalIncomePerMonth();
+                earnings += person.getPolicy(fromYear).getEarningsPerMonth();
+                dispIncome += person.getPolicy(fromYear).getDisposableIncomePerMonth();
+                benmt += person.getPolicy(fromYear).getMonetaryBenefitsAmount();
+                bennt += person.getPolicy(fromYear).getNonMonetaryBenefitsAmount();
+                childcare += person.getPolicy(fromYear).getChildcareCostPerMonth();
+                receivesUC = receivesUC || person.getPolicy(fromYear).getReceivesUC() == 1;
+                receivesLB = receivesLB || person.getPolicy(fromYear).getReceivesLegacyBenefit() == 1;
+                int agePerson = person.getAge();
+                if (flagInitialiseDemographics) {
+                    age = Math.max(age, agePerson);
+                    if (agePerson < 5) {
+                        numberChildrenUnder5 += 1;
+                    } else if (agePerson < 10) {
+                        numberChildren5To9 += 1;
+                    } else if (agePerson < Parameters.AGE_TO_BECOME_RESPONSIBLE) {
+                        numberChildren10To17 += 1;
+                    } else {
+                        numberMembersOver17 += 1;
+                    }
+                    int hoursWorked = person.getHoursWorkedWeekly();
+                    if (hoursWorked > hoursWorkedPerWeek1) {
+                        hoursWorkedPerWeek2 = hoursWorkedPerWeek1;
+                        hoursWorkedPerWeek1 = hoursWorked;
+                    } else if (hoursWorked > hoursWorkedPerWeek2) {
+                        hoursWorkedPerWeek2 = hoursWorked;
+                    }
+                    if (agePerson >= Parameters.AGE_TO_BECOME_RESPONSIBLE) {
+                        int dlltsd = person.getDlltsd();
+                        if (dlltsd > dlltsd1) {
+                            dlltsd2 = dlltsd1;
+                            dlltsd1 = dlltsd;
+                        } else if (dlltsd > dlltsd2) {
+                            dlltsd2 = dlltsd;
+                        }
+                    }
+                    if (person.getCarer() > careProvision)
+                        careProvision = person.getCarer();
+                }
+            }
+            flagInitialiseDemographics = false;
+            double secondIncome = Math.max(0.0, origIncome - principalIncome);
+            DonorTaxUnitPolicy taxUnitPolicy = taxUnit.getPolicyByFromYear(fromYear);
+            taxUnitPolicy.setSystemYear(systemYear);
+            if (numberMembersOver17==1 || numberMembersOver17==2) {
+
+                KeyFunction keyFunction = new KeyFunction(systemYear, systemYear, age, numberMembersOver17, numberChildrenUnder5,
+                        numberChildren5To9, numberChildren10To17, hoursWorkedPerWeek1, hoursWorkedPerWeek2, dlltsd1, dlltsd2,
+                        careProvision, origIncome / Parameters.WEEKS_PER_MONTH, secondIncome / Parameters.WEEKS_PER_MONTH,
+                        childcare / Parameters.WEEKS_PER_MONTH);
+                Integer[] keys = KEYS.apply(keyFunction);
+                taxUnitPolicy.setOriginalIncomePerMonth(origIncome);
+                taxUnitPolicy.setEarningsPerMonth(earnings);
+                taxUnitPolicy.setDisposableIncomePerMonth(dispIncome);
+                taxUnitPolicy.setBenMeansTestPerMonth(benmt);
+                taxUnitPolicy.setBenNonMeansTestPerMonth(bennt);
+                taxUnitPolicy.setSecondIncomePerMonth(secondIncome);
+                taxUnitPolicy.setChildcareCostPerMonth(childcare);
+                taxUnitPolicy.setReceivesUC(receivesUC ? 1 : 0);
+                taxUnitPolicy.setReceivesLegacyBenefit(receivesLB ? 1 : 0);
+                for (int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
+                    taxUnitPolicy.setDonorKey(ii, keys[ii]);
+                }
+            } else {
+                for (int ii=0; ii<Parameters.TAXDB_REGIMES; ii++) {
+                    taxUnitPolicy.setDonorKey(ii, -1);
+                }
+            }
+            result.add(taxUnitPolicy);
+        }
+        return result;
+    }
+
+    @Test
+    void evaluatedPoliciesMatchBaselineEvaluation() throws Exception {
+
+        int[] ints = new int[DonorPoolSnapshot.POLICY_INTS], baselineInts = new int[DonorPoolSnapshot.POLICY_INTS];
+        double[] doubles = new double[DonorPoolSnapshot.POLICY_DOUBLES], baselineDoubles = new double[DonorPoolSnapshot.POLICY_DOUBLES];
+        for (DonorTaxUnit unit : taxUnits()) {
+            List<DonorTaxUnitPolicy> policies = TaxDonorDataParser.evaluateTaxUnitPolicies(unit, KEYS);
+            List<DonorTaxUnitPolicy> baseline = baselineTaxUnitPolicies(unit);
+            assertEquals(baseline.size(), policies.size());
+            for (int ii=0; ii<policies.size(); ii++) {
+                assertSame(unit, policies.get(ii).getTaxUnit());
+                policies.get(ii).toSnapshot(ints, doubles);
+                baseline.get(ii).toSnapshot(baselineInts, baselineDoubles);
+                assertArrayEquals(baselineInts, ints, "tax unit " + unit.getId());
+                assertArrayEquals(baselineDoubles, doubles, "tax unit " + unit.getId());
+            }
+        }
+    }
+
+    @Test
+    void insertedPoliciesRoundTripThroughDatabase() throws Exception {
+
+        // policies evaluated from persons, and a policy with null attributes
+        List<DonorTaxUnit> units = taxUnits();
+        List<List<DonorTaxUnitPolicy>> policies = new ArrayList<>();
+        for (DonorTaxUnit unit : units) {
+            policies.add(TaxDonorDataParser.evaluateTaxUnitPolicies(unit, KEYS));
+        }
+        DonorTaxUnitPolicy nulls = new DonorTaxUnitPolicy(2022, units.get(3));
+        nulls.setReceivesUC(null);
+        nulls.setReceivesLegacyBenefit(null);
+        policies.get(3).set(1, nulls);
+
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:donor_policies;DB_CLOSE_DELAY=-1", "sa", "");
+             Statement stat = conn.createStatement()) {
+
+            // table as mapped by DonorTaxUnitPolicy, with a stale policy replaced by insertTaxUnitPolicies and a policy
+            // for a year outside the schedule, which is retained
+            StringBuilder columns = new StringBuilder("ID BIGINT AUTO_INCREMENT PRIMARY KEY, TUID BIGINT");
+            for (String column : DonorTaxUnitPolicy.SNAPSHOT_INT_COLUMNS) columns.append(", ").append(column).append(" INT");
+            for (String column : DonorTaxUnitPolicy.SNAPSHOT_DOUBLE_COLUMNS) columns.append(", ").append(column).append(" DOUBLE");
+            stat.execute("DROP TABLE IF EXISTS " + DonorPoolSnapshot.GENERATION_TABLE);
+            stat.execute("DROP TABLE IF EXISTS DONORTAXUNITPOLICY");
+            stat.execute("DROP TABLE IF EXISTS DONORTAXUNIT");
+            stat.execute("CREATE TABLE DONORTAXUNIT (ID BIGINT PRIMARY KEY, WEIGHT DOUBLE)");
+            stat.execute("CREATE TABLE DONORTAXUNITPOLICY (" + columns + ")");
+            for (DonorTaxUnit unit : units) {
+                stat.execute("INSERT INTO DONORTAXUNIT (ID, WEIGHT) VALUES (" + unit.getId() + ", " + unit.getWeight() + ")");
+            }
+            stat.execute("INSERT INTO DONORTAXUNITPOLICY (TUID, FROM_YEAR, SYSTEM_YEAR, ILS_DISPY) VALUES (1, 2019, 2019, -1.0)");
+            stat.execute("INSERT INTO DONORTAXUNITPOLICY (TUID, FROM_YEAR, SYSTEM_YEAR, ILS_DISPY) VALUES (1, 2010, 2010, -2.0)");
+
+            assertNull(DonorPoolSnapshot.hashGeneration(conn));
+            TaxDonorDataParser.insertTaxUnitPolicies(conn, policies);
+            assertTrue(conn.getAutoCommit());
+            byte[] generation = DonorPoolSnapshot.hashGeneration(conn);
+            assertNotNull(generation);
+
+            Map<String, DonorTaxUnitPolicy> expected = new HashMap<>();
+            for (List<DonorTaxUnitPolicy> unitPolicies : policies) {
+                for (DonorTaxUnitPolicy policy : unitPolicies) {
+                    expected.put(policy.getTaxUnit().getId() + "_" + policy.getFromYear(), policy);
+                }
+            }
+            int[] ints = new int[DonorPoolSnapshot.POLICY_INTS], expectedInts = new int[DonorPoolSnapshot.POLICY_INTS];
+            double[] doubles = new double[DonorPoolSnapshot.POLICY_DOUBLES], expectedDoubles = new double[DonorPoolSnapshot.POLICY_DOUBLES];
+            int rows = 0;
+            try (ResultSet rs = stat.executeQuery("SELECT TUID, " + DonorPoolSnapshot.policyColumns() +
+                    " FROM DONORTAXUNITPOLICY WHERE FROM_YEAR IN (2019, 2022) ORDER BY ID")) {
+                while (rs.next()) {
+                    int kk = 1;
+                    long taxUnitId = rs.getLong(kk++);
+                    for (int ii=0; ii<ints.length; ii++) {
+                        int value = rs.getInt(kk++);
+                        ints[ii] = rs.wasNull() ? DonorPoolSnapshot.NULL_INT : value;
+                    }
+                    for (int ii=0; ii<doubles.length; ii++) {
+                        double value = rs.getDouble(kk++);
+                        doubles[ii] = rs.wasNull() ? Double.NaN : value;
+                    }
+                    DonorTaxUnitPolicy policy = expected.remove(taxUnitId + "_" + ints[0]);
+                    assertNotNull(policy, "unexpected policy of tax unit " + taxUnitId + " from " + ints[0]);
+                    policy.toSnapshot(expectedInts, expectedDoubles);
+                    assertArrayEquals(expectedInts, ints);
+                    assertArrayEquals(expectedDoubles, doubles);
+                    rows++;
+                }
+            }
+            assertTrue(expected.isEmpty());
+            assertEquals(2 * units.size(), rows);
+
+            // null attributes are retained
+            try (ResultSet rs = stat.executeQuery("SELECT RECEIVES_UC, RECEIVES_LB, DONOR_KEY0 FROM DONORTAXUNITPOLICY " +
+                    "WHERE TUID = 4 AND FROM_YEAR = 2022")) {
+                assertTrue(rs.next());
+                assertNull(rs.getObject(1));
+                assertNull(rs.getObject(2));
+                assertNull(rs.getObject(3));
+            }
+
+            // keys of units without one or two adults, and policies outside the schedule
+            try (ResultSet rs = stat.executeQuery("SELECT DONOR_KEY0, DONOR_KEY4 FROM DONORTAXUNITPOLICY WHERE TUID = 3")) {
+                while (rs.next()) {
+                    assertEquals(-1, rs.getInt(1));
+                    assertEquals(-1, rs.getInt(2));
+                }
+            }
+            try (ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM DONORTAXUNITPOLICY WHERE FROM_YEAR = 2010")) {
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+            }
+
+            // the columns written are those hashed to validate donor pool snapshots
+            byte[] hash = DonorPoolSnapshot.hashSourceTables(conn);
+            assertEquals(32, hash.length);
+            stat.execute("UPDATE DONORTAXUNITPOLICY SET XCC = 1.0 WHERE TUID = 2 AND FROM_YEAR = 2019");
+            assertFalse(Arrays.equals(hash, DonorPoolSnapshot.hashSourceTables(conn)));
+
+            // edits other than by insertTaxUnitPolicies leave the generation unchanged, and each insert records a new one
+            assertArrayEquals(generation, DonorPoolSnapshot.hashGeneration(conn));
+            TaxDonorDataParser.insertTaxUnitPolicies(conn, policies);
+            assertFalse(Arrays.equals(generation, DonorPoolSnapshot.hashGeneration(conn)));
+        }
+    }
+}